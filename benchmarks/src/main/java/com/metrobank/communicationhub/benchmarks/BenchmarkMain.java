@@ -0,0 +1,25 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler always attached, so every result comes with its
+ * allocation rate and bytes allocated per operation. Takes the usual JMH command line, e.g. a
+ * benchmark name regex to run a subset.
+ */
+public final class BenchmarkMain {
+  private BenchmarkMain() {}
+
+  public static void main(final String[] args) throws Exception {
+    new Runner(
+            new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build())
+        .run();
+  }
+}
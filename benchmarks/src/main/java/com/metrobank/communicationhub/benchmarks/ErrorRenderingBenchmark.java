@@ -0,0 +1,65 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.metrobank.communicationhub.controller.CommsControllerAdvice;
+import com.metrobank.communicationhub.exception.RestProxyTooManyRequestsException;
+import com.metrobank.communicationhub.exception.RestProxyUnprocessableEntityException;
+import com.metrobank.communicationhub.model.Error;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.KafkaException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning an exception into the JSON error body. The exceptions are created once, so their stack
+ * traces are not part of the measurement, and the advice's logging is switched off.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ErrorRenderingBenchmark {
+  private CommsControllerAdvice advice;
+  private ObjectWriter writer;
+  private RestProxyUnprocessableEntityException unprocessableEntity;
+  private RestProxyTooManyRequestsException tooManyRequests;
+  private KafkaException kafkaException;
+
+  @Setup
+  public void setUp() {
+    advice = new CommsControllerAdvice();
+    writer = Payloads.objectMapper().writerFor(Error.class);
+    unprocessableEntity = new RestProxyUnprocessableEntityException("Bad Request");
+    tooManyRequests = new RestProxyTooManyRequestsException("send", 1);
+    kafkaException = new KafkaException("Send failed");
+  }
+
+  @Benchmark
+  public byte[] badRequest() throws JsonProcessingException {
+    return writer.writeValueAsBytes(
+        advice.restProxyUnprocessableEntityException(unprocessableEntity).getBody());
+  }
+
+  @Benchmark
+  public byte[] tooManyRequests() throws JsonProcessingException {
+    return writer.writeValueAsBytes(advice.tooManyRequestsException(tooManyRequests).getBody());
+  }
+
+  @Benchmark
+  public byte[] serviceUnavailable() throws JsonProcessingException {
+    return writer.writeValueAsBytes(advice.kafkaException(kafkaException).getBody());
+  }
+}
@@ -0,0 +1,85 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.benchmarks;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import com.metrobank.communicationhub.model.request.CommsType;
+import com.metrobank.communicationhub.model.request.DeviceType;
+import com.metrobank.communicationhub.model.request.MessageType;
+import com.metrobank.communicationhub.model.request.PreferenceRequest;
+import com.metrobank.communicationhub.model.request.RegistrationRequest;
+import com.metrobank.communicationhub.model.request.SendRequest;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** Representative request bodies, as the controllers receive them and once bound. */
+public final class Payloads {
+  public static final String IBID = "123456789012";
+  public static final Integer CUSTOMER_ID = 12345;
+  public static final String DEVICE_ID = "abc123ed";
+  public static final String UUID = "5f0c6a4e-8f2b-4d0a-9b3c-2a1e7d6c5b4a";
+
+  public static final byte[] SEND_JSON =
+      ("{\"commsType\":\"MOBILE_PUSH\",\"messageType\":\"PAYMENT_SEPA\","
+              + "\"email\":\"test@gmail.com\",\"mobileNo\":\"9234567890\","
+              + "\"templateId\":\"payment-received\","
+              + "\"templateParams\":[\"John\",\"125.50\",\"GBP\",\"2021-06-01\"]}")
+          .getBytes(StandardCharsets.UTF_8);
+
+  public static final byte[] REGISTRATION_JSON =
+      ("{\"deviceToken\":\"d1f4c3b2a5e6f7a8b9c0d1e2f3a4b5c6d7e8f9a0b1c2d3e4f5a6b7c8d9e0f1a2\","
+              + "\"deviceType\":\"ANDROID\",\"commsType\":\"MOBILE_PUSH\","
+              + "\"email\":\"test@gmail.com\",\"mobileNo\":\"9234567890\"}")
+          .getBytes(StandardCharsets.UTF_8);
+
+  public static final byte[] PREFERENCE_JSON =
+      ("{\"commsType\":\"MOBILE_PUSH\",\"messageType\":\"PAYMENT_SEPA\",\"deviceId\":\"abc123ed\","
+              + "\"preferences\":[{\"key\":\"enabled\",\"value\":\"true\"},"
+              + "{\"key\":\"sound\",\"value\":\"false\"}]}")
+          .getBytes(StandardCharsets.UTF_8);
+
+  public static final SendRequest SEND_REQUEST =
+      SendRequest.builder()
+          .commsType(CommsType.MOBILE_PUSH)
+          .messageType(MessageType.PAYMENT_SEPA)
+          .email("test@gmail.com")
+          .mobileNo("9234567890")
+          .templateId("payment-received")
+          .templateParams(List.of("John", "125.50", "GBP", "2021-06-01"))
+          .build();
+
+  public static final RegistrationRequest REGISTRATION_REQUEST =
+      RegistrationRequest.builder()
+          .token("d1f4c3b2a5e6f7a8b9c0d1e2f3a4b5c6d7e8f9a0b1c2d3e4f5a6b7c8d9e0f1a2")
+          .deviceType(DeviceType.ANDROID)
+          .commsType(CommsType.MOBILE_PUSH)
+          .email("test@gmail.com")
+          .mobileNo("9234567890")
+          .build();
+
+  public static final PreferenceRequest PREFERENCE_REQUEST =
+      PreferenceRequest.builder()
+          .commsType(CommsType.MOBILE_PUSH)
+          .messageType(MessageType.PAYMENT_SEPA)
+          .deviceId(DEVICE_ID)
+          .preferences(
+              List.of(
+                  PreferenceRequest.Preference.builder().key("enabled").value("true").build(),
+                  PreferenceRequest.Preference.builder().key("sound").value("false").build()))
+          .build();
+
+  private Payloads() {}
+
+  /**
+   * A mapper configured the way Spring Boot configures the one behind the controllers, which binds
+   * the Lombok built DTOs through their all-args constructors.
+   */
+  public static ObjectMapper objectMapper() {
+    return Jackson2ObjectMapperBuilder.json()
+        .modulesToInstall(new ParameterNamesModule(JsonCreator.Mode.DEFAULT))
+        .build();
+  }
+}
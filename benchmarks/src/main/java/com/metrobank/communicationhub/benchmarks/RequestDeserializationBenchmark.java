@@ -0,0 +1,55 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.metrobank.communicationhub.model.request.PreferenceRequest;
+import com.metrobank.communicationhub.model.request.RegistrationRequest;
+import com.metrobank.communicationhub.model.request.SendRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/** Binding the JSON request bodies, as the controllers' message converter does. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestDeserializationBenchmark {
+  private ObjectReader sendReader;
+  private ObjectReader registrationReader;
+  private ObjectReader preferenceReader;
+
+  @Setup
+  public void setUp() {
+    sendReader = Payloads.objectMapper().readerFor(SendRequest.class);
+    registrationReader = Payloads.objectMapper().readerFor(RegistrationRequest.class);
+    preferenceReader = Payloads.objectMapper().readerFor(PreferenceRequest.class);
+  }
+
+  @Benchmark
+  public SendRequest sendRequest() throws IOException {
+    return sendReader.readValue(Payloads.SEND_JSON);
+  }
+
+  @Benchmark
+  public RegistrationRequest registrationRequest() throws IOException {
+    return registrationReader.readValue(Payloads.REGISTRATION_JSON);
+  }
+
+  @Benchmark
+  public PreferenceRequest preferenceRequest() throws IOException {
+    return preferenceReader.readValue(Payloads.PREFERENCE_JSON);
+  }
+}
@@ -0,0 +1,62 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.benchmarks;
+
+import com.metrobank.communicationhub.model.request.PreferenceRequest;
+import com.metrobank.communicationhub.model.request.RegistrationRequest;
+import com.metrobank.communicationhub.model.request.SendRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import javax.validation.ValidatorFactory;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** Bean Validation of valid request bodies, the {@code @Valid} step before the service runs. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestValidationBenchmark {
+  private ValidatorFactory validatorFactory;
+  private Validator validator;
+
+  @Setup
+  public void setUp() {
+    validatorFactory = Validation.buildDefaultValidatorFactory();
+    validator = validatorFactory.getValidator();
+  }
+
+  @TearDown
+  public void tearDown() {
+    validatorFactory.close();
+  }
+
+  @Benchmark
+  public Set<ConstraintViolation<SendRequest>> sendRequest() {
+    return validator.validate(Payloads.SEND_REQUEST);
+  }
+
+  @Benchmark
+  public Set<ConstraintViolation<RegistrationRequest>> registrationRequest() {
+    return validator.validate(Payloads.REGISTRATION_REQUEST);
+  }
+
+  @Benchmark
+  public Set<ConstraintViolation<PreferenceRequest>> preferenceRequest() {
+    return validator.validate(Payloads.PREFERENCE_REQUEST);
+  }
+}
@@ -0,0 +1,89 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import com.metrobank.communicationhub.benchmarks.Payloads;
+import com.metrobank.communicationhub.kafka.WireFormatAvroSerializer;
+import com.metrobank.communicationhub.schema.CommsPreference;
+import com.metrobank.communicationhub.schema.RegistrationAvroRequest;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.serializers.AbstractKafkaSchemaSerDeConfig;
+import io.confluent.kafka.serializers.KafkaAvroSerializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpMethod;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The producer's value serialization, Confluent's stock serializer against the wire format one
+ * the service uses. A mock registry stands in for the schema registry and the schema ids are
+ * resolved during setup, so only encoding is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AvroSerializationBenchmark {
+  @Param({"stock", "wireFormat"})
+  public String implementation;
+
+  private Serializer<Object> serializer;
+  private SendAvroRequest sendAvroRequest;
+  private RegistrationAvroRequest registrationAvroRequest;
+  private CommsPreference commsPreference;
+
+  @Setup
+  public void setUp() {
+    final KafkaAvroSerializer stock =
+        new KafkaAvroSerializer(
+            new MockSchemaRegistryClient(),
+            Map.of(AbstractKafkaSchemaSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG, "mock://benchmarks"));
+    serializer = "stock".equals(implementation) ? stock : new WireFormatAvroSerializer(stock);
+    sendAvroRequest =
+        RecordAssembler.buildSendAvroRequest(Payloads.CUSTOMER_ID, Payloads.SEND_REQUEST);
+    registrationAvroRequest =
+        RecordAssembler.buildRegistrationRequest(
+            Payloads.CUSTOMER_ID, Payloads.REGISTRATION_REQUEST, HttpMethod.POST);
+    commsPreference =
+        RecordAssembler.buildPreferenceRequest(
+            Payloads.IBID, Payloads.CUSTOMER_ID, Payloads.PREFERENCE_REQUEST);
+    sendAvroRequest();
+    registrationAvroRequest();
+    commsPreference();
+  }
+
+  @TearDown
+  public void tearDown() {
+    serializer.close();
+  }
+
+  @Benchmark
+  public byte[] sendAvroRequest() {
+    return serializer.serialize("send", sendAvroRequest);
+  }
+
+  @Benchmark
+  public byte[] registrationAvroRequest() {
+    return serializer.serialize("register", registrationAvroRequest);
+  }
+
+  @Benchmark
+  public byte[] commsPreference() {
+    return serializer.serialize("preference", commsPreference);
+  }
+}
@@ -0,0 +1,74 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IbId lookups in the off-heap {@link IbIdTable} against a {@code HashMap<String, Integer>} of the
+ * same mappings. Run with {@code -prof gc} to see that table lookups allocate nothing. Lives in the
+ * service package to reach the package-private table.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class IbIdIndexBenchmark {
+  @Param({"1000000"})
+  public int mappings;
+
+  private IbIdTable table;
+  private Map<String, Integer> hashMap;
+  private String[] ibIds;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    final IbIdTable.Builder builder = new IbIdTable.Builder(mappings);
+    hashMap = new HashMap<>();
+    ibIds = new String[4096];
+    for (int i = 0; i < mappings; i++) {
+      final String ibId = String.format("%012d", i * 7919L);
+      builder.put(ibId, i);
+      hashMap.put(ibId, i);
+      if (i % (mappings / ibIds.length) == 0 && i / (mappings / ibIds.length) < ibIds.length) {
+        ibIds[i / (mappings / ibIds.length)] = ibId;
+      }
+    }
+    table = builder.build();
+  }
+
+  @Benchmark
+  public int offHeapTable() {
+    return table.get(nextIbId());
+  }
+
+  @Benchmark
+  public int offHeapTableMiss() {
+    return table.get("999999999999");
+  }
+
+  @Benchmark
+  public Integer hashMap() {
+    return hashMap.get(nextIbId());
+  }
+
+  private String nextIbId() {
+    return ibIds[next++ & (ibIds.length - 1)];
+  }
+}
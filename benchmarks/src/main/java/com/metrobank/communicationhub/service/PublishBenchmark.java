@@ -0,0 +1,97 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import com.metrobank.communicationhub.admission.AdmissionController;
+import com.metrobank.communicationhub.benchmarks.Payloads;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole fire-and-forget request through {@link RestProxyService}: admission, record assembly,
+ * the send and its callbacks. The producer acknowledges at once and serializes nothing, so the
+ * allocation figure is what the service itself costs per request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PublishBenchmark {
+  private RestProxyService restProxyService;
+
+  @Setup
+  public void setUp() {
+    final KafkaTemplate<String, SpecificRecordBase> kafkaTemplate = new AcknowledgingKafkaTemplate();
+    restProxyService =
+        new RestProxyService(
+            kafkaTemplate, null, new AdmissionController(kafkaTemplate, new SimpleMeterRegistry()));
+    restProxyService.registerTopic = "register";
+    restProxyService.sendTopic = "send";
+    restProxyService.preferenceTopic = "preference";
+  }
+
+  @Benchmark
+  public ResponseEntity sendCommunicateRequest() {
+    return restProxyService.sendCommunicateRequest(
+        Payloads.IBID, Payloads.CUSTOMER_ID, Payloads.SEND_REQUEST, Payloads.UUID);
+  }
+
+  @Benchmark
+  public ResponseEntity sendRegisterRequest() {
+    return restProxyService.sendRegisterRequest(
+        Payloads.IBID,
+        Payloads.CUSTOMER_ID,
+        Payloads.REGISTRATION_REQUEST,
+        Payloads.UUID,
+        HttpMethod.POST);
+  }
+
+  @Benchmark
+  public ResponseEntity sendPreferenceRequest() {
+    return restProxyService.sendPreferenceRequest(
+        Payloads.IBID, Payloads.CUSTOMER_ID, Payloads.PREFERENCE_REQUEST, Payloads.UUID);
+  }
+
+  /** Answers every send with the same, already completed, future. */
+  private static final class AcknowledgingKafkaTemplate
+      extends KafkaTemplate<String, SpecificRecordBase> {
+    private final SettableListenableFuture<SendResult<String, SpecificRecordBase>> acknowledged =
+        new SettableListenableFuture<>();
+
+    private AcknowledgingKafkaTemplate() {
+      super(() -> null);
+      acknowledged.set(
+          new SendResult<>(
+              new ProducerRecord<>("send", null),
+              new RecordMetadata(new TopicPartition("send", 0), 0L, 0, 0L, 0, 0)));
+    }
+
+    @Override
+    public ListenableFuture<SendResult<String, SpecificRecordBase>> send(
+        final ProducerRecord<String, SpecificRecordBase> record) {
+      return acknowledged;
+    }
+  }
+}
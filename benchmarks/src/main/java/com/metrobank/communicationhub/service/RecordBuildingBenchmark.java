@@ -0,0 +1,94 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import com.metrobank.communicationhub.benchmarks.Payloads;
+import com.metrobank.communicationhub.kafka.RecordKeyStrategy;
+import com.metrobank.communicationhub.schema.CommsPreference;
+import com.metrobank.communicationhub.schema.RegistrationAvroRequest;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpMethod;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning a bound request into the record handed to the producer. The {@code build*} benchmarks
+ * cover the Avro object alone and the {@code create*Record} ones add the key and headers, so the
+ * difference between the two is the cost of header construction. Lives in the service package to
+ * reach the package-private builders.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecordBuildingBenchmark {
+  @Param({"UUID", "CUSTOMER"})
+  public RecordKeyStrategy keyStrategy;
+
+  private RestProxyService restProxyService;
+
+  @Setup
+  public void setUp() {
+    // The customerId is always supplied, so neither the resolver nor the producer is reached
+    restProxyService = new RestProxyService(null, null, null);
+    restProxyService.registerTopic = "register";
+    restProxyService.sendTopic = "send";
+    restProxyService.preferenceTopic = "preference";
+    restProxyService.registerKeyStrategy = keyStrategy;
+    restProxyService.sendKeyStrategy = keyStrategy;
+    restProxyService.preferenceKeyStrategy = keyStrategy;
+  }
+
+  @Benchmark
+  public SendAvroRequest buildSendAvroRequest() {
+    return RecordAssembler.buildSendAvroRequest(Payloads.CUSTOMER_ID, Payloads.SEND_REQUEST);
+  }
+
+  @Benchmark
+  public RegistrationAvroRequest buildRegistrationRequest() {
+    return RecordAssembler.buildRegistrationRequest(
+        Payloads.CUSTOMER_ID, Payloads.REGISTRATION_REQUEST, HttpMethod.POST);
+  }
+
+  @Benchmark
+  public CommsPreference buildPreferenceRequest() {
+    return RecordAssembler.buildPreferenceRequest(
+        Payloads.IBID, Payloads.CUSTOMER_ID, Payloads.PREFERENCE_REQUEST);
+  }
+
+  @Benchmark
+  public ProducerRecord<String, SpecificRecordBase> createSendRecord() {
+    return restProxyService.createSendRecord(
+        Payloads.IBID, Payloads.CUSTOMER_ID, Payloads.SEND_REQUEST, Payloads.UUID);
+  }
+
+  @Benchmark
+  public ProducerRecord<String, SpecificRecordBase> createRegistrationRecord() {
+    return restProxyService.createRegistrationRecord(
+        Payloads.IBID,
+        Payloads.CUSTOMER_ID,
+        Payloads.REGISTRATION_REQUEST,
+        Payloads.UUID,
+        HttpMethod.POST);
+  }
+
+  @Benchmark
+  public ProducerRecord<String, SpecificRecordBase> createPreferenceRecord() {
+    return restProxyService.createPreferenceRecord(
+        Payloads.IBID, Payloads.CUSTOMER_ID, Payloads.PREFERENCE_REQUEST, Payloads.UUID);
+  }
+}
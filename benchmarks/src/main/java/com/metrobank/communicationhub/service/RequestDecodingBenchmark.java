@@ -0,0 +1,123 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.metrobank.communicationhub.benchmarks.Payloads;
+import com.metrobank.communicationhub.codec.AvroRequestDecoder;
+import com.metrobank.communicationhub.codec.RequestDecoding;
+import com.metrobank.communicationhub.model.request.PreferenceRequest;
+import com.metrobank.communicationhub.model.request.RegistrationRequest;
+import com.metrobank.communicationhub.model.request.SendRequest;
+import com.metrobank.communicationhub.schema.CommsPreference;
+import com.metrobank.communicationhub.schema.RegistrationAvroRequest;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpMethod;
+
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import javax.validation.ValidatorFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * From request body bytes to a validated Avro value, either through the DTOs (binding, Bean
+ * Validation and conversion) or through {@link AvroRequestDecoder}. Lives in the service package
+ * to reach the package-private builders the DTO path converts with.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestDecodingBenchmark {
+  @Param({"DTO", "DIRECT"})
+  public RequestDecoding decoding;
+
+  private ValidatorFactory validatorFactory;
+  private Validator validator;
+  private ObjectReader sendReader;
+  private ObjectReader registrationReader;
+  private ObjectReader preferenceReader;
+  private AvroRequestDecoder decoder;
+
+  @Setup
+  public void setUp() {
+    validatorFactory = Validation.buildDefaultValidatorFactory();
+    validator = validatorFactory.getValidator();
+    final ObjectMapper objectMapper = Payloads.objectMapper();
+    sendReader = objectMapper.readerFor(SendRequest.class);
+    registrationReader = objectMapper.readerFor(RegistrationRequest.class);
+    preferenceReader = objectMapper.readerFor(PreferenceRequest.class);
+    decoder = new AvroRequestDecoder(objectMapper, validator);
+  }
+
+  @TearDown
+  public void tearDown() {
+    validatorFactory.close();
+  }
+
+  @Benchmark
+  public SendAvroRequest sendRequest() throws IOException {
+    if (decoding == RequestDecoding.DTO) {
+      final SendRequest request = validated(sendReader.readValue(Payloads.SEND_JSON));
+      return RecordAssembler.buildSendAvroRequest(Payloads.CUSTOMER_ID, request);
+    }
+    final SendAvroRequest request =
+        decoder.decodeSend(new ByteArrayInputStream(Payloads.SEND_JSON)).getValue();
+    request.setCustomerId(Payloads.CUSTOMER_ID);
+    return request;
+  }
+
+  @Benchmark
+  public RegistrationAvroRequest registrationRequest() throws IOException {
+    if (decoding == RequestDecoding.DTO) {
+      final RegistrationRequest request =
+          validated(registrationReader.readValue(Payloads.REGISTRATION_JSON));
+      return RecordAssembler.buildRegistrationRequest(
+          Payloads.CUSTOMER_ID, request, HttpMethod.POST);
+    }
+    final RegistrationAvroRequest request =
+        decoder.decodeRegistration(new ByteArrayInputStream(Payloads.REGISTRATION_JSON)).getValue();
+    request.setMethod(HttpMethod.POST.name());
+    request.setCustomerId(Payloads.CUSTOMER_ID);
+    return request;
+  }
+
+  @Benchmark
+  public CommsPreference preferenceRequest() throws IOException {
+    if (decoding == RequestDecoding.DTO) {
+      final PreferenceRequest request =
+          validated(preferenceReader.readValue(Payloads.PREFERENCE_JSON));
+      return RecordAssembler.buildPreferenceRequest(Payloads.IBID, Payloads.CUSTOMER_ID, request);
+    }
+    final CommsPreference request =
+        decoder.decodePreference(new ByteArrayInputStream(Payloads.PREFERENCE_JSON)).getValue();
+    request.setIbId(Payloads.IBID);
+    request.setCustomerId(Payloads.CUSTOMER_ID);
+    request.setMethod(HttpMethod.POST.name());
+    return request;
+  }
+
+  private <T> T validated(final T request) {
+    if (!validator.validate(request).isEmpty()) {
+      throw new ConstraintViolationException(validator.validate(request));
+    }
+    return request;
+  }
+}
@@ -0,0 +1,336 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.admission;
+
+import com.metrobank.communicationhub.exception.RestProxyTooManyRequestsException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.log4j.Log4j2;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFutureCallback;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.metrobank.communicationhub.util.CommsHubConstants.TOO_MANY_REQUESTS_ERROR_MESSAGE;
+
+/**
+ * Caps the records in flight to each topic and stops admitting records once the producer's
+ * {@code buffer.memory} is close to full, so callers get a fast 429 instead of blocking in {@code
+ * kafkaTemplate.send} until {@code max.block.ms}. The suggested {@code Retry-After} is how long
+ * the current backlog should take to clear: the average acknowledgement latency of the topic when
+ * it is the in-flight limit that is hit, or the excess buffered bytes over the producer's outgoing
+ * byte rate when it is the buffer.
+ *
+ * <p>QoS lanes sending through their own producer get a controller of their own from {@link
+ * #forLane}, so a saturated bulk lane is refused without holding back the others. Meters are
+ * tagged with the lane, {@code default} for this one.
+ */
+@Component
+@Log4j2
+public class AdmissionController {
+  private static final String PRODUCER_METRICS = "producer-metrics";
+  private static final double LATENCY_WEIGHT = 0.2;
+  private static final String LANE_TAG = "lane";
+  private static final String DEFAULT_LANE = "default";
+
+  private final KafkaTemplate<String, SpecificRecordBase> kafkaTemplate;
+  private final MeterRegistry meterRegistry;
+  private final Map<String, TopicState> topics = new ConcurrentHashMap<>();
+  private final Map<String, AdmissionController> lanes = new ConcurrentHashMap<>();
+  private volatile BufferSample buffer;
+  private Tags tags = Tags.of(LANE_TAG, DEFAULT_LANE);
+
+  @Value("${admission.enabled:true}")
+  protected boolean enabled;
+
+  @Value("${topic.register.request}")
+  protected String registerTopic;
+
+  @Value("${topic.send.request}")
+  protected String sendTopic;
+
+  @Value("${topic.preference.request}")
+  protected String preferenceTopic;
+
+  @Value("${admission.max-in-flight.register:1000}")
+  protected int registerMaxInFlight;
+
+  @Value("${admission.max-in-flight.send:5000}")
+  protected int sendMaxInFlight;
+
+  @Value("${admission.max-in-flight.preference:1000}")
+  protected int preferenceMaxInFlight;
+
+  @Value("${admission.max-in-flight.default:1000}")
+  protected int defaultMaxInFlight;
+
+  @Value("${admission.buffer-high-watermark:0.9}")
+  protected double bufferHighWatermark;
+
+  @Value("${admission.max-retry-after-seconds:30}")
+  protected long maxRetryAfterSeconds;
+
+  @Value("${admission.metrics-refresh-ms:100}")
+  protected long metricsRefreshMs;
+
+  public AdmissionController(
+      final KafkaTemplate<String, SpecificRecordBase> kafkaTemplate,
+      final MeterRegistry meterRegistry) {
+    this.kafkaTemplate = kafkaTemplate;
+    this.meterRegistry = meterRegistry;
+  }
+
+  @PostConstruct
+  public void init() {
+    state(registerTopic, registerMaxInFlight);
+    state(sendTopic, sendMaxInFlight);
+    state(preferenceTopic, preferenceMaxInFlight);
+    registerBufferGauge();
+  }
+
+  /**
+   * A controller for a QoS lane's own producer: records are admitted against that producer's
+   * buffer and the lane's in-flight budget, with the other settings taken from this controller.
+   */
+  public AdmissionController forLane(
+      final String lane,
+      final KafkaTemplate<String, SpecificRecordBase> laneTemplate,
+      final int maxInFlight) {
+    final AdmissionController controller = new AdmissionController(laneTemplate, meterRegistry);
+    controller.tags = Tags.of(LANE_TAG, lane);
+    controller.enabled = enabled;
+    controller.defaultMaxInFlight = maxInFlight;
+    controller.bufferHighWatermark = bufferHighWatermark;
+    controller.maxRetryAfterSeconds = maxRetryAfterSeconds;
+    controller.metricsRefreshMs = metricsRefreshMs;
+    controller.registerBufferGauge();
+    lanes.put(lane, controller);
+    return controller;
+  }
+
+  /**
+   * Admits one record to the topic. The returned permit must be released once the broker has
+   * answered, successfully or not.
+   *
+   * @throws RestProxyTooManyRequestsException if the topic or the producer buffer is saturated
+   */
+  public Permit acquire(final String topic) {
+    final TopicState state = state(topic, defaultMaxInFlight);
+    if (enabled) {
+      final BufferSample sample = buffer();
+      if (sample.utilisation() >= bufferHighWatermark) {
+        throw reject(state, bufferRetryAfter(sample), "producer buffer");
+      }
+      if (state.inFlight.incrementAndGet() > state.maxInFlight) {
+        state.inFlight.decrementAndGet();
+        throw reject(state, latencyRetryAfter(state), "in-flight limit");
+      }
+    } else {
+      state.inFlight.incrementAndGet();
+    }
+    return new Permit(state, System.nanoTime());
+  }
+
+  /** Current limiter state, keyed by topic, for the actuator endpoint. */
+  public Map<String, Object> snapshot() {
+    final Map<String, Object> topicStates = new LinkedHashMap<>();
+    topics.forEach(
+        (topic, state) -> {
+          final Map<String, Object> values = new LinkedHashMap<>();
+          values.put("inFlight", state.inFlight.get());
+          values.put("maxInFlight", state.maxInFlight);
+          values.put("averageAckLatencyMs", state.averageLatencyMs);
+          values.put("rejected", (long) state.rejected.count());
+          topicStates.put(topic, values);
+        });
+    final BufferSample sample = buffer();
+    final Map<String, Object> producerBuffer = new LinkedHashMap<>();
+    producerBuffer.put("totalBytes", (long) sample.total);
+    producerBuffer.put("availableBytes", (long) sample.available);
+    producerBuffer.put("utilisation", sample.utilisation());
+    producerBuffer.put("highWatermark", bufferHighWatermark);
+
+    final Map<String, Object> snapshot = new LinkedHashMap<>();
+    snapshot.put("enabled", enabled);
+    snapshot.put("buffer", producerBuffer);
+    snapshot.put("topics", topicStates);
+    if (!lanes.isEmpty()) {
+      final Map<String, Object> laneStates = new LinkedHashMap<>();
+      lanes.forEach((lane, controller) -> laneStates.put(lane, controller.snapshot()));
+      snapshot.put("lanes", laneStates);
+    }
+    return snapshot;
+  }
+
+  private TopicState state(final String topic, final int maxInFlight) {
+    return topics.computeIfAbsent(
+        topic,
+        name -> {
+          final TopicState state =
+              new TopicState(
+                  maxInFlight,
+                  Counter.builder("restproxy.admission.rejected")
+                      .tags(tags)
+                      .tag("topic", name)
+                      .register(meterRegistry));
+          Gauge.builder("restproxy.admission.inflight", state.inFlight, AtomicInteger::get)
+              .tags(tags)
+              .tag("topic", name)
+              .register(meterRegistry);
+          return state;
+        });
+  }
+
+  private void registerBufferGauge() {
+    Gauge.builder("restproxy.admission.buffer.utilisation", this, c -> c.buffer().utilisation())
+        .tags(tags)
+        .register(meterRegistry);
+  }
+
+  private RestProxyTooManyRequestsException reject(
+      final TopicState state, final long retryAfterSeconds, final String reason) {
+    state.rejected.increment();
+    log.warn("Rejecting record, {} reached, retry after {}s", reason, retryAfterSeconds);
+    return new RestProxyTooManyRequestsException(TOO_MANY_REQUESTS_ERROR_MESSAGE, retryAfterSeconds);
+  }
+
+  private long latencyRetryAfter(final TopicState state) {
+    return clamp(state.averageLatencyMs / 1000.0);
+  }
+
+  private long bufferRetryAfter(final BufferSample sample) {
+    if (sample.outgoingByteRate <= 0) {
+      return maxRetryAfterSeconds;
+    }
+    final double excessBytes =
+        (sample.total - sample.available) - sample.total * bufferHighWatermark;
+    return clamp(excessBytes / sample.outgoingByteRate);
+  }
+
+  private long clamp(final double seconds) {
+    return Math.max(1, Math.min(maxRetryAfterSeconds, (long) Math.ceil(seconds)));
+  }
+
+  /** Samples the producer's buffer metrics, at most once per {@code metrics-refresh-ms}. */
+  private BufferSample buffer() {
+    final BufferSample sample = buffer;
+    final long now = System.nanoTime();
+    if (sample != null && now - sample.sampledAt < TimeUnit.MILLISECONDS.toNanos(metricsRefreshMs)) {
+      return sample;
+    }
+    double total = 0;
+    double available = 0;
+    double outgoingByteRate = 0;
+    try {
+      for (Map.Entry<MetricName, ? extends Metric> metric : kafkaTemplate.metrics().entrySet()) {
+        if (!PRODUCER_METRICS.equals(metric.getKey().group())) {
+          continue;
+        }
+        switch (metric.getKey().name()) {
+          case "buffer-total-bytes":
+            total = value(metric.getValue());
+            break;
+          case "buffer-available-bytes":
+            available = value(metric.getValue());
+            break;
+          case "outgoing-byte-rate":
+            outgoingByteRate = value(metric.getValue());
+            break;
+          default:
+            break;
+        }
+      }
+    } catch (RuntimeException e) {
+      log.warn("Could not read producer metrics: {}", e.getMessage());
+    }
+    final BufferSample refreshed = new BufferSample(total, available, outgoingByteRate, now);
+    buffer = refreshed;
+    return refreshed;
+  }
+
+  private static double value(final Metric metric) {
+    final Object value = metric.metricValue();
+    return value instanceof Number ? ((Number) value).doubleValue() : 0;
+  }
+
+  /**
+   * Holds one in-flight slot of a topic until the broker answers. It is also the send's callback,
+   * releasing itself however the send completes, so publishing needs no callback of its own.
+   */
+  public static final class Permit implements ListenableFutureCallback<Object> {
+    private final TopicState state;
+    private final long acquiredAt;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Permit(final TopicState state, final long acquiredAt) {
+      this.state = state;
+      this.acquiredAt = acquiredAt;
+    }
+
+    /** Frees the slot; releasing more than once has no further effect. */
+    public void release() {
+      if (released.compareAndSet(false, true)) {
+        state.inFlight.decrementAndGet();
+        final double latencyMs = (System.nanoTime() - acquiredAt) / 1_000_000.0;
+        state.averageLatencyMs += LATENCY_WEIGHT * (latencyMs - state.averageLatencyMs);
+      }
+    }
+
+    @Override
+    public void onSuccess(final Object result) {
+      release();
+    }
+
+    @Override
+    public void onFailure(final Throwable ex) {
+      release();
+    }
+  }
+
+  private static final class TopicState {
+    private final int maxInFlight;
+    private final Counter rejected;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // Updated racily from producer callbacks; an approximate moving average is all it is used for
+    private volatile double averageLatencyMs;
+
+    private TopicState(final int maxInFlight, final Counter rejected) {
+      this.maxInFlight = maxInFlight;
+      this.rejected = rejected;
+    }
+  }
+
+  private static final class BufferSample {
+    private final double total;
+    private final double available;
+    private final double outgoingByteRate;
+    private final long sampledAt;
+
+    private BufferSample(
+        final double total,
+        final double available,
+        final double outgoingByteRate,
+        final long sampledAt) {
+      this.total = total;
+      this.available = available;
+      this.outgoingByteRate = outgoingByteRate;
+      this.sampledAt = sampledAt;
+    }
+
+    private double utilisation() {
+      return total <= 0 ? 0 : (total - available) / total;
+    }
+  }
+}
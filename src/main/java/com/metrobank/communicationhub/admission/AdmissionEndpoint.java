@@ -0,0 +1,23 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.admission;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/** Exposes the admission limiter state at {@code /actuator/admission}. */
+@Component
+@Endpoint(id = "admission")
+@RequiredArgsConstructor
+public class AdmissionEndpoint {
+
+  private final AdmissionController admissionController;
+
+  @ReadOperation
+  public Map<String, Object> admission() {
+    return admissionController.snapshot();
+  }
+}
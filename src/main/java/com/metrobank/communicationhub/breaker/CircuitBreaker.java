@@ -0,0 +1,171 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.breaker;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Count based circuit breaker. Closed, it records whether each of the last {@code windowSize}
+ * calls failed or was slow, and opens once at least {@code minimumCalls} are recorded and either
+ * rate reaches its threshold. Open, it refuses calls for {@code openNanos}, then half opens and
+ * lets a single probe through: the breaker closes if the probe is fast and succeeds, and opens
+ * again otherwise.
+ *
+ * <p>Every transition happens under the breaker's lock, which is only held to update a few
+ * counters.
+ */
+public class CircuitBreaker {
+  private static final byte SUCCESS = 0;
+  private static final byte FAILURE = 1;
+  private static final byte SLOW = 2;
+
+  private final byte[] outcomes;
+  private final int minimumCalls;
+  private final int failureRateThreshold;
+  private final long slowCallNanos;
+  private final int slowCallRateThreshold;
+  private final long openNanos;
+  private final LongSupplier clock;
+  private State state = State.CLOSED;
+  private int next;
+  private int recorded;
+  private int failures;
+  private int slowCalls;
+  private long openedAt;
+  private boolean probing;
+
+  /**
+   * @param failureRateThreshold percentage of failed calls in the window that opens the breaker
+   * @param slowCallRateThreshold percentage of calls slower than {@code slowCallNanos} that opens
+   *     it
+   */
+  public CircuitBreaker(
+      final int windowSize,
+      final int minimumCalls,
+      final int failureRateThreshold,
+      final long slowCallNanos,
+      final int slowCallRateThreshold,
+      final long openNanos,
+      final LongSupplier clock) {
+    this.outcomes = new byte[windowSize];
+    this.minimumCalls = Math.min(Math.max(minimumCalls, 1), windowSize);
+    this.failureRateThreshold = failureRateThreshold;
+    this.slowCallNanos = slowCallNanos;
+    this.slowCallRateThreshold = slowCallRateThreshold;
+    this.openNanos = openNanos;
+    this.clock = clock;
+  }
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  public synchronized State state() {
+    return state;
+  }
+
+  /**
+   * Whether a call may go ahead. Each permitted call must be reported to exactly one of {@link
+   * #onSuccess}, {@link #onFailure} or {@link #onIgnored}.
+   */
+  public synchronized boolean tryAcquire() {
+    switch (state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        if (clock.getAsLong() - openedAt < openNanos) {
+          return false;
+        }
+        state = State.HALF_OPEN;
+        probing = true;
+        return true;
+      default:
+        if (probing) {
+          return false;
+        }
+        probing = true;
+        return true;
+    }
+  }
+
+  public synchronized void onSuccess(final long elapsedNanos) {
+    final boolean slow = elapsedNanos >= slowCallNanos;
+    if (state == State.HALF_OPEN) {
+      if (slow) {
+        open();
+      } else {
+        close();
+      }
+    } else if (state == State.CLOSED) {
+      record(slow ? SLOW : SUCCESS);
+    }
+  }
+
+  public synchronized void onFailure() {
+    if (state == State.HALF_OPEN) {
+      open();
+    } else if (state == State.CLOSED) {
+      record(FAILURE);
+    }
+  }
+
+  /** Releases a permit without recording anything, for calls failing for reasons of their own. */
+  public synchronized void onIgnored() {
+    if (state == State.HALF_OPEN) {
+      probing = false;
+    }
+  }
+
+  /** How long until the breaker half opens, zero unless it is open. */
+  public synchronized long remainingOpenNanos() {
+    return state == State.OPEN ? Math.max(0, openNanos - (clock.getAsLong() - openedAt)) : 0;
+  }
+
+  private void record(final byte outcome) {
+    if (recorded == outcomes.length) {
+      forget(outcomes[next]);
+    } else {
+      recorded++;
+    }
+    outcomes[next] = outcome;
+    next = (next + 1) % outcomes.length;
+    if (outcome == FAILURE) {
+      failures++;
+    } else if (outcome == SLOW) {
+      slowCalls++;
+    }
+    if (recorded >= minimumCalls
+        && (failures * 100L >= (long) failureRateThreshold * recorded
+            || slowCalls * 100L >= (long) slowCallRateThreshold * recorded)) {
+      open();
+    }
+  }
+
+  private void forget(final byte outcome) {
+    if (outcome == FAILURE) {
+      failures--;
+    } else if (outcome == SLOW) {
+      slowCalls--;
+    }
+  }
+
+  private void open() {
+    state = State.OPEN;
+    openedAt = clock.getAsLong();
+    reset();
+  }
+
+  private void close() {
+    state = State.CLOSED;
+    reset();
+  }
+
+  private void reset() {
+    probing = false;
+    next = 0;
+    recorded = 0;
+    failures = 0;
+    slowCalls = 0;
+  }
+}
@@ -0,0 +1,326 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.breaker;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.metrobank.communicationhub.exception.RestProxyServiceUnavailableException;
+import com.metrobank.communicationhub.util.RequestDeadline;
+import com.mongodb.MongoException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.metrobank.communicationhub.util.CommsHubConstants.STALE_RESPONSE_WARNING;
+
+/**
+ * Guards the MongoDB reads behind GET requests with a {@link CircuitBreaker} per kind of read,
+ * opened by failures or slow calls, so queries stop piling onto a struggling cluster. The last
+ * result of every read is kept in a bounded stale cache. While a breaker is not closed, and when a
+ * read fails, the stale result is served instead, and reads with none fail fast with 503 while the
+ * breaker is open. Once the breaker's open duration has passed, stale reads are revalidated in the
+ * background, the first one probing MongoDB for the breaker.
+ *
+ * <p>Responses built from stale results carry {@code Age}, the seconds since the oldest of them
+ * was read, and {@code Warning: 110}.
+ */
+@Component
+@ConditionalOnProperty(name = "mongo-breaker.enabled", havingValue = "true", matchIfMissing = true)
+@Log4j2
+public class MongoReads implements DisposableBean {
+  public static final String REGISTRATIONS = "registrations";
+  public static final String PREFERENCES = "preferences";
+  public static final String IBIDS = "ibIds";
+  static final String OLDEST_STALE_READ = MongoReads.class.getName() + ".oldestStaleRead";
+
+  private final MeterRegistry meterRegistry;
+  private final Map<String, Guard> guards = new ConcurrentHashMap<>();
+  private final Set<List<Object>> revalidating = ConcurrentHashMap.newKeySet();
+  private Cache<List<Object>, Stale> stale;
+  private ThreadPoolExecutor revalidations;
+
+  @Value("${mongo-breaker.window-size:50}")
+  protected int windowSize = 50;
+
+  @Value("${mongo-breaker.minimum-calls:20}")
+  protected int minimumCalls = 20;
+
+  @Value("${mongo-breaker.failure-rate-threshold:50}")
+  protected int failureRateThreshold = 50;
+
+  @Value("${mongo-breaker.slow-call-duration:1s}")
+  protected Duration slowCallDuration = Duration.ofSeconds(1);
+
+  @Value("${mongo-breaker.slow-call-rate-threshold:80}")
+  protected int slowCallRateThreshold = 80;
+
+  @Value("${mongo-breaker.open-duration:10s}")
+  protected Duration openDuration = Duration.ofSeconds(10);
+
+  @Value("${mongo-breaker.stale.maximum-size:100000}")
+  protected long staleMaximumSize = 100_000;
+
+  @Value("${mongo-breaker.stale.max-age:1h}")
+  protected Duration staleMaxAge = Duration.ofHours(1);
+
+  @Value("${mongo-breaker.revalidation-threads:2}")
+  protected int revalidationThreads = 2;
+
+  public MongoReads(final MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @PostConstruct
+  public void init() {
+    stale =
+        Caffeine.newBuilder()
+            .maximumSize(staleMaximumSize)
+            .expireAfterWrite(staleMaxAge)
+            .recordStats()
+            .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, stale, "staleReads");
+    revalidations =
+        new ThreadPoolExecutor(
+            revalidationThreads,
+            revalidationThreads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1000),
+            runnable -> {
+              final Thread thread = new Thread(runnable, "mongo-revalidation");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  @Override
+  public void destroy() {
+    revalidations.shutdownNow();
+  }
+
+  /**
+   * Runs the read through the breaker of its kind, falling back to the last result for the key.
+   *
+   * @param name the kind of read, one breaker each
+   * @param key the read's parameters, compared with {@code equals}
+   * @throws RestProxyServiceUnavailableException if the breaker is open and there is no result to
+   *     fall back to
+   */
+  public <T> T read(final String name, final Object key, final Supplier<T> query) {
+    return readTracked(name, key, query).value();
+  }
+
+  /**
+   * Same as {@link #read}, telling whether the value is the last result served stale, which
+   * callers keeping their own copy should not store as fresh.
+   */
+  public <T> Read<T> readTracked(final String name, final Object key, final Supplier<T> query) {
+    final Guard guard = guards.computeIfAbsent(name, this::guard);
+    final List<Object> staleKey = Arrays.asList(name, key);
+    if (guard.breaker.state() != CircuitBreaker.State.CLOSED) {
+      final Stale last = stale.getIfPresent(staleKey);
+      if (last != null) {
+        return serveStale(guard, staleKey, last, query);
+      }
+    }
+    if (!guard.breaker.tryAcquire()) {
+      final Stale last = stale.getIfPresent(staleKey);
+      if (last == null) {
+        guard.rejected.increment();
+        throw new RestProxyServiceUnavailableException(
+            "Circuit open for " + name + " reads",
+            Math.max(1, ceilSeconds(guard.breaker.remainingOpenNanos())));
+      }
+      return serveStale(guard, staleKey, last, query);
+    }
+    try {
+      return new Read<>(call(guard, staleKey, query), false);
+    } catch (MongoException | DataAccessException e) {
+      final Stale last = stale.getIfPresent(staleKey);
+      if (last == null) {
+        throw e;
+      }
+      log.warn("Serving stale {} read after: {}", name, e.getMessage());
+      return serveStale(guard, staleKey, last, query);
+    }
+  }
+
+  CircuitBreaker.State state(final String name) {
+    final Guard guard = guards.get(name);
+    return guard == null ? CircuitBreaker.State.CLOSED : guard.breaker.state();
+  }
+
+  private <T> T call(final Guard guard, final List<Object> staleKey, final Supplier<T> query) {
+    final long start = System.nanoTime();
+    final T value;
+    try {
+      value = query.get();
+    } catch (MongoException | DataAccessException e) {
+      // Running out of the caller's own budget says nothing about MongoDB
+      if (RequestDeadline.expired()) {
+        guard.breaker.onIgnored();
+      } else {
+        guard.breaker.onFailure();
+      }
+      throw e;
+    } catch (RuntimeException | Error e) {
+      guard.breaker.onIgnored();
+      throw e;
+    }
+    guard.breaker.onSuccess(System.nanoTime() - start);
+    if (value != null) {
+      stale.put(staleKey, new Stale(value, System.currentTimeMillis()));
+    }
+    return value;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> Read<T> serveStale(
+      final Guard guard, final List<Object> staleKey, final Stale last, final Supplier<T> query) {
+    guard.staleServed.increment();
+    markStale(last.readAtMillis);
+    revalidate(guard, staleKey, query);
+    return new Read<>((T) last.value, true);
+  }
+
+  /** Refreshes the stale result in the background once the breaker would let a call through. */
+  private <T> void revalidate(
+      final Guard guard, final List<Object> staleKey, final Supplier<T> query) {
+    if (guard.breaker.state() == CircuitBreaker.State.CLOSED
+        || guard.breaker.remainingOpenNanos() > 0
+        || !revalidating.add(staleKey)) {
+      return;
+    }
+    try {
+      revalidations.execute(
+          () -> {
+            try {
+              if (guard.breaker.tryAcquire()) {
+                call(guard, staleKey, query);
+              }
+            } catch (RuntimeException e) {
+              log.debug("Revalidating {} failed: {}", staleKey, e.getMessage());
+            } finally {
+              revalidating.remove(staleKey);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      revalidating.remove(staleKey);
+    }
+  }
+
+  private static void markStale(final long readAtMillis) {
+    final RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+    if (!(attributes instanceof ServletRequestAttributes)) {
+      return;
+    }
+    final Long oldest =
+        (Long) attributes.getAttribute(OLDEST_STALE_READ, RequestAttributes.SCOPE_REQUEST);
+    if (oldest != null && oldest <= readAtMillis) {
+      return;
+    }
+    attributes.setAttribute(OLDEST_STALE_READ, readAtMillis, RequestAttributes.SCOPE_REQUEST);
+    final HttpServletResponse response = ((ServletRequestAttributes) attributes).getResponse();
+    if (response != null) {
+      final long age =
+          TimeUnit.MILLISECONDS.toSeconds(Math.max(0, System.currentTimeMillis() - readAtMillis));
+      response.setHeader(HttpHeaders.AGE, String.valueOf(age));
+      response.setHeader(HttpHeaders.WARNING, STALE_RESPONSE_WARNING);
+    }
+  }
+
+  private static long ceilSeconds(final long nanos) {
+    return TimeUnit.NANOSECONDS.toSeconds(nanos + TimeUnit.SECONDS.toNanos(1) - 1);
+  }
+
+  private Guard guard(final String name) {
+    final CircuitBreaker breaker =
+        new CircuitBreaker(
+            windowSize,
+            minimumCalls,
+            failureRateThreshold,
+            slowCallDuration.toNanos(),
+            slowCallRateThreshold,
+            openDuration.toNanos(),
+            System::nanoTime);
+    Gauge.builder("restproxy.mongo.breaker.state", breaker, b -> b.state().ordinal())
+        .description("Breaker of the reads: 0 closed, 1 open, 2 half open")
+        .tag("read", name)
+        .register(meterRegistry);
+    return new Guard(
+        breaker,
+        Counter.builder("restproxy.mongo.breaker.stale")
+            .description("Reads answered with the last result instead of MongoDB")
+            .tag("read", name)
+            .register(meterRegistry),
+        Counter.builder("restproxy.mongo.breaker.rejected")
+            .description("Reads refused with 503 while the breaker was open")
+            .tag("read", name)
+            .register(meterRegistry));
+  }
+
+  /** The value of a read and whether it is the last result rather than a fresh one. */
+  public static final class Read<T> {
+    private final T value;
+    private final boolean stale;
+
+    private Read(final T value, final boolean stale) {
+      this.value = value;
+      this.stale = stale;
+    }
+
+    public T value() {
+      return value;
+    }
+
+    public boolean isStale() {
+      return stale;
+    }
+  }
+
+  private static final class Guard {
+    private final CircuitBreaker breaker;
+    private final Counter staleServed;
+    private final Counter rejected;
+
+    private Guard(final CircuitBreaker breaker, final Counter staleServed, final Counter rejected) {
+      this.breaker = breaker;
+      this.staleServed = staleServed;
+      this.rejected = rejected;
+    }
+  }
+
+  private static final class Stale {
+    private final Object value;
+    private final long readAtMillis;
+
+    private Stale(final Object value, final long readAtMillis) {
+      this.value = value;
+      this.readAtMillis = readAtMillis;
+    }
+  }
+}
@@ -0,0 +1,28 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.bulkhead;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Places a handler, or every handler of a controller, in an endpoint group whose concurrent
+ * requests are capped by {@link BulkheadInterceptor}. A method's group takes precedence over its
+ * controller's.
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Bulkhead {
+  Group value();
+
+  /** The endpoint groups, each with its own {@code bulkhead.<group>.max-concurrent}. */
+  enum Group {
+    /** The MongoDB backed lookups. */
+    READS,
+    /** The requests producing to Kafka. */
+    WRITES
+  }
+}
@@ -0,0 +1,166 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.bulkhead;
+
+import com.metrobank.communicationhub.exception.RestProxyTooManyRequestsException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import static com.metrobank.communicationhub.util.CommsHubConstants.TOO_MANY_REQUESTS_ERROR_MESSAGE;
+
+/**
+ * Bulkheads between the endpoint groups marked with {@link Bulkhead}: each group may hold at most
+ * {@code bulkhead.<group>.max-concurrent} request threads at once, and a request finding its group
+ * full is refused with 429 straight away rather than queued. A MongoDB brown-out then stalls only
+ * the lookups, on their share of the worker pool, and sends keep the rest.
+ *
+ * <p>A request holds its permit until it completes, or until its handler goes asynchronous and so
+ * hands its thread back, as the confirmed delivery handlers do while they wait for the broker.
+ */
+@Profile("!reactive")
+@Component
+@Log4j2
+public class BulkheadInterceptor implements AsyncHandlerInterceptor {
+  private static final String PERMIT_ATTRIBUTE = BulkheadInterceptor.class.getName() + ".permit";
+
+  private final MeterRegistry meterRegistry;
+  private final Map<Bulkhead.Group, Compartment> compartments =
+      new EnumMap<>(Bulkhead.Group.class);
+
+  @Value("${bulkhead.enabled:true}")
+  protected boolean enabled = true;
+
+  @Value("${bulkhead.reads.max-concurrent:40}")
+  protected int readsMaxConcurrent = 40;
+
+  @Value("${bulkhead.writes.max-concurrent:150}")
+  protected int writesMaxConcurrent = 150;
+
+  @Value("${bulkhead.retry-after-seconds:1}")
+  protected long retryAfterSeconds = 1;
+
+  public BulkheadInterceptor(final MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @PostConstruct
+  public void init() {
+    compartments.put(
+        Bulkhead.Group.READS, new Compartment(Bulkhead.Group.READS, readsMaxConcurrent));
+    compartments.put(
+        Bulkhead.Group.WRITES, new Compartment(Bulkhead.Group.WRITES, writesMaxConcurrent));
+    log.info(
+        "Bulkheads {}: {} concurrent reads, {} concurrent writes",
+        enabled ? "enabled" : "disabled",
+        readsMaxConcurrent,
+        writesMaxConcurrent);
+  }
+
+  @Override
+  public boolean preHandle(
+      final HttpServletRequest request, final HttpServletResponse response, final Object handler) {
+    // The dispatch resuming an asynchronous handler gave its permit back when it went asynchronous
+    if (!enabled || request.getDispatcherType() == DispatcherType.ASYNC) {
+      return true;
+    }
+    final Bulkhead.Group group = group(handler);
+    if (group == null) {
+      return true;
+    }
+    final Compartment compartment = compartments.get(group);
+    if (!compartment.permits.tryAcquire()) {
+      compartment.rejected.increment();
+      log.warn(
+          "Bulkhead {} full, refusing {} {}", group, request.getMethod(), request.getRequestURI());
+      throw new RestProxyTooManyRequestsException(
+          TOO_MANY_REQUESTS_ERROR_MESSAGE, retryAfterSeconds);
+    }
+    request.setAttribute(PERMIT_ATTRIBUTE, compartment.permits);
+    return true;
+  }
+
+  @Override
+  public void afterConcurrentHandlingStarted(
+      final HttpServletRequest request, final HttpServletResponse response, final Object handler) {
+    release(request);
+  }
+
+  @Override
+  public void afterCompletion(
+      final HttpServletRequest request,
+      final HttpServletResponse response,
+      final Object handler,
+      final Exception ex) {
+    release(request);
+  }
+
+  /** Permits in use by the group's requests. */
+  int active(final Bulkhead.Group group) {
+    final Compartment compartment = compartments.get(group);
+    return compartment.maxConcurrent - compartment.permits.availablePermits();
+  }
+
+  static Bulkhead.Group group(final Object handler) {
+    if (!(handler instanceof HandlerMethod)) {
+      return null;
+    }
+    final HandlerMethod handlerMethod = (HandlerMethod) handler;
+    Bulkhead bulkhead =
+        AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getMethod(), Bulkhead.class);
+    if (bulkhead == null) {
+      bulkhead =
+          AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getBeanType(), Bulkhead.class);
+    }
+    return bulkhead == null ? null : bulkhead.value();
+  }
+
+  private static void release(final HttpServletRequest request) {
+    final Semaphore permits = (Semaphore) request.getAttribute(PERMIT_ATTRIBUTE);
+    if (permits != null) {
+      request.removeAttribute(PERMIT_ATTRIBUTE);
+      permits.release();
+    }
+  }
+
+  private final class Compartment {
+    private final int maxConcurrent;
+    private final Semaphore permits;
+    private final Counter rejected;
+
+    private Compartment(final Bulkhead.Group group, final int maxConcurrent) {
+      this.maxConcurrent = maxConcurrent;
+      this.permits = new Semaphore(maxConcurrent);
+      final String name = group.name().toLowerCase(Locale.ROOT);
+      Gauge.builder(
+              "restproxy.bulkhead.active", this, c -> c.maxConcurrent - c.permits.availablePermits())
+          .description("Requests holding a permit of the bulkhead")
+          .tag("group", name)
+          .register(meterRegistry);
+      Gauge.builder("restproxy.bulkhead.max", this, c -> c.maxConcurrent)
+          .description("Permits of the bulkhead")
+          .tag("group", name)
+          .register(meterRegistry);
+      this.rejected =
+          Counter.builder("restproxy.bulkhead.rejected")
+              .description("Requests refused with 429 as the bulkhead was full")
+              .tag("group", name)
+              .register(meterRegistry);
+    }
+  }
+}
@@ -0,0 +1,354 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.codec;
+
+import com.metrobank.communicationhub.kafka.AvroPrototype;
+import com.metrobank.communicationhub.schema.CommsPreference;
+import com.metrobank.communicationhub.schema.Preference;
+import com.metrobank.communicationhub.schema.RegistrationAvroRequest;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
+import io.confluent.kafka.schemaregistry.ParsedSchema;
+import io.confluent.kafka.schemaregistry.avro.AvroSchema;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.avro.util.Utf8;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+import static com.metrobank.communicationhub.codec.RequestConstraints.COMMS_TYPES;
+import static com.metrobank.communicationhub.codec.RequestConstraints.DEVICE_TYPES;
+import static com.metrobank.communicationhub.codec.RequestConstraints.MESSAGE_TYPES;
+import static com.metrobank.communicationhub.codec.RequestConstraints.constantName;
+
+/**
+ * Decodes Avro binary request bodies, as written by producers that already hold the records. A
+ * body is either in the Confluent wire format, a zero magic byte and the big-endian schema id
+ * before the encoded record, or the bare encoding with the writer's schema id given as the {@code
+ * schema-id} parameter of its content type. The writer's schema is fetched from the registry once
+ * per id and resolved against the generated record's, as the Kafka consumers do.
+ *
+ * <p>Only the fields the request DTOs carry are taken from the body; the customerId, IbId and
+ * method stay for the service to fill in from the headers, whatever the sender wrote, and the
+ * same constraints as on the JSON path are checked by {@link RequestConstraints}. Bodies that are
+ * not valid Avro for their schema are rejected with an {@link IllegalArgumentException}.
+ */
+@Component
+public class AvroBinaryRequestDecoder {
+  private static final byte MAGIC_BYTE = 0;
+  private static final int HEADER_BYTES = 1 + Integer.BYTES;
+
+  private static final AvroPrototype<RegistrationAvroRequest> REGISTRATION =
+      AvroPrototype.of(RegistrationAvroRequest::new);
+  private static final AvroPrototype<SendAvroRequest> SEND = AvroPrototype.of(SendAvroRequest::new);
+  private static final AvroPrototype<CommsPreference> COMMS_PREFERENCE =
+      AvroPrototype.of(CommsPreference::new);
+  private static final AvroPrototype<Preference> PREFERENCE = AvroPrototype.of(Preference::new);
+
+  private final SchemaRegistryClient schemaRegistryClient;
+  private final RequestConstraints constraints;
+  private final Readers<RegistrationAvroRequest> registrationReaders =
+      new Readers<>(RegistrationAvroRequest.getClassSchema());
+  private final Readers<SendAvroRequest> sendReaders =
+      new Readers<>(SendAvroRequest.getClassSchema());
+  private final Readers<CommsPreference> preferenceReaders =
+      new Readers<>(CommsPreference.getClassSchema());
+
+  public AvroBinaryRequestDecoder(
+      final SchemaRegistryClient schemaRegistryClient, final Validator validator) {
+    this.schemaRegistryClient = schemaRegistryClient;
+    this.constraints = new RequestConstraints(validator);
+  }
+
+  /**
+   * Decodes a registration or de-registration body.
+   *
+   * @param schemaId the writer's schema id for a bare encoding, or null for the wire format
+   */
+  public DecodedRequest<RegistrationAvroRequest> decodeRegistration(
+      final InputStream body, final Integer schemaId) {
+    final RegistrationAvroRequest sent = read(registrationReaders, body, schemaId);
+    final RegistrationAvroRequest request = REGISTRATION.newRecord();
+    request.setToken(text(sent.getToken()));
+    request.setDeviceType(constantName(sent.getDeviceType(), DEVICE_TYPES));
+    request.setCommsType(constantName(sent.getCommsType(), COMMS_TYPES));
+    request.setEmail(text(sent.getEmail()));
+    request.setMobileNo(text(sent.getMobileNo()));
+    return constraints.check(request);
+  }
+
+  /**
+   * Decodes a send communication body.
+   *
+   * @param schemaId the writer's schema id for a bare encoding, or null for the wire format
+   */
+  public DecodedRequest<SendAvroRequest> decodeSend(
+      final InputStream body, final Integer schemaId) {
+    final SendAvroRequest sent = read(sendReaders, body, schemaId);
+    final SendAvroRequest request = SEND.newRecord();
+    request.setCommsType(constantName(sent.getCommsType(), COMMS_TYPES));
+    request.setEmail(text(sent.getEmail()));
+    request.setMessageType(constantName(sent.getMessageType(), MESSAGE_TYPES));
+    request.setMobileNo(text(sent.getMobileNo()));
+    request.setTemplateId(text(sent.getTemplateId()));
+    request.setTemplateParams(sent.getTemplateParams());
+    return constraints.check(request);
+  }
+
+  /**
+   * Decodes a preference body.
+   *
+   * @param schemaId the writer's schema id for a bare encoding, or null for the wire format
+   */
+  public DecodedRequest<CommsPreference> decodePreference(
+      final InputStream body, final Integer schemaId) {
+    final CommsPreference sent = read(preferenceReaders, body, schemaId);
+    final CommsPreference request = COMMS_PREFERENCE.newRecord();
+    request.setCommsType(constantName(sent.getCommsType(), COMMS_TYPES));
+    request.setMessageType(constantName(sent.getMessageType(), MESSAGE_TYPES));
+    request.setDeviceId(text(sent.getDeviceId()));
+    if (sent.getPreferences() != null) {
+      final List<Preference> preferences = new ArrayList<>(sent.getPreferences().size());
+      for (Preference sentPreference : sent.getPreferences()) {
+        final Preference preference = PREFERENCE.newRecord();
+        preference.setKey(text(sentPreference.getKey()));
+        preference.setValue(text(sentPreference.getValue()));
+        preferences.add(preference);
+      }
+      request.setPreferences(preferences);
+    }
+    return constraints.check(request);
+  }
+
+  private <T extends SpecificRecordBase> T read(
+      final Readers<T> readers, final InputStream body, final Integer schemaId) {
+    final byte[] bytes = bytes(body);
+    int offset = 0;
+    final int writerSchemaId;
+    if (schemaId != null) {
+      writerSchemaId = schemaId;
+    } else {
+      if (bytes.length < HEADER_BYTES || bytes[0] != MAGIC_BYTE) {
+        throw new IllegalArgumentException(
+            "Avro body is not in the wire format and no schema-id was given");
+      }
+      writerSchemaId = ByteBuffer.wrap(bytes, 1, Integer.BYTES).getInt();
+      offset = HEADER_BYTES;
+    }
+
+    final DatumReader<T> reader = readers.forWriter(writerSchemaId, this::writerSchema);
+    final BinaryDecoder decoder =
+        DecoderFactory.get().binaryDecoder(bytes, offset, bytes.length - offset, null);
+    try {
+      final T record = reader.read(null, new BoundedDecoder(decoder, bytes.length - offset));
+      if (!decoder.isEnd()) {
+        throw new IllegalArgumentException("Avro body has trailing bytes");
+      }
+      return record;
+    } catch (IOException | AvroRuntimeException | IndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("Malformed Avro body: " + e.getMessage(), e);
+    }
+  }
+
+  private Schema writerSchema(final int schemaId) {
+    final ParsedSchema schema;
+    try {
+      schema = schemaRegistryClient.getSchemaById(schemaId);
+    } catch (RestClientException e) {
+      if (e.getStatus() == HttpStatus.NOT_FOUND.value()) {
+        throw new IllegalArgumentException("Unknown schema id " + schemaId, e);
+      }
+      throw new IllegalStateException("Schema registry lookup failed for id " + schemaId, e);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    if (!(schema instanceof AvroSchema)) {
+      throw new IllegalArgumentException("Schema id " + schemaId + " is not an Avro schema");
+    }
+    return ((AvroSchema) schema).rawSchema();
+  }
+
+  private static byte[] bytes(final InputStream body) {
+    try {
+      return body.readAllBytes();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static String text(final CharSequence value) {
+    return value == null ? null : value.toString();
+  }
+
+  /** Resolving readers of one record type, one per writer schema id. */
+  private static final class Readers<T extends SpecificRecordBase> {
+    private final Schema readerSchema;
+    private final Map<Integer, DatumReader<T>> byWriterSchemaId = new ConcurrentHashMap<>();
+
+    private Readers(final Schema readerSchema) {
+      this.readerSchema = readerSchema;
+    }
+
+    DatumReader<T> forWriter(final int schemaId, final IntFunction<Schema> writerSchemas) {
+      final DatumReader<T> reader = byWriterSchemaId.get(schemaId);
+      if (reader != null) {
+        return reader;
+      }
+      // Looked up outside the map so a slow registry call does not block other ids
+      final Schema writerSchema = writerSchemas.apply(schemaId);
+      return byWriterSchemaId.computeIfAbsent(
+          schemaId, id -> new SpecificDatumReader<>(writerSchema, readerSchema));
+    }
+  }
+
+  /**
+   * Rejects string, bytes and collection lengths longer than the body itself before anything is
+   * allocated for them. The binary decoder sizes its buffers from the length it reads, so a few
+   * crafted bytes could otherwise claim gigabytes.
+   */
+  private static final class BoundedDecoder extends Decoder {
+    private final Decoder in;
+    private final long limit;
+
+    private BoundedDecoder(final Decoder in, final long limit) {
+      this.in = in;
+      this.limit = limit;
+    }
+
+    private int bounded(final long length) throws IOException {
+      if (length < 0 || length > limit) {
+        throw new IOException("Length " + length + " exceeds the " + limit + " byte body");
+      }
+      return (int) length;
+    }
+
+    @Override
+    public Utf8 readString(final Utf8 old) throws IOException {
+      final int length = bounded(in.readLong());
+      final Utf8 result = old == null ? new Utf8() : old;
+      result.setByteLength(length);
+      in.readFixed(result.getBytes(), 0, length);
+      return result;
+    }
+
+    @Override
+    public String readString() throws IOException {
+      return readString(null).toString();
+    }
+
+    @Override
+    public ByteBuffer readBytes(final ByteBuffer old) throws IOException {
+      final byte[] bytes = new byte[bounded(in.readLong())];
+      in.readFixed(bytes);
+      return ByteBuffer.wrap(bytes);
+    }
+
+    @Override
+    public long readArrayStart() throws IOException {
+      return bounded(in.readArrayStart());
+    }
+
+    @Override
+    public long arrayNext() throws IOException {
+      return bounded(in.arrayNext());
+    }
+
+    @Override
+    public long readMapStart() throws IOException {
+      return bounded(in.readMapStart());
+    }
+
+    @Override
+    public long mapNext() throws IOException {
+      return bounded(in.mapNext());
+    }
+
+    @Override
+    public void readNull() throws IOException {
+      in.readNull();
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+      return in.readBoolean();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+      return in.readInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+      return in.readLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+      return in.readFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+      return in.readDouble();
+    }
+
+    @Override
+    public void skipString() throws IOException {
+      in.skipString();
+    }
+
+    @Override
+    public void skipBytes() throws IOException {
+      in.skipBytes();
+    }
+
+    @Override
+    public void readFixed(final byte[] bytes, final int start, final int length)
+        throws IOException {
+      in.readFixed(bytes, start, length);
+    }
+
+    @Override
+    public void skipFixed(final int length) throws IOException {
+      in.skipFixed(length);
+    }
+
+    @Override
+    public int readEnum() throws IOException {
+      return in.readEnum();
+    }
+
+    @Override
+    public long skipArray() throws IOException {
+      return in.skipArray();
+    }
+
+    @Override
+    public long skipMap() throws IOException {
+      return in.skipMap();
+    }
+
+    @Override
+    public int readIndex() throws IOException {
+      return in.readIndex();
+    }
+  }
+}
@@ -0,0 +1,309 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.codec;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.metrobank.communicationhub.kafka.AvroPrototype;
+import com.metrobank.communicationhub.schema.CommsPreference;
+import com.metrobank.communicationhub.schema.Preference;
+import com.metrobank.communicationhub.schema.RegistrationAvroRequest;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
+import org.springframework.stereotype.Component;
+
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.metrobank.communicationhub.codec.RequestConstraints.COMMS_TYPES;
+import static com.metrobank.communicationhub.codec.RequestConstraints.DEVICE_TYPES;
+import static com.metrobank.communicationhub.codec.RequestConstraints.MESSAGE_TYPES;
+
+/**
+ * Decodes the JSON request bodies straight into the Avro records, without binding the request
+ * DTOs first. The body is read once with a streaming parser, straight into the record's fields,
+ * and the DTOs' constraints are checked on the decoded values by {@link RequestConstraints}.
+ * Unknown fields are skipped; malformed JSON and values of the wrong type are rejected with an
+ * {@link IllegalArgumentException}, as Jackson's binding errors are on the DTO path.
+ */
+@Component
+public class AvroRequestDecoder {
+  private static final AvroPrototype<RegistrationAvroRequest> REGISTRATION =
+      AvroPrototype.of(RegistrationAvroRequest::new);
+  private static final AvroPrototype<SendAvroRequest> SEND = AvroPrototype.of(SendAvroRequest::new);
+  private static final AvroPrototype<CommsPreference> COMMS_PREFERENCE =
+      AvroPrototype.of(CommsPreference::new);
+  private static final AvroPrototype<Preference> PREFERENCE = AvroPrototype.of(Preference::new);
+
+  private final JsonFactory jsonFactory;
+  private final RequestConstraints constraints;
+
+  public AvroRequestDecoder(final ObjectMapper objectMapper, final Validator validator) {
+    this.jsonFactory = objectMapper.getFactory();
+    this.constraints = new RequestConstraints(validator);
+  }
+
+  /**
+   * Decodes a registration or de-registration body. The method, customerId and IbId are left for
+   * the service to fill in.
+   */
+  public DecodedRequest<RegistrationAvroRequest> decodeRegistration(final InputStream body) {
+    final RegistrationAvroRequest request = REGISTRATION.newRecord();
+    String token = null;
+    String deviceType = null;
+    String commsType = null;
+    String email = null;
+    String mobileNo = null;
+    try (JsonParser parser = open(body)) {
+      while (nextField(parser)) {
+        switch (parser.getCurrentName()) {
+          case "deviceToken":
+            token = string(parser);
+            break;
+          case "deviceType":
+            deviceType = enumName(parser, DEVICE_TYPES);
+            break;
+          case "commsType":
+            commsType = enumName(parser, COMMS_TYPES);
+            break;
+          case "email":
+            email = string(parser);
+            break;
+          case "mobileNo":
+            mobileNo = string(parser);
+            break;
+          default:
+            parser.skipChildren();
+        }
+      }
+    } catch (IOException e) {
+      throw unreadable(e);
+    }
+    request.setToken(token);
+    request.setDeviceType(deviceType);
+    request.setCommsType(commsType);
+    request.setEmail(email);
+    request.setMobileNo(mobileNo);
+    return constraints.check(request);
+  }
+
+  /** Decodes a send communication body. The customerId is left for the service to fill in. */
+  public DecodedRequest<SendAvroRequest> decodeSend(final InputStream body) {
+    final SendAvroRequest request = SEND.newRecord();
+    String commsType = null;
+    String email = null;
+    String messageType = null;
+    String mobileNo = null;
+    String templateId = null;
+    try (JsonParser parser = open(body)) {
+      while (nextField(parser)) {
+        switch (parser.getCurrentName()) {
+          case "commsType":
+            commsType = enumName(parser, COMMS_TYPES);
+            break;
+          case "email":
+            email = string(parser);
+            break;
+          case "messageType":
+            messageType = enumName(parser, MESSAGE_TYPES);
+            break;
+          case "mobileNo":
+            mobileNo = string(parser);
+            break;
+          case "templateId":
+            templateId = string(parser);
+            break;
+          case "templateParams":
+            request.setTemplateParams(strings(parser));
+            break;
+          default:
+            parser.skipChildren();
+        }
+      }
+    } catch (IOException e) {
+      throw unreadable(e);
+    }
+    request.setCommsType(commsType);
+    request.setEmail(email);
+    request.setMessageType(messageType);
+    request.setMobileNo(mobileNo);
+    request.setTemplateId(templateId);
+    return constraints.check(request);
+  }
+
+  /**
+   * Decodes a preference body. The customerId, IbId and method are left for the service to fill
+   * in.
+   */
+  public DecodedRequest<CommsPreference> decodePreference(final InputStream body) {
+    final CommsPreference request = COMMS_PREFERENCE.newRecord();
+    String commsType = null;
+    String messageType = null;
+    List<Preference> preferences = null;
+    try (JsonParser parser = open(body)) {
+      while (nextField(parser)) {
+        switch (parser.getCurrentName()) {
+          case "commsType":
+            commsType = enumName(parser, COMMS_TYPES);
+            break;
+          case "messageType":
+            messageType = enumName(parser, MESSAGE_TYPES);
+            break;
+          case "deviceId":
+            request.setDeviceId(string(parser));
+            break;
+          case "preferences":
+            preferences = preferences(parser);
+            break;
+          default:
+            parser.skipChildren();
+        }
+      }
+    } catch (IOException e) {
+      throw unreadable(e);
+    }
+    request.setCommsType(commsType);
+    request.setMessageType(messageType);
+    request.setPreferences(preferences);
+    return constraints.check(request);
+  }
+
+  private JsonParser open(final InputStream body) throws IOException {
+    final JsonParser parser = jsonFactory.createParser(body);
+    final JsonToken token = parser.nextToken();
+    if (token != JsonToken.START_OBJECT) {
+      parser.close();
+      throw new IllegalArgumentException(
+          token == null ? "Required request body is missing" : "Request body is not a JSON object");
+    }
+    return parser;
+  }
+
+  /** Moves to the next field's value, or returns false at the end of the current object. */
+  private static boolean nextField(final JsonParser parser) throws IOException {
+    if (parser.nextToken() != JsonToken.FIELD_NAME) {
+      return false;
+    }
+    parser.nextToken();
+    return true;
+  }
+
+  /** Reads a string field; numbers and booleans are taken as their text, as Jackson does. */
+  private static String string(final JsonParser parser) throws IOException {
+    final JsonToken token = parser.currentToken();
+    if (token == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (!token.isScalarValue()) {
+      throw mismatch(parser, "a string");
+    }
+    return parser.getText();
+  }
+
+  private static List<String> strings(final JsonParser parser) throws IOException {
+    if (parser.currentToken() == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (parser.currentToken() != JsonToken.START_ARRAY) {
+      throw mismatch(parser, "an array");
+    }
+    final List<String> values = new ArrayList<>();
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      values.add(string(parser));
+    }
+    return values;
+  }
+
+  private static List<Preference> preferences(final JsonParser parser) throws IOException {
+    if (parser.currentToken() == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (parser.currentToken() != JsonToken.START_ARRAY) {
+      throw mismatch(parser, "an array");
+    }
+    final List<Preference> preferences = new ArrayList<>();
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      if (parser.currentToken() != JsonToken.START_OBJECT) {
+        throw mismatch(parser, "a preference object");
+      }
+      final Preference preference = PREFERENCE.newRecord();
+      while (nextField(parser)) {
+        switch (parser.getCurrentName()) {
+          case "key":
+            preference.setKey(string(parser));
+            break;
+          case "value":
+            preference.setValue(string(parser));
+            break;
+          default:
+            parser.skipChildren();
+        }
+      }
+      preferences.add(preference);
+    }
+    return preferences;
+  }
+
+  /**
+   * Reads an enum field as the constant's name, matched without copying the text out of the
+   * parser. Like Jackson, an integer is taken as the constant's index.
+   */
+  private static <E extends Enum<E>> String enumName(final JsonParser parser, final E[] constants)
+      throws IOException {
+    final JsonToken token = parser.currentToken();
+    if (token == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (token == JsonToken.VALUE_STRING) {
+      final char[] text = parser.getTextCharacters();
+      final int offset = parser.getTextOffset();
+      final int length = parser.getTextLength();
+      for (E constant : constants) {
+        if (matches(constant.name(), text, offset, length)) {
+          return constant.name();
+        }
+      }
+    } else if (token == JsonToken.VALUE_NUMBER_INT
+        && parser.getNumberType() == JsonParser.NumberType.INT) {
+      final int index = parser.getIntValue();
+      if (index >= 0 && index < constants.length) {
+        return constants[index].name();
+      }
+    }
+    throw mismatch(parser, "one of " + Arrays.toString(constants));
+  }
+
+  private static boolean matches(
+      final String name, final char[] text, final int offset, final int length) {
+    if (name.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (name.charAt(i) != text[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static IllegalArgumentException mismatch(final JsonParser parser, final String expected)
+      throws IOException {
+    return new IllegalArgumentException(
+        String.format(
+            "Field %s: expected %s but found %s",
+            parser.getCurrentName(), expected, parser.currentToken()));
+  }
+
+  private static RuntimeException unreadable(final IOException e) {
+    return e instanceof JsonProcessingException
+        ? new IllegalArgumentException(
+            "Malformed request body: " + ((JsonProcessingException) e).getOriginalMessage(), e)
+        : new UncheckedIOException(e);
+  }
+}
@@ -0,0 +1,23 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.codec;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.apache.avro.specific.SpecificRecordBase;
+
+/**
+ * A decoded request body and the message of the first validation rule it broke, if any. The
+ * violation is reported rather than thrown so the controller can check the headers first, as it
+ * does on the DTO path.
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PACKAGE)
+public final class DecodedRequest<T extends SpecificRecordBase> {
+  private final T value;
+  private final String violation;
+
+  public boolean hasViolation() {
+    return violation != null;
+  }
+}
@@ -0,0 +1,227 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.codec;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import com.metrobank.communicationhub.kafka.AvroPrototype;
+import com.metrobank.communicationhub.schema.CommsPreference;
+import com.metrobank.communicationhub.schema.Preference;
+import com.metrobank.communicationhub.schema.RegistrationAvroRequest;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
+import org.springframework.stereotype.Component;
+
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.metrobank.communicationhub.codec.RequestConstraints.COMMS_TYPES;
+import static com.metrobank.communicationhub.codec.RequestConstraints.DEVICE_TYPES;
+import static com.metrobank.communicationhub.codec.RequestConstraints.MESSAGE_TYPES;
+import static com.metrobank.communicationhub.codec.RequestConstraints.constantName;
+
+/**
+ * Decodes Protobuf request bodies, the messages of {@code proto/comms_requests.proto}, straight
+ * into the Avro records. The fields are read off the wire by number, so no generated message
+ * classes or descriptors are needed. As in proto3, an empty string is an unset field and read as
+ * null, and an absent repeated field as an empty list of preferences; enums are carried as their
+ * names and checked against the DTO enums. Unknown fields are skipped, and the same constraints
+ * as on the JSON path are checked by {@link RequestConstraints}. Bodies that are not valid
+ * Protobuf, or set a field with the wrong wire type, are rejected with an {@link
+ * IllegalArgumentException}.
+ */
+@Component
+public class ProtobufRequestDecoder {
+  private static final AvroPrototype<RegistrationAvroRequest> REGISTRATION =
+      AvroPrototype.of(RegistrationAvroRequest::new);
+  private static final AvroPrototype<SendAvroRequest> SEND = AvroPrototype.of(SendAvroRequest::new);
+  private static final AvroPrototype<CommsPreference> COMMS_PREFERENCE =
+      AvroPrototype.of(CommsPreference::new);
+  private static final AvroPrototype<Preference> PREFERENCE = AvroPrototype.of(Preference::new);
+
+  private final RequestConstraints constraints;
+
+  public ProtobufRequestDecoder(final Validator validator) {
+    this.constraints = new RequestConstraints(validator);
+  }
+
+  /** Decodes a {@code RegistrationRequest} message. */
+  public DecodedRequest<RegistrationAvroRequest> decodeRegistration(final InputStream body) {
+    final RegistrationAvroRequest request = REGISTRATION.newRecord();
+    String token = null;
+    String deviceType = null;
+    String commsType = null;
+    String email = null;
+    String mobileNo = null;
+    try {
+      final CodedInputStream input = CodedInputStream.newInstance(body.readAllBytes());
+      int tag;
+      while ((tag = input.readTag()) != 0) {
+        switch (WireFormat.getTagFieldNumber(tag)) {
+          case 1:
+            token = string(input, tag);
+            break;
+          case 2:
+            deviceType = string(input, tag);
+            break;
+          case 3:
+            commsType = string(input, tag);
+            break;
+          case 4:
+            email = string(input, tag);
+            break;
+          case 5:
+            mobileNo = string(input, tag);
+            break;
+          default:
+            input.skipField(tag);
+        }
+      }
+    } catch (IOException e) {
+      throw unreadable(e);
+    }
+    request.setToken(token);
+    request.setDeviceType(constantName(deviceType, DEVICE_TYPES));
+    request.setCommsType(constantName(commsType, COMMS_TYPES));
+    request.setEmail(email);
+    request.setMobileNo(mobileNo);
+    return constraints.check(request);
+  }
+
+  /** Decodes a {@code SendRequest} message. */
+  public DecodedRequest<SendAvroRequest> decodeSend(final InputStream body) {
+    final SendAvroRequest request = SEND.newRecord();
+    String commsType = null;
+    String email = null;
+    String messageType = null;
+    String mobileNo = null;
+    String templateId = null;
+    List<String> templateParams = null;
+    try {
+      final CodedInputStream input = CodedInputStream.newInstance(body.readAllBytes());
+      int tag;
+      while ((tag = input.readTag()) != 0) {
+        switch (WireFormat.getTagFieldNumber(tag)) {
+          case 1:
+            commsType = string(input, tag);
+            break;
+          case 2:
+            email = string(input, tag);
+            break;
+          case 3:
+            messageType = string(input, tag);
+            break;
+          case 4:
+            mobileNo = string(input, tag);
+            break;
+          case 5:
+            templateId = string(input, tag);
+            break;
+          case 6:
+            if (templateParams == null) {
+              templateParams = new ArrayList<>();
+            }
+            // Repeated strings keep their empty elements, unlike singular fields
+            expect(tag, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            templateParams.add(input.readStringRequireUtf8());
+            break;
+          default:
+            input.skipField(tag);
+        }
+      }
+    } catch (IOException e) {
+      throw unreadable(e);
+    }
+    request.setCommsType(constantName(commsType, COMMS_TYPES));
+    request.setEmail(email);
+    request.setMessageType(constantName(messageType, MESSAGE_TYPES));
+    request.setMobileNo(mobileNo);
+    request.setTemplateId(templateId);
+    request.setTemplateParams(templateParams);
+    return constraints.check(request);
+  }
+
+  /** Decodes a {@code PreferenceRequest} message. */
+  public DecodedRequest<CommsPreference> decodePreference(final InputStream body) {
+    final CommsPreference request = COMMS_PREFERENCE.newRecord();
+    String commsType = null;
+    String messageType = null;
+    String deviceId = null;
+    final List<Preference> preferences = new ArrayList<>();
+    try {
+      final CodedInputStream input = CodedInputStream.newInstance(body.readAllBytes());
+      int tag;
+      while ((tag = input.readTag()) != 0) {
+        switch (WireFormat.getTagFieldNumber(tag)) {
+          case 1:
+            commsType = string(input, tag);
+            break;
+          case 2:
+            messageType = string(input, tag);
+            break;
+          case 3:
+            deviceId = string(input, tag);
+            break;
+          case 4:
+            expect(tag, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            preferences.add(preference(input));
+            break;
+          default:
+            input.skipField(tag);
+        }
+      }
+    } catch (IOException e) {
+      throw unreadable(e);
+    }
+    request.setCommsType(constantName(commsType, COMMS_TYPES));
+    request.setMessageType(constantName(messageType, MESSAGE_TYPES));
+    request.setDeviceId(deviceId);
+    request.setPreferences(preferences);
+    return constraints.check(request);
+  }
+
+  private static Preference preference(final CodedInputStream input) throws IOException {
+    final int limit = input.pushLimit(input.readRawVarint32());
+    final Preference preference = PREFERENCE.newRecord();
+    int tag;
+    while ((tag = input.readTag()) != 0) {
+      switch (WireFormat.getTagFieldNumber(tag)) {
+        case 1:
+          preference.setKey(string(input, tag));
+          break;
+        case 2:
+          preference.setValue(string(input, tag));
+          break;
+        default:
+          input.skipField(tag);
+      }
+    }
+    input.popLimit(limit);
+    return preference;
+  }
+
+  /** Reads a singular string field, taking the proto3 default of an empty string as unset. */
+  private static String string(final CodedInputStream input, final int tag) throws IOException {
+    expect(tag, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    final String value = input.readStringRequireUtf8();
+    return value.isEmpty() ? null : value;
+  }
+
+  private static void expect(final int tag, final int wireType)
+      throws InvalidProtocolBufferException {
+    if (WireFormat.getTagWireType(tag) != wireType) {
+      throw new InvalidProtocolBufferException(
+          "Field " + WireFormat.getTagFieldNumber(tag) + " has wire type "
+              + WireFormat.getTagWireType(tag) + ", expected " + wireType);
+    }
+  }
+
+  private static RuntimeException unreadable(final IOException e) {
+    return e instanceof InvalidProtocolBufferException
+        ? new IllegalArgumentException("Malformed Protobuf body: " + e.getMessage(), e)
+        : new UncheckedIOException(e);
+  }
+}
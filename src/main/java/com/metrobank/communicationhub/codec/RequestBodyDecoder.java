@@ -0,0 +1,91 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.codec;
+
+import com.metrobank.communicationhub.schema.CommsPreference;
+import com.metrobank.communicationhub.schema.RegistrationAvroRequest;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.InputStream;
+
+/**
+ * Decodes a request body into its Avro record by content type: JSON through {@link
+ * AvroRequestDecoder}, {@code application/avro} through {@link AvroBinaryRequestDecoder} and
+ * {@code application/x-protobuf} through {@link ProtobufRequestDecoder}. Bodies are cut off at
+ * {@code request.max-body-size}, failing with 413 rather than being read whole.
+ */
+@Component
+@RequiredArgsConstructor
+public class RequestBodyDecoder {
+  public static final String APPLICATION_AVRO_VALUE = "application/avro";
+  public static final String APPLICATION_PROTOBUF_VALUE = "application/x-protobuf";
+  /** Content type parameter giving the writer's schema id of a bare Avro encoding. */
+  public static final String SCHEMA_ID_PARAMETER = "schema-id";
+
+  private static final MediaType APPLICATION_AVRO = MediaType.valueOf(APPLICATION_AVRO_VALUE);
+  private static final MediaType APPLICATION_PROTOBUF =
+      MediaType.valueOf(APPLICATION_PROTOBUF_VALUE);
+
+  private final AvroRequestDecoder jsonDecoder;
+  private final AvroBinaryRequestDecoder avroDecoder;
+  private final ProtobufRequestDecoder protobufDecoder;
+
+  @Value("${request.max-body-size:64KB}")
+  protected DataSize maxBodySize = DataSize.ofKilobytes(64);
+
+  public DecodedRequest<RegistrationAvroRequest> decodeRegistration(
+      final MediaType contentType, final InputStream requestBody) {
+    final InputStream body = limited(requestBody);
+    if (APPLICATION_AVRO.includes(contentType)) {
+      return avroDecoder.decodeRegistration(body, schemaId(contentType));
+    }
+    if (APPLICATION_PROTOBUF.includes(contentType)) {
+      return protobufDecoder.decodeRegistration(body);
+    }
+    return jsonDecoder.decodeRegistration(body);
+  }
+
+  public DecodedRequest<SendAvroRequest> decodeSend(
+      final MediaType contentType, final InputStream requestBody) {
+    final InputStream body = limited(requestBody);
+    if (APPLICATION_AVRO.includes(contentType)) {
+      return avroDecoder.decodeSend(body, schemaId(contentType));
+    }
+    if (APPLICATION_PROTOBUF.includes(contentType)) {
+      return protobufDecoder.decodeSend(body);
+    }
+    return jsonDecoder.decodeSend(body);
+  }
+
+  public DecodedRequest<CommsPreference> decodePreference(
+      final MediaType contentType, final InputStream requestBody) {
+    final InputStream body = limited(requestBody);
+    if (APPLICATION_AVRO.includes(contentType)) {
+      return avroDecoder.decodePreference(body, schemaId(contentType));
+    }
+    if (APPLICATION_PROTOBUF.includes(contentType)) {
+      return protobufDecoder.decodePreference(body);
+    }
+    return jsonDecoder.decodePreference(body);
+  }
+
+  private InputStream limited(final InputStream body) {
+    return new SizeLimitedInputStream(body, maxBodySize.toBytes());
+  }
+
+  private static Integer schemaId(final MediaType contentType) {
+    final String schemaId = contentType.getParameter(SCHEMA_ID_PARAMETER);
+    if (schemaId == null) {
+      return null;
+    }
+    try {
+      return Integer.valueOf(schemaId);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid " + SCHEMA_ID_PARAMETER + ": " + schemaId, e);
+    }
+  }
+}
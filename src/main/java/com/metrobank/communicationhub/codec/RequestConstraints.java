@@ -0,0 +1,185 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.codec;
+
+import com.metrobank.communicationhub.model.request.CommsType;
+import com.metrobank.communicationhub.model.request.DeviceType;
+import com.metrobank.communicationhub.model.request.MessageType;
+import com.metrobank.communicationhub.model.request.RegistrationRequest;
+import com.metrobank.communicationhub.model.request.SendRequest;
+import com.metrobank.communicationhub.schema.CommsPreference;
+import com.metrobank.communicationhub.schema.RegistrationAvroRequest;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
+import org.apache.avro.specific.SpecificRecordBase;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+import java.lang.annotation.Annotation;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * The request DTOs' constraints, checked on the decoded Avro records whatever the body's format:
+ * the {@code @NotNull} and {@code @Pattern} rules and their messages are read from the DTO
+ * annotations, and {@code @Email} is left to the validator for any but the plainest addresses, so
+ * every decoder accepts the same requests as the DTO path.
+ */
+final class RequestConstraints {
+  static final CommsType[] COMMS_TYPES = CommsType.values();
+  static final MessageType[] MESSAGE_TYPES = MessageType.values();
+  static final DeviceType[] DEVICE_TYPES = DeviceType.values();
+
+  private static final String MISSING_DATA =
+      constraint(SendRequest.class, "commsType", NotNull.class).message();
+  private static final Pattern MOBILE_NO = constraint(SendRequest.class, "mobileNo", Pattern.class);
+  private static final java.util.regex.Pattern MOBILE_NO_PATTERN =
+      java.util.regex.Pattern.compile(MOBILE_NO.regexp());
+
+  // Limits of the address forms checked without the validator, within those it enforces itself
+  private static final int MAX_LOCAL_PART_LENGTH = 64;
+  private static final int MAX_DOMAIN_LENGTH = 253;
+  private static final int MAX_LABEL_LENGTH = 63;
+  private static final String LOCAL_PART_SYMBOLS = "_%+-";
+
+  private final Validator validator;
+
+  RequestConstraints(final Validator validator) {
+    this.validator = validator;
+  }
+
+  DecodedRequest<RegistrationAvroRequest> check(final RegistrationAvroRequest request) {
+    return decoded(
+        request,
+        missing(request.getToken()),
+        missing(request.getDeviceType()),
+        missing(request.getCommsType()),
+        invalidEmail(RegistrationRequest.class, request.getEmail()),
+        invalidMobileNo(request.getMobileNo()));
+  }
+
+  DecodedRequest<SendAvroRequest> check(final SendAvroRequest request) {
+    return decoded(
+        request,
+        missing(request.getCommsType()),
+        invalidEmail(SendRequest.class, request.getEmail()),
+        missing(request.getMessageType()),
+        invalidMobileNo(request.getMobileNo()),
+        missing(request.getTemplateId()));
+  }
+
+  DecodedRequest<CommsPreference> check(final CommsPreference request) {
+    return decoded(
+        request,
+        missing(request.getCommsType()),
+        missing(request.getMessageType()),
+        missing(request.getPreferences()));
+  }
+
+  /**
+   * The constant's name, for formats that carry enums as text; names the DTO enum does not declare
+   * are rejected as Jackson rejects them on the DTO path.
+   */
+  static <E extends Enum<E>> String constantName(final CharSequence name, final E[] constants) {
+    if (name == null) {
+      return null;
+    }
+    for (E constant : constants) {
+      if (constant.name().contentEquals(name)) {
+        return constant.name();
+      }
+    }
+    throw new IllegalArgumentException(
+        String.format("Expected one of %s but found %s", Arrays.toString(constants), name));
+  }
+
+  private static String missing(final Object value) {
+    return value == null ? MISSING_DATA : null;
+  }
+
+  private static String invalidMobileNo(final CharSequence mobileNo) {
+    return mobileNo == null || MOBILE_NO_PATTERN.matcher(mobileNo).matches()
+        ? null
+        : MOBILE_NO.message();
+  }
+
+  private String invalidEmail(final Class<?> requestType, final CharSequence value) {
+    if (value == null) {
+      return null;
+    }
+    final String email = value.toString();
+    if (isPlainAddress(email)) {
+      return null;
+    }
+    final Set<? extends ConstraintViolation<?>> violations =
+        validator.validateValue(requestType, "email", email);
+    return violations.isEmpty() ? null : violations.iterator().next().getMessage();
+  }
+
+  /**
+   * Whether the address is made of dot separated ASCII atoms, an {@code @} and a dotted host name:
+   * the everyday addresses, all of which {@code @Email} accepts. Checking these here spares them the
+   * validator, which costs several times the rest of the decoding; anything else is still left to
+   * it.
+   */
+  static boolean isPlainAddress(final String email) {
+    final int at = email.indexOf('@');
+    if (at < 1 || at > MAX_LOCAL_PART_LENGTH || email.length() - at - 1 > MAX_DOMAIN_LENGTH) {
+      return false;
+    }
+    char previous = '.';
+    for (int i = 0; i < at; i++) {
+      final char c = email.charAt(i);
+      if (c == '.' ? previous == '.' : !isAlphanumeric(c) && LOCAL_PART_SYMBOLS.indexOf(c) < 0) {
+        return false;
+      }
+      previous = c;
+    }
+    if (previous == '.') {
+      return false;
+    }
+    int labels = 0;
+    int labelStart = at + 1;
+    for (int i = labelStart; i <= email.length(); i++) {
+      final char c = i == email.length() ? '.' : email.charAt(i);
+      if (c == '.') {
+        final int length = i - labelStart;
+        if (length == 0
+            || length > MAX_LABEL_LENGTH
+            || email.charAt(labelStart) == '-'
+            || email.charAt(i - 1) == '-') {
+          return false;
+        }
+        labels++;
+        labelStart = i + 1;
+      } else if (!isAlphanumeric(c) && c != '-') {
+        return false;
+      }
+    }
+    return labels > 1;
+  }
+
+  private static boolean isAlphanumeric(final char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+  }
+
+  /** Pairs the record with the first violation, in the order the DTO declares its fields. */
+  private static <T extends SpecificRecordBase> DecodedRequest<T> decoded(
+      final T request, final String... violations) {
+    for (String violation : violations) {
+      if (violation != null) {
+        return new DecodedRequest<>(request, violation);
+      }
+    }
+    return new DecodedRequest<>(request, null);
+  }
+
+  private static <A extends Annotation> A constraint(
+      final Class<?> requestType, final String field, final Class<A> annotationType) {
+    try {
+      return requestType.getDeclaredField(field).getAnnotation(annotationType);
+    } catch (NoSuchFieldException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,10 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.codec;
+
+/** How JSON request bodies become the Avro records the service produces. */
+public enum RequestDecoding {
+  /** Bound by Jackson into the request DTOs, validated with {@code @Valid} and then converted. */
+  DTO,
+  /** Streamed straight into the Avro records by {@link AvroRequestDecoder}. */
+  DIRECT
+}
@@ -0,0 +1,61 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.codec;
+
+import com.metrobank.communicationhub.exception.RestProxyPayloadTooLargeException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Fails a read that takes the body past its size limit, so no decoder buffers or parses more than
+ * the limit whatever the body claims its length to be.
+ */
+final class SizeLimitedInputStream extends FilterInputStream {
+  private final long limit;
+  private long read;
+
+  SizeLimitedInputStream(final InputStream body, final long limit) {
+    super(body);
+    this.limit = limit;
+  }
+
+  @Override
+  public int read() throws IOException {
+    final int b = super.read();
+    if (b >= 0) {
+      count(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+    // Asks for one byte past the limit at most, enough to tell the body is over it
+    final int n = super.read(buffer, offset, (int) Math.min(length, limit - read + 1));
+    if (n > 0) {
+      count(n);
+    }
+    return n;
+  }
+
+  @Override
+  public long skip(final long n) throws IOException {
+    final long skipped = super.skip(Math.min(n, limit - read + 1));
+    count(skipped);
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  private void count(final long n) {
+    read += n;
+    if (read > limit) {
+      throw new RestProxyPayloadTooLargeException(
+          "Request body exceeds the limit of " + limit + " bytes");
+    }
+  }
+}
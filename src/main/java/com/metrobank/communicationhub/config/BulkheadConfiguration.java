@@ -0,0 +1,23 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.config;
+
+import com.metrobank.communicationhub.bulkhead.BulkheadInterceptor;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/** Puts the {@link BulkheadInterceptor} in front of the handlers. */
+@Profile("!reactive")
+@Configuration
+@RequiredArgsConstructor
+public class BulkheadConfiguration implements WebMvcConfigurer {
+
+  private final BulkheadInterceptor bulkheadInterceptor;
+
+  @Override
+  public void addInterceptors(final InterceptorRegistry registry) {
+    registry.addInterceptor(bulkheadInterceptor);
+  }
+}
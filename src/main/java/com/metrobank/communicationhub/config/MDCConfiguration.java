@@ -2,7 +2,9 @@
 package com.metrobank.communicationhub.config;
 
 import com.metrobank.commons.utils.UniqueIdGenerator;
+import com.metrobank.communicationhub.util.RequestDeadline;
 import org.slf4j.MDC;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
@@ -12,6 +14,10 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 
+import static com.metrobank.communicationhub.util.CommsHubConstants.REQUEST_DEADLINE_HEADER;
+import static com.metrobank.communicationhub.util.CommsHubConstants.REQUEST_TIMEOUT_HEADER;
+
+@Profile("!reactive")
 @Component
 public class MDCConfiguration extends OncePerRequestFilter {
 
@@ -20,10 +26,14 @@ public class MDCConfiguration extends OncePerRequestFilter {
         String uniqueID = Long.toString(UniqueIdGenerator.generateId());
         request.setAttribute("generatedId", uniqueID);
         MDC.put("uuid", uniqueID);
+        RequestDeadline.set(
+                RequestDeadline.fromHeaders(
+                        request.getHeader(REQUEST_DEADLINE_HEADER), request.getHeader(REQUEST_TIMEOUT_HEADER)));
         try {
             filterChain.doFilter(request, response);
         } finally {
             MDC.remove("uuid");
+            RequestDeadline.clear();
         }
     }
 }
@@ -0,0 +1,89 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.config;
+
+import com.metrobank.communicationhub.admission.AdmissionController;
+import com.metrobank.communicationhub.kafka.QosLanes;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.MicrometerProducerListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * QoS lanes: a producer per lane, built from {@code spring.kafka.producer} with the lane's {@code
+ * producer} overrides on top, so serializers, partitioner and registry settings match the shared
+ * producer's. Lane records bypass the spool, which only wraps the shared {@link KafkaTemplate}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "qos.enabled", havingValue = "true")
+@EnableConfigurationProperties(QosLaneProperties.class)
+@Log4j2
+public class QosLaneConfiguration {
+
+  @Bean
+  public QosLanes qosLanes(
+      final QosLaneProperties properties,
+      final KafkaProperties kafkaProperties,
+      final AdmissionController admissionController,
+      final MeterRegistry meterRegistry) {
+    final List<QosLanes.Lane> lanes = new ArrayList<>();
+    properties
+        .getLanes()
+        .forEach(
+            (name, lane) -> {
+              final DefaultKafkaProducerFactory<String, SpecificRecordBase> producerFactory =
+                  new DefaultKafkaProducerFactory<>(producerProperties(kafkaProperties, name, lane));
+              // Tagged with the lane's client id, like the shared producer's meters with its own
+              producerFactory.addListener(new MicrometerProducerListener<>(meterRegistry));
+              final KafkaTemplate<String, SpecificRecordBase> kafkaTemplate =
+                  new KafkaTemplate<>(producerFactory);
+              kafkaTemplate.setBeanName("qos-" + name);
+              lanes.add(
+                  new QosLanes.Lane(
+                      name,
+                      names(lane.getCommsTypes()),
+                      names(lane.getMessageTypes()),
+                      lane.getTopic(),
+                      producerFactory,
+                      kafkaTemplate,
+                      admissionController.forLane(name, kafkaTemplate, lane.getMaxInFlight()),
+                      meterRegistry));
+              log.info(
+                  "QoS lane {} for comms types {} and message types {} on topic {}, producer {}",
+                  name,
+                  lane.getCommsTypes(),
+                  lane.getMessageTypes(),
+                  lane.getTopic(),
+                  lane.getProducer());
+            });
+    return new QosLanes(lanes);
+  }
+
+  static Map<String, Object> producerProperties(
+      final KafkaProperties kafkaProperties, final String name, final QosLaneProperties.Lane lane) {
+    final Map<String, Object> producerProperties = kafkaProperties.buildProducerProperties();
+    producerProperties.putAll(lane.getProducer());
+    // Producer metrics and quotas are per client id, so each lane needs its own
+    final Object clientId = producerProperties.get(ProducerConfig.CLIENT_ID_CONFIG);
+    producerProperties.put(
+        ProducerConfig.CLIENT_ID_CONFIG, (clientId == null ? "" : clientId + "-") + "qos-" + name);
+    return producerProperties;
+  }
+
+  private static Set<String> names(final Set<? extends Enum<?>> constants) {
+    return constants.stream().map(Enum::name).collect(Collectors.toSet());
+  }
+}
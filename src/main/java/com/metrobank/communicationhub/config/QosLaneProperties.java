@@ -0,0 +1,38 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.config;
+
+import com.metrobank.communicationhub.model.request.CommsType;
+import com.metrobank.communicationhub.model.request.MessageType;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/** The {@code qos.lanes} section: lanes by name, in the order sends are matched against them. */
+@Data
+@ConfigurationProperties(prefix = "qos")
+public class QosLaneProperties {
+
+  private Map<String, Lane> lanes = new LinkedHashMap<>();
+
+  @Data
+  public static class Lane {
+    /** Comms types sent through the lane, any when empty. */
+    private Set<CommsType> commsTypes = EnumSet.noneOf(CommsType.class);
+
+    /** Message types sent through the lane, any when empty. */
+    private Set<MessageType> messageTypes = EnumSet.noneOf(MessageType.class);
+
+    /** Topic of the lane's records, the send topic when not set. */
+    private String topic;
+
+    /** Records in flight on the lane before it answers 429. */
+    private int maxInFlight = 1000;
+
+    /** Producer properties overriding {@code spring.kafka.producer} for the lane's producer. */
+    private Map<String, String> producer = new LinkedHashMap<>();
+  }
+}
@@ -0,0 +1,28 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.config;
+
+import org.apache.avro.specific.SpecificRecordBase;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import reactor.kafka.sender.KafkaSender;
+import reactor.kafka.sender.SenderOptions;
+
+/**
+ * Reactive profile: a reactor-kafka sender built from the same {@code spring.kafka.producer}
+ * settings as the {@link org.springframework.kafka.core.KafkaTemplate}, so keys, serializers,
+ * idempotence and partitioning match between the two stacks.
+ */
+@Configuration
+@Profile("reactive")
+public class ReactiveKafkaConfiguration {
+
+  @Bean(destroyMethod = "close")
+  public KafkaSender<String, SpecificRecordBase> kafkaSender(
+      final KafkaProperties kafkaProperties) {
+    return KafkaSender.create(
+        SenderOptions.<String, SpecificRecordBase>create(
+            kafkaProperties.buildProducerProperties()));
+  }
+}
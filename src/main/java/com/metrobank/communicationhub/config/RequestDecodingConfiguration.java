@@ -0,0 +1,58 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.config;
+
+import com.metrobank.communicationhub.codec.DecodedWith;
+import com.metrobank.communicationhub.codec.RequestDecoding;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcRegistrations;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import java.lang.reflect.Method;
+
+/**
+ * Maps either the DTO or the direct decoding handlers of the request body endpoints, as selected
+ * by {@code request.decoding}. Both sets share their paths, so the other set is left unmapped
+ * rather than matched per request; only for the content types the selected set does not take, such
+ * as the binary bodies of the direct handlers, do those handlers stay mapped.
+ */
+@Profile("!reactive")
+@Configuration
+public class RequestDecodingConfiguration implements WebMvcRegistrations {
+
+  @Value("${request.decoding:DTO}")
+  protected RequestDecoding requestDecoding = RequestDecoding.DTO;
+
+  @Override
+  public RequestMappingHandlerMapping getRequestMappingHandlerMapping() {
+    return new RequestMappingHandlerMapping() {
+      @Override
+      protected RequestMappingInfo getMappingForMethod(Method method, Class<?> handlerType) {
+        final RequestMappingInfo info = super.getMappingForMethod(method, handlerType);
+        return info == null || isSelected(method, handlerType) ? info : withoutJson(info);
+      }
+    };
+  }
+
+  /** The mapping for its non-JSON content types only, or null if it takes no others. */
+  static RequestMappingInfo withoutJson(final RequestMappingInfo info) {
+    final String[] consumes =
+        info.getConsumesCondition().getConsumableMediaTypes().stream()
+            .filter(mediaType -> !MediaType.APPLICATION_JSON.includes(mediaType))
+            .map(MediaType::toString)
+            .toArray(String[]::new);
+    return consumes.length == 0 ? null : info.mutate().consumes(consumes).build();
+  }
+
+  boolean isSelected(final Method method, final Class<?> handlerType) {
+    DecodedWith decodedWith = AnnotatedElementUtils.findMergedAnnotation(method, DecodedWith.class);
+    if (decodedWith == null) {
+      decodedWith = AnnotatedElementUtils.findMergedAnnotation(handlerType, DecodedWith.class);
+    }
+    return decodedWith == null || decodedWith.value() == requestDecoding;
+  }
+}
@@ -0,0 +1,25 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.config;
+
+import com.metrobank.commons.utils.UniqueIdGenerator;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive profile counterpart of {@link MDCConfiguration}. Requests hop between threads, so the
+ * id travels as the {@code generatedId} exchange attribute rather than through the MDC.
+ */
+@Component
+@Profile("reactive")
+public class RequestIdWebFilter implements WebFilter {
+
+  @Override
+  public Mono<Void> filter(final ServerWebExchange exchange, final WebFilterChain chain) {
+    exchange.getAttributes().put("generatedId", Long.toString(UniqueIdGenerator.generateId()));
+    return chain.filter(exchange);
+  }
+}
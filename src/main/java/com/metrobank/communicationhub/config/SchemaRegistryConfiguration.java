@@ -0,0 +1,35 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.config;
+
+import io.confluent.kafka.schemaregistry.client.CachedSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.serializers.AbstractKafkaSchemaSerDeConfig;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Map;
+
+/**
+ * Schema registry client for the Avro request bodies, which name their writer's schema by id. It
+ * is configured from the same {@code spring.kafka.properties} as the serializers, so the url and
+ * any credentials match theirs.
+ */
+@Configuration
+public class SchemaRegistryConfiguration {
+
+  @Value("${schema-registry.cache-capacity:100}")
+  protected int cacheCapacity = 100;
+
+  @Bean
+  @ConditionalOnMissingBean
+  public SchemaRegistryClient schemaRegistryClient(final KafkaProperties kafkaProperties) {
+    final Map<String, String> properties = kafkaProperties.getProperties();
+    return new CachedSchemaRegistryClient(
+        properties.get(AbstractKafkaSchemaSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG),
+        cacheCapacity,
+        properties);
+  }
+}
@@ -0,0 +1,37 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.config;
+
+import com.metrobank.communicationhub.spool.KafkaSpool;
+import com.metrobank.communicationhub.spool.SpoolingKafkaTemplate;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+
+/**
+ * Spool mode: every send goes to the local {@link KafkaSpool} and is replayed to the broker by its
+ * drainers. Replacing the {@link KafkaTemplate} bean keeps the services unaware of the mode.
+ */
+@Configuration
+@ConditionalOnProperty(name = "spool.enabled", havingValue = "true")
+public class SpoolConfiguration {
+
+  @Bean
+  public KafkaSpool kafkaSpool(
+      final ProducerFactory<String, SpecificRecordBase> producerFactory,
+      final MeterRegistry meterRegistry) {
+    return new KafkaSpool(new KafkaTemplate<>(producerFactory), meterRegistry);
+  }
+
+  @Bean
+  @Primary
+  public KafkaTemplate<String, SpecificRecordBase> kafkaTemplate(
+      final ProducerFactory<String, SpecificRecordBase> producerFactory,
+      final KafkaSpool kafkaSpool) {
+    return new SpoolingKafkaTemplate(producerFactory, kafkaSpool);
+  }
+}
@@ -3,18 +3,26 @@
  */
 package com.metrobank.communicationhub.config;
 
+import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfoHandlerMapping;
 import springfox.documentation.builders.PathSelectors;
 import springfox.documentation.builders.RequestHandlerSelectors;
 import springfox.documentation.service.ApiInfo;
 import springfox.documentation.service.Contact;
 import springfox.documentation.spi.DocumentationType;
 import springfox.documentation.spring.web.plugins.Docket;
+import springfox.documentation.spring.web.plugins.WebMvcRequestHandlerProvider;
 import springfox.documentation.swagger2.annotations.EnableSwagger2;
 
+import java.lang.reflect.Field;
 import java.util.Collections;
+import java.util.List;
 
+@Profile("!reactive")
 @Configuration
 @EnableSwagger2
 public class SwaggerConfig {
@@ -30,6 +38,30 @@ public class SwaggerConfig {
                 .useDefaultResponseMessages(false);
     }
 
+    /**
+     * Springfox 2.9 only understands ant pattern mappings, while actuator maps its endpoints with
+     * path patterns regardless of spring.mvc.pathmatch, so those mappings are kept out of its scan.
+     */
+    @Bean
+    public static BeanPostProcessor springfoxHandlerMappingsPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof WebMvcRequestHandlerProvider) {
+                    handlerMappings(bean).removeIf(mapping -> mapping.getPatternParser() != null);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<RequestMappingInfoHandlerMapping> handlerMappings(Object bean) {
+        Field field = ReflectionUtils.findField(bean.getClass(), "handlerMappings");
+        ReflectionUtils.makeAccessible(field);
+        return (List<RequestMappingInfoHandlerMapping>) ReflectionUtils.getField(field, bean);
+    }
+
     private ApiInfo metaData() {
         return new ApiInfo(
                 "",
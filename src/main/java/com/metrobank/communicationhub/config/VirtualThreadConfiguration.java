@@ -0,0 +1,35 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual thread mode: Tomcat handles every request on its own virtual thread instead of a
+ * bounded platform pool, so requests blocked on MongoDB or the IbId mapping no longer cap
+ * concurrency at {@code server.tomcat.threads.max}. Kafka delivery callbacks are moved off the
+ * producer's network thread onto virtual threads as well.
+ */
+@Configuration
+@ConditionalOnProperty(name = "virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+  @Bean
+  public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+    return protocolHandler ->
+        protocolHandler.setExecutor(
+            Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("http-virtual-", 0).factory()));
+  }
+
+  @Bean(destroyMethod = "close")
+  public ExecutorService deliveryCallbackExecutor() {
+    return Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("kafka-callback-", 0).factory());
+  }
+}
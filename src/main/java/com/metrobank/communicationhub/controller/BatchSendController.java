@@ -0,0 +1,55 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.controller;
+
+import com.metrobank.communicationhub.model.Error;
+import com.metrobank.communicationhub.model.batch.BatchSendResponse;
+import com.metrobank.communicationhub.service.BatchSendService;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestAttribute;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+@Profile("!reactive")
+@RestController
+@RequiredArgsConstructor
+@Log4j2
+@Api(tags = {"Communication Hub"})
+@RequestMapping(value = "comms/v1")
+public class BatchSendController {
+  private final BatchSendService batchSendService;
+
+  @ApiOperation(
+      value = "Process a batch of Communication requests, one JSON document per line",
+      consumes = MediaType.APPLICATION_NDJSON_VALUE,
+      produces = "application/json")
+  @ApiResponses({
+    @ApiResponse(code = 200, message = "SUCCESS", response = BatchSendResponse.class),
+    @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class)
+  })
+  @PostMapping(
+      value = "send/batch",
+      consumes = MediaType.APPLICATION_NDJSON_VALUE,
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<BatchSendResponse> sendBatch(
+      @RequestAttribute("generatedId") String uuid, final HttpServletRequest request)
+      throws IOException {
+
+    log.info("BatchSendController :: Send Communication Batch :: batch {}", uuid);
+
+    return new ResponseEntity<>(
+        batchSendService.send(request.getInputStream(), uuid), HttpStatus.OK);
+  }
+}
@@ -2,13 +2,21 @@
 package com.metrobank.communicationhub.controller;
 
 import com.fasterxml.jackson.databind.exc.InvalidFormatException;
+import com.metrobank.communicationhub.exception.RestProxyConflictException;
+import com.metrobank.communicationhub.exception.RestProxyDeadlineExceededException;
 import com.metrobank.communicationhub.exception.RestProxyException;
+import com.metrobank.communicationhub.exception.RestProxyPayloadTooLargeException;
+import com.metrobank.communicationhub.exception.RestProxyServiceUnavailableException;
+import com.metrobank.communicationhub.exception.RestProxyTooManyRequestsException;
 import com.metrobank.communicationhub.exception.RestProxyUnprocessableEntityException;
 import com.metrobank.communicationhub.model.Error;
 import com.mongodb.MongoExecutionTimeoutException;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.kafka.KafkaException;
 import org.springframework.kafka.requestreply.KafkaReplyTimeoutException;
 import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -17,6 +25,8 @@ import org.springframework.web.client.HttpServerErrorException;
 
 import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.ServerErrorException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeoutException;
 
 import static com.metrobank.communicationhub.util.CommsHubConstants.*;
 import static org.springframework.http.HttpStatus.*;
@@ -30,7 +40,8 @@ public class CommsControllerAdvice {
     IllegalArgumentException.class,
     MissingServletRequestParameterException.class,
     InvalidFormatException.class,
-    HttpMessageNotReadableException.class
+    HttpMessageNotReadableException.class,
+    UncheckedIOException.class
   })
   public ResponseEntity<Error> restProxyUnprocessableEntityException(final Exception exception) {
     log.error("Invalid request parameters:{}", exception.getMessage());
@@ -59,6 +70,80 @@ public class CommsControllerAdvice {
     return new ResponseEntity<>(errors, REQUEST_TIMEOUT);
   }
 
+  @ExceptionHandler({
+    TimeoutException.class,
+    QueryTimeoutException.class,
+    RestProxyDeadlineExceededException.class
+  })
+  public ResponseEntity<Error> deliveryTimeoutException(final Exception exception) {
+    log.error(RESPONSE_TIMEOUT_ERROR_MESSAGE);
+    final Error errors =
+        Error.builder()
+            .code(RESPONSE_TIMEOUT_ERROR_CODE)
+            .message(RESPONSE_TIMEOUT_ERROR_MESSAGE)
+            .build();
+    return new ResponseEntity<>(errors, REQUEST_TIMEOUT);
+  }
+
+  @ExceptionHandler({KafkaException.class})
+  public ResponseEntity<Error> kafkaException(final KafkaException exception) {
+    log.error(DELIVERY_FAILED_ERROR_MESSAGE, exception);
+    final Error errors =
+        Error.builder()
+            .code(SERVICE_UNAVAILABLE_ERROR_CODE)
+            .message(DELIVERY_FAILED_ERROR_MESSAGE)
+            .build();
+    return new ResponseEntity<>(errors, SERVICE_UNAVAILABLE);
+  }
+
+  @ExceptionHandler({RestProxyTooManyRequestsException.class})
+  public ResponseEntity<Error> tooManyRequestsException(
+      final RestProxyTooManyRequestsException exception) {
+    log.warn(TOO_MANY_REQUESTS_ERROR_MESSAGE);
+    final Error errors =
+        Error.builder()
+            .code(TOO_MANY_REQUESTS_ERROR_CODE)
+            .message(TOO_MANY_REQUESTS_ERROR_MESSAGE)
+            .build();
+    return ResponseEntity.status(TOO_MANY_REQUESTS)
+        .header(HttpHeaders.RETRY_AFTER, String.valueOf(exception.getRetryAfterSeconds()))
+        .body(errors);
+  }
+
+  @ExceptionHandler({RestProxyServiceUnavailableException.class})
+  public ResponseEntity<Error> serviceUnavailableException(
+      final RestProxyServiceUnavailableException exception) {
+    log.warn(exception.getMessage());
+    final Error errors =
+        Error.builder()
+            .code(SERVICE_UNAVAILABLE_ERROR_CODE)
+            .message(READS_UNAVAILABLE_ERROR_MESSAGE)
+            .build();
+    return ResponseEntity.status(SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, String.valueOf(exception.getRetryAfterSeconds()))
+        .body(errors);
+  }
+
+  @ExceptionHandler({RestProxyConflictException.class})
+  public ResponseEntity<Error> conflictException(final RestProxyConflictException exception) {
+    log.warn(exception.getMessage());
+    final Error errors =
+        Error.builder().code(CONFLICT_ERROR_CODE).message(exception.getMessage()).build();
+    return new ResponseEntity<>(errors, CONFLICT);
+  }
+
+  @ExceptionHandler({RestProxyPayloadTooLargeException.class})
+  public ResponseEntity<Error> payloadTooLargeException(
+      final RestProxyPayloadTooLargeException exception) {
+    log.warn(exception.getMessage());
+    final Error errors =
+        Error.builder()
+            .code(PAYLOAD_TOO_LARGE_ERROR_CODE)
+            .message(PAYLOAD_TOO_LARGE_ERROR_MESSAGE)
+            .build();
+    return new ResponseEntity<>(errors, PAYLOAD_TOO_LARGE);
+  }
+
   @ExceptionHandler({
     NullPointerException.class,
     InterruptedException.class,
@@ -0,0 +1,339 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.controller;
+
+import com.metrobank.communicationhub.bulkhead.Bulkhead;
+import com.metrobank.communicationhub.codec.DecodedRequest;
+import com.metrobank.communicationhub.codec.DecodedWith;
+import com.metrobank.communicationhub.codec.RequestBodyDecoder;
+import com.metrobank.communicationhub.codec.RequestDecoding;
+import com.metrobank.communicationhub.exception.RestProxyUnprocessableEntityException;
+import com.metrobank.communicationhub.idempotency.IdempotentRequests;
+import com.metrobank.communicationhub.model.Error;
+import com.metrobank.communicationhub.model.request.PreferenceRequest;
+import com.metrobank.communicationhub.model.request.RegistrationRequest;
+import com.metrobank.communicationhub.model.request.SendRequest;
+import com.metrobank.communicationhub.schema.CommsPreference;
+import com.metrobank.communicationhub.schema.RegistrationAvroRequest;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
+import com.metrobank.communicationhub.service.RestProxyService;
+import io.swagger.annotations.*;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import springfox.documentation.annotations.ApiIgnore;
+
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+
+import static com.metrobank.communicationhub.codec.RequestBodyDecoder.APPLICATION_AVRO_VALUE;
+import static com.metrobank.communicationhub.codec.RequestBodyDecoder.APPLICATION_PROTOBUF_VALUE;
+import static com.metrobank.communicationhub.util.CommsHubConstants.BAD_REQUEST_CUSTOMERID_IBID_MISSING;
+import static com.metrobank.communicationhub.util.CommsHubConstants.DELIVERY_MODE_CONFIRMED;
+import static com.metrobank.communicationhub.util.CommsHubConstants.DELIVERY_MODE_HEADER;
+import static com.metrobank.communicationhub.util.CommsHubConstants.IDEMPOTENCY_KEY_HEADER;
+
+/**
+ * The request body endpoints of {@link RestProxyController} with the bodies decoded straight into
+ * the Avro records by {@link RequestBodyDecoder}. Mapped instead of the DTO handlers when
+ * {@code request.decoding} is {@code DIRECT}; the Avro and Protobuf bodies, which have no DTO
+ * handlers, are decoded here either way.
+ */
+@Profile("!reactive")
+@RestController
+@RequiredArgsConstructor
+@Log4j2
+@Api(tags = {"Communication Hub"})
+@RequestMapping(value = "comms/v1")
+@DecodedWith(RequestDecoding.DIRECT)
+@Bulkhead(Bulkhead.Group.WRITES)
+public class DirectRestProxyController {
+  private static final String CONFIRMED_DELIVERY = DELIVERY_MODE_HEADER + "=" + DELIVERY_MODE_CONFIRMED;
+  private static final String CONSUMES =
+      MediaType.APPLICATION_JSON_VALUE + ", " + APPLICATION_AVRO_VALUE + ", "
+          + APPLICATION_PROTOBUF_VALUE;
+
+  private final RestProxyService restProxyService;
+  private final RequestBodyDecoder requestBodyDecoder;
+  private final IdempotentRequests idempotentRequests;
+
+  @ApiOperation(value = "Process Registration request", consumes = CONSUMES)
+  @ApiImplicitParam(name = "request", paramType = "body", required = true, dataTypeClass = RegistrationRequest.class)
+  @ApiResponses({
+    @ApiResponse(code = 201, message = "CREATED"),
+    @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class)
+  })
+  @PostMapping(
+      value = "register",
+      consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_AVRO_VALUE, APPLICATION_PROTOBUF_VALUE})
+  public ResponseEntity<Void> register(
+      @RequestHeader(value = "x-ibid", required = false) String ibId,
+      @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestAttribute("generatedId") String uuid,
+      @ApiIgnore @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+      @ApiIgnore final InputStream body) {
+
+    final RegistrationAvroRequest request =
+        validateRequest(ibId, customerId, requestBodyDecoder.decodeRegistration(contentType, body));
+
+    log.info(
+        "DirectRestProxyController :: Register Device :: CustomerId: {}, IBID : {}, ReceivedRequest : {}",
+        customerId,
+        ibId,
+        request);
+
+    return restProxyService.sendRegisterRequest(ibId, customerId, request, uuid, HttpMethod.POST);
+  }
+
+  @ApiOperation(value = "Process DeRegistration request", consumes = CONSUMES)
+  @ApiImplicitParam(name = "request", paramType = "body", required = true, dataTypeClass = RegistrationRequest.class)
+  @ApiResponses({
+    @ApiResponse(code = 204, message = "NO_CONTENT"),
+    @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class)
+  })
+  @DeleteMapping(
+      value = "/register",
+      consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_AVRO_VALUE, APPLICATION_PROTOBUF_VALUE})
+  public ResponseEntity<Void> deregister(
+      @RequestHeader(value = "x-ibid", required = false) String ibId,
+      @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestAttribute("generatedId") String uuid,
+      @ApiIgnore @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+      @ApiIgnore final InputStream body) {
+
+    final RegistrationAvroRequest request =
+        validateRequest(ibId, customerId, requestBodyDecoder.decodeRegistration(contentType, body));
+
+    log.info(
+        "DirectRestProxyController :: DeRegister Device :: CustomerId: {}, IBID : {}, ReceivedRequest : {}",
+        customerId,
+        ibId,
+        request);
+
+    return restProxyService.sendRegisterRequest(ibId, customerId, request, uuid, HttpMethod.DELETE);
+  }
+
+  @ApiOperation(value = "Process Communication request", consumes = CONSUMES)
+  @ApiImplicitParam(name = "request", paramType = "body", required = true, dataTypeClass = SendRequest.class)
+  @ApiResponses({
+    @ApiResponse(code = 200, message = "SUCCESS"),
+    @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class)
+  })
+  @PostMapping(
+      value = "send",
+      consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_AVRO_VALUE, APPLICATION_PROTOBUF_VALUE})
+  public ResponseEntity<Void> send(
+      @RequestHeader(value = "x-ibid", required = false) String ibId,
+      @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+      @RequestAttribute("generatedId") String uuid,
+      @ApiIgnore @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+      @ApiIgnore final InputStream body) {
+
+    final SendAvroRequest request =
+        validateRequest(ibId, customerId, requestBodyDecoder.decodeSend(contentType, body));
+
+    log.info(
+        "DirectRestProxyController :: Send Communication :: CustomerId: {}, IBID : {}, ReceivedRequest : {}",
+        customerId,
+        ibId,
+        request);
+
+    return idempotentRequests.execute(
+        idempotencyKey,
+        customerId,
+        ibId,
+        IdempotentRequests.fingerprint(request),
+        () -> restProxyService.sendCommunicateRequest(ibId, customerId, request, uuid),
+        () -> restProxyService.sendCommunicateRequestConfirmed(ibId, customerId, request, uuid));
+  }
+
+  @ApiOperation(value = "Save Preference request", consumes = CONSUMES)
+  @ApiImplicitParam(name = "request", paramType = "body", required = true, dataTypeClass = PreferenceRequest.class)
+  @ApiResponses({
+    @ApiResponse(code = 200, message = "SUCCESS"),
+    @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class)
+  })
+  @PostMapping(
+      value = "preference",
+      consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_AVRO_VALUE, APPLICATION_PROTOBUF_VALUE},
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<PreferenceRequest> savePreference(
+      @RequestHeader(value = "x-ibid", required = false) String ibId,
+      @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestAttribute("generatedId") String uuid,
+      @ApiIgnore @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+      @ApiIgnore final InputStream body) {
+
+    final CommsPreference request =
+        validateRequest(ibId, customerId, requestBodyDecoder.decodePreference(contentType, body));
+
+    log.info(
+        "DirectRestProxyController :: Save Preferences :: CustomerId: {}, IBID : {}, ReceivedRequest : {}",
+        customerId,
+        ibId,
+        request);
+
+    return restProxyService.sendPreferenceRequest(ibId, customerId, request, uuid);
+  }
+
+  @ApiOperation(
+      value = "Process Registration request, responding once the broker acknowledges it",
+      consumes = CONSUMES)
+  @ApiImplicitParam(name = "request", paramType = "body", required = true, dataTypeClass = RegistrationRequest.class)
+  @ApiResponses({
+    @ApiResponse(code = 201, message = "CREATED"),
+    @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class),
+    @ApiResponse(code = 408, message = "REQUEST_TIMEOUT", response = Error.class),
+    @ApiResponse(code = 503, message = "SERVICE_UNAVAILABLE", response = Error.class)
+  })
+  @PostMapping(
+      value = "register",
+      consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_AVRO_VALUE, APPLICATION_PROTOBUF_VALUE},
+      headers = CONFIRMED_DELIVERY)
+  public CompletableFuture<ResponseEntity<Void>> registerConfirmed(
+      @RequestHeader(value = "x-ibid", required = false) String ibId,
+      @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestAttribute("generatedId") String uuid,
+      @ApiIgnore @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+      @ApiIgnore final InputStream body) {
+
+    final RegistrationAvroRequest request =
+        validateRequest(ibId, customerId, requestBodyDecoder.decodeRegistration(contentType, body));
+
+    log.info(
+        "DirectRestProxyController :: Register Device (confirmed) :: CustomerId: {}, IBID : {}, ReceivedRequest : {}",
+        customerId,
+        ibId,
+        request);
+
+    return restProxyService.sendRegisterRequestConfirmed(
+        ibId, customerId, request, uuid, HttpMethod.POST);
+  }
+
+  @ApiOperation(
+      value = "Process DeRegistration request, responding once the broker acknowledges it",
+      consumes = CONSUMES)
+  @ApiImplicitParam(name = "request", paramType = "body", required = true, dataTypeClass = RegistrationRequest.class)
+  @ApiResponses({
+    @ApiResponse(code = 204, message = "NO_CONTENT"),
+    @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class),
+    @ApiResponse(code = 408, message = "REQUEST_TIMEOUT", response = Error.class),
+    @ApiResponse(code = 503, message = "SERVICE_UNAVAILABLE", response = Error.class)
+  })
+  @DeleteMapping(
+      value = "/register",
+      consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_AVRO_VALUE, APPLICATION_PROTOBUF_VALUE},
+      headers = CONFIRMED_DELIVERY)
+  public CompletableFuture<ResponseEntity<Void>> deregisterConfirmed(
+      @RequestHeader(value = "x-ibid", required = false) String ibId,
+      @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestAttribute("generatedId") String uuid,
+      @ApiIgnore @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+      @ApiIgnore final InputStream body) {
+
+    final RegistrationAvroRequest request =
+        validateRequest(ibId, customerId, requestBodyDecoder.decodeRegistration(contentType, body));
+
+    log.info(
+        "DirectRestProxyController :: DeRegister Device (confirmed) :: CustomerId: {}, IBID : {}, ReceivedRequest : {}",
+        customerId,
+        ibId,
+        request);
+
+    return restProxyService.sendRegisterRequestConfirmed(
+        ibId, customerId, request, uuid, HttpMethod.DELETE);
+  }
+
+  @ApiOperation(
+      value = "Process Communication request, responding once the broker acknowledges it",
+      consumes = CONSUMES)
+  @ApiImplicitParam(name = "request", paramType = "body", required = true, dataTypeClass = SendRequest.class)
+  @ApiResponses({
+    @ApiResponse(code = 200, message = "SUCCESS"),
+    @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class),
+    @ApiResponse(code = 408, message = "REQUEST_TIMEOUT", response = Error.class),
+    @ApiResponse(code = 503, message = "SERVICE_UNAVAILABLE", response = Error.class)
+  })
+  @PostMapping(
+      value = "send",
+      consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_AVRO_VALUE, APPLICATION_PROTOBUF_VALUE},
+      headers = CONFIRMED_DELIVERY)
+  public CompletableFuture<ResponseEntity<Void>> sendConfirmed(
+      @RequestHeader(value = "x-ibid", required = false) String ibId,
+      @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+      @RequestAttribute("generatedId") String uuid,
+      @ApiIgnore @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+      @ApiIgnore final InputStream body) {
+
+    final SendAvroRequest request =
+        validateRequest(ibId, customerId, requestBodyDecoder.decodeSend(contentType, body));
+
+    log.info(
+        "DirectRestProxyController :: Send Communication (confirmed) :: CustomerId: {}, IBID : {}, ReceivedRequest : {}",
+        customerId,
+        ibId,
+        request);
+
+    return idempotentRequests.executeAsync(
+        idempotencyKey,
+        customerId,
+        ibId,
+        IdempotentRequests.fingerprint(request),
+        () -> restProxyService.sendCommunicateRequestConfirmed(ibId, customerId, request, uuid));
+  }
+
+  @ApiOperation(
+      value = "Save Preference request, responding once the broker acknowledges it",
+      consumes = CONSUMES)
+  @ApiImplicitParam(name = "request", paramType = "body", required = true, dataTypeClass = PreferenceRequest.class)
+  @ApiResponses({
+    @ApiResponse(code = 200, message = "SUCCESS"),
+    @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class),
+    @ApiResponse(code = 408, message = "REQUEST_TIMEOUT", response = Error.class),
+    @ApiResponse(code = 503, message = "SERVICE_UNAVAILABLE", response = Error.class)
+  })
+  @PostMapping(
+      value = "preference",
+      consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_AVRO_VALUE, APPLICATION_PROTOBUF_VALUE},
+      produces = MediaType.APPLICATION_JSON_VALUE,
+      headers = CONFIRMED_DELIVERY)
+  public CompletableFuture<ResponseEntity<Void>> savePreferenceConfirmed(
+      @RequestHeader(value = "x-ibid", required = false) String ibId,
+      @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestAttribute("generatedId") String uuid,
+      @ApiIgnore @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+      @ApiIgnore final InputStream body) {
+
+    final CommsPreference request =
+        validateRequest(ibId, customerId, requestBodyDecoder.decodePreference(contentType, body));
+
+    log.info(
+        "DirectRestProxyController :: Save Preferences (confirmed) :: CustomerId: {}, IBID : {}, ReceivedRequest : {}",
+        customerId,
+        ibId,
+        request);
+
+    return restProxyService.sendPreferenceRequestConfirmed(ibId, customerId, request, uuid);
+  }
+
+  /** Checks the headers before the body, so errors are reported as on the DTO path. */
+  private <T extends SpecificRecordBase> T validateRequest(
+      String ibId, Integer customerId, DecodedRequest<T> decoded) {
+    if (customerId == null && ibId == null) {
+      throw new RestProxyUnprocessableEntityException(BAD_REQUEST_CUSTOMERID_IBID_MISSING);
+    }
+
+    if (decoded.hasViolation()) {
+      log.warn("Bad request {}", decoded.getViolation());
+      throw new RestProxyUnprocessableEntityException(decoded.getViolation());
+    }
+    return decoded.getValue();
+  }
+}
@@ -0,0 +1,33 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.controller;
+
+import com.metrobank.communicationhub.model.Error;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.server.ServerWebInputException;
+
+import static com.metrobank.communicationhub.util.CommsHubConstants.BAD_REQUEST_ERROR_CODE;
+import static com.metrobank.communicationhub.util.CommsHubConstants.BAD_REQUEST_ERROR_MESSAGE;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+
+/**
+ * WebFlux reports unreadable bodies, missing parameters and unconvertible headers as
+ * {@link ServerWebInputException}; these get the same answer {@link CommsControllerAdvice} gives
+ * their servlet equivalents, which handles every other exception on both stacks.
+ */
+@Profile("reactive")
+@RestControllerAdvice
+@Log4j2
+public class ReactiveCommsControllerAdvice {
+
+  @ExceptionHandler({ServerWebInputException.class})
+  public ResponseEntity<Error> serverWebInputException(final ServerWebInputException exception) {
+    log.error("Invalid request parameters:{}", exception.getMessage());
+    final Error errors =
+        Error.builder().code(BAD_REQUEST_ERROR_CODE).message(BAD_REQUEST_ERROR_MESSAGE).build();
+    return new ResponseEntity<>(errors, BAD_REQUEST);
+  }
+}
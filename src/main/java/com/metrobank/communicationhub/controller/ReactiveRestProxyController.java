@@ -0,0 +1,203 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.controller;
+
+import com.metrobank.communicationhub.exception.RestProxyUnprocessableEntityException;
+import com.metrobank.communicationhub.model.preferences.PreferencesResponse;
+import com.metrobank.communicationhub.model.registration.RegistrationResponse;
+import com.metrobank.communicationhub.model.request.*;
+import com.metrobank.communicationhub.service.ReactivePreferencesService;
+import com.metrobank.communicationhub.service.ReactiveRegisterService;
+import com.metrobank.communicationhub.service.ReactiveRestProxyService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.util.Set;
+
+import static com.metrobank.communicationhub.util.CommsHubConstants.BAD_REQUEST_CUSTOMERID_IBID_MISSING;
+import static com.metrobank.communicationhub.util.CommsHubConstants.BAD_REQUEST_ERROR_MESSAGE;
+import static com.metrobank.communicationhub.util.CommsHubConstants.DELIVERY_MODE_CONFIRMED;
+import static com.metrobank.communicationhub.util.CommsHubConstants.DELIVERY_MODE_HEADER;
+import static java.util.Objects.isNull;
+
+/**
+ * The {@code comms/v1} contract of {@link RestProxyController} on WebFlux, active with the
+ * reactive profile. Requests are validated in the same order as the servlet controller, headers
+ * first and body second, so both stacks answer invalid requests identically.
+ */
+@Profile("reactive")
+@RestController
+@RequiredArgsConstructor
+@Log4j2
+@RequestMapping(value = "comms/v1")
+public class ReactiveRestProxyController {
+
+  private final ReactiveRestProxyService restProxyService;
+  private final ReactiveRegisterService registerService;
+  private final ReactivePreferencesService preferencesService;
+  private final Validator validator;
+
+  @PostMapping(value = "register", consumes = MediaType.APPLICATION_JSON_VALUE)
+  public Mono<ResponseEntity<Void>> register(
+      @RequestHeader(value = "x-ibid", required = false) String ibId,
+      @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestHeader(value = DELIVERY_MODE_HEADER, required = false) String deliveryMode,
+      @RequestAttribute("generatedId") String uuid,
+      @RequestBody final RegistrationRequest request) {
+
+    validateRequest(ibId, customerId, request);
+
+    log.info(
+        "ReactiveRestProxyController :: Register Device :: CustomerId: {}, IBID : {}, ReceivedRequest : {}",
+        customerId,
+        ibId,
+        request);
+
+    return restProxyService.sendRegisterRequest(
+        ibId, customerId, request, uuid, HttpMethod.POST, isConfirmed(deliveryMode));
+  }
+
+  @DeleteMapping(value = "/register", consumes = MediaType.APPLICATION_JSON_VALUE)
+  public Mono<ResponseEntity<Void>> deregister(
+      @RequestHeader(value = "x-ibid", required = false) String ibId,
+      @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestHeader(value = DELIVERY_MODE_HEADER, required = false) String deliveryMode,
+      @RequestAttribute("generatedId") String uuid,
+      @RequestBody final RegistrationRequest request) {
+
+    validateRequest(ibId, customerId, request);
+
+    log.info(
+        "ReactiveRestProxyController :: DeRegister Device :: CustomerId: {}, IBID : {}, ReceivedRequest : {}",
+        customerId,
+        ibId,
+        request);
+
+    return restProxyService.sendRegisterRequest(
+        ibId, customerId, request, uuid, HttpMethod.DELETE, isConfirmed(deliveryMode));
+  }
+
+  @PostMapping(value = "send", consumes = MediaType.APPLICATION_JSON_VALUE)
+  public Mono<ResponseEntity<Void>> send(
+      @RequestHeader(value = "x-ibid", required = false) String ibId,
+      @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestHeader(value = DELIVERY_MODE_HEADER, required = false) String deliveryMode,
+      @RequestAttribute("generatedId") String uuid,
+      @RequestBody final SendRequest request) {
+
+    validateRequest(ibId, customerId, request);
+
+    log.info(
+        "ReactiveRestProxyController :: Send Communication :: CustomerId: {}, IBID : {}, ReceivedRequest : {}",
+        customerId,
+        ibId,
+        request);
+
+    return restProxyService.sendCommunicateRequest(
+        ibId, customerId, request, uuid, isConfirmed(deliveryMode));
+  }
+
+  @PostMapping(
+      value = "preference",
+      consumes = MediaType.APPLICATION_JSON_VALUE,
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public Mono<ResponseEntity<Void>> savePreference(
+      @RequestHeader(value = "x-ibid", required = false) String ibId,
+      @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestHeader(value = DELIVERY_MODE_HEADER, required = false) String deliveryMode,
+      @RequestAttribute("generatedId") String uuid,
+      @RequestBody final PreferenceRequest request) {
+
+    validateRequest(ibId, customerId, request);
+
+    log.info(
+        "ReactiveRestProxyController :: Save Preferences :: CustomerId: {}, IBID : {}, ReceivedRequest : {}",
+        customerId,
+        ibId,
+        request);
+
+    return restProxyService.sendPreferenceRequest(
+        ibId, customerId, request, uuid, isConfirmed(deliveryMode));
+  }
+
+  @GetMapping(value = "register", produces = MediaType.APPLICATION_JSON_VALUE)
+  public Mono<ResponseEntity<RegistrationResponse>> getRegistration(
+      @RequestHeader(value = "x-device-id", required = false) String deviceId,
+      @RequestHeader(value = "x-device-type", required = false) DeviceType deviceType,
+      @RequestHeader(value = "x-ibid", required = false) String ibId,
+      @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestParam("comms-type") CommsType commsType) {
+
+    if (customerId == null && ibId == null) {
+      throw new RestProxyUnprocessableEntityException(BAD_REQUEST_CUSTOMERID_IBID_MISSING);
+    }
+    if (commsType.equals(CommsType.MOBILE_PUSH)
+        && (StringUtils.isEmpty(deviceId) || isNull(deviceType))) {
+      throw new RestProxyUnprocessableEntityException(BAD_REQUEST_ERROR_MESSAGE);
+    }
+
+    log.info(
+        "ReactiveRestProxyController :: GetRegistration :: CustomerId: {}, IBID : {}, DeviceToken: {}, DeviceType: {}, CommsType: {}",
+        customerId,
+        ibId,
+        deviceId,
+        deviceType,
+        commsType);
+
+    return registerService
+        .getRegistration(ibId, customerId, deviceId, deviceType.name(), commsType.name())
+        .map(ResponseEntity::ok);
+  }
+
+  @GetMapping(value = "preference", produces = MediaType.APPLICATION_JSON_VALUE)
+  public Mono<ResponseEntity<PreferencesResponse>> getPreference(
+      @RequestHeader(value = "x-device-id", required = false) String deviceId,
+      @RequestHeader(value = "x-ibid", required = false) String ibId,
+      @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestParam("comms-type") CommsType commsType) {
+
+    if (customerId == null && ibId == null) {
+      throw new RestProxyUnprocessableEntityException(BAD_REQUEST_CUSTOMERID_IBID_MISSING);
+    }
+
+    if (commsType.equals(CommsType.MOBILE_PUSH) && StringUtils.isEmpty(deviceId)) {
+      throw new RestProxyUnprocessableEntityException(BAD_REQUEST_ERROR_MESSAGE);
+    }
+
+    log.info(
+        "ReactiveRestProxyController :: GetPreferences :: CustomerId: {}, IBID : {}, DeviceToken: {}, CommsType: {}",
+        customerId,
+        ibId,
+        deviceId,
+        commsType);
+
+    return preferencesService
+        .getPreferencesForCustomer(ibId, customerId, deviceId, commsType.name())
+        .map(ResponseEntity::ok);
+  }
+
+  private static boolean isConfirmed(final String deliveryMode) {
+    return DELIVERY_MODE_CONFIRMED.equals(deliveryMode);
+  }
+
+  private <T> void validateRequest(final String ibId, final Integer customerId, final T request) {
+    if (customerId == null && ibId == null) {
+      throw new RestProxyUnprocessableEntityException(BAD_REQUEST_CUSTOMERID_IBID_MISSING);
+    }
+
+    final Set<ConstraintViolation<T>> violations = validator.validate(request);
+    if (!violations.isEmpty()) {
+      final ConstraintViolation<T> violation = violations.iterator().next();
+      log.warn("Bad request Invalid: {}", violation.getPropertyPath());
+      throw new RestProxyUnprocessableEntityException(violation.getMessage());
+    }
+  }
+}
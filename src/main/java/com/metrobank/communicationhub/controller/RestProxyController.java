@@ -1,7 +1,11 @@
 /** Copyright 2021 Metro Bank. All rights reserved. */
 package com.metrobank.communicationhub.controller;
 
+import com.metrobank.communicationhub.bulkhead.Bulkhead;
+import com.metrobank.communicationhub.codec.DecodedWith;
+import com.metrobank.communicationhub.codec.RequestDecoding;
 import com.metrobank.communicationhub.exception.RestProxyUnprocessableEntityException;
+import com.metrobank.communicationhub.idempotency.IdempotentRequests;
 import com.metrobank.communicationhub.model.Error;
 import com.metrobank.communicationhub.model.preferences.PreferencesResponse;
 import com.metrobank.communicationhub.model.registration.RegistrationResponse;
@@ -13,6 +17,7 @@ import io.swagger.annotations.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -22,12 +27,17 @@ import org.springframework.validation.FieldError;
 import org.springframework.web.bind.annotation.*;
 
 import javax.validation.Valid;
+import java.util.concurrent.CompletableFuture;
 
 import static com.metrobank.communicationhub.util.CommsHubConstants.BAD_REQUEST_CUSTOMERID_IBID_MISSING;
 import static com.metrobank.communicationhub.util.CommsHubConstants.BAD_REQUEST_ERROR_MESSAGE;
+import static com.metrobank.communicationhub.util.CommsHubConstants.DELIVERY_MODE_CONFIRMED;
+import static com.metrobank.communicationhub.util.CommsHubConstants.DELIVERY_MODE_HEADER;
+import static com.metrobank.communicationhub.util.CommsHubConstants.IDEMPOTENCY_KEY_HEADER;
 import static java.lang.String.format;
 import static java.util.Objects.isNull;
 
+@Profile("!reactive")
 @RestController
 @RequiredArgsConstructor
 @Log4j2
@@ -39,16 +49,21 @@ import static java.util.Objects.isNull;
           description = "Communication Hub REST Proxy Operations")
     })
 @RequestMapping(value = "comms/v1")
+@Bulkhead(Bulkhead.Group.WRITES)
 public class RestProxyController {
+  private static final String CONFIRMED_DELIVERY = DELIVERY_MODE_HEADER + "=" + DELIVERY_MODE_CONFIRMED;
+
   private final RestProxyService restProxyService;
   private final RegisterService registerService;
   private final PreferencesService preferencesService;
+  private final IdempotentRequests idempotentRequests;
 
   @ApiOperation(value = "Process Registration request", consumes = "application/json")
   @ApiResponses({
     @ApiResponse(code = 201, message = "CREATED"),
     @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class)
   })
+  @DecodedWith(RequestDecoding.DTO)
   @PostMapping(value = "register", consumes = MediaType.APPLICATION_JSON_VALUE)
   public ResponseEntity<Void> register(
       @RequestHeader(value = "x-ibid", required = false) String ibId,
@@ -77,6 +92,7 @@ public class RestProxyController {
     @ApiResponse(code = 204, message = "NO_CONTENT"),
     @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class)
   })
+  @DecodedWith(RequestDecoding.DTO)
   @DeleteMapping(value = "/register", consumes = MediaType.APPLICATION_JSON_VALUE)
   public ResponseEntity<Void> deregister(
       @RequestHeader(value = "x-ibid", required = false) String ibId,
@@ -105,10 +121,12 @@ public class RestProxyController {
     @ApiResponse(code = 200, message = "SUCCESS"),
     @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class)
   })
+  @DecodedWith(RequestDecoding.DTO)
   @PostMapping(value = "send", consumes = MediaType.APPLICATION_JSON_VALUE)
   public ResponseEntity<Void> send(
       @RequestHeader(value = "x-ibid", required = false) String ibId,
       @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
       @RequestAttribute("generatedId") String uuid,
       @RequestBody @Valid final SendRequest request,
       final BindingResult bindingResult) {
@@ -125,7 +143,13 @@ public class RestProxyController {
         ibId,
         request);
 
-    return restProxyService.sendCommunicateRequest(ibId, customerId, request, uuid);
+    return idempotentRequests.execute(
+        idempotencyKey,
+        customerId,
+        ibId,
+        IdempotentRequests.fingerprint(request),
+        () -> restProxyService.sendCommunicateRequest(ibId, customerId, request, uuid),
+        () -> restProxyService.sendCommunicateRequestConfirmed(ibId, customerId, request, uuid));
   }
 
   @ApiOperation(value = "Save Preference request", consumes = "application/json")
@@ -133,6 +157,7 @@ public class RestProxyController {
     @ApiResponse(code = 200, message = "SUCCESS"),
     @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class)
   })
+  @DecodedWith(RequestDecoding.DTO)
   @PostMapping(
       value = "preference",
       consumes = MediaType.APPLICATION_JSON_VALUE,
@@ -159,11 +184,149 @@ public class RestProxyController {
     return restProxyService.sendPreferenceRequest(ibId, customerId, request, uuid);
   }
 
+  @ApiOperation(
+      value = "Process Registration request, responding once the broker acknowledges it",
+      consumes = "application/json")
+  @ApiResponses({
+    @ApiResponse(code = 201, message = "CREATED"),
+    @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class),
+    @ApiResponse(code = 408, message = "REQUEST_TIMEOUT", response = Error.class),
+    @ApiResponse(code = 503, message = "SERVICE_UNAVAILABLE", response = Error.class)
+  })
+  @DecodedWith(RequestDecoding.DTO)
+  @PostMapping(
+      value = "register",
+      consumes = MediaType.APPLICATION_JSON_VALUE,
+      headers = CONFIRMED_DELIVERY)
+  public CompletableFuture<ResponseEntity<Void>> registerConfirmed(
+      @RequestHeader(value = "x-ibid", required = false) String ibId,
+      @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestAttribute("generatedId") String uuid,
+      @RequestBody @Valid final RegistrationRequest request,
+      final BindingResult bindingResult) {
+
+    validateRequest(ibId, customerId, bindingResult);
+
+    log.info(
+        "RestProxyController :: Register Device (confirmed) :: CustomerId: {}, IBID : {}, ReceivedRequest : {}",
+        customerId,
+        ibId,
+        request);
+
+    return restProxyService.sendRegisterRequestConfirmed(
+        ibId, customerId, request, uuid, HttpMethod.POST);
+  }
+
+  @ApiOperation(
+      value = "Process DeRegistration request, responding once the broker acknowledges it",
+      consumes = "application/json")
+  @ApiResponses({
+    @ApiResponse(code = 204, message = "NO_CONTENT"),
+    @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class),
+    @ApiResponse(code = 408, message = "REQUEST_TIMEOUT", response = Error.class),
+    @ApiResponse(code = 503, message = "SERVICE_UNAVAILABLE", response = Error.class)
+  })
+  @DecodedWith(RequestDecoding.DTO)
+  @DeleteMapping(
+      value = "/register",
+      consumes = MediaType.APPLICATION_JSON_VALUE,
+      headers = CONFIRMED_DELIVERY)
+  public CompletableFuture<ResponseEntity<Void>> deregisterConfirmed(
+      @RequestHeader(value = "x-ibid", required = false) String ibId,
+      @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestAttribute("generatedId") String uuid,
+      @RequestBody @Valid final RegistrationRequest request,
+      final BindingResult bindingResult) {
+
+    validateRequest(ibId, customerId, bindingResult);
+
+    log.info(
+        "RestProxyController :: DeRegister Device (confirmed) :: CustomerId: {}, IBID : {}, ReceivedRequest : {}",
+        customerId,
+        ibId,
+        request);
+
+    return restProxyService.sendRegisterRequestConfirmed(
+        ibId, customerId, request, uuid, HttpMethod.DELETE);
+  }
+
+  @ApiOperation(
+      value = "Process Communication request, responding once the broker acknowledges it",
+      consumes = "application/json")
+  @ApiResponses({
+    @ApiResponse(code = 200, message = "SUCCESS"),
+    @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class),
+    @ApiResponse(code = 408, message = "REQUEST_TIMEOUT", response = Error.class),
+    @ApiResponse(code = 503, message = "SERVICE_UNAVAILABLE", response = Error.class)
+  })
+  @DecodedWith(RequestDecoding.DTO)
+  @PostMapping(
+      value = "send",
+      consumes = MediaType.APPLICATION_JSON_VALUE,
+      headers = CONFIRMED_DELIVERY)
+  public CompletableFuture<ResponseEntity<Void>> sendConfirmed(
+      @RequestHeader(value = "x-ibid", required = false) String ibId,
+      @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+      @RequestAttribute("generatedId") String uuid,
+      @RequestBody @Valid final SendRequest request,
+      final BindingResult bindingResult) {
+
+    validateRequest(ibId, customerId, bindingResult);
+
+    log.info(
+        "RestProxyController :: Send Communication (confirmed) :: CustomerId: {}, IBID : {}, ReceivedRequest : {}",
+        customerId,
+        ibId,
+        request);
+
+    return idempotentRequests.executeAsync(
+        idempotencyKey,
+        customerId,
+        ibId,
+        IdempotentRequests.fingerprint(request),
+        () -> restProxyService.sendCommunicateRequestConfirmed(ibId, customerId, request, uuid));
+  }
+
+  @ApiOperation(
+      value = "Save Preference request, responding once the broker acknowledges it",
+      consumes = "application/json")
+  @ApiResponses({
+    @ApiResponse(code = 200, message = "SUCCESS"),
+    @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class),
+    @ApiResponse(code = 408, message = "REQUEST_TIMEOUT", response = Error.class),
+    @ApiResponse(code = 503, message = "SERVICE_UNAVAILABLE", response = Error.class)
+  })
+  @DecodedWith(RequestDecoding.DTO)
+  @PostMapping(
+      value = "preference",
+      consumes = MediaType.APPLICATION_JSON_VALUE,
+      produces = MediaType.APPLICATION_JSON_VALUE,
+      headers = CONFIRMED_DELIVERY)
+  public CompletableFuture<ResponseEntity<Void>> savePreferenceConfirmed(
+      @RequestHeader(value = "x-ibid", required = false) String ibId,
+      @RequestHeader(value = "x-customer-id", required = false) Integer customerId,
+      @RequestAttribute("generatedId") String uuid,
+      @RequestBody @Valid final PreferenceRequest request,
+      final BindingResult bindingResult) {
+
+    validateRequest(ibId, customerId, bindingResult);
+
+    log.info(
+        "RestProxyController :: Save Preferences (confirmed) :: CustomerId: {}, IBID : {}, ReceivedRequest : {}",
+        customerId,
+        ibId,
+        request);
+
+    return restProxyService.sendPreferenceRequestConfirmed(ibId, customerId, request, uuid);
+  }
+
   @ApiOperation(value = "Process get registration request", produces = "application/json")
   @ApiResponses({
     @ApiResponse(code = 200, message = "OK"),
     @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class)
   })
+  @Bulkhead(Bulkhead.Group.READS)
   @GetMapping(value = "register", produces = MediaType.APPLICATION_JSON_VALUE)
   public ResponseEntity<RegistrationResponse> getRegistration(
       @RequestHeader(value = "x-device-id", required = false) String deviceId,
@@ -199,6 +362,7 @@ public class RestProxyController {
     @ApiResponse(code = 200, message = "OK"),
     @ApiResponse(code = 400, message = "BAD_REQUEST", response = Error.class)
   })
+  @Bulkhead(Bulkhead.Group.READS)
   @GetMapping(value = "preference", produces = MediaType.APPLICATION_JSON_VALUE)
   public ResponseEntity<PreferencesResponse> getPreference(
       @RequestHeader(value = "x-device-id", required = false) String deviceId,
@@ -226,6 +390,14 @@ public class RestProxyController {
         HttpStatus.OK);
   }
 
+  private void validateRequest(String ibId, Integer customerId, BindingResult bindingResult) {
+    if (customerId == null && ibId == null) {
+      throw new RestProxyUnprocessableEntityException(BAD_REQUEST_CUSTOMERID_IBID_MISSING);
+    }
+
+    validateRequest(bindingResult);
+  }
+
   private void validateRequest(BindingResult bindingResult) {
     if (bindingResult.hasErrors()) {
       final FieldError error = (FieldError) bindingResult.getAllErrors().get(0);
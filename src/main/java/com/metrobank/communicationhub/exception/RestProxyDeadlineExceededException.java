@@ -0,0 +1,10 @@
+/**
+ * Copyright 2021 Metro Bank. All rights reserved.
+ */
+package com.metrobank.communicationhub.exception;
+
+public class RestProxyDeadlineExceededException extends RuntimeException {
+    public RestProxyDeadlineExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * Copyright 2021 Metro Bank. All rights reserved.
+ */
+package com.metrobank.communicationhub.exception;
+
+public class RestProxyServiceUnavailableException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    public RestProxyServiceUnavailableException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,403 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.idempotency;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.metrobank.communicationhub.exception.RestProxyConflictException;
+import com.metrobank.communicationhub.exception.RestProxyException;
+import com.metrobank.communicationhub.exception.RestProxyUnprocessableEntityException;
+import com.metrobank.communicationhub.model.request.SendRequest;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import static com.metrobank.communicationhub.util.CommsHubConstants.IDEMPOTENCY_KEY_IN_PROGRESS_MESSAGE;
+import static com.metrobank.communicationhub.util.CommsHubConstants.IDEMPOTENCY_KEY_REUSED_MESSAGE;
+import static com.metrobank.communicationhub.util.CommsHubConstants.IDEMPOTENT_REPLAYED_HEADER;
+import static com.metrobank.communicationhub.util.CommsHubConstants.INVALID_IDEMPOTENCY_KEY_MESSAGE;
+
+/**
+ * Deduplicates retried requests carrying an {@code Idempotency-Key}. The first request for a key
+ * is sent and its response status remembered; a retry with the same key and body gets that status
+ * back, marked with {@code Idempotent-Replayed}, without producing again. A retry arriving while
+ * the first is still in flight waits for its outcome. Keys are scoped to the customer, so two
+ * customers cannot collide, and a key reused for a different body is rejected.
+ *
+ * <p>Keys live in a Caffeine cache bounded by size and expiring after the TTL; its map is a
+ * striped {@code ConcurrentHashMap}, so claiming a key is a single lock-free lookup in the common
+ * case. Only successful responses are remembered, and only once the broker has the record: a
+ * failed or rejected request releases its key so the client can retry it. With {@link
+ * MongoIdempotencyStore} enabled, keys are also claimed in MongoDB so retries landing on another
+ * instance are caught; the store failing open only loses that cross-instance check.
+ */
+@Component
+@Log4j2
+public class IdempotentRequests {
+  static final int MAXIMUM_KEY_LENGTH = 255;
+
+  private final MeterRegistry meterRegistry;
+  private final MongoIdempotencyStore sharedStore;
+  private Cache<String, Entry> cache;
+
+  @Value("${idempotency.enabled:true}")
+  protected boolean enabled = true;
+
+  @Value("${idempotency.maximum-size:200000}")
+  protected long maximumSize = 200_000;
+
+  @Value("${idempotency.ttl:24h}")
+  protected Duration ttl = Duration.ofHours(24);
+
+  @Value("${idempotency.wait-timeout-ms:5000}")
+  protected long waitTimeoutMs = 5000;
+
+  public IdempotentRequests(
+      final MeterRegistry meterRegistry, final Optional<MongoIdempotencyStore> sharedStore) {
+    this.meterRegistry = meterRegistry;
+    this.sharedStore = sharedStore.orElse(null);
+  }
+
+  @PostConstruct
+  public void init() {
+    cache =
+        Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(ttl)
+            .recordStats()
+            .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "idempotencyKeys");
+  }
+
+  /**
+   * Sends the request without waiting for the broker, or replays the response to the one already
+   * sent with this key. The response is given as soon as the send is under way, but the key is
+   * only settled once the delivery completes, and released if it fails, so a retry of a send the
+   * broker never took goes through again.
+   *
+   * @param key the {@code Idempotency-Key} header, the request is sent as is when null
+   * @param send sends the request without waiting for the broker, used when there is no key
+   * @param delivery sends the request, completing with its response once the broker has it
+   * @throws RestProxyUnprocessableEntityException if the key is invalid or was used for a
+   *     different request
+   * @throws RestProxyConflictException if another instance is still sending the key's request
+   * @throws QueryTimeoutException if the in-flight request does not complete within the timeout
+   */
+  public ResponseEntity<Void> execute(
+      final String key,
+      final Integer customerId,
+      final String ibId,
+      final String fingerprint,
+      final Supplier<ResponseEntity<Void>> send,
+      final Supplier<CompletableFuture<ResponseEntity<Void>>> delivery) {
+    if (key == null || !enabled) {
+      return send.get();
+    }
+    final String id = scopedId(key, customerId, ibId);
+    final Entry entry = new Entry(fingerprint);
+    final Entry existing = cache.asMap().putIfAbsent(id, entry);
+    if (existing != null) {
+      return replayed(await(existing, fingerprint, id));
+    }
+    final Integer sharedStatus = claimShared(id, entry);
+    if (sharedStatus != null) {
+      return replayed(sharedStatus);
+    }
+
+    final CompletableFuture<ResponseEntity<Void>> response = start(id, entry, delivery);
+    settleOnCompletion(id, entry, response);
+    return ResponseEntity.ok().build();
+  }
+
+  /**
+   * Same as {@link #execute} for requests answered once delivered. A retry of an in-flight request
+   * completes with it rather than blocking, and the shared store is updated off the thread
+   * completing the response.
+   */
+  public CompletableFuture<ResponseEntity<Void>> executeAsync(
+      final String key,
+      final Integer customerId,
+      final String ibId,
+      final String fingerprint,
+      final Supplier<CompletableFuture<ResponseEntity<Void>>> send) {
+    if (key == null || !enabled) {
+      return send.get();
+    }
+    final String id = scopedId(key, customerId, ibId);
+    final Entry entry = new Entry(fingerprint);
+    final Entry existing = cache.asMap().putIfAbsent(id, entry);
+    if (existing != null) {
+      checkFingerprint(existing, fingerprint, id);
+      return existing.status.thenApply(IdempotentRequests::replayed);
+    }
+    final Integer sharedStatus = claimShared(id, entry);
+    if (sharedStatus != null) {
+      return CompletableFuture.completedFuture(replayed(sharedStatus));
+    }
+
+    return settleOnCompletion(id, entry, start(id, entry, send));
+  }
+
+  /** Fingerprint of a send request's body, the same whichever way it was decoded. */
+  public static String fingerprint(final SendRequest request) {
+    return fingerprint(
+        request.getCommsType(),
+        request.getEmail(),
+        request.getMessageType(),
+        request.getMobileNo(),
+        request.getTemplateId(),
+        request.getTemplateParams());
+  }
+
+  /** Fingerprint of a send request's body, the same whichever way it was decoded. */
+  public static String fingerprint(final SendAvroRequest request) {
+    return fingerprint(
+        request.getCommsType(),
+        request.getEmail(),
+        request.getMessageType(),
+        request.getMobileNo(),
+        request.getTemplateId(),
+        request.getTemplateParams());
+  }
+
+  /**
+   * SHA-256, in hex, of the fields as strings, each prefixed with its length or -1 when absent, so
+   * no two different bodies encode alike. Strings throughout, as enums, Avro Utf8 and String
+   * differ.
+   */
+  private static String fingerprint(
+      final Object commsType,
+      final Object email,
+      final Object messageType,
+      final Object mobileNo,
+      final Object templateId,
+      final List<? extends CharSequence> templateParams) {
+    final MessageDigest digest = sha256();
+    update(digest, commsType);
+    update(digest, email);
+    update(digest, messageType);
+    update(digest, mobileNo);
+    update(digest, templateId);
+    if (templateParams == null) {
+      digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(-1).array());
+    } else {
+      digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(templateParams.size()).array());
+      for (CharSequence param : templateParams) {
+        update(digest, param);
+      }
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  private static void update(final MessageDigest digest, final Object value) {
+    if (value == null) {
+      digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(-1).array());
+      return;
+    }
+    final byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+    digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+    digest.update(bytes);
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every JVM is required to provide SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static String scopedId(final String key, final Integer customerId, final String ibId) {
+    if (key.isBlank() || key.length() > MAXIMUM_KEY_LENGTH) {
+      throw new RestProxyUnprocessableEntityException(INVALID_IDEMPOTENCY_KEY_MESSAGE);
+    }
+    return (customerId != null ? "customer:" + customerId : "ibid:" + ibId) + ":" + key;
+  }
+
+  private int await(final Entry existing, final String fingerprint, final String id) {
+    checkFingerprint(existing, fingerprint, id);
+    try {
+      return existing.status.get(waitTimeoutMs, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      final Throwable cause =
+          e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RestProxyException(cause);
+    } catch (TimeoutException e) {
+      throw new QueryTimeoutException("Timed out waiting for in-flight request " + id, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RestProxyException(e);
+    }
+  }
+
+  private static void checkFingerprint(
+      final Entry existing, final String fingerprint, final String id) {
+    if (!existing.fingerprint.equals(fingerprint)) {
+      log.warn("Idempotency key {} reused for a different request", id);
+      throw new RestProxyUnprocessableEntityException(IDEMPOTENCY_KEY_REUSED_MESSAGE);
+    }
+  }
+
+  /**
+   * Claims the key in the shared store once it is claimed locally.
+   *
+   * @return the status another instance responded with, or null if this instance is to send
+   */
+  private Integer claimShared(final String id, final Entry entry) {
+    if (sharedStore == null) {
+      return null;
+    }
+    final MongoIdempotencyStore.Stored stored;
+    try {
+      stored = sharedStore.claim(id, entry.fingerprint, entry.owner);
+    } catch (DataAccessException e) {
+      log.warn("Shared idempotency store unavailable, deduplicating locally: {}", e.getMessage());
+      return null;
+    }
+    if (stored == null) {
+      return null;
+    }
+    if (!entry.fingerprint.equals(stored.fingerprint)) {
+      forget(id, entry);
+      entry.status.completeExceptionally(
+          new RestProxyUnprocessableEntityException(IDEMPOTENCY_KEY_REUSED_MESSAGE));
+      throw new RestProxyUnprocessableEntityException(IDEMPOTENCY_KEY_REUSED_MESSAGE);
+    }
+    if (stored.status == null) {
+      forget(id, entry);
+      entry.status.completeExceptionally(
+          new RestProxyConflictException(IDEMPOTENCY_KEY_IN_PROGRESS_MESSAGE));
+      throw new RestProxyConflictException(IDEMPOTENCY_KEY_IN_PROGRESS_MESSAGE);
+    }
+    entry.status.complete(stored.status);
+    return stored.status;
+  }
+
+  /** Starts the send, giving up the key if it fails straight away. */
+  private CompletableFuture<ResponseEntity<Void>> start(
+      final String id,
+      final Entry entry,
+      final Supplier<CompletableFuture<ResponseEntity<Void>>> send) {
+    try {
+      return send.get();
+    } catch (RuntimeException | Error e) {
+      fail(id, entry, e);
+      releaseShared(id, entry);
+      throw e;
+    }
+  }
+
+  /** Settles the key with the response once it completes, or releases it if the send fails. */
+  private CompletableFuture<ResponseEntity<Void>> settleOnCompletion(
+      final String id, final Entry entry, final CompletableFuture<ResponseEntity<Void>> response) {
+    if (sharedStore != null) {
+      response.whenCompleteAsync(
+          (sent, e) -> {
+            if (e == null) {
+              settleShared(id, entry, sent.getStatusCodeValue());
+            } else {
+              releaseShared(id, entry);
+            }
+          });
+    }
+    return response.whenComplete(
+        (sent, e) -> {
+          if (e == null) {
+            settle(id, entry, sent.getStatusCodeValue());
+          } else {
+            fail(id, entry, e);
+          }
+        });
+  }
+
+  private void settle(final String id, final Entry entry, final int status) {
+    // Waiting retries get the status either way, later ones only see a successful one
+    if (!isSuccessful(status)) {
+      forget(id, entry);
+    }
+    entry.status.complete(status);
+  }
+
+  private void fail(final String id, final Entry entry, final Throwable e) {
+    forget(id, entry);
+    entry.status.completeExceptionally(e);
+  }
+
+  private void forget(final String id, final Entry entry) {
+    cache.asMap().remove(id, entry);
+  }
+
+  private void settleShared(final String id, final Entry entry, final int status) {
+    if (sharedStore == null) {
+      return;
+    }
+    try {
+      if (isSuccessful(status)) {
+        sharedStore.complete(id, entry.owner, status);
+      } else {
+        sharedStore.release(id, entry.owner);
+      }
+    } catch (DataAccessException e) {
+      log.warn("Could not record idempotency key {}: {}", id, e.getMessage());
+    }
+  }
+
+  private void releaseShared(final String id, final Entry entry) {
+    if (sharedStore == null) {
+      return;
+    }
+    try {
+      sharedStore.release(id, entry.owner);
+    } catch (DataAccessException e) {
+      log.warn("Could not release idempotency key {}: {}", id, e.getMessage());
+    }
+  }
+
+  private static boolean isSuccessful(final int status) {
+    return status >= 200 && status < 300;
+  }
+
+  private static ResponseEntity<Void> replayed(final int status) {
+    return ResponseEntity.status(status).header(IDEMPOTENT_REPLAYED_HEADER, "true").build();
+  }
+
+  private static final class Entry {
+    private final String fingerprint;
+    // Identifies this claim in the shared store, so a claim taken over is not settled by its loser
+    private final String owner = UUID.randomUUID().toString();
+    private final CompletableFuture<Integer> status = new CompletableFuture<>();
+
+    private Entry(final String fingerprint) {
+      this.fingerprint = fingerprint;
+    }
+  }
+}
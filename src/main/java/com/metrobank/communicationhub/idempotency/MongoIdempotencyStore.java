@@ -0,0 +1,141 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.idempotency;
+
+import com.mongodb.client.result.UpdateResult;
+import lombok.extern.log4j.Log4j2;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.Objects;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Idempotency keys shared by every instance, in a MongoDB collection that a TTL index empties. A
+ * key is claimed by inserting its document, so of two instances seeing the same key only one gets
+ * to send; the status is added once the response is known. Documents hold the scoped key as their
+ * id, the request fingerprint, the creation time, the claim's owner and time and, when completed,
+ * the response status.
+ *
+ * <p>A claim is a lease: an instance that dies mid-send never completes or releases its key, so a
+ * claim left without a status for {@code idempotency.shared.claim-timeout} is taken over by the
+ * next request for the key. Completing and releasing only apply to the owner's own claim.
+ */
+@Component
+@ConditionalOnProperty(name = "idempotency.shared.enabled", havingValue = "true")
+@Log4j2
+public class MongoIdempotencyStore {
+  static final String ID = "_id";
+  static final String FINGERPRINT = "fingerprint";
+  static final String STATUS = "status";
+  static final String CREATED_AT = "createdAt";
+  static final String OWNER = "owner";
+  static final String CLAIMED_AT = "claimedAt";
+
+  private final MongoTemplate mongoTemplate;
+
+  @Value("${idempotency.shared.collection:idempotencyKeys}")
+  protected String collection = "idempotencyKeys";
+
+  @Value("${idempotency.ttl:24h}")
+  protected Duration ttl = Duration.ofHours(24);
+
+  @Value("${idempotency.shared.claim-timeout:30s}")
+  protected Duration claimTimeout = Duration.ofSeconds(30);
+
+  public MongoIdempotencyStore(final MongoTemplate mongoTemplate) {
+    this.mongoTemplate = mongoTemplate;
+  }
+
+  /** Creates the TTL index; keys would otherwise never expire. */
+  @EventListener(ApplicationReadyEvent.class)
+  public void ensureTtlIndex() {
+    try {
+      mongoTemplate
+          .indexOps(collection)
+          .ensureIndex(new Index().on(CREATED_AT, Sort.Direction.ASC).expire(ttl));
+    } catch (RuntimeException e) {
+      log.warn("Could not create the TTL index on {}: {}", collection, e.getMessage());
+    }
+  }
+
+  /**
+   * Claims the key for a request, taking it over if its claim has outlived the timeout without a
+   * response.
+   *
+   * @param owner identifies the claim, to complete or release it with
+   * @return null if this call claimed it, otherwise what the instance that did has stored
+   */
+  Stored claim(final String id, final String fingerprint, final String owner) {
+    final Date now = new Date();
+    try {
+      mongoTemplate.insert(
+          new Document(ID, id)
+              .append(FINGERPRINT, fingerprint)
+              .append(CREATED_AT, now)
+              .append(OWNER, owner)
+              .append(CLAIMED_AT, now),
+          collection);
+      return null;
+    } catch (DuplicateKeyException e) {
+      final UpdateResult takenOver =
+          mongoTemplate.updateFirst(
+              query(
+                  where(ID)
+                      .is(id)
+                      .and(FINGERPRINT)
+                      .is(fingerprint)
+                      .and(STATUS)
+                      .exists(false)
+                      .and(CLAIMED_AT)
+                      .lt(new Date(now.getTime() - claimTimeout.toMillis()))),
+              Update.update(OWNER, owner).set(CLAIMED_AT, now),
+              collection);
+      if (takenOver.getModifiedCount() > 0) {
+        log.warn("Took over idempotency key {}, unanswered for over {}", id, claimTimeout);
+        return null;
+      }
+      final Document document = mongoTemplate.findById(id, Document.class, collection);
+      // Expired between the insert and the read, so nobody holds it any more
+      return document == null
+          ? claim(id, fingerprint, owner)
+          : new Stored(
+              Objects.toString(document.get(FINGERPRINT), null), document.getInteger(STATUS));
+    }
+  }
+
+  /** Records the response status of a key this owner claimed. */
+  void complete(final String id, final String owner, final int status) {
+    mongoTemplate.updateFirst(
+        query(where(ID).is(id).and(OWNER).is(owner)), Update.update(STATUS, status), collection);
+  }
+
+  /** Gives up a claimed key whose request failed, so a retry can send it again. */
+  void release(final String id, final String owner) {
+    mongoTemplate.remove(
+        query(where(ID).is(id).and(OWNER).is(owner).and(STATUS).exists(false)), collection);
+  }
+
+  /** A claimed key: the fingerprint of its request and, once known, the response status. */
+  static final class Stored {
+    final String fingerprint;
+    final Integer status;
+
+    Stored(final String fingerprint, final Integer status) {
+      this.fingerprint = fingerprint;
+      this.status = status;
+    }
+  }
+}
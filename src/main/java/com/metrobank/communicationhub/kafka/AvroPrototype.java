@@ -0,0 +1,144 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.kafka;
+
+import org.apache.avro.Schema;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificRecordBase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Creates Avro records without going through their generated builders. A builder allocates
+ * itself and its field flags, validates every field it is given and deep copies each schema
+ * default on build; here the defaults are resolved once from the schema, only defaults that can be
+ * mutated are copied per record, and callers fill in the rest through the generated setters.
+ *
+ * <p>Skipping the builder also skips its refusal of null in fields whose schema does not admit it,
+ * which would otherwise surface only when the record is serialized: once every field is filled in,
+ * including those the service adds to a decoded body, the record is passed to {@link #checked}.
+ */
+public final class AvroPrototype<T extends SpecificRecordBase> {
+  private static final Map<Class<?>, Schema.Field[][]> CHECKED_FIELDS = new ConcurrentHashMap<>();
+
+  private final Supplier<T> factory;
+  private final Schema.Field[] fields;
+  private final Object[] defaults;
+  private final boolean[] copy;
+
+  private AvroPrototype(final Supplier<T> factory) {
+    this.factory = factory;
+    final List<Schema.Field> defaulted = new ArrayList<>();
+    for (Schema.Field field : factory.get().getSchema().getFields()) {
+      if (field.hasDefaultValue()) {
+        defaulted.add(field);
+      }
+    }
+    fields = defaulted.toArray(new Schema.Field[0]);
+    defaults = new Object[fields.length];
+    copy = new boolean[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      defaults[i] = SpecificData.get().getDefaultValue(fields[i]);
+      copy[i] = !isImmutable(defaults[i]);
+    }
+  }
+
+  /** @param factory the generated no-args constructor, e.g. {@code SendAvroRequest::new} */
+  public static <T extends SpecificRecordBase> AvroPrototype<T> of(final Supplier<T> factory) {
+    return new AvroPrototype<>(factory);
+  }
+
+  /**
+   * A new record holding the schema defaults; fields without one are left null, and the caller
+   * must set those its schema does not let be null before the record is {@link #checked}.
+   */
+  public T newRecord() {
+    final T record = factory.get();
+    for (int i = 0; i < fields.length; i++) {
+      record.put(
+          fields[i].pos(),
+          copy[i] ? SpecificData.get().deepCopy(fields[i].schema(), defaults[i]) : defaults[i]);
+    }
+    return record;
+  }
+
+  /**
+   * The record, once every field its schema does not let be null is set, as the generated
+   * builder's {@code build()} requires.
+   *
+   * @throws IllegalArgumentException naming the first such field left null
+   */
+  public static <R extends SpecificRecordBase> R checked(final R record) {
+    final String unset = unsetField(record);
+    if (unset != null) {
+      throw new IllegalArgumentException("Field " + unset + " does not accept null values");
+    }
+    return record;
+  }
+
+  /**
+   * The first field the record leaves null although its schema does not admit null, looking into
+   * the records held in its arrays, e.g. {@code preferences.key}; null when there is none.
+   */
+  static String unsetField(final SpecificRecordBase record) {
+    Schema.Field[][] checked = CHECKED_FIELDS.get(record.getClass());
+    if (checked == null) {
+      checked = checkedFields(record.getSchema());
+      CHECKED_FIELDS.putIfAbsent(record.getClass(), checked);
+    }
+    for (Schema.Field field : checked[0]) {
+      if (record.get(field.pos()) == null) {
+        return field.name();
+      }
+    }
+    for (Schema.Field field : checked[1]) {
+      final Object items = record.get(field.pos());
+      if (items == null) {
+        continue;
+      }
+      for (Object item : (Iterable<?>) items) {
+        final String unset = item == null ? null : unsetField((SpecificRecordBase) item);
+        if (unset != null) {
+          return field.name() + "." + unset;
+        }
+      }
+    }
+    return null;
+  }
+
+  /** The fields that must not be null, then the arrays of records, nullable or not. */
+  private static Schema.Field[][] checkedFields(final Schema schema) {
+    final List<Schema.Field> required = new ArrayList<>();
+    final List<Schema.Field> nested = new ArrayList<>();
+    for (Schema.Field field : schema.getFields()) {
+      if (!field.schema().isNullable()) {
+        required.add(field);
+      }
+      if (holdsRecords(field.schema())) {
+        nested.add(field);
+      }
+    }
+    return new Schema.Field[][] {
+      required.toArray(new Schema.Field[0]), nested.toArray(new Schema.Field[0])
+    };
+  }
+
+  private static boolean holdsRecords(final Schema schema) {
+    if (schema.getType() == Schema.Type.UNION) {
+      return schema.getTypes().stream().anyMatch(AvroPrototype::holdsRecords);
+    }
+    return schema.getType() == Schema.Type.ARRAY
+        && schema.getElementType().getType() == Schema.Type.RECORD;
+  }
+
+  private static boolean isImmutable(final Object value) {
+    return value == null
+        || value instanceof String
+        || value instanceof Number
+        || value instanceof Boolean
+        || value instanceof Enum;
+  }
+}
@@ -0,0 +1,64 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.kafka;
+
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.utils.Utils;
+
+import java.util.Map;
+
+/**
+ * Partitions on the customer part of a {@link RecordKeyStrategy} key, so a customer's records
+ * land on one partition whether or not the key carries a device. The partition depends only on
+ * the key and the topic's partition count, never on broker availability, and with an idempotent
+ * producer Kafka keeps up to five in-flight batches per partition in order, which is what lets
+ * {@code max.in.flight.requests.per.connection} go above 1 without reordering a customer's
+ * records. Keys without a separator, such as UUIDs, are hashed whole as the default partitioner
+ * would; records without a key are left to it.
+ */
+public class CustomerAffinityPartitioner implements Partitioner {
+
+  private final DefaultPartitioner defaultPartitioner = new DefaultPartitioner();
+
+  @Override
+  public int partition(
+      final String topic,
+      final Object key,
+      final byte[] keyBytes,
+      final Object value,
+      final byte[] valueBytes,
+      final Cluster cluster) {
+    if (keyBytes == null) {
+      return defaultPartitioner.partition(topic, null, null, value, valueBytes, cluster);
+    }
+    final int partitions = cluster.partitionsForTopic(topic).size();
+    return Utils.toPositive(Utils.murmur2(customerPart(keyBytes))) % partitions;
+  }
+
+  @Override
+  public void onNewBatch(final String topic, final Cluster cluster, final int prevPartition) {
+    defaultPartitioner.onNewBatch(topic, cluster, prevPartition);
+  }
+
+  @Override
+  public void close() {
+    defaultPartitioner.close();
+  }
+
+  @Override
+  public void configure(final Map<String, ?> configs) {
+    defaultPartitioner.configure(configs);
+  }
+
+  private static byte[] customerPart(final byte[] keyBytes) {
+    for (int i = 0; i < keyBytes.length; i++) {
+      if (keyBytes[i] == RecordKeyStrategy.SEPARATOR) {
+        final byte[] customer = new byte[i];
+        System.arraycopy(keyBytes, 0, customer, 0, i);
+        return customer;
+      }
+    }
+    return keyBytes;
+  }
+}
@@ -0,0 +1,123 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.kafka;
+
+import com.metrobank.communicationhub.admission.AdmissionController;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Routes sends to QoS lanes by comms type and message type, so time-critical notifications never
+ * queue behind bulk ones. Each lane has its own producer, with its own batching, compression and
+ * acknowledgement settings and its own {@code buffer.memory}, its own in-flight budget and,
+ * optionally, its own topic. Sends matching no lane, and registrations and preferences, go
+ * through the shared {@link KafkaTemplate} as before.
+ */
+public class QosLanes implements DisposableBean {
+
+  private final List<Lane> lanes;
+
+  public QosLanes(final List<Lane> lanes) {
+    this.lanes = List.copyOf(lanes);
+  }
+
+  /**
+   * The first lane taking the comms type and message type, compared by name so the DTO enums and
+   * the Avro strings route alike, or null for the shared producer.
+   */
+  public Lane route(final Object commsType, final Object messageType) {
+    final String comms = commsType == null ? null : commsType.toString();
+    final String message = messageType == null ? null : messageType.toString();
+    for (Lane lane : lanes) {
+      if (lane.matches(comms, message)) {
+        return lane;
+      }
+    }
+    return null;
+  }
+
+  public List<Lane> lanes() {
+    return lanes;
+  }
+
+  @Override
+  public void destroy() {
+    lanes.forEach(lane -> lane.producerFactory.destroy());
+  }
+
+  /** One lane: what it carries and the producer, budget and topic it sends with. */
+  public static final class Lane {
+    private final String name;
+    private final Set<String> commsTypes;
+    private final Set<String> messageTypes;
+    private final String topic;
+    private final DefaultKafkaProducerFactory<String, SpecificRecordBase> producerFactory;
+    private final KafkaTemplate<String, SpecificRecordBase> kafkaTemplate;
+    private final AdmissionController admissionController;
+    private final Counter records;
+
+    public Lane(
+        final String name,
+        final Set<String> commsTypes,
+        final Set<String> messageTypes,
+        final String topic,
+        final DefaultKafkaProducerFactory<String, SpecificRecordBase> producerFactory,
+        final KafkaTemplate<String, SpecificRecordBase> kafkaTemplate,
+        final AdmissionController admissionController,
+        final MeterRegistry meterRegistry) {
+      this.name = name;
+      this.commsTypes = Set.copyOf(commsTypes);
+      this.messageTypes = Set.copyOf(messageTypes);
+      this.topic = topic;
+      this.producerFactory = producerFactory;
+      this.kafkaTemplate = kafkaTemplate;
+      this.admissionController = admissionController;
+      this.records =
+          Counter.builder("restproxy.qos.records")
+              .description("Records sent through the QoS lane")
+              .tag("lane", name)
+              .register(meterRegistry);
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public KafkaTemplate<String, SpecificRecordBase> kafkaTemplate() {
+      return kafkaTemplate;
+    }
+
+    public AdmissionController admissionController() {
+      return admissionController;
+    }
+
+    /** The lane's topic, or the given one when the lane has none of its own. */
+    public String topic(final String defaultTopic) {
+      return topic == null ? defaultTopic : topic;
+    }
+
+    /** Counts the record and moves it to the lane's topic if it has one. */
+    public ProducerRecord<String, SpecificRecordBase> route(
+        final ProducerRecord<String, SpecificRecordBase> record) {
+      records.increment();
+      if (topic == null || topic.equals(record.topic())) {
+        return record;
+      }
+      return new ProducerRecord<>(
+          topic, record.partition(), record.timestamp(), record.key(), record.value(),
+          record.headers());
+    }
+
+    private boolean matches(final String commsType, final String messageType) {
+      return (commsTypes.isEmpty() || commsType != null && commsTypes.contains(commsType))
+          && (messageTypes.isEmpty() || messageType != null && messageTypes.contains(messageType));
+    }
+  }
+}
@@ -0,0 +1,30 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.kafka;
+
+/**
+ * How the Kafka key of an outgoing record is chosen. {@link #UUID} keys by the request's generated
+ * id and so spreads records evenly; {@link #CUSTOMER} and {@link #CUSTOMER_DEVICE} key by the
+ * customer, optionally suffixed by the device, so that {@link CustomerAffinityPartitioner} places
+ * every record of a customer on the same partition, in the order it was sent.
+ */
+public enum RecordKeyStrategy {
+  UUID,
+  CUSTOMER,
+  CUSTOMER_DEVICE;
+
+  /** Separates the customer part of a key from its device part. */
+  public static final char SEPARATOR = ':';
+
+  public String key(final String uuid, final Integer customerId, final String deviceId) {
+    switch (this) {
+      case CUSTOMER:
+        return String.valueOf(customerId);
+      case CUSTOMER_DEVICE:
+        return deviceId == null
+            ? String.valueOf(customerId)
+            : String.valueOf(customerId) + SEPARATOR + deviceId;
+      default:
+        return uuid;
+    }
+  }
+}
@@ -0,0 +1,194 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.kafka;
+
+import io.confluent.kafka.serializers.KafkaAvroSerializer;
+import org.apache.avro.Schema;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Avro value serializer that writes the Confluent wire format itself: a zero magic byte, the
+ * big-endian schema id and the record's Avro binary encoding. The stock {@link KafkaAvroSerializer}
+ * still serializes the first record of each topic and schema, which registers or looks up the
+ * schema id exactly as configured; the id is then pinned and later records are encoded into a
+ * reused buffer and encoder, leaving the returned array as the only allocation. Values that are
+ * not generated Avro records are passed to the stock serializer unchanged.
+ */
+public class WireFormatAvroSerializer implements Serializer<Object> {
+  static final byte MAGIC_BYTE = 0;
+  static final int HEADER_BYTES = 1 + Integer.BYTES;
+  // A buffer that grew for an unusually large record is dropped rather than kept
+  private static final int MAX_RETAINED_BYTES = 64 * 1024;
+  private static final int SHARED_BUFFERS = 64;
+
+  private final Serializer<Object> schemaIdResolver;
+  private final ReentrantLock pinning = new ReentrantLock();
+  private final ThreadLocal<Buffer> threadBuffers = ThreadLocal.withInitial(Buffer::new);
+  // Virtual threads live for one request, so they borrow from here rather than keep their own
+  private final ArrayBlockingQueue<Buffer> sharedBuffers =
+      new ArrayBlockingQueue<>(SHARED_BUFFERS);
+  private volatile Pin[] pins = new Pin[0];
+
+  public WireFormatAvroSerializer() {
+    this(new KafkaAvroSerializer());
+  }
+
+  /** @param schemaIdResolver the stock serializer, used for the first record of each schema */
+  public WireFormatAvroSerializer(final Serializer<Object> schemaIdResolver) {
+    this.schemaIdResolver = schemaIdResolver;
+  }
+
+  @Override
+  public void configure(final Map<String, ?> configs, final boolean isKey) {
+    schemaIdResolver.configure(configs, isKey);
+  }
+
+  @Override
+  public byte[] serialize(final String topic, final Object data) {
+    if (!(data instanceof SpecificRecord)) {
+      return schemaIdResolver.serialize(topic, data);
+    }
+    final SpecificRecord record = (SpecificRecord) data;
+    final Pin pin = pinned(topic, record.getSchema());
+    return pin == null ? resolve(topic, record) : encode(pin, record);
+  }
+
+  @Override
+  public void close() {
+    schemaIdResolver.close();
+  }
+
+  private Pin pinned(final String topic, final Schema schema) {
+    for (Pin pin : pins) {
+      if (pin.schema == schema && pin.topic.equals(topic)) {
+        return pin;
+      }
+    }
+    return null;
+  }
+
+  /** Serializes through the stock serializer and pins the schema id it wrote. */
+  private byte[] resolve(final String topic, final SpecificRecord record) {
+    pinning.lock();
+    try {
+      final Pin pin = pinned(topic, record.getSchema());
+      if (pin != null) {
+        return encode(pin, record);
+      }
+      final byte[] bytes = schemaIdResolver.serialize(topic, record);
+      if (bytes.length < HEADER_BYTES || bytes[0] != MAGIC_BYTE) {
+        throw new SerializationException("Unexpected Avro wire format for topic " + topic);
+      }
+      final Pin[] current = pins;
+      final Pin[] extended = Arrays.copyOf(current, current.length + 1);
+      extended[current.length] =
+          new Pin(topic, record.getSchema(), ByteBuffer.wrap(bytes, 1, Integer.BYTES).getInt());
+      pins = extended;
+      return bytes;
+    } finally {
+      pinning.unlock();
+    }
+  }
+
+  private byte[] encode(final Pin pin, final SpecificRecord record) {
+    final boolean virtual = Thread.currentThread().isVirtual();
+    final Buffer buffer = virtual ? borrow() : threadBuffers.get();
+    try {
+      buffer.reset(pin.id);
+      buffer.encoder = EncoderFactory.get().binaryEncoder(buffer, buffer.encoder);
+      pin.writer.write(record, buffer.encoder);
+      buffer.encoder.flush();
+      return buffer.toByteArray();
+    } catch (IOException | RuntimeException e) {
+      // The encoder may still hold part of the failed record; reusing it would flush that out
+      buffer.encoder = null;
+      throw new SerializationException("Error serializing Avro message", e);
+    } finally {
+      if (virtual) {
+        giveBack(buffer);
+      } else if (buffer.capacity() > MAX_RETAINED_BYTES) {
+        threadBuffers.remove();
+      }
+    }
+  }
+
+  private Buffer borrow() {
+    final Buffer buffer = sharedBuffers.poll();
+    return buffer == null ? new Buffer() : buffer;
+  }
+
+  private void giveBack(final Buffer buffer) {
+    if (buffer.capacity() <= MAX_RETAINED_BYTES) {
+      sharedBuffers.offer(buffer);
+    }
+  }
+
+  private static final class Pin {
+    private final String topic;
+    private final Schema schema;
+    private final int id;
+    private final SpecificDatumWriter<SpecificRecord> writer;
+
+    private Pin(final String topic, final Schema schema, final int id) {
+      this.topic = topic;
+      this.schema = schema;
+      this.id = id;
+      this.writer = new SpecificDatumWriter<>(schema);
+    }
+  }
+
+  /** Growable, unsynchronized byte sink that starts every record with the wire format header. */
+  private static final class Buffer extends OutputStream {
+    private byte[] bytes = new byte[1024];
+    private int count;
+    private BinaryEncoder encoder;
+
+    void reset(final int schemaId) {
+      bytes[0] = MAGIC_BYTE;
+      bytes[1] = (byte) (schemaId >>> 24);
+      bytes[2] = (byte) (schemaId >>> 16);
+      bytes[3] = (byte) (schemaId >>> 8);
+      bytes[4] = (byte) schemaId;
+      count = HEADER_BYTES;
+    }
+
+    int capacity() {
+      return bytes.length;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, count);
+    }
+
+    @Override
+    public void write(final int b) {
+      ensureCapacity(1);
+      bytes[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) {
+      ensureCapacity(len);
+      System.arraycopy(b, off, bytes, count, len);
+      count += len;
+    }
+
+    private void ensureCapacity(final int extra) {
+      if (count + extra > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + extra));
+      }
+    }
+  }
+}
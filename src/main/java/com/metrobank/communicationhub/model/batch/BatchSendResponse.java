@@ -0,0 +1,49 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.model.batch;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/** Pojo for the per line outcome of a batch send. */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Data
+@Builder
+public class BatchSendResponse {
+
+  @JsonProperty("accepted")
+  private int accepted;
+
+  @JsonProperty("rejected")
+  private int rejected;
+
+  @JsonProperty("results")
+  private List<LineResult> results;
+
+  @Data
+  @Builder
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class LineResult {
+
+    @JsonProperty("index")
+    private int index;
+
+    @JsonProperty("status")
+    private LineStatus status;
+
+    @JsonProperty("message")
+    private String message;
+  }
+
+  public enum LineStatus {
+    /** The broker acknowledged the record. */
+    ACCEPTED,
+    /** The line failed parsing or validation and nothing was produced. */
+    REJECTED,
+    /** The line was valid but the broker did not acknowledge the record. */
+    FAILED
+  }
+}
@@ -0,0 +1,28 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.model.request;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Builder;
+import lombok.Data;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+
+/** One line of an NDJSON batch: the send request plus the customer it is addressed to. */
+@Data
+@Builder
+public class BatchSendRequest {
+
+  @JsonProperty("customerId")
+  private Integer customerId;
+
+  @JsonProperty("ibId")
+  private String ibId;
+
+  @JsonProperty("request")
+  @ApiModelProperty(required = true)
+  @NotNull(message = "Missing Data")
+  @Valid
+  private SendRequest request;
+}
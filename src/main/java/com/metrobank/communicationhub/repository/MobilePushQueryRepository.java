@@ -0,0 +1,113 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.repository;
+
+import com.metrobank.communicationhub.common.model.MobilePushPreference;
+import com.metrobank.communicationhub.common.model.MobilePushRegistration;
+import com.metrobank.communicationhub.util.RequestDeadline;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Device level lookups of registrations and preferences. Unlike the derived queries of the common
+ * repositories these filter on the device in MongoDB and only bring back the fields the responses
+ * are built from; {@link MongoIndexVerifier} checks the indexes they rely on exist.
+ */
+@Repository
+@RequiredArgsConstructor
+public class MobilePushQueryRepository {
+  public static final String CUSTOMER_ID = "customerId";
+  public static final String COMMS_TYPE = "commsType";
+  public static final String STATUS = "status";
+  public static final String DEVICE_ID = "deviceId";
+  public static final String DEVICE_TYPE = "deviceType";
+  static final String MESSAGE_TYPE = "messageType";
+  static final String PREFERENCES = "preferences";
+  private static final String ID = "id";
+
+  private final MongoTemplate mongoTemplate;
+
+  /** Registrations of one device, holding only commsType, deviceId, deviceType and status. */
+  public List<MobilePushRegistration> findRegistrations(
+      final Integer customerId,
+      final String commsType,
+      final String status,
+      final String deviceId,
+      final String deviceType) {
+    return mongoTemplate.find(
+        withinDeadline(registrationQuery(customerId, commsType, status, deviceId, deviceType)),
+        MobilePushRegistration.class);
+  }
+
+  /**
+   * Registrations of one device as {@link #findRegistrations}, holding their ids as well, which
+   * takes MongoDB to the documents rather than the index alone.
+   */
+  public List<MobilePushRegistration> findRegistrationsWithIds(
+      final Integer customerId,
+      final String commsType,
+      final String status,
+      final String deviceId,
+      final String deviceType) {
+    final Query query = registrationQuery(customerId, commsType, status, deviceId, deviceType);
+    query.fields().include(ID);
+    return mongoTemplate.find(withinDeadline(query), MobilePushRegistration.class);
+  }
+
+  /** Preferences of one device, holding only messageType and the preference values. */
+  public List<MobilePushPreference> findPreferences(
+      final Integer customerId, final String commsType, final String deviceId) {
+    return mongoTemplate.find(
+        withinDeadline(preferenceQuery(customerId, commsType, deviceId)),
+        MobilePushPreference.class);
+  }
+
+  /** Bounds the query by what is left of the request's deadline, if it has one. */
+  static Query withinDeadline(final Query query) {
+    RequestDeadline.check("MongoDB query");
+    RequestDeadline.remainingMillis().ifPresent(query::maxTimeMsec);
+    return query;
+  }
+
+  static Query registrationQuery(
+      final Integer customerId,
+      final String commsType,
+      final String status,
+      final String deviceId,
+      final String deviceType) {
+    final Query query =
+        Query.query(
+            where(CUSTOMER_ID)
+                .is(customerId)
+                .and(COMMS_TYPE)
+                .is(commsType)
+                .and(STATUS)
+                .is(status)
+                .and(DEVICE_ID)
+                .is(deviceId)
+                .and(DEVICE_TYPE)
+                .is(deviceType));
+    // Every returned field is in the registration index, so MongoDB can answer from the index
+    query.fields().include(COMMS_TYPE, DEVICE_ID, DEVICE_TYPE, STATUS).exclude(ID);
+    return query;
+  }
+
+  static Query preferenceQuery(
+      final Integer customerId, final String commsType, final String deviceId) {
+    final Query query =
+        Query.query(
+            where(CUSTOMER_ID)
+                .is(customerId)
+                .and(COMMS_TYPE)
+                .is(commsType)
+                .and(DEVICE_ID)
+                .is(deviceId));
+    query.fields().include(MESSAGE_TYPE, PREFERENCES).exclude(ID);
+    return query;
+  }
+}
@@ -0,0 +1,91 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.repository;
+
+import com.metrobank.communicationhub.common.model.MobilePushPreference;
+import com.metrobank.communicationhub.common.model.MobilePushRegistration;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.metrobank.communicationhub.repository.MobilePushQueryRepository.*;
+
+/**
+ * Checks at startup that the compound indexes {@link MobilePushQueryRepository} relies on exist.
+ * An index serves the queries when its leading keys are exactly their equality fields, in any
+ * order. Missing indexes are logged, or created when {@code mongo.indexes.create-missing} is set,
+ * which is meant for development databases only. Field and collection names are taken from the
+ * mapping context so they follow any {@code @Field} or {@code @Document} renames.
+ */
+@Component
+@Log4j2
+@RequiredArgsConstructor
+public class MongoIndexVerifier {
+
+  private final MongoTemplate mongoTemplate;
+
+  @Value("${mongo.indexes.create-missing:false}")
+  protected boolean createMissing;
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void verifyIndexes() {
+    verify(
+        MobilePushRegistration.class,
+        List.of(CUSTOMER_ID, COMMS_TYPE, STATUS, DEVICE_ID, DEVICE_TYPE));
+    verify(MobilePushPreference.class, List.of(CUSTOMER_ID, COMMS_TYPE, DEVICE_ID));
+  }
+
+  void verify(final Class<?> type, final List<String> properties) {
+    final MongoPersistentEntity<?> entity =
+        mongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(type);
+    final String collection = entity.getCollection();
+    final List<String> fields =
+        properties.stream()
+            .map(property -> entity.getRequiredPersistentProperty(property).getFieldName())
+            .collect(Collectors.toList());
+    try {
+      final List<IndexInfo> indexes = mongoTemplate.indexOps(collection).getIndexInfo();
+      if (indexes.stream().anyMatch(index -> leadsWith(index, fields))) {
+        return;
+      }
+      if (createMissing) {
+        final Index index = new Index();
+        fields.forEach(field -> index.on(field, Sort.Direction.ASC));
+        final String name = mongoTemplate.indexOps(collection).ensureIndex(index);
+        log.info("Created index {} on {} {}", name, collection, fields);
+      } else {
+        log.warn(
+            "No index on {} leads with {}; device lookups will scan the customer's documents",
+            collection,
+            fields);
+      }
+    } catch (RuntimeException e) {
+      log.warn("Could not verify indexes on {}: {}", collection, e.getMessage());
+    }
+  }
+
+  private static boolean leadsWith(final IndexInfo index, final List<String> fields) {
+    final List<IndexField> keys = index.getIndexFields();
+    if (keys.size() < fields.size()) {
+      return false;
+    }
+    final Set<String> leading = new HashSet<>();
+    for (int i = 0; i < fields.size(); i++) {
+      leading.add(keys.get(i).getKey());
+    }
+    return leading.equals(new HashSet<>(fields));
+  }
+}
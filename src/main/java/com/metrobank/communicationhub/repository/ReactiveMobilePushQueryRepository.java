@@ -0,0 +1,44 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.repository;
+
+import com.metrobank.communicationhub.common.model.MobilePushPreference;
+import com.metrobank.communicationhub.common.model.MobilePushRegistration;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+
+import static com.metrobank.communicationhub.repository.MobilePushQueryRepository.preferenceQuery;
+import static com.metrobank.communicationhub.repository.MobilePushQueryRepository.registrationQuery;
+
+/**
+ * Non-blocking counterpart of {@link MobilePushQueryRepository} for the reactive profile, running
+ * the same filtered and projected queries through the reactive MongoDB driver.
+ */
+@Repository
+@Profile("reactive")
+@RequiredArgsConstructor
+public class ReactiveMobilePushQueryRepository {
+
+  private final ReactiveMongoTemplate reactiveMongoTemplate;
+
+  /** Registrations of one device, holding only commsType, deviceId, deviceType and status. */
+  public Flux<MobilePushRegistration> findRegistrations(
+      final Integer customerId,
+      final String commsType,
+      final String status,
+      final String deviceId,
+      final String deviceType) {
+    return reactiveMongoTemplate.find(
+        registrationQuery(customerId, commsType, status, deviceId, deviceType),
+        MobilePushRegistration.class);
+  }
+
+  /** Preferences of one device, holding only messageType and the preference values. */
+  public Flux<MobilePushPreference> findPreferences(
+      final Integer customerId, final String commsType, final String deviceId) {
+    return reactiveMongoTemplate.find(
+        preferenceQuery(customerId, commsType, deviceId), MobilePushPreference.class);
+  }
+}
@@ -0,0 +1,169 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The body of a batch as the JSON parser reads it, guarding each line rather than the whole body:
+ * a line past the size limit has its first excess byte replaced by NUL, which is invalid wherever
+ * it falls in JSON, and the rest of it discarded unread, so the parser fails on that line without
+ * holding it. Reading ends after the line limit, whatever follows.
+ *
+ * <p>A parser reads ahead, so after a syntax error the bytes it buffered are handed back with
+ * {@link #unread} and the stream moved past the failed line with {@link #skipFailedLine} for a new
+ * parser to go on from the next line. Lines are counted on {@code \n}.
+ */
+final class BatchLineInput extends InputStream {
+  // Larger than the parser's read buffer, so the last byte it consumed is still held
+  private static final int HISTORY_SIZE = 1 << 14;
+
+  private final InputStream body;
+  private final int maxLines;
+  private final long maxLineBytes;
+  private final BitSet oversized = new BitSet();
+  private final byte[] history = new byte[HISTORY_SIZE];
+  private final byte[] one = new byte[1];
+
+  // The body as filtered, counted in lines read from it
+  private int bodyLines;
+  private long lineBytes;
+  private boolean discarding;
+  private boolean ended;
+  private boolean truncated;
+
+  // What the parser has been given: bytes handed back first, and the lines ended so far
+  private byte[] pending = new byte[0];
+  private int pendingPosition;
+  private long emitted;
+  private int lines;
+
+  BatchLineInput(final InputStream body, final int maxLines, final long maxLineBytes) {
+    this.body = body;
+    this.maxLines = maxLines;
+    this.maxLineBytes = maxLineBytes;
+  }
+
+  /** The index of the line the next byte read belongs to. */
+  int line() {
+    return lines;
+  }
+
+  /** Whether the body had lines past the line limit, left unread. */
+  boolean truncated() {
+    return truncated;
+  }
+
+  /** Whether the line went past the size limit. */
+  boolean oversized(final int index) {
+    return oversized.get(index);
+  }
+
+  /** Hands back bytes read but not consumed, to be read again first. */
+  void unread(final byte[] bytes) {
+    for (byte b : bytes) {
+      if (b == '\n') {
+        lines--;
+      }
+    }
+    emitted -= bytes.length;
+    final byte[] rest = Arrays.copyOfRange(pending, pendingPosition, pending.length);
+    pending = Arrays.copyOf(bytes, bytes.length + rest.length);
+    System.arraycopy(rest, 0, pending, bytes.length, rest.length);
+    pendingPosition = 0;
+  }
+
+  /**
+   * Moves to the start of the line after the one the last consumed byte belongs to, the newline
+   * ending a line counting as part of it.
+   *
+   * @return the index of the line skipped
+   */
+  int skipFailedLine() throws IOException {
+    if (emitted > 0 && history[(int) ((emitted - 1) & (HISTORY_SIZE - 1))] == '\n') {
+      return lines - 1;
+    }
+    final int failed = lines;
+    while (lines == failed && read(one, 0, 1) > 0) {
+      // discard
+    }
+    return failed;
+  }
+
+  @Override
+  public int read() throws IOException {
+    return read(one, 0, 1) > 0 ? one[0] & 0xff : -1;
+  }
+
+  @Override
+  public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    final int n;
+    if (pendingPosition < pending.length) {
+      n = Math.min(length, pending.length - pendingPosition);
+      System.arraycopy(pending, pendingPosition, buffer, offset, n);
+      pendingPosition += n;
+    } else {
+      n = readBody(buffer, offset, length);
+    }
+    for (int i = offset; i < offset + n; i++) {
+      history[(int) (emitted++ & (HISTORY_SIZE - 1))] = buffer[i];
+      if (buffer[i] == '\n') {
+        lines++;
+      }
+    }
+    return n;
+  }
+
+  /** Reads the body filtered in place, at least one byte unless it has ended. */
+  private int readBody(final byte[] buffer, final int offset, final int length) throws IOException {
+    while (!ended) {
+      if (bodyLines == maxLines) {
+        // The limit was reached on a line end, so anything at all left is a line not read
+        truncated = body.read() >= 0;
+        ended = true;
+        break;
+      }
+      final int read = body.read(buffer, offset, length);
+      if (read < 0) {
+        ended = true;
+        break;
+      }
+      int kept = offset;
+      for (int i = offset; i < offset + read; i++) {
+        final byte b = buffer[i];
+        if (b == '\n') {
+          buffer[kept++] = b;
+          bodyLines++;
+          lineBytes = 0;
+          discarding = false;
+          if (bodyLines == maxLines) {
+            truncated = i + 1 < offset + read;
+            ended = truncated;
+            break;
+          }
+        } else if (!discarding) {
+          if (++lineBytes > maxLineBytes) {
+            buffer[kept++] = 0;
+            oversized.set(bodyLines);
+            discarding = true;
+          } else {
+            buffer[kept++] = b;
+          }
+        }
+      }
+      if (kept > offset) {
+        return kept - offset;
+      }
+    }
+    return -1;
+  }
+
+  /** Leaves the body to its owner; parsers closing their input must not end the batch. */
+  @Override
+  public void close() {}
+}
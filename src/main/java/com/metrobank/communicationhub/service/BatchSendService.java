@@ -0,0 +1,308 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.metrobank.communicationhub.exception.RestProxyException;
+import com.metrobank.communicationhub.exception.RestProxyTooManyRequestsException;
+import com.metrobank.communicationhub.model.batch.BatchSendResponse;
+import com.metrobank.communicationhub.model.batch.BatchSendResponse.LineResult;
+import com.metrobank.communicationhub.model.batch.BatchSendResponse.LineStatus;
+import com.metrobank.communicationhub.model.request.BatchSendRequest;
+import com.metrobank.communicationhub.model.request.SendRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.metrobank.communicationhub.util.CommsHubConstants.BAD_REQUEST_CUSTOMERID_IBID_MISSING;
+import static com.metrobank.communicationhub.util.CommsHubConstants.BAD_REQUEST_ERROR_MESSAGE;
+import static com.metrobank.communicationhub.util.CommsHubConstants.BATCH_LIMIT_EXCEEDED_MESSAGE;
+import static com.metrobank.communicationhub.util.CommsHubConstants.BATCH_LINE_TOO_LARGE_MESSAGE;
+import static com.metrobank.communicationhub.util.CommsHubConstants.INVALID_IBID_MESSAGE;
+
+/**
+ * Streams an NDJSON body of {@link BatchSendRequest} lines into the send topic. One streaming
+ * parser reads the records as they come and they are handled in chunks: each record is validated,
+ * each chunk's distinct IbIds are resolved once, its records are handed to the producer back to
+ * back and the chunk's acknowledgements are awaited before the next chunk is read, so memory stays
+ * bounded by the chunk size. Lines go
+ * through storm suppression like single sends, those it drops being accepted. Lines turned away
+ * by admission control are reported as failed so the caller can retry them.
+ *
+ * <p>Results are indexed by physical line, blank lines included. A line that is not JSON, or not
+ * a send request, is rejected and reading goes on from the next one; so is a line longer than
+ * {@code batch.send.max-line-size}, which is never held whole. Reading stops after {@code
+ * batch.send.max-lines} lines, and any remainder of the body is reported by a single rejected
+ * result at the first line not read.
+ */
+@Service
+@Log4j2
+@RequiredArgsConstructor
+public class BatchSendService {
+
+  private final RestProxyService restProxyService;
+  private final CustomerIdResolver customerIdResolver;
+  private final ObjectMapper objectMapper;
+  private final Validator validator;
+
+  @Value("${batch.send.chunk-size:500}")
+  protected int chunkSize;
+
+  @Value("${batch.send.max-lines:50000}")
+  protected int maxLines;
+
+  @Value("${batch.send.max-line-size:64KB}")
+  protected DataSize maxLineSize = DataSize.ofKilobytes(64);
+
+  @Value("${batch.send.ack-timeout-ms:30000}")
+  protected long ackTimeoutMs;
+
+  public BatchSendResponse send(final InputStream body, final String uuid) throws IOException {
+    final ObjectReader reader = objectMapper.readerFor(BatchSendRequest.class);
+    final List<LineResult> results = new ArrayList<>();
+    final List<PendingLine> chunk = new ArrayList<>(chunkSize);
+
+    try (InputStream in = body) {
+      final BatchLineInput lines = new BatchLineInput(in, maxLines, maxLineSize.toBytes());
+      // Index of the first line without a result, so a line is never reported twice
+      int next = 0;
+      int firstLine = lines.line();
+      MappingIterator<BatchSendRequest> records = null;
+      while (true) {
+        if (chunk.size() >= chunkSize) {
+          flush(chunk, uuid, results);
+        }
+        int index = -1;
+        JsonParseException unparsable;
+        try {
+          if (records == null) {
+            records = reader.readValues(lines);
+          }
+          if (!records.hasNextValue()) {
+            break;
+          }
+          index = firstLine + records.getParser().getTokenLocation().getLineNr() - 1;
+          chunk.add(validate(index, records.nextValue()));
+          next = index + 1;
+          continue;
+        } catch (JsonParseException e) {
+          unparsable = e;
+        } catch (JsonMappingException e) {
+          if (!(e.getCause() instanceof JsonParseException)) {
+            // Not a send request: the iterator skips the rest of the record
+            log.warn("Unreadable batch line {}: {}", index, e.getOriginalMessage());
+            chunk.add(unreadable(lines, index));
+            next = index + 1;
+            continue;
+          }
+          // Not JSON within a record, wrapped by the binding
+          unparsable = (JsonParseException) e.getCause();
+        }
+        // Not JSON: the parser cannot go on, so a new one starts on the next line
+        next = skipUnparsable(lines, records, unparsable, index, next, chunk);
+        firstLine = lines.line();
+        records = null;
+      }
+      if (records != null) {
+        records.close();
+      }
+      flush(chunk, uuid, results);
+      if (lines.truncated()) {
+        results.add(rejected(maxLines, BATCH_LIMIT_EXCEEDED_MESSAGE));
+      }
+    }
+
+    final int accepted =
+        (int) results.stream().filter(r -> r.getStatus() == LineStatus.ACCEPTED).count();
+    log.info(
+        "BatchSendService :: batch {} :: lines: {}, accepted: {}",
+        uuid,
+        results.size(),
+        accepted);
+    return BatchSendResponse.builder()
+        .accepted(accepted)
+        .rejected(results.size() - accepted)
+        .results(results)
+        .build();
+  }
+
+  /**
+   * Moves past the line a syntax error fell on, reporting it and any lines the failed record took
+   * with it.
+   *
+   * @return the index of the first line without a result
+   */
+  private static int skipUnparsable(
+      final BatchLineInput lines,
+      final MappingIterator<BatchSendRequest> records,
+      final JsonParseException e,
+      final int index,
+      final int next,
+      final List<PendingLine> chunk)
+      throws IOException {
+    final JsonParser parser = records == null ? e.getProcessor() : records.getParser();
+    if (parser != null) {
+      final ByteArrayOutputStream buffered = new ByteArrayOutputStream();
+      parser.releaseBuffered(buffered);
+      parser.close();
+      lines.unread(buffered.toByteArray());
+    }
+    final int failed = lines.skipFailedLine();
+    log.warn("Unreadable batch line {}: {}", failed, e.getOriginalMessage());
+    for (int line = Math.max(next, index < 0 ? failed : index); line <= failed; line++) {
+      chunk.add(unreadable(lines, line));
+    }
+    return Math.max(next, failed + 1);
+  }
+
+  private static PendingLine unreadable(final BatchLineInput lines, final int index) {
+    return new PendingLine(
+        index,
+        null,
+        lines.oversized(index) ? BATCH_LINE_TOO_LARGE_MESSAGE : BAD_REQUEST_ERROR_MESSAGE);
+  }
+
+  private PendingLine validate(final int index, final BatchSendRequest request) {
+    if (request.getCustomerId() == null && request.getIbId() == null) {
+      return new PendingLine(index, null, BAD_REQUEST_CUSTOMERID_IBID_MISSING);
+    }
+    final Set<ConstraintViolation<BatchSendRequest>> violations = validator.validate(request);
+    if (!violations.isEmpty()) {
+      return new PendingLine(index, null, violations.iterator().next().getMessage());
+    }
+    return new PendingLine(index, request, null);
+  }
+
+  private void flush(final List<PendingLine> chunk, final String uuid, final List<LineResult> results) {
+    if (chunk.isEmpty()) {
+      return;
+    }
+
+    // Resolve every distinct IbId of the chunk once rather than once per line
+    final Map<String, Optional<Integer>> customerIds = new HashMap<>();
+    for (PendingLine pending : chunk) {
+      if (pending.isValid() && pending.request.getCustomerId() == null) {
+        customerIds.computeIfAbsent(
+            pending.request.getIbId(), customerIdResolver::getCustomerIdFromIbId);
+      }
+    }
+
+    for (PendingLine pending : chunk) {
+      if (!pending.isValid()) {
+        continue;
+      }
+      final BatchSendRequest request = pending.request;
+      final Integer customerId =
+          request.getCustomerId() != null
+              ? request.getCustomerId()
+              : customerIds.get(request.getIbId()).orElse(null);
+      if (customerId == null) {
+        log.error("Invalid IbId: {}", request.getIbId());
+        pending.message = INVALID_IBID_MESSAGE;
+        continue;
+      }
+      final SendRequest send = request.getRequest();
+      try {
+        final Optional<ListenableFuture<SendResult<String, SpecificRecordBase>>> future =
+            restProxyService.publishCommunication(
+                request.getIbId(),
+                customerId,
+                send.getCommsType(),
+                send.getMessageType(),
+                send.getTemplateId(),
+                send.getTemplateParams(),
+                resolved ->
+                    restProxyService.createSendRecord(
+                        request.getIbId(), resolved, send, uuid + "-" + pending.index));
+        pending.future = future.orElse(null);
+        pending.suppressed = future.isEmpty();
+      } catch (RestProxyTooManyRequestsException e) {
+        pending.message = e.getMessage();
+        pending.throttled = true;
+      }
+    }
+
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ackTimeoutMs);
+    for (PendingLine pending : chunk) {
+      results.add(await(pending, deadline));
+    }
+    chunk.clear();
+  }
+
+  private LineResult await(final PendingLine pending, final long deadline) {
+    if (pending.suppressed) {
+      // Dropped as a storm repeat, accepted without producing as a single send would be
+      return LineResult.builder().index(pending.index).status(LineStatus.ACCEPTED).build();
+    }
+    if (pending.future == null) {
+      return pending.throttled
+          ? LineResult.builder()
+              .index(pending.index)
+              .status(LineStatus.FAILED)
+              .message(pending.message)
+              .build()
+          : rejected(pending.index, pending.message);
+    }
+    try {
+      pending.future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      return LineResult.builder().index(pending.index).status(LineStatus.ACCEPTED).build();
+    } catch (ExecutionException | TimeoutException e) {
+      log.error("Error sending batch line {}: {}", pending.index, e.getMessage());
+      return LineResult.builder()
+          .index(pending.index)
+          .status(LineStatus.FAILED)
+          .message(e instanceof TimeoutException ? "Delivery timed out" : "Delivery failed")
+          .build();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RestProxyException(e);
+    }
+  }
+
+  private static LineResult rejected(final int index, final String message) {
+    return LineResult.builder().index(index).status(LineStatus.REJECTED).message(message).build();
+  }
+
+  private static final class PendingLine {
+    private final int index;
+    private final BatchSendRequest request;
+    private String message;
+    private boolean throttled;
+    private boolean suppressed;
+    private ListenableFuture<SendResult<String, SpecificRecordBase>> future;
+
+    private PendingLine(final int index, final BatchSendRequest request, final String message) {
+      this.index = index;
+      this.request = request;
+      this.message = message;
+    }
+
+    private boolean isValid() {
+      return request != null && message == null;
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.metrobank.communicationhub.breaker.MongoReads;
+import com.metrobank.communicationhub.common.service.CustomerIdIbIdMappingService;
+import com.metrobank.communicationhub.util.SingleFlight;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Near cache in front of {@link CustomerIdIbIdMappingService}. The IbId to customerId mapping does
+ * not change once assigned, so resolved ids are kept for a long TTL; unknown IbIds are cached too,
+ * for a much shorter one, so a newly created customer is picked up quickly. Caffeine bounds the
+ * cache by size with W-TinyLFU eviction, which keeps frequently used IbIds resident through scans
+ * of one-off ones.
+ *
+ * <p>With {@code ibid-index.enabled} the preloaded {@link IbIdIndex} answers first, leaving the
+ * cache to IbIds mapped since its last refresh and to unknown ones. While the index's change feed
+ * lags, cached mappings may be stale too, so every IbId is looked up.
+ */
+@Component
+public class CustomerIdResolver {
+  private static final int STRIPES = 1024;
+
+  private final CustomerIdIbIdMappingService customerIdIbIdMappingService;
+  private final MeterRegistry meterRegistry;
+  private final SingleFlight<String, Optional<Integer>> lookups = new SingleFlight<>();
+  // Bumped by every invalidation of an IbId in the stripe, so lookups racing one are not kept
+  private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+  private Cache<String, Optional<Integer>> cache;
+
+  @Autowired(required = false)
+  protected IbIdIndex ibIdIndex;
+
+  /** When present, lookups go through its breaker, falling back to stale mappings. */
+  @Autowired(required = false)
+  protected MongoReads mongoReads;
+
+  @Value("${single-flight.timeout-ms:5000}")
+  protected long singleFlightTimeoutMs = 5000;
+
+  @Value("${cache.customer-id.enabled:true}")
+  protected boolean enabled;
+
+  @Value("${cache.customer-id.maximum-size:500000}")
+  protected long maximumSize;
+
+  @Value("${cache.customer-id.ttl:24h}")
+  protected Duration ttl;
+
+  @Value("${cache.customer-id.negative-ttl:30s}")
+  protected Duration negativeTtl;
+
+  public CustomerIdResolver(
+      final CustomerIdIbIdMappingService customerIdIbIdMappingService,
+      final MeterRegistry meterRegistry) {
+    this.customerIdIbIdMappingService = customerIdIbIdMappingService;
+    this.meterRegistry = meterRegistry;
+  }
+
+  @PostConstruct
+  public void init() {
+    cache =
+        Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfter(new MappingExpiry(ttl.toNanos(), negativeTtl.toNanos()))
+            .recordStats()
+            .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "customerIdByIbId");
+  }
+
+  /** Same contract as {@link CustomerIdIbIdMappingService#getCustomerIdFromIbId(String)}. */
+  public Optional<Integer> getCustomerIdFromIbId(final String ibId) {
+    if (ibId == null) {
+      return customerIdIbIdMappingService.getCustomerIdFromIbId(null);
+    }
+    final Optional<Integer> indexed = getIfIndexed(ibId);
+    if (indexed != null) {
+      return indexed;
+    }
+    if (enabled && !isIndexLagging()) {
+      final Optional<Integer> cached = cache.getIfPresent(ibId);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    // Concurrent misses for one IbId share a single lookup, with or without the cache
+    final Supplier<Optional<Integer>> lookup =
+        () ->
+            lookups.execute(
+                ibId,
+                singleFlightTimeoutMs,
+                () -> customerIdIbIdMappingService.getCustomerIdFromIbId(ibId));
+    final int stripe = stripe(ibId);
+    final long version = versions.get(stripe);
+    final Optional<Integer> customerId;
+    if (mongoReads == null) {
+      customerId = lookup.get();
+    } else {
+      final MongoReads.Read<Optional<Integer>> read =
+          mongoReads.readTracked(MongoReads.IBIDS, ibId, lookup);
+      // A stale mapping is served for this request only, the cache would outlive the outage
+      if (read.isStale()) {
+        return read.value();
+      }
+      customerId = read.value();
+    }
+    if (enabled) {
+      cache.put(ibId, customerId);
+      // Invalidated while loading, so what was read may predate the change
+      if (versions.get(stripe) != version) {
+        cache.invalidate(ibId);
+      }
+    }
+    return customerId;
+  }
+
+  /**
+   * The indexed or cached mapping of an IbId without looking it up, or null when it is neither
+   * indexed nor cached.
+   */
+  public Optional<Integer> getIfCached(final String ibId) {
+    if (ibId == null) {
+      return null;
+    }
+    final Optional<Integer> indexed = getIfIndexed(ibId);
+    if (indexed != null) {
+      return indexed;
+    }
+    return enabled && !isIndexLagging() ? cache.getIfPresent(ibId) : null;
+  }
+
+  /**
+   * Drops a cached mapping, e.g. after it was found to be wrong. A lookup of the IbId already in
+   * flight does not cache what it read.
+   */
+  public void invalidate(final String ibId) {
+    versions.incrementAndGet(stripe(ibId));
+    cache.invalidate(ibId);
+  }
+
+  private Optional<Integer> getIfIndexed(final String ibId) {
+    if (ibIdIndex == null) {
+      return null;
+    }
+    final int customerId = ibIdIndex.get(ibId);
+    return customerId == IbIdIndex.NOT_FOUND ? null : Optional.of(customerId);
+  }
+
+  private boolean isIndexLagging() {
+    return ibIdIndex != null && ibIdIndex.isLagging();
+  }
+
+  private static int stripe(final String ibId) {
+    final int hash = ibId.hashCode();
+    return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+  }
+
+  private static final class MappingExpiry implements Expiry<String, Optional<Integer>> {
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+
+    private MappingExpiry(final long ttlNanos, final long negativeTtlNanos) {
+      this.ttlNanos = ttlNanos;
+      this.negativeTtlNanos = negativeTtlNanos;
+    }
+
+    @Override
+    public long expireAfterCreate(
+        final String ibId, final Optional<Integer> customerId, final long currentTime) {
+      return customerId.isPresent() ? ttlNanos : negativeTtlNanos;
+    }
+
+    @Override
+    public long expireAfterUpdate(
+        final String ibId,
+        final Optional<Integer> customerId,
+        final long currentTime,
+        final long currentDuration) {
+      return expireAfterCreate(ibId, customerId, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(
+        final String ibId,
+        final Optional<Integer> customerId,
+        final long currentTime,
+        final long currentDuration) {
+      return currentDuration;
+    }
+  }
+}
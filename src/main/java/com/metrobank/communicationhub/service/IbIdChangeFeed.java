@@ -0,0 +1,251 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the {@link IbIdIndex} coherent with the mapping as it changes, from a compacted topic keyed
+ * by IbId whose values are the customerId in decimal, or null when the IbId was unlinked. Every
+ * instance reads every partition without a consumer group, starting from the records published
+ * shortly before the index's last full load, so no change between the load and the subscription
+ * is missed; replaying a few twice is harmless. Each change goes into the index and evicts the
+ * IbId from the {@link CustomerIdResolver} cache.
+ *
+ * <p>The lag behind the end of the topic is exported as {@code restproxy.ibid.index.feed.lag}.
+ * Until it is known, and whenever it exceeds {@code ibid-index.change-feed.max-lag} records, the
+ * index is marked lagging and IbIds are read from MongoDB instead.
+ */
+@Component
+@ConditionalOnProperty(name = "ibid-index.change-feed.enabled", havingValue = "true")
+@Log4j2
+public class IbIdChangeFeed implements DisposableBean {
+  private static final Duration POLL_TIMEOUT = Duration.ofMillis(500);
+  private static final long RETRY_BACKOFF_MS = 5000;
+
+  private final IbIdIndex ibIdIndex;
+  private final CustomerIdResolver customerIdResolver;
+  private final Supplier<Consumer<String, String>> consumers;
+  private final Counter upserts;
+  private final Counter deletes;
+  private volatile boolean running = true;
+  private volatile double lag = Double.NaN;
+  private volatile Consumer<String, String> consumer;
+  private List<TopicPartition> partitions = List.of();
+  private Thread poller;
+
+  @Value("${ibid-index.change-feed.topic:dev.comhub.private.ibid.mapping}")
+  protected String topic = "dev.comhub.private.ibid.mapping";
+
+  @Value("${ibid-index.change-feed.max-lag:100}")
+  protected long maxLag = 100;
+
+  @Value("${ibid-index.change-feed.start-margin:5m}")
+  protected Duration startMargin = Duration.ofMinutes(5);
+
+  @Autowired
+  public IbIdChangeFeed(
+      final IbIdIndex ibIdIndex,
+      final CustomerIdResolver customerIdResolver,
+      final KafkaProperties kafkaProperties,
+      final MeterRegistry meterRegistry) {
+    this(
+        ibIdIndex,
+        customerIdResolver,
+        () -> new KafkaConsumer<>(consumerProperties(kafkaProperties)),
+        meterRegistry);
+  }
+
+  IbIdChangeFeed(
+      final IbIdIndex ibIdIndex,
+      final CustomerIdResolver customerIdResolver,
+      final Supplier<Consumer<String, String>> consumers,
+      final MeterRegistry meterRegistry) {
+    this.ibIdIndex = ibIdIndex;
+    this.customerIdResolver = customerIdResolver;
+    this.consumers = consumers;
+    Gauge.builder("restproxy.ibid.index.feed.lag", this, feed -> feed.lag)
+        .description("Mapping changes published but not yet applied to the IbId index")
+        .register(meterRegistry);
+    this.upserts = changes(meterRegistry, "upsert");
+    this.deletes = changes(meterRegistry, "delete");
+  }
+
+  @PostConstruct
+  public void start() {
+    ibIdIndex.setLagging(true);
+    poller = new Thread(this::run, "ibid-change-feed");
+    poller.setDaemon(true);
+    poller.start();
+  }
+
+  @Override
+  public void destroy() throws InterruptedException {
+    running = false;
+    final Consumer<String, String> current = consumer;
+    if (current != null) {
+      current.wakeup();
+    }
+    if (poller != null) {
+      poller.join(POLL_TIMEOUT.toMillis() * 4);
+    }
+  }
+
+  static Map<String, Object> consumerProperties(final KafkaProperties kafkaProperties) {
+    final Map<String, Object> properties = kafkaProperties.buildConsumerProperties();
+    // Every instance reads the whole topic and tracks its own position
+    properties.remove(ConsumerConfig.GROUP_ID_CONFIG);
+    properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+    properties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+    properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+    final Object clientId = properties.get(ConsumerConfig.CLIENT_ID_CONFIG);
+    properties.put(
+        ConsumerConfig.CLIENT_ID_CONFIG,
+        (clientId == null ? "" : clientId + "-") + "ibid-change-feed");
+    return properties;
+  }
+
+  private void run() {
+    while (running) {
+      try (Consumer<String, String> current = consumers.get()) {
+        consumer = current;
+        subscribe(current);
+        while (running) {
+          poll(current);
+        }
+      } catch (WakeupException e) {
+        // Closing
+      } catch (RuntimeException e) {
+        log.error("IbId change feed on {} failed, retrying", topic, e);
+        lag = Double.NaN;
+        ibIdIndex.setLagging(true);
+        try {
+          Thread.sleep(RETRY_BACKOFF_MS);
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Assigns every partition of the topic and seeks to the first change published within the start
+   * margin of the index's last full load, or to the end when it has none yet, its misses then
+   * going to MongoDB anyway.
+   */
+  void subscribe(final Consumer<String, String> current) {
+    final List<PartitionInfo> partitionInfos = current.partitionsFor(topic);
+    if (partitionInfos == null || partitionInfos.isEmpty()) {
+      throw new IllegalStateException("No partitions for " + topic);
+    }
+    partitions =
+        partitionInfos.stream()
+            .map(info -> new TopicPartition(info.topic(), info.partition()))
+            .collect(Collectors.toList());
+    current.assign(partitions);
+    final long loadedAt = ibIdIndex.loadedAtMillis();
+    if (loadedAt == 0) {
+      current.seekToEnd(partitions);
+    } else {
+      final Map<TopicPartition, Long> timestamps = new HashMap<>();
+      final long from = Math.max(0, loadedAt - startMargin.toMillis());
+      partitions.forEach(partition -> timestamps.put(partition, from));
+      current
+          .offsetsForTimes(timestamps)
+          .forEach(
+              (partition, offset) -> {
+                if (offset == null) {
+                  current.seekToEnd(List.of(partition));
+                } else {
+                  current.seek(partition, offset.offset());
+                }
+              });
+    }
+    ibIdIndex.attachChangeFeed();
+    log.info("IbId change feed reading {} partitions of {}", partitions.size(), topic);
+  }
+
+  /** Applies one poll's changes and updates the lag. */
+  void poll(final Consumer<String, String> current) {
+    for (ConsumerRecord<String, String> record : current.poll(POLL_TIMEOUT)) {
+      apply(record);
+    }
+    long total = 0;
+    for (TopicPartition partition : partitions) {
+      final OptionalLong partitionLag = current.currentLag(partition);
+      if (partitionLag.isEmpty()) {
+        total = -1;
+        break;
+      }
+      total += partitionLag.getAsLong();
+    }
+    lag = total < 0 ? Double.NaN : total;
+    final boolean lagging = total < 0 || total > maxLag;
+    if (lagging != ibIdIndex.isLagging()) {
+      log.info(
+          "IbId change feed {}, {} changes behind",
+          lagging ? "lagging" : "caught up",
+          total < 0 ? "unknown" : total);
+      ibIdIndex.setLagging(lagging);
+    }
+  }
+
+  private void apply(final ConsumerRecord<String, String> record) {
+    final String ibId = record.key();
+    if (ibId == null) {
+      return;
+    }
+    if (record.value() == null) {
+      ibIdIndex.apply(ibId, IbIdIndex.NOT_FOUND);
+      deletes.increment();
+    } else {
+      try {
+        ibIdIndex.apply(ibId, Integer.parseInt(record.value().trim()));
+        upserts.increment();
+      } catch (NumberFormatException e) {
+        log.warn(
+            "Ignoring mapping change for IbId {} at {}-{}@{}: {}",
+            ibId,
+            record.topic(),
+            record.partition(),
+            record.offset(),
+            e.getMessage());
+        return;
+      }
+    }
+    customerIdResolver.invalidate(ibId);
+  }
+
+  private static Counter changes(final MeterRegistry meterRegistry, final String type) {
+    return Counter.builder("restproxy.ibid.index.feed.changes")
+        .description("Mapping changes applied to the IbId index")
+        .tag("type", type)
+        .register(meterRegistry);
+  }
+}
@@ -0,0 +1,295 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * The whole IbId to customerId mapping, preloaded from MongoDB into an off-heap {@link IbIdTable}
+ * so that {@link CustomerIdResolver} answers known IbIds without a round trip and without holding
+ * millions of boxed entries on the heap.
+ *
+ * <p>The collection is streamed through a cursor at startup. Mappings are only ever added, so a
+ * background refresh then streams just the documents whose {@code _id} is past the highest seen,
+ * ObjectIds growing with their creation time, and copies the current table to add them only when
+ * there are any; a full reload every {@code ibid-index.full-refresh-interval} picks up anything
+ * else, such as a mapping whose id was generated before one already seen. Each new table replaces
+ * the last in one volatile write, and lookups racing a refresh see the old one or the new one
+ * whole. IbIds missing from the table, such as those mapped since the last refresh, are left to the
+ * mapping service. A collection keyed by anything but ObjectIds is reloaded whole on every refresh.
+ *
+ * <p>A replaced table is freed at the following replacement, a refresh interval later, by when no
+ * lookup can still be reading it. Direct memory thus peaks at three tables during a full reload,
+ * which {@code -XX:MaxDirectMemorySize} must allow for.
+ *
+ * <p>With {@link IbIdChangeFeed} attached, upserts and deletes arrive as they happen instead, into
+ * a small overlay consulted before the table, and only the full reloads remain; each drops the
+ * overlay entries it has read past. While the feed lags too far behind the index answers nothing,
+ * so every IbId is read from MongoDB.
+ */
+@Component
+@ConditionalOnProperty(name = "ibid-index.enabled", havingValue = "true")
+@Log4j2
+public class IbIdIndex implements DisposableBean {
+  public static final int NOT_FOUND = IbIdTable.NOT_FOUND;
+  static final String ID = "_id";
+
+  private final MongoTemplate mongoTemplate;
+  private final MeterRegistry meterRegistry;
+  private final Map<String, Change> changes = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService refresher =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            final Thread thread = new Thread(runnable, "ibid-index-refresh");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private volatile IbIdTable table = IbIdTable.empty();
+  // Replaced by the current table, and freed once that one is replaced in turn
+  private IbIdTable retired;
+  private volatile boolean lagging;
+  private volatile boolean changeFeedAttached;
+  private volatile long loadedAtMillis;
+  private ObjectId highestId;
+  private long lastFullLoad;
+  private Timer fullRefreshes;
+  private Timer incrementalRefreshes;
+
+  @Value("${ibid-index.collection:customerIdIbIdMapping}")
+  protected String collection = "customerIdIbIdMapping";
+
+  @Value("${ibid-index.ibid-field:ibId}")
+  protected String ibIdField = "ibId";
+
+  @Value("${ibid-index.customer-id-field:customerId}")
+  protected String customerIdField = "customerId";
+
+  @Value("${ibid-index.batch-size:10000}")
+  protected int batchSize = 10_000;
+
+  @Value("${ibid-index.refresh-interval:5m}")
+  protected Duration refreshInterval = Duration.ofMinutes(5);
+
+  @Value("${ibid-index.full-refresh-interval:24h}")
+  protected Duration fullRefreshInterval = Duration.ofHours(24);
+
+  public IbIdIndex(final MongoTemplate mongoTemplate, final MeterRegistry meterRegistry) {
+    this.mongoTemplate = mongoTemplate;
+    this.meterRegistry = meterRegistry;
+  }
+
+  @PostConstruct
+  public void init() {
+    Gauge.builder("restproxy.ibid.index.size", this, index -> index.table.size())
+        .description("IbIds held by the index")
+        .register(meterRegistry);
+    Gauge.builder("restproxy.ibid.index.bytes", this, index -> index.table.offHeapBytes())
+        .description("Direct memory held by the index")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+    fullRefreshes = refreshTimer("full");
+    incrementalRefreshes = refreshTimer("incremental");
+    refresh();
+    refresher.scheduleWithFixedDelay(
+        this::refresh,
+        refreshInterval.toMillis(),
+        refreshInterval.toMillis(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  /** The customerId mapped to the IbId, or {@link #NOT_FOUND} when it is not indexed. */
+  public int get(final String ibId) {
+    if (lagging) {
+      return NOT_FOUND;
+    }
+    if (!changes.isEmpty()) {
+      final Change change = changes.get(ibId);
+      if (change != null) {
+        return change.customerId;
+      }
+    }
+    return table.get(ibId);
+  }
+
+  /** True while the attached change feed is too far behind for the index to be trusted. */
+  public boolean isLagging() {
+    return lagging;
+  }
+
+  /**
+   * Maps the IbId to the customerId ahead of the next full reload, or unmaps it when the
+   * customerId is {@link #NOT_FOUND}.
+   */
+  void apply(final String ibId, final int customerId) {
+    changes.put(ibId, new Change(customerId, System.nanoTime()));
+  }
+
+  /** Stops incremental refreshes, the change feed now bringing the mappings in. */
+  void attachChangeFeed() {
+    changeFeedAttached = true;
+  }
+
+  void setLagging(final boolean lagging) {
+    this.lagging = lagging;
+  }
+
+  /** Wall clock time the last full load started, or 0 when none has completed. */
+  long loadedAtMillis() {
+    return loadedAtMillis;
+  }
+
+  /**
+   * Brings the table up to date, reloading it whole when the last full load is older than the full
+   * refresh interval and otherwise, without a change feed, streaming in the newer mappings.
+   * Failures keep the current table and are retried on the next refresh.
+   */
+  void refresh() {
+    try {
+      final long started = System.nanoTime();
+      final long startedMillis = System.currentTimeMillis();
+      if (highestId == null && !changeFeedAttached
+          || loadedAtMillis == 0
+          || started - lastFullLoad > fullRefreshInterval.toNanos()) {
+        final IbIdTable.Builder builder =
+            new IbIdTable.Builder(
+                (int) Math.min(mongoTemplate.estimatedCount(collection), Integer.MAX_VALUE));
+        final Loaded loaded = load(new Query(), builder::put, null);
+        replace(builder.build());
+        // Changes applied before the load started are in what it read
+        changes.values().removeIf(change -> change.appliedAt - started < 0);
+        highestId = loaded.highestId;
+        lastFullLoad = started;
+        loadedAtMillis = startedMillis;
+        fullRefreshes.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        log.info(
+            "IbId index loaded {} mappings from {}, {} MiB off-heap",
+            table.size(),
+            collection,
+            table.offHeapBytes() >> 20);
+      } else if (!changeFeedAttached) {
+        final List<Map.Entry<String, Integer>> added = new ArrayList<>();
+        final Loaded loaded =
+            load(
+                new Query(where(ID).gt(highestId)),
+                (ibId, customerId) ->
+                    IbIdTable.indexable(ibId) && added.add(Map.entry(ibId, customerId)),
+                highestId);
+        if (!added.isEmpty()) {
+          final IbIdTable.Builder builder = new IbIdTable.Builder(table, added.size());
+          for (Map.Entry<String, Integer> mapping : added) {
+            builder.put(mapping.getKey(), mapping.getValue());
+          }
+          replace(builder.build());
+          log.info("IbId index added {} mappings, {} in all", loaded.mappings, table.size());
+        }
+        highestId = loaded.highestId;
+        incrementalRefreshes.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+      }
+    } catch (RuntimeException e) {
+      log.warn("Could not refresh the IbId index from {}: {}", collection, e.getMessage());
+    }
+  }
+
+  @Override
+  public void destroy() {
+    refresher.shutdownNow();
+  }
+
+  IbIdTable table() {
+    return table;
+  }
+
+  /** Publishes the table to lookups, freeing the one retired at the last replacement. */
+  private void replace(final IbIdTable next) {
+    final IbIdTable previous = table;
+    table = next;
+    if (retired != null) {
+      retired.free();
+    }
+    retired = previous;
+  }
+
+  /** Streams the matching mappings into the sink. */
+  private Loaded load(final Query query, final Sink sink, final ObjectId highestId) {
+    query.fields().include(ID, ibIdField, customerIdField);
+    query.cursorBatchSize(batchSize);
+    final Loaded loaded = new Loaded(highestId);
+    int skipped = 0;
+    try (CloseableIterator<Document> cursor =
+        mongoTemplate.stream(query, Document.class, collection)) {
+      while (cursor.hasNext()) {
+        final Document mapping = cursor.next();
+        final Object id = mapping.get(ID);
+        if (id instanceof ObjectId
+            && (loaded.highestId == null || loaded.highestId.compareTo((ObjectId) id) < 0)) {
+          loaded.highestId = (ObjectId) id;
+        }
+        final String ibId = mapping.getString(ibIdField);
+        final Number customerId = mapping.get(customerIdField, Number.class);
+        if (ibId == null || customerId == null || !sink.put(ibId, customerId.intValue())) {
+          skipped++;
+        } else {
+          loaded.mappings++;
+        }
+      }
+    }
+    if (skipped > 0) {
+      log.warn("IbId index skipped {} mappings it cannot hold", skipped);
+    }
+    return loaded;
+  }
+
+  private Timer refreshTimer(final String type) {
+    return Timer.builder("restproxy.ibid.index.refresh")
+        .description("Time taken to load the IbId index from MongoDB")
+        .tag("type", type)
+        .register(meterRegistry);
+  }
+
+  /** Takes a mapping, telling whether it can be indexed. */
+  private interface Sink {
+    boolean put(String ibId, int customerId);
+  }
+
+  private static final class Change {
+    private final int customerId;
+    private final long appliedAt;
+
+    private Change(final int customerId, final long appliedAt) {
+      this.customerId = customerId;
+      this.appliedAt = appliedAt;
+    }
+  }
+
+  private static final class Loaded {
+    private int mappings;
+    private ObjectId highestId;
+
+    private Loaded(final ObjectId highestId) {
+      this.highestId = highestId;
+    }
+  }
+}
@@ -0,0 +1,274 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+/**
+ * An immutable open addressing hash table from IbId to customerId held in direct buffers, so
+ * millions of mappings cost the heap two buffer objects. Slots are 12 bytes, the key's hash, the
+ * offset of its bytes and the customerId, probed linearly at a load factor of at most 0.7; keys are
+ * stored once each in an arena as a length byte followed by their Latin-1 bytes. Lookups compare
+ * the characters of the IbId with the stored bytes in place and allocate nothing.
+ *
+ * <p>Tables are only ever read once built, through absolute gets, so any number of threads may
+ * share one. IbIds longer than 255 characters or outside Latin-1 are not indexed.
+ *
+ * <p>Direct buffers are only returned to the OS once the garbage collector finds them unreachable,
+ * which a quiet heap may put off for long after a table is replaced, so replaced tables and the
+ * buffers a builder outgrows are freed explicitly.
+ */
+final class IbIdTable {
+  static final int NOT_FOUND = Integer.MIN_VALUE;
+
+  private static final int SLOT_BYTES = 12;
+  private static final int OFFSET = 4;
+  private static final int CUSTOMER_ID = 8;
+  private static final int MAX_KEY_LENGTH = 255;
+  private static final double MAX_LOAD = 0.7;
+  private static final int MAX_CAPACITY = 1 << 27;
+  private static final Unsafe UNSAFE = unsafe();
+
+  private final ByteBuffer slots;
+  private final ByteBuffer keys;
+  private final int mask;
+  private final int size;
+  private final int keyBytes;
+
+  private IbIdTable(
+      final ByteBuffer slots, final ByteBuffer keys, final int size, final int keyBytes) {
+    this.slots = slots;
+    this.keys = keys;
+    this.mask = slots.capacity() / SLOT_BYTES - 1;
+    this.size = size;
+    this.keyBytes = keyBytes;
+  }
+
+  static IbIdTable empty() {
+    return new Builder(0).build();
+  }
+
+  /** The customerId of the IbId, or {@link #NOT_FOUND} when it is not in the table. */
+  int get(final CharSequence ibId) {
+    final int length = ibId.length();
+    if (length > MAX_KEY_LENGTH) {
+      return NOT_FOUND;
+    }
+    final int hash = hash(ibId);
+    if (hash == 0) {
+      return NOT_FOUND;
+    }
+    for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+      final int position = slot * SLOT_BYTES;
+      final int slotHash = slots.getInt(position);
+      if (slotHash == 0) {
+        return NOT_FOUND;
+      }
+      if (slotHash == hash && matches(keys, slots.getInt(position + OFFSET), ibId)) {
+        return slots.getInt(position + CUSTOMER_ID);
+      }
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  /** Whether the IbId can be held by a table. */
+  static boolean indexable(final CharSequence ibId) {
+    return ibId.length() <= MAX_KEY_LENGTH && hash(ibId) != 0;
+  }
+
+  /** Frees the table's direct memory at once. Nothing may read the table afterwards. */
+  void free() {
+    free(slots);
+    free(keys);
+  }
+
+  /** Bytes of direct memory held by the table. */
+  long offHeapBytes() {
+    return (long) slots.capacity() + keys.capacity();
+  }
+
+  /**
+   * FNV-1a over the characters, finished with the murmur3 mixer so the low bits used for the slot
+   * depend on every character. Never 0, which marks an empty slot, unless a character is outside
+   * Latin-1.
+   */
+  private static int hash(final CharSequence ibId) {
+    int hash = 0x811c9dc5;
+    for (int i = 0; i < ibId.length(); i++) {
+      final char c = ibId.charAt(i);
+      if (c > 0xff) {
+        return 0;
+      }
+      hash = (hash ^ c) * 0x01000193;
+    }
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash == 0 ? 1 : hash;
+  }
+
+  private static boolean matches(final ByteBuffer keys, final int offset, final CharSequence ibId) {
+    final int length = ibId.length();
+    if ((keys.get(offset) & 0xff) != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if ((keys.get(offset + 1 + i) & 0xff) != ibId.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void free(final ByteBuffer buffer) {
+    if (UNSAFE != null) {
+      UNSAFE.invokeCleaner(buffer);
+    }
+  }
+
+  private static Unsafe unsafe() {
+    try {
+      final Field field = Unsafe.class.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      return (Unsafe) field.get(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Buffers are then left to the garbage collector
+      return null;
+    }
+  }
+
+  private static int capacityFor(final int entries) {
+    final long needed = Math.max(16, (long) Math.ceil(entries / MAX_LOAD));
+    return (int) Math.min(Long.highestOneBit(needed - 1) << 1, MAX_CAPACITY);
+  }
+
+  /** Fills a table, growing its buffers as needed. Not thread-safe. */
+  static final class Builder {
+    private ByteBuffer slots;
+    private ByteBuffer keys;
+    private int mask;
+    private int size;
+    private int keyBytes;
+
+    /** A builder sized for the expected number of mappings, which may be exceeded. */
+    Builder(final int expected) {
+      final int capacity = capacityFor(expected);
+      slots = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+      keys = ByteBuffer.allocateDirect(Math.max(1024, expected * 16));
+      mask = capacity - 1;
+    }
+
+    /**
+     * A builder starting from the mappings of a table, with room for as many again as expected;
+     * the table itself is left as it is.
+     */
+    Builder(final IbIdTable base, final int expected) {
+      final int capacity = Math.max(base.mask + 1, capacityFor(base.size + expected));
+      slots = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+      mask = capacity - 1;
+      keys =
+          ByteBuffer.allocateDirect(Math.max(base.keys.capacity(), base.keyBytes + expected * 16));
+      keys.put(base.keys.duplicate().position(0).limit(base.keyBytes));
+      keyBytes = base.keyBytes;
+      if (capacity == base.mask + 1) {
+        slots.put(base.slots.duplicate().clear());
+      } else {
+        rehash(base.slots);
+      }
+      size = base.size;
+    }
+
+    /**
+     * Maps the IbId to the customerId, replacing any earlier mapping.
+     *
+     * @return false if the IbId cannot be indexed
+     */
+    boolean put(final CharSequence ibId, final int customerId) {
+      final int length = ibId.length();
+      final int hash = hash(ibId);
+      if (length > MAX_KEY_LENGTH || hash == 0) {
+        return false;
+      }
+      for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+        final int position = slot * SLOT_BYTES;
+        final int slotHash = slots.getInt(position);
+        if (slotHash == 0) {
+          slots.putInt(position, hash);
+          slots.putInt(position + OFFSET, append(ibId));
+          slots.putInt(position + CUSTOMER_ID, customerId);
+          if (++size > (mask + 1) * MAX_LOAD) {
+            grow();
+          }
+          return true;
+        }
+        if (slotHash == hash && matches(keys, slots.getInt(position + OFFSET), ibId)) {
+          slots.putInt(position + CUSTOMER_ID, customerId);
+          return true;
+        }
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    IbIdTable build() {
+      return new IbIdTable(slots, keys, size, keyBytes);
+    }
+
+    private int append(final CharSequence ibId) {
+      final int length = ibId.length();
+      if (keyBytes + 1 + length > keys.capacity()) {
+        final ByteBuffer grown =
+            ByteBuffer.allocateDirect(Math.max(keys.capacity() * 2, keyBytes + 1 + length));
+        grown.put(keys.duplicate().position(0).limit(keyBytes));
+        // The builder's own buffers, never the base table's, which it copies
+        free(keys);
+        keys = grown;
+      }
+      final int offset = keyBytes;
+      keys.put(offset, (byte) length);
+      for (int i = 0; i < length; i++) {
+        keys.put(offset + 1 + i, (byte) ibId.charAt(i));
+      }
+      keyBytes += 1 + length;
+      return offset;
+    }
+
+    private void grow() {
+      final ByteBuffer old = slots;
+      final int capacity = (mask + 1) * 2;
+      if (capacity > MAX_CAPACITY) {
+        throw new IllegalStateException("IbId table full at " + size + " mappings");
+      }
+      slots = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+      mask = capacity - 1;
+      rehash(old);
+      free(old);
+    }
+
+    /** Moves the slots over by their stored hashes; the key offsets stay valid. */
+    private void rehash(final ByteBuffer old) {
+      for (int position = 0; position < old.capacity(); position += SLOT_BYTES) {
+        final int hash = old.getInt(position);
+        if (hash == 0) {
+          continue;
+        }
+        int slot = hash & mask;
+        while (slots.getInt(slot * SLOT_BYTES) != 0) {
+          slot = (slot + 1) & mask;
+        }
+        slots.putInt(slot * SLOT_BYTES, hash);
+        slots.putInt(slot * SLOT_BYTES + OFFSET, old.getInt(position + OFFSET));
+        slots.putInt(slot * SLOT_BYTES + CUSTOMER_ID, old.getInt(position + CUSTOMER_ID));
+      }
+    }
+  }
+}
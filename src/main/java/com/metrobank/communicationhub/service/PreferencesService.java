@@ -1,17 +1,25 @@
 /** Copyright 2021 Metro Bank. All rights reserved. */
 package com.metrobank.communicationhub.service;
 
+import com.metrobank.communicationhub.breaker.MongoReads;
 import com.metrobank.communicationhub.common.model.MobilePushPreference;
 import com.metrobank.communicationhub.common.model.MobilePushPreference.PreferenceRec;
-import com.metrobank.communicationhub.common.repository.MobilePushPreferencesRepository;
-import com.metrobank.communicationhub.common.service.CustomerIdIbIdMappingService;
 import com.metrobank.communicationhub.model.preferences.PreferencesResponse;
+import com.metrobank.communicationhub.repository.MobilePushQueryRepository;
+import com.metrobank.communicationhub.streams.PreferenceView;
+import com.metrobank.communicationhub.util.SingleFlight;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static java.util.stream.Collectors.toMap;
@@ -20,15 +28,25 @@ import static java.util.stream.Collectors.toMap;
 @RequiredArgsConstructor
 @Log4j2
 public class PreferencesService {
-  private final MobilePushPreferencesRepository mobilePushPreferencesRepository;
-  private final CustomerIdIbIdMappingService customerIdIbIdMappingService;
+  private final MobilePushQueryRepository mobilePushQueryRepository;
+  private final CustomerIdResolver customerIdResolver;
+  private final PreferenceView preferenceView;
+  private final SingleFlight<List<Object>, List<MobilePushPreference>> preferenceQueries =
+      new SingleFlight<>();
+
+  /** When present, preference queries go through its breaker, falling back to stale results. */
+  @Autowired(required = false)
+  protected MongoReads mongoReads;
+
+  @Value("${single-flight.timeout-ms:5000}")
+  protected long singleFlightTimeoutMs = 5000;
 
   public PreferencesResponse getPreferencesForCustomer(
       final String ibId, Integer customerId, final String deviceId, final String commsType) {
     Optional<Integer> customerIdFromIbId;
     // If customerId not present in request get it from the mapping table
     if (customerId == null) {
-      customerIdFromIbId = customerIdIbIdMappingService.getCustomerIdFromIbId(ibId);
+      customerIdFromIbId = customerIdResolver.getCustomerIdFromIbId(ibId);
       if (customerIdFromIbId.isEmpty()) {
         log.error("Invalid IbId: {}", ibId);
         return PreferencesResponse.builder().build();
@@ -37,12 +55,48 @@ public class PreferencesService {
       }
     }
 
-    List<MobilePushPreference> preferenceList =
-        mobilePushPreferencesRepository
-            .findAllByCustomerIdAndCommsType(customerId, commsType)
-            .stream()
-            .filter(p -> p.getDeviceId().equals(deviceId))
-            .collect(Collectors.toList());
+    if (deviceId == null) {
+      return PreferencesResponse.builder().preferences(Collections.emptyList()).build();
+    }
+
+    // Served from the local view once it has caught up; MongoDB only answers while it restores
+    final Optional<Map<String, Map<String, String>>> view =
+        preferenceView.find(customerId, commsType, deviceId);
+    if (view.isPresent()) {
+      return fromView(view.get());
+    }
+
+    final List<Object> key = Arrays.asList(customerId, commsType, deviceId);
+    final Integer resolvedCustomerId = customerId;
+    final Supplier<List<MobilePushPreference>> query =
+        () ->
+            preferenceQueries.execute(
+                key,
+                singleFlightTimeoutMs,
+                () ->
+                    mobilePushQueryRepository.findPreferences(
+                        resolvedCustomerId, commsType, deviceId));
+    final List<MobilePushPreference> preferenceList =
+        mongoReads == null ? query.get() : mongoReads.read(MongoReads.PREFERENCES, key, query);
+
+    return fromDocuments(preferenceList);
+  }
+
+  static PreferencesResponse fromView(final Map<String, Map<String, String>> view) {
+    return PreferencesResponse.builder()
+        .preferences(
+            view.entrySet().stream()
+                .map(
+                    e ->
+                        PreferencesResponse.Preference.builder()
+                            .messageType(e.getKey())
+                            .commsPreference(e.getValue())
+                            .build())
+                .collect(Collectors.toList()))
+        .build();
+  }
+
+  static PreferencesResponse fromDocuments(final List<MobilePushPreference> preferenceList) {
     return PreferencesResponse.builder()
         .preferences(
             preferenceList.stream()
@@ -0,0 +1,37 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Optional;
+
+/**
+ * Resolves customerIds for the reactive profile. The mapping service only offers a blocking
+ * lookup, so cached mappings are answered on the calling thread and misses are looked up on the
+ * bounded elastic scheduler, keeping the event loop free.
+ */
+@Component
+@Profile("reactive")
+@RequiredArgsConstructor
+public class ReactiveCustomerIdResolver {
+
+  private final CustomerIdResolver customerIdResolver;
+
+  /** The customerId when given, otherwise the one mapped to the IbId; empty for unknown IbIds. */
+  public Mono<Integer> resolve(final String ibId, final Integer customerId) {
+    if (customerId != null) {
+      return Mono.just(customerId);
+    }
+    final Optional<Integer> cached = customerIdResolver.getIfCached(ibId);
+    if (cached != null) {
+      return Mono.justOrEmpty(cached);
+    }
+    return Mono.fromCallable(() -> customerIdResolver.getCustomerIdFromIbId(ibId))
+        .subscribeOn(Schedulers.boundedElastic())
+        .flatMap(Mono::justOrEmpty);
+  }
+}
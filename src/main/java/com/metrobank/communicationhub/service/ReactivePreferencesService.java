@@ -0,0 +1,56 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import com.metrobank.communicationhub.model.preferences.PreferencesResponse;
+import com.metrobank.communicationhub.repository.ReactiveMobilePushQueryRepository;
+import com.metrobank.communicationhub.streams.PreferenceView;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+
+/**
+ * Reactive counterpart of {@link PreferencesService}, answering from the preference view when it
+ * is ready and from MongoDB otherwise.
+ */
+@Service
+@Profile("reactive")
+@Log4j2
+@RequiredArgsConstructor
+public class ReactivePreferencesService {
+
+  private final ReactiveMobilePushQueryRepository mobilePushQueryRepository;
+  private final ReactiveCustomerIdResolver customerIdResolver;
+  private final PreferenceView preferenceView;
+
+  public Mono<PreferencesResponse> getPreferencesForCustomer(
+      final String ibId, final Integer customerId, final String deviceId, final String commsType) {
+    return customerIdResolver
+        .resolve(ibId, customerId)
+        .flatMap(
+            resolved -> {
+              if (deviceId == null) {
+                return Mono.just(
+                    PreferencesResponse.builder().preferences(Collections.emptyList()).build());
+              }
+              return preferenceView
+                  .find(resolved, commsType, deviceId)
+                  .map(view -> Mono.just(PreferencesService.fromView(view)))
+                  .orElseGet(
+                      () ->
+                          mobilePushQueryRepository
+                              .findPreferences(resolved, commsType, deviceId)
+                              .collectList()
+                              .map(PreferencesService::fromDocuments));
+            })
+        .switchIfEmpty(
+            Mono.fromSupplier(
+                () -> {
+                  log.error("Invalid IbId: {}", ibId);
+                  return PreferencesResponse.builder().build();
+                }));
+  }
+}
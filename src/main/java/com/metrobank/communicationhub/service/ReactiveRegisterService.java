@@ -0,0 +1,67 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import com.metrobank.communicationhub.model.registration.RegistrationResponse;
+import com.metrobank.communicationhub.model.request.CommsType;
+import com.metrobank.communicationhub.repository.ReactiveMobilePushQueryRepository;
+import com.metrobank.communicationhub.util.RegistrationResponseUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import static com.metrobank.communicationhub.util.CommsHubConstants.REGISTRATION_STATUS;
+
+/** Reactive counterpart of {@link RegisterService}, answering with the same responses. */
+@Service
+@Profile("reactive")
+@Log4j2
+@RequiredArgsConstructor
+public class ReactiveRegisterService {
+
+  private final ReactiveMobilePushQueryRepository mobilePushQueryRepository;
+  private final ReactiveCustomerIdResolver customerIdResolver;
+
+  public Mono<RegistrationResponse> getRegistration(
+      final String ibId,
+      final Integer customerId,
+      final String deviceToken,
+      final String deviceType,
+      final String commsType) {
+    log.info(
+        "ReactiveRegistrationService :: CustomerId: {}, IBID : {}, DeviceToken: {}, DeviceType: {}, CommsType: {}",
+        customerId,
+        ibId,
+        deviceToken,
+        deviceType,
+        commsType);
+
+    return customerIdResolver
+        .resolve(ibId, customerId)
+        .flatMap(
+            resolved -> {
+              final RegistrationResponse registrationResponse =
+                  RegistrationResponse.builder().build();
+              if (!commsType.equals(CommsType.MOBILE_PUSH.toString())) {
+                return Mono.just(registrationResponse);
+              }
+              return mobilePushQueryRepository
+                  .findRegistrations(
+                      resolved, commsType, REGISTRATION_STATUS, deviceToken, deviceType)
+                  .collectList()
+                  .map(
+                      registrations -> {
+                        RegistrationResponseUtils.populateRegistrationDetails(
+                            registrations, registrationResponse);
+                        return registrationResponse;
+                      });
+            })
+        .switchIfEmpty(
+            Mono.fromSupplier(
+                () -> {
+                  log.error("Invalid IbId: {}", ibId);
+                  return RegistrationResponse.builder().build();
+                }));
+  }
+}
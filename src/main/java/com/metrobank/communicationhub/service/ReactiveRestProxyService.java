@@ -0,0 +1,168 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import com.metrobank.communicationhub.admission.AdmissionController;
+import com.metrobank.communicationhub.exception.RestProxyUnprocessableEntityException;
+import com.metrobank.communicationhub.model.request.PreferenceRequest;
+import com.metrobank.communicationhub.model.request.RegistrationRequest;
+import com.metrobank.communicationhub.model.request.SendRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.kafka.core.KafkaProducerException;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.kafka.sender.KafkaSender;
+import reactor.kafka.sender.SenderRecord;
+import reactor.kafka.sender.SenderResult;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Reactive counterpart of {@link RestProxyService}. Records are built by {@link RestProxyService}
+ * once the customerId is resolved, so both stacks publish identical records, and are sent through
+ * a reactor-kafka sender under the same admission control. Without confirmed delivery the
+ * response is returned as soon as the record is handed to the sender; with it, once the broker
+ * acknowledges the record.
+ */
+@Service
+@Profile("reactive")
+@Log4j2
+@RequiredArgsConstructor
+public class ReactiveRestProxyService {
+
+  private final RestProxyService restProxyService;
+  private final ReactiveCustomerIdResolver customerIdResolver;
+  private final KafkaSender<String, SpecificRecordBase> kafkaSender;
+  private final AdmissionController admissionController;
+
+  @Value("${delivery.confirmed.timeout-ms:10000}")
+  protected long confirmedDeliveryTimeoutMs;
+
+  public Mono<ResponseEntity<Void>> sendRegisterRequest(
+      final String ibId,
+      final Integer customerId,
+      final RegistrationRequest request,
+      final String uuid,
+      final HttpMethod requestMethod,
+      final boolean confirmed) {
+
+    log.info("ReactiveRestProxyService :: register/de-register :: received request : {}", request);
+
+    return publish(
+        ibId,
+        customerId,
+        resolved ->
+            restProxyService.createRegistrationRecord(ibId, resolved, request, uuid, requestMethod),
+        "Registration",
+        uuid,
+        RestProxyService.registrationStatus(requestMethod),
+        confirmed);
+  }
+
+  public Mono<ResponseEntity<Void>> sendCommunicateRequest(
+      final String ibId,
+      final Integer customerId,
+      final SendRequest request,
+      final String uuid,
+      final boolean confirmed) {
+
+    log.info("ReactiveRestProxyService :: SendCommunication :: received request : {}", request);
+
+    return publish(
+        ibId,
+        customerId,
+        resolved -> restProxyService.createSendRecord(ibId, resolved, request, uuid),
+        "Comms",
+        uuid,
+        HttpStatus.OK,
+        confirmed);
+  }
+
+  public Mono<ResponseEntity<Void>> sendPreferenceRequest(
+      final String ibId,
+      final Integer customerId,
+      final PreferenceRequest request,
+      final String uuid,
+      final boolean confirmed) {
+
+    log.info("ReactiveRestProxyService :: SendPreference :: received request : {}", request);
+
+    return publish(
+        ibId,
+        customerId,
+        resolved -> restProxyService.createPreferenceRecord(ibId, resolved, request, uuid),
+        "Preference",
+        uuid,
+        HttpStatus.OK,
+        confirmed);
+  }
+
+  private Mono<ResponseEntity<Void>> publish(
+      final String ibId,
+      final Integer customerId,
+      final Function<Integer, ProducerRecord<String, SpecificRecordBase>> recordBuilder,
+      final String recordType,
+      final String uuid,
+      final HttpStatus status,
+      final boolean confirmed) {
+    return customerIdResolver
+        .resolve(ibId, customerId)
+        .switchIfEmpty(
+            Mono.error(
+                () -> {
+                  log.error("Invalid IbId: {}", ibId);
+                  return new RestProxyUnprocessableEntityException("Bad Request");
+                }))
+        .flatMap(
+            resolved -> {
+              final Mono<SenderResult<String>> ack = send(recordBuilder.apply(resolved), uuid);
+              if (!confirmed) {
+                ack.subscribe(
+                    result ->
+                        log.info(
+                            "Sent {} request with offset:{}",
+                            recordType,
+                            result.recordMetadata().offset()),
+                    ex -> log.error("Error sending {} request: {}", recordType, ex.getMessage()));
+                return Mono.just(new ResponseEntity<Void>(status));
+              }
+              return ack.timeout(Duration.ofMillis(confirmedDeliveryTimeoutMs))
+                  .doOnSuccess(
+                      result ->
+                          log.info(
+                              "Confirmed {} request {} with offset:{}",
+                              recordType,
+                              uuid,
+                              result.recordMetadata().offset()))
+                  .doOnError(
+                      ex ->
+                          log.error(
+                              "Error sending {} request {}: {}", recordType, uuid, ex.getMessage()))
+                  .thenReturn(new ResponseEntity<Void>(status));
+            });
+  }
+
+  /**
+   * Sends the record once the admission controller lets it through, holding the topic's in-flight
+   * slot until the broker answers or the send is cancelled.
+   */
+  private Mono<SenderResult<String>> send(
+      final ProducerRecord<String, SpecificRecordBase> record, final String uuid) {
+    final AdmissionController.Permit permit = admissionController.acquire(record.topic());
+    return kafkaSender
+        .send(Mono.just(SenderRecord.create(record, uuid)))
+        .next()
+        .onErrorMap(
+            ex -> !(ex instanceof KafkaProducerException),
+            ex -> new KafkaProducerException(record, "Failed to send", ex))
+        .doFinally(signal -> permit.release());
+  }
+}
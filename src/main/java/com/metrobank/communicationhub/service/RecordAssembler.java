@@ -0,0 +1,132 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import com.metrobank.communicationhub.kafka.AvroPrototype;
+import com.metrobank.communicationhub.model.request.PreferenceRequest;
+import com.metrobank.communicationhub.model.request.RegistrationRequest;
+import com.metrobank.communicationhub.model.request.SendRequest;
+import com.metrobank.communicationhub.schema.CommsPreference;
+import com.metrobank.communicationhub.schema.Preference;
+import com.metrobank.communicationhub.schema.RegistrationAvroRequest;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.springframework.http.HttpMethod;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.metrobank.communicationhub.util.CommsHubConstants.*;
+
+/**
+ * Assembles the records the service produces. The process and activity headers are encoded once
+ * into immutable templates that every record of a kind shares, and the Avro values come from
+ * prototypes rather than builders, so a record costs little more than its own fields.
+ */
+final class RecordAssembler {
+  private static final List<Header> REGISTRATION_HEADERS =
+      headers(REGISTRATION_PROCESS_NAME, REGISTRATION_ACTIVITY_NAME);
+  private static final List<Header> DEREGISTRATION_HEADERS =
+      headers(DEREGISTRATION_PROCESS_NAME, DEREGISTRATION_ACTIVITY_NAME);
+  private static final List<Header> SEND_HEADERS =
+      headers(ROUTING_PROCESS_NAME, ROUTING_ACTIVITY_NAME);
+  private static final List<Header> PREFERENCE_HEADERS =
+      headers(PREFERENCE_PROCESS_NAME, PREFERENCE_ACTIVITY_NAME);
+
+  private static final AvroPrototype<RegistrationAvroRequest> REGISTRATION =
+      AvroPrototype.of(RegistrationAvroRequest::new);
+  private static final AvroPrototype<SendAvroRequest> SEND = AvroPrototype.of(SendAvroRequest::new);
+  private static final AvroPrototype<CommsPreference> COMMS_PREFERENCE =
+      AvroPrototype.of(CommsPreference::new);
+  private static final AvroPrototype<Preference> PREFERENCE = AvroPrototype.of(Preference::new);
+
+  private RecordAssembler() {}
+
+  /**
+   * Wraps the completed value in a record carrying the template's headers, plus the request id when
+   * the key does not already carry it.
+   *
+   * @throws IllegalArgumentException if the value leaves a field its schema requires unset
+   */
+  static ProducerRecord<String, SpecificRecordBase> record(
+      final String topic,
+      final String key,
+      final SpecificRecordBase value,
+      final List<Header> headers,
+      final String requestId) {
+    final ProducerRecord<String, SpecificRecordBase> record =
+        new ProducerRecord<>(topic, null, key, AvroPrototype.checked(value), headers);
+    if (requestId != null) {
+      record.headers().add(REQUEST_ID, requestId.getBytes(StandardCharsets.UTF_8));
+    }
+    return record;
+  }
+
+  static List<Header> registrationHeaders(final HttpMethod requestMethod) {
+    return requestMethod == HttpMethod.POST ? REGISTRATION_HEADERS : DEREGISTRATION_HEADERS;
+  }
+
+  static List<Header> sendHeaders() {
+    return SEND_HEADERS;
+  }
+
+  static List<Header> preferenceHeaders() {
+    return PREFERENCE_HEADERS;
+  }
+
+  static RegistrationAvroRequest buildRegistrationRequest(
+      final Integer customerId,
+      final RegistrationRequest request,
+      final HttpMethod requestMethod) {
+    final RegistrationAvroRequest avroRequest = REGISTRATION.newRecord();
+    avroRequest.setMethod(requestMethod.name());
+    avroRequest.setCommsType(request.getCommsType().name());
+    avroRequest.setDeviceType(request.getDeviceType().name());
+    avroRequest.setCustomerId(customerId);
+    avroRequest.setToken(request.getToken());
+    avroRequest.setEmail(request.getEmail());
+    avroRequest.setMobileNo(request.getMobileNo());
+    return avroRequest;
+  }
+
+  static SendAvroRequest buildSendAvroRequest(final Integer customerId, final SendRequest request) {
+    final SendAvroRequest avroRequest = SEND.newRecord();
+    avroRequest.setCommsType(request.getCommsType().name());
+    avroRequest.setCustomerId(customerId);
+    avroRequest.setMessageType(request.getMessageType().name());
+    avroRequest.setEmail(request.getEmail());
+    avroRequest.setMobileNo(request.getMobileNo());
+    avroRequest.setTemplateId(request.getTemplateId());
+    avroRequest.setTemplateParams(request.getTemplateParams());
+    return avroRequest;
+  }
+
+  static CommsPreference buildPreferenceRequest(
+      final String ibId, final Integer customerId, final PreferenceRequest request) {
+    final List<Preference> preferences = new ArrayList<>(request.getPreferences().size());
+    for (PreferenceRequest.Preference p : request.getPreferences()) {
+      final Preference preference = PREFERENCE.newRecord();
+      preference.setKey(p.getKey());
+      preference.setValue(p.getValue());
+      preferences.add(preference);
+    }
+    final CommsPreference avroRequest = COMMS_PREFERENCE.newRecord();
+    avroRequest.setCommsType(request.getCommsType().name());
+    avroRequest.setCustomerId(customerId);
+    avroRequest.setMessageType(request.getMessageType().name());
+    avroRequest.setIbId(ibId);
+    avroRequest.setDeviceId(request.getDeviceId());
+    avroRequest.setMethod(HttpMethod.POST.name());
+    avroRequest.setPreferences(preferences);
+    return avroRequest;
+  }
+
+  private static List<Header> headers(final String processName, final String activityName) {
+    return List.of(
+        new RecordHeader(PROCESS_NAME, processName.getBytes(StandardCharsets.UTF_8)),
+        new RecordHeader(ACTIVTY_NAME, activityName.getBytes(StandardCharsets.UTF_8)));
+  }
+}
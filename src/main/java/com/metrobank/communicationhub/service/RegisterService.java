@@ -1,19 +1,22 @@
 /** Copyright 2021 Metro Bank. All rights reserved. */
 package com.metrobank.communicationhub.service;
 
+import com.metrobank.communicationhub.breaker.MongoReads;
 import com.metrobank.communicationhub.common.model.MobilePushRegistration;
-import com.metrobank.communicationhub.common.repository.MobilePushRegistrationRepository;
-import com.metrobank.communicationhub.common.service.CustomerIdIbIdMappingService;
 import com.metrobank.communicationhub.model.registration.RegistrationResponse;
 import com.metrobank.communicationhub.model.request.CommsType;
+import com.metrobank.communicationhub.repository.MobilePushQueryRepository;
 import com.metrobank.communicationhub.util.RegistrationResponseUtils;
+import com.metrobank.communicationhub.util.SingleFlight;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 import static com.metrobank.communicationhub.util.CommsHubConstants.REGISTRATION_STATUS;
 
@@ -22,8 +25,21 @@ import static com.metrobank.communicationhub.util.CommsHubConstants.REGISTRATION
 @RequiredArgsConstructor
 public class RegisterService implements Register {
 
-  private final MobilePushRegistrationRepository mobilePushRegistrationRepository;
-  private final CustomerIdIbIdMappingService customerIdIbIdMappingService;
+  private final MobilePushQueryRepository mobilePushQueryRepository;
+  private final CustomerIdResolver customerIdResolver;
+  private final SingleFlight<List<Object>, List<MobilePushRegistration>> registrationQueries =
+      new SingleFlight<>();
+
+  /** When present, mobile push registrations are answered from it while it follows MongoDB. */
+  @Autowired(required = false)
+  protected RegistrationCache registrationCache;
+
+  /** When present, registration queries go through its breaker, falling back to stale results. */
+  @Autowired(required = false)
+  protected MongoReads mongoReads;
+
+  @Value("${single-flight.timeout-ms:5000}")
+  protected long singleFlightTimeoutMs = 5000;
 
   public RegistrationResponse getRegistration(
       final String ibId,
@@ -45,7 +61,7 @@ public class RegisterService implements Register {
 
     // If customerId not present in request get it from the mapping table
     if (customerId == null) {
-      customerIdFromIbId = customerIdIbIdMappingService.getCustomerIdFromIbId(ibId);
+      customerIdFromIbId = customerIdResolver.getCustomerIdFromIbId(ibId);
       if (customerIdFromIbId.isEmpty()) {
         log.error("Invalid IbId: {}", ibId);
         return registrationResponse;
@@ -55,16 +71,54 @@ public class RegisterService implements Register {
     }
 
     if (commsType.equals(CommsType.MOBILE_PUSH.toString())) {
+      // Cache hits stay outside the breaker, which only times reads reaching MongoDB
       List<MobilePushRegistration> registrations =
-          mobilePushRegistrationRepository
-              .findAllByCustomerIdAndCommsTypeAndStatus(customerId, commsType, REGISTRATION_STATUS)
-              .stream()
-              .filter(
-                  p -> p.getDeviceId().equals(deviceToken) && p.getDeviceType().equals(deviceType))
-              .collect(Collectors.toList());
+          registrationCache == null
+              ? null
+              : registrationCache.getIfPresent(customerId, commsType, deviceToken, deviceType);
+      if (registrations == null) {
+        final Integer resolvedCustomerId = customerId;
+        registrations =
+            mongoReads == null
+                ? findRegistrations(customerId, commsType, deviceToken, deviceType)
+                : mongoReads.read(
+                    MongoReads.REGISTRATIONS,
+                    Arrays.asList(customerId, commsType, deviceToken, deviceType),
+                    () ->
+                        findRegistrations(resolvedCustomerId, commsType, deviceToken, deviceType));
+      }
 
       RegistrationResponseUtils.populateRegistrationDetails(registrations, registrationResponse);
     }
     return registrationResponse;
   }
+
+  private List<MobilePushRegistration> findRegistrations(
+      final Integer customerId,
+      final String commsType,
+      final String deviceToken,
+      final String deviceType) {
+    final List<Object> key =
+        Arrays.asList(customerId, commsType, REGISTRATION_STATUS, deviceToken, deviceType);
+    if (registrationCache == null) {
+      return registrationQueries.execute(
+          key,
+          singleFlightTimeoutMs,
+          () ->
+              mobilePushQueryRepository.findRegistrations(
+                  customerId, commsType, REGISTRATION_STATUS, deviceToken, deviceType));
+    }
+    return registrationCache.get(
+        customerId,
+        commsType,
+        deviceToken,
+        deviceType,
+        () ->
+            registrationQueries.execute(
+                key,
+                singleFlightTimeoutMs,
+                () ->
+                    mobilePushQueryRepository.findRegistrationsWithIds(
+                        customerId, commsType, REGISTRATION_STATUS, deviceToken, deviceType)));
+  }
 }
@@ -0,0 +1,439 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.metrobank.communicationhub.common.model.MobilePushRegistration;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.log4j.Log4j2;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+import static com.metrobank.communicationhub.repository.MobilePushQueryRepository.COMMS_TYPE;
+import static com.metrobank.communicationhub.repository.MobilePushQueryRepository.CUSTOMER_ID;
+import static com.metrobank.communicationhub.repository.MobilePushQueryRepository.DEVICE_ID;
+import static com.metrobank.communicationhub.repository.MobilePushQueryRepository.DEVICE_TYPE;
+
+/**
+ * Active registrations by customerId, commsType, deviceId and deviceType, for the registration
+ * checks apps make on every launch. A MongoDB change stream on the registration collection evicts
+ * exactly the devices a change touches: the device a document now belongs to, from the full
+ * document, and the one it belonged to before, from the ids of the cached registrations, which
+ * covers deletes and updates moving a registration between devices. Lookups go to MongoDB whenever
+ * the stream is not open and caught up, and a lookup racing an eviction of its device is not
+ * cached, so the cache never answers with a status the collection no longer has.
+ *
+ * <p>The cached devices and the stream's resume token are saved to {@code
+ * registration-cache.snapshot-file} every {@code snapshot-interval} and on shutdown. A restart
+ * loads them back and resumes the stream from the token, evicting whatever changed while it was
+ * down before answering from memory, rather than sending every launch to MongoDB at once. A token
+ * older than the oplog drops the snapshot.
+ */
+@Component
+@ConditionalOnProperty(name = "registration-cache.enabled", havingValue = "true")
+@Log4j2
+public class RegistrationCache implements DisposableBean {
+  static final String ID = "_id";
+  private static final int SNAPSHOT_VERSION = 1;
+  private static final int STRIPES = 1024;
+  // ChangeStreamFatalError and ChangeStreamHistoryLost: the token cannot be resumed from
+  private static final List<Integer> UNRESUMABLE = List.of(280, 286);
+
+  private final MongoTemplate mongoTemplate;
+  private final MeterRegistry meterRegistry;
+  private final Map<String, List<Object>> devicesById = new ConcurrentHashMap<>();
+  private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+  private Cache<List<Object>, List<MobilePushRegistration>> cache;
+  private Counter evictions;
+  private String collection;
+  private volatile boolean ready;
+  private volatile boolean running = true;
+  volatile BsonDocument resumeToken;
+  private long lastSnapshot;
+  private Thread watcher;
+
+  @Value("${registration-cache.maximum-size:200000}")
+  protected long maximumSize = 200_000;
+
+  @Value("${registration-cache.snapshot-file:registration-cache/snapshot}")
+  protected String snapshotFile = "registration-cache/snapshot";
+
+  @Value("${registration-cache.snapshot-interval:5m}")
+  protected Duration snapshotInterval = Duration.ofMinutes(5);
+
+  @Value("${registration-cache.retry-backoff:5s}")
+  protected Duration retryBackoff = Duration.ofSeconds(5);
+
+  public RegistrationCache(final MongoTemplate mongoTemplate, final MeterRegistry meterRegistry) {
+    this.mongoTemplate = mongoTemplate;
+    this.meterRegistry = meterRegistry;
+  }
+
+  @PostConstruct
+  public void init() {
+    prepare();
+    follow();
+  }
+
+  /** Builds the cache and loads the last snapshot, without following the collection yet. */
+  void prepare() {
+    collection = mongoTemplate.getCollectionName(MobilePushRegistration.class);
+    cache =
+        Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .executor(Runnable::run)
+            .removalListener(this::forget)
+            .recordStats()
+            .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "registrations");
+    Gauge.builder("restproxy.registration.cache.ready", this, c -> c.ready ? 1 : 0)
+        .description("Whether registration checks are answered from the cache")
+        .register(meterRegistry);
+    evictions =
+        Counter.builder("restproxy.registration.cache.evictions")
+            .description("Devices evicted by registration changes")
+            .register(meterRegistry);
+    loadSnapshot();
+  }
+
+  /** Starts following the collection, answering from the cache once caught up. */
+  void follow() {
+    watcher = new Thread(this::watch, "registration-cache-watcher");
+    watcher.setDaemon(true);
+    watcher.start();
+  }
+
+  @Override
+  public void destroy() throws InterruptedException {
+    running = false;
+    if (watcher != null) {
+      watcher.join(TimeUnit.SECONDS.toMillis(5));
+    }
+    saveSnapshot();
+  }
+
+  /**
+   * The device's active registrations, from the cache when it can answer and otherwise from the
+   * loader, which must fill in the registrations' ids.
+   */
+  public List<MobilePushRegistration> get(
+      final Integer customerId,
+      final String commsType,
+      final String deviceId,
+      final String deviceType,
+      final Supplier<List<MobilePushRegistration>> loader) {
+    if (!ready) {
+      return loader.get();
+    }
+    final List<Object> device = device(customerId, commsType, deviceId, deviceType);
+    final List<MobilePushRegistration> cached = cache.getIfPresent(device);
+    if (cached != null) {
+      return cached;
+    }
+    final int stripe = stripe(device);
+    final long version = versions.get(stripe);
+    final List<MobilePushRegistration> registrations = List.copyOf(loader.get());
+    put(device, registrations);
+    // Evicted while loading, so what was read may predate the change
+    if (versions.get(stripe) != version || !ready) {
+      cache.invalidate(device);
+    }
+    return registrations;
+  }
+
+  /** The device's cached registrations, or null when the cache cannot answer for it. */
+  public List<MobilePushRegistration> getIfPresent(
+      final Integer customerId,
+      final String commsType,
+      final String deviceId,
+      final String deviceType) {
+    return ready ? cache.getIfPresent(device(customerId, commsType, deviceId, deviceType)) : null;
+  }
+
+  boolean isReady() {
+    return ready;
+  }
+
+  /** The stream has delivered every change up to now, so the cache may answer. */
+  void caughtUp() {
+    if (!ready) {
+      ready = true;
+      log.info("Registration cache following {}, {} devices", collection, cache.estimatedSize());
+    }
+  }
+
+  /** Evicts the devices a change to the collection touches. */
+  void onChange(
+      final OperationType operationType,
+      final BsonDocument documentKey,
+      final Document fullDocument) {
+    switch (operationType) {
+      case INSERT:
+      case UPDATE:
+      case REPLACE:
+      case DELETE:
+        final BsonValue id = documentKey == null ? null : documentKey.get(ID);
+        if (id != null) {
+          final List<Object> before = devicesById.get(idOf(id));
+          if (before != null) {
+            evict(before);
+          }
+        }
+        if (fullDocument != null) {
+          final Number customerId = fullDocument.get(CUSTOMER_ID, Number.class);
+          evict(
+              device(
+                  customerId == null ? null : customerId.intValue(),
+                  fullDocument.getString(COMMS_TYPE),
+                  fullDocument.getString(DEVICE_ID),
+                  fullDocument.getString(DEVICE_TYPE)));
+        }
+        break;
+      default:
+        // The collection was dropped or renamed
+        evictAll();
+    }
+  }
+
+  private void watch() {
+    while (running) {
+      try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = open()) {
+        while (running) {
+          final ChangeStreamDocument<Document> change = cursor.tryNext();
+          if (change == null) {
+            caughtUp();
+          } else if (change.getOperationType() == OperationType.INVALIDATE) {
+            // The stream ends with the collection; follow whatever replaces it from scratch
+            ready = false;
+            resumeToken = null;
+            evictAll();
+            break;
+          } else {
+            onChange(
+                change.getOperationType(), change.getDocumentKey(), change.getFullDocument());
+          }
+          resumeToken = cursor.getResumeToken();
+          if (System.nanoTime() - lastSnapshot > snapshotInterval.toNanos()) {
+            saveSnapshot();
+          }
+        }
+      } catch (RuntimeException e) {
+        // Whatever broke the stream, a change may have been missed, and the watcher must live on
+        ready = false;
+        if (e instanceof MongoCommandException
+            && UNRESUMABLE.contains(((MongoCommandException) e).getErrorCode())) {
+          resumeToken = null;
+          evictAll();
+        }
+        log.warn("Registration change stream on {} failed, retrying: {}", collection, e.getMessage());
+        try {
+          Thread.sleep(retryBackoff.toMillis());
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  private MongoChangeStreamCursor<ChangeStreamDocument<Document>> open() {
+    ChangeStreamIterable<Document> stream =
+        mongoTemplate
+            .getCollection(collection)
+            .watch()
+            .fullDocument(FullDocument.UPDATE_LOOKUP)
+            .maxAwaitTime(1, TimeUnit.SECONDS);
+    final BsonDocument token = resumeToken;
+    if (token != null) {
+      stream = stream.resumeAfter(token);
+    }
+    return stream.cursor();
+  }
+
+  private void put(final List<Object> device, final List<MobilePushRegistration> registrations) {
+    cache.put(device, registrations);
+    for (MobilePushRegistration registration : registrations) {
+      if (registration.getId() != null) {
+        devicesById.put(registration.getId(), device);
+      }
+    }
+  }
+
+  private void forget(
+      final List<Object> device,
+      final List<MobilePushRegistration> registrations,
+      final RemovalCause cause) {
+    if (device == null || registrations == null || cause == RemovalCause.REPLACED) {
+      return;
+    }
+    for (MobilePushRegistration registration : registrations) {
+      if (registration.getId() != null) {
+        devicesById.remove(registration.getId(), device);
+      }
+    }
+  }
+
+  private void evict(final List<Object> device) {
+    versions.incrementAndGet(stripe(device));
+    cache.invalidate(device);
+    evictions.increment();
+  }
+
+  private void evictAll() {
+    for (int stripe = 0; stripe < STRIPES; stripe++) {
+      versions.incrementAndGet(stripe);
+    }
+    cache.invalidateAll();
+  }
+
+  /** Writes the resume token and the cached devices, replacing the last snapshot whole. */
+  void saveSnapshot() {
+    lastSnapshot = System.nanoTime();
+    final BsonDocument token = resumeToken;
+    if (token == null) {
+      return;
+    }
+    final Path path = Paths.get(snapshotFile);
+    final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    try {
+      if (path.getParent() != null) {
+        Files.createDirectories(path.getParent());
+      }
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeUTF(token.toJson());
+        final Map<List<Object>, List<MobilePushRegistration>> devices = Map.copyOf(cache.asMap());
+        out.writeInt(devices.size());
+        for (Map.Entry<List<Object>, List<MobilePushRegistration>> entry : devices.entrySet()) {
+          for (Object field : entry.getKey()) {
+            writeNullable(out, field == null ? null : field.toString());
+          }
+          out.writeInt(entry.getValue().size());
+          for (MobilePushRegistration registration : entry.getValue()) {
+            writeNullable(out, registration.getId());
+            writeNullable(out, registration.getCommsType());
+            writeNullable(out, registration.getDeviceId());
+            writeNullable(out, registration.getDeviceType());
+            writeNullable(out, registration.getStatus());
+          }
+        }
+      }
+      Files.move(
+          temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Could not save the registration cache to {}: {}", path, e.getMessage());
+    }
+  }
+
+  private void loadSnapshot() {
+    final Path path = Paths.get(snapshotFile);
+    if (!Files.exists(path)) {
+      return;
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+      if (in.readInt() != SNAPSHOT_VERSION) {
+        return;
+      }
+      final BsonDocument token = BsonDocument.parse(in.readUTF());
+      final int devices = in.readInt();
+      for (int i = 0; i < devices; i++) {
+        final String customerId = readNullable(in);
+        final List<Object> device =
+            device(
+                customerId == null ? null : Integer.valueOf(customerId),
+                readNullable(in),
+                readNullable(in),
+                readNullable(in));
+        final int count = in.readInt();
+        final List<MobilePushRegistration> registrations = new ArrayList<>(count);
+        for (int j = 0; j < count; j++) {
+          registrations.add(
+              MobilePushRegistration.builder()
+                  .id(readNullable(in))
+                  .commsType(readNullable(in))
+                  .deviceId(readNullable(in))
+                  .deviceType(readNullable(in))
+                  .status(readNullable(in))
+                  .build());
+        }
+        put(device, List.copyOf(registrations));
+      }
+      resumeToken = token;
+      log.info("Registration cache loaded {} devices from {}", devices, path);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Could not load the registration cache from {}: {}", path, e.getMessage());
+      evictAll();
+    }
+  }
+
+  private static List<Object> device(
+      final Integer customerId,
+      final String commsType,
+      final String deviceId,
+      final String deviceType) {
+    return Arrays.asList(customerId, commsType, deviceId, deviceType);
+  }
+
+  /** The id as the repository maps it onto {@link MobilePushRegistration#getId()}. */
+  private static String idOf(final BsonValue id) {
+    if (id.isObjectId()) {
+      return id.asObjectId().getValue().toHexString();
+    }
+    return id.isString() ? id.asString().getValue() : id.toString();
+  }
+
+  private static int stripe(final List<Object> device) {
+    final int hash = device.hashCode();
+    return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+  }
+
+  private static void writeNullable(final DataOutputStream out, final String value)
+      throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static String readNullable(final DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+}
@@ -6,10 +6,15 @@ package com.metrobank.communicationhub.service;
 import com.metrobank.communicationhub.model.request.PreferenceRequest;
 import com.metrobank.communicationhub.model.request.RegistrationRequest;
 import com.metrobank.communicationhub.model.request.SendRequest;
+import com.metrobank.communicationhub.schema.CommsPreference;
+import com.metrobank.communicationhub.schema.RegistrationAvroRequest;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface RestProxy {
     ResponseEntity<HttpStatus> sendRegisterRequest(
             final String ibId, final Integer customerId, final RegistrationRequest request, final String uuid, final HttpMethod requestMethod);
@@ -18,4 +23,28 @@ public interface RestProxy {
             final String ibId, final Integer customerId, final SendRequest request, final String uuid);
 
     ResponseEntity<HttpStatus> sendPreferenceRequest(final String ibId, final Integer customerId, final PreferenceRequest request, final String uuid);
+
+    CompletableFuture<ResponseEntity<Void>> sendRegisterRequestConfirmed(
+            final String ibId, final Integer customerId, final RegistrationRequest request, final String uuid, final HttpMethod requestMethod);
+
+    CompletableFuture<ResponseEntity<Void>> sendCommunicateRequestConfirmed(
+            final String ibId, final Integer customerId, final SendRequest request, final String uuid);
+
+    CompletableFuture<ResponseEntity<Void>> sendPreferenceRequestConfirmed(final String ibId, final Integer customerId, final PreferenceRequest request, final String uuid);
+
+    ResponseEntity<HttpStatus> sendRegisterRequest(
+            final String ibId, final Integer customerId, final RegistrationAvroRequest request, final String uuid, final HttpMethod requestMethod);
+
+    ResponseEntity<HttpStatus> sendCommunicateRequest(
+            final String ibId, final Integer customerId, final SendAvroRequest request, final String uuid);
+
+    ResponseEntity<HttpStatus> sendPreferenceRequest(final String ibId, final Integer customerId, final CommsPreference request, final String uuid);
+
+    CompletableFuture<ResponseEntity<Void>> sendRegisterRequestConfirmed(
+            final String ibId, final Integer customerId, final RegistrationAvroRequest request, final String uuid, final HttpMethod requestMethod);
+
+    CompletableFuture<ResponseEntity<Void>> sendCommunicateRequestConfirmed(
+            final String ibId, final Integer customerId, final SendAvroRequest request, final String uuid);
+
+    CompletableFuture<ResponseEntity<Void>> sendPreferenceRequestConfirmed(final String ibId, final Integer customerId, final CommsPreference request, final String uuid);
 }
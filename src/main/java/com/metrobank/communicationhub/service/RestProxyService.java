@@ -1,19 +1,25 @@
 /** Copyright 2021 Metro Bank. All rights reserved. */
 package com.metrobank.communicationhub.service;
 
-import com.metrobank.communicationhub.common.service.CustomerIdIbIdMappingService;
+import com.metrobank.communicationhub.admission.AdmissionController;
 import com.metrobank.communicationhub.exception.RestProxyUnprocessableEntityException;
+import com.metrobank.communicationhub.kafka.QosLanes;
+import com.metrobank.communicationhub.kafka.RecordKeyStrategy;
 import com.metrobank.communicationhub.model.request.PreferenceRequest;
 import com.metrobank.communicationhub.model.request.RegistrationRequest;
 import com.metrobank.communicationhub.model.request.SendRequest;
 import com.metrobank.communicationhub.schema.CommsPreference;
-import com.metrobank.communicationhub.schema.Preference;
 import com.metrobank.communicationhub.schema.RegistrationAvroRequest;
 import com.metrobank.communicationhub.schema.SendAvroRequest;
+import com.metrobank.communicationhub.spool.SpooledSendResult;
+import com.metrobank.communicationhub.suppression.StormSuppressor;
+import com.metrobank.communicationhub.util.RequestDeadline;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.apache.avro.specific.SpecificRecordBase;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
@@ -23,19 +29,32 @@ import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Service;
 import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.util.concurrent.SettableListenableFuture;
 
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
-import static com.metrobank.communicationhub.util.CommsHubConstants.*;
+import static com.metrobank.communicationhub.util.CommsHubConstants.REQUEST_DEADLINE_HEADER;
 
 @Service
 @Log4j2
 @RequiredArgsConstructor
 public class RestProxyService implements RestProxy {
+  // Fire-and-forget sends only log the outcome, so one stateless callback per record kind will do
+  private static final DeliveryLogger REGISTRATION_LOGGER = new DeliveryLogger("Registration");
+  private static final DeliveryLogger COMMS_LOGGER = new DeliveryLogger("Comms");
+  private static final DeliveryLogger PREFERENCE_LOGGER = new DeliveryLogger("Preference");
 
   private final KafkaTemplate<String, SpecificRecordBase> kafkaTemplate;
-  private final CustomerIdIbIdMappingService customerIdIbIdMappingService;
+  private final CustomerIdResolver customerIdResolver;
+  private final AdmissionController admissionController;
 
   @Value("${topic.register.request}")
   protected String registerTopic;
@@ -46,6 +65,31 @@ public class RestProxyService implements RestProxy {
   @Value("${topic.preference.request}")
   protected String preferenceTopic;
 
+  @Value("${topic.register.key-strategy:UUID}")
+  protected RecordKeyStrategy registerKeyStrategy = RecordKeyStrategy.UUID;
+
+  @Value("${topic.send.key-strategy:UUID}")
+  protected RecordKeyStrategy sendKeyStrategy = RecordKeyStrategy.UUID;
+
+  @Value("${topic.preference.key-strategy:UUID}")
+  protected RecordKeyStrategy preferenceKeyStrategy = RecordKeyStrategy.UUID;
+
+  @Value("${delivery.confirmed.timeout-ms:10000}")
+  protected long confirmedDeliveryTimeoutMs;
+
+  /** When present, delivery callbacks run here instead of on the producer's network thread. */
+  @Autowired(required = false)
+  @Qualifier("deliveryCallbackExecutor")
+  protected Executor callbackExecutor;
+
+  /** When present, sends go through the producer of the QoS lane taking them, if any does. */
+  @Autowired(required = false)
+  protected QosLanes qosLanes;
+
+  /** When present, sends repeating one seen within its window may be dropped before producing. */
+  @Autowired(required = false)
+  protected StormSuppressor stormSuppressor;
+
   @Override
   public ResponseEntity sendRegisterRequest(
       final String ibId,
@@ -56,174 +100,516 @@ public class RestProxyService implements RestProxy {
 
     log.info("RestProxyService :: register/de-register :: received request : {}", request);
 
-    // If customerId not present in request get it from the mapping table
-    if (customerId == null) {
-      customerId = getCustomerIdFromIbId(ibId);
-    }
+    final ListenableFuture<SendResult<String, SpecificRecordBase>> future =
+        publish(
+            registerTopic,
+            () -> createRegistrationRecord(ibId, customerId, request, uuid, requestMethod));
 
-    final RegistrationAvroRequest avroRequest =
-        buildRegistrationRequest(customerId, request, requestMethod);
+    future.addCallback(REGISTRATION_LOGGER);
 
-    if (ibId != null) {
-      avroRequest.setIbId(ibId);
-    }
-
-    ProducerRecord<String, SpecificRecordBase> registrationRecord =
-        new ProducerRecord<>(registerTopic, null, uuid, avroRequest);
-    registrationRecord
-        .headers()
-        .add(
-            PROCESS_NAME,
-            requestMethod.toString().equals("POST")
-                ? REGISTRATION_PROCESS_NAME.getBytes()
-                : DEREGISTRATION_PROCESS_NAME.getBytes());
-    registrationRecord
-        .headers()
-        .add(
-            ACTIVTY_NAME,
-            requestMethod.toString().equals("POST")
-                ? REGISTRATION_ACTIVITY_NAME.getBytes()
-                : DEREGISTRATION_ACTIVITY_NAME.getBytes());
-
-    ListenableFuture<SendResult<String, SpecificRecordBase>> future =
-        kafkaTemplate.send(registrationRecord);
+    return new ResponseEntity<>(registrationStatus(requestMethod));
+  }
 
-    future.addCallback(
-        new ListenableFutureCallback<>() {
-          @Override
-          public void onSuccess(SendResult<String, SpecificRecordBase> result) {
-            log.info(
-                "Sent Registration request with offset:{}", result.getRecordMetadata().offset());
-          }
+  @Override
+  public ResponseEntity sendCommunicateRequest(
+      final String ibId, Integer customerId, final SendRequest request, final String uuid) {
 
-          @Override
-          public void onFailure(Throwable ex) {
-            log.error("Error sending Registration request: {}", ex.getMessage());
-          }
-        });
+    log.info("RestProxyService :: SendCommunication :: received request : {}", request);
+
+    publishCommunication(
+            ibId,
+            customerId,
+            request.getCommsType(),
+            request.getMessageType(),
+            request.getTemplateId(),
+            request.getTemplateParams(),
+            resolved -> createSendRecord(ibId, resolved, request, uuid))
+        .ifPresent(future -> future.addCallback(COMMS_LOGGER));
+
+    return new ResponseEntity<>(HttpStatus.OK);
+  }
+
+  @Override
+  public ResponseEntity sendPreferenceRequest(
+      final String ibId, Integer customerId, final PreferenceRequest request, final String uuid) {
+
+    log.info("RestProxyService :: SendPreference :: received request : {}", request);
+
+    final ListenableFuture<SendResult<String, SpecificRecordBase>> future =
+        publish(preferenceTopic, () -> createPreferenceRecord(ibId, customerId, request, uuid));
+
+    future.addCallback(PREFERENCE_LOGGER);
+
+    return new ResponseEntity<>(HttpStatus.OK);
+  }
+
+  @Override
+  public ResponseEntity sendRegisterRequest(
+      final String ibId,
+      Integer customerId,
+      final RegistrationAvroRequest request,
+      final String uuid,
+      final HttpMethod requestMethod) {
+
+    log.info("RestProxyService :: register/de-register :: received request : {}", request);
 
-    return new ResponseEntity<>(
-        (requestMethod == HttpMethod.POST) ? HttpStatus.CREATED : HttpStatus.NO_CONTENT);
+    final ListenableFuture<SendResult<String, SpecificRecordBase>> future =
+        publish(
+            registerTopic,
+            () -> createRegistrationRecord(ibId, customerId, request, uuid, requestMethod));
+
+    future.addCallback(REGISTRATION_LOGGER);
+
+    return new ResponseEntity<>(registrationStatus(requestMethod));
   }
 
   @Override
   public ResponseEntity sendCommunicateRequest(
-      final String ibId, Integer customerId, final SendRequest request, final String uuid) {
+      final String ibId, Integer customerId, final SendAvroRequest request, final String uuid) {
 
     log.info("RestProxyService :: SendCommunication :: received request : {}", request);
 
+    publishCommunication(
+            ibId,
+            customerId,
+            request.getCommsType(),
+            request.getMessageType(),
+            request.getTemplateId(),
+            request.getTemplateParams(),
+            resolved -> createSendRecord(ibId, resolved, request, uuid))
+        .ifPresent(future -> future.addCallback(COMMS_LOGGER));
+
+    return new ResponseEntity<>(HttpStatus.OK);
+  }
+
+  @Override
+  public ResponseEntity sendPreferenceRequest(
+      final String ibId, Integer customerId, final CommsPreference request, final String uuid) {
+
+    log.info("RestProxyService :: SendPreference :: received request : {}", request);
+
+    final ListenableFuture<SendResult<String, SpecificRecordBase>> future =
+        publish(preferenceTopic, () -> createPreferenceRecord(ibId, customerId, request, uuid));
+
+    future.addCallback(PREFERENCE_LOGGER);
+
+    return new ResponseEntity<>(HttpStatus.OK);
+  }
+
+  @Override
+  public CompletableFuture<ResponseEntity<Void>> sendRegisterRequestConfirmed(
+      final String ibId,
+      final Integer customerId,
+      final RegistrationRequest request,
+      final String uuid,
+      final HttpMethod requestMethod) {
+
+    log.info(
+        "RestProxyService :: register/de-register (confirmed) :: received request : {}", request);
+
+    return confirmDelivery(
+        publish(
+            registerTopic,
+            () -> createRegistrationRecord(ibId, customerId, request, uuid, requestMethod)),
+        "Registration",
+        uuid,
+        registrationStatus(requestMethod));
+  }
+
+  @Override
+  public CompletableFuture<ResponseEntity<Void>> sendCommunicateRequestConfirmed(
+      final String ibId, final Integer customerId, final SendRequest request, final String uuid) {
+
+    log.info("RestProxyService :: SendCommunication (confirmed) :: received request : {}", request);
+
+    return publishCommunication(
+            ibId,
+            customerId,
+            request.getCommsType(),
+            request.getMessageType(),
+            request.getTemplateId(),
+            request.getTemplateParams(),
+            resolved -> createSendRecord(ibId, resolved, request, uuid))
+        .map(future -> confirmDelivery(future, "Comms", uuid, HttpStatus.OK))
+        .orElseGet(() -> CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.OK)));
+  }
+
+  @Override
+  public CompletableFuture<ResponseEntity<Void>> sendPreferenceRequestConfirmed(
+      final String ibId,
+      final Integer customerId,
+      final PreferenceRequest request,
+      final String uuid) {
+
+    log.info("RestProxyService :: SendPreference (confirmed) :: received request : {}", request);
+
+    return confirmDelivery(
+        publish(preferenceTopic, () -> createPreferenceRecord(ibId, customerId, request, uuid)),
+        "Preference",
+        uuid,
+        HttpStatus.OK);
+  }
+
+  @Override
+  public CompletableFuture<ResponseEntity<Void>> sendRegisterRequestConfirmed(
+      final String ibId,
+      final Integer customerId,
+      final RegistrationAvroRequest request,
+      final String uuid,
+      final HttpMethod requestMethod) {
+
+    log.info(
+        "RestProxyService :: register/de-register (confirmed) :: received request : {}", request);
+
+    return confirmDelivery(
+        publish(
+            registerTopic,
+            () -> createRegistrationRecord(ibId, customerId, request, uuid, requestMethod)),
+        "Registration",
+        uuid,
+        registrationStatus(requestMethod));
+  }
+
+  @Override
+  public CompletableFuture<ResponseEntity<Void>> sendCommunicateRequestConfirmed(
+      final String ibId,
+      final Integer customerId,
+      final SendAvroRequest request,
+      final String uuid) {
+
+    log.info("RestProxyService :: SendCommunication (confirmed) :: received request : {}", request);
+
+    return publishCommunication(
+            ibId,
+            customerId,
+            request.getCommsType(),
+            request.getMessageType(),
+            request.getTemplateId(),
+            request.getTemplateParams(),
+            resolved -> createSendRecord(ibId, resolved, request, uuid))
+        .map(future -> confirmDelivery(future, "Comms", uuid, HttpStatus.OK))
+        .orElseGet(() -> CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.OK)));
+  }
+
+  @Override
+  public CompletableFuture<ResponseEntity<Void>> sendPreferenceRequestConfirmed(
+      final String ibId,
+      final Integer customerId,
+      final CommsPreference request,
+      final String uuid) {
+
+    log.info("RestProxyService :: SendPreference (confirmed) :: received request : {}", request);
+
+    return confirmDelivery(
+        publish(preferenceTopic, () -> createPreferenceRecord(ibId, customerId, request, uuid)),
+        "Preference",
+        uuid,
+        HttpStatus.OK);
+  }
+
+  /**
+   * Builds the registration/de-registration record, resolving the customerId from the IbId when
+   * it is not supplied.
+   */
+  public ProducerRecord<String, SpecificRecordBase> createRegistrationRecord(
+      final String ibId,
+      Integer customerId,
+      final RegistrationRequest request,
+      final String uuid,
+      final HttpMethod requestMethod) {
+
     // If customerId not present in request get it from the mapping table
     if (customerId == null) {
       customerId = getCustomerIdFromIbId(ibId);
     }
 
-    final SendAvroRequest avroRequest = buildSendAvroRequest(customerId, request);
+    return createRegistrationRecord(
+        ibId,
+        customerId,
+        RecordAssembler.buildRegistrationRequest(customerId, request, requestMethod),
+        uuid,
+        requestMethod);
+  }
 
-    ProducerRecord<String, SpecificRecordBase> sendRecord =
-        new ProducerRecord<>(sendTopic, null, uuid, avroRequest);
-    sendRecord.headers().add(PROCESS_NAME, ROUTING_PROCESS_NAME.getBytes());
-    sendRecord.headers().add(ACTIVTY_NAME, ROUTING_ACTIVITY_NAME.getBytes());
+  /**
+   * Builds the registration/de-registration record from a decoded request, filling in the method,
+   * the customerId, resolved from the IbId when it is not supplied, and the IbId.
+   */
+  public ProducerRecord<String, SpecificRecordBase> createRegistrationRecord(
+      final String ibId,
+      Integer customerId,
+      final RegistrationAvroRequest request,
+      final String uuid,
+      final HttpMethod requestMethod) {
 
-    final ListenableFuture<SendResult<String, SpecificRecordBase>> future =
-        kafkaTemplate.send(sendRecord);
+    // If customerId not present in request get it from the mapping table
+    if (customerId == null) {
+      customerId = getCustomerIdFromIbId(ibId);
+    }
 
-    future.addCallback(
-        new ListenableFutureCallback<>() {
-          @Override
-          public void onSuccess(SendResult<String, SpecificRecordBase> result) {
-            log.info("Sent Comms request with offset:{}", result.getRecordMetadata().offset());
-          }
+    request.setMethod(requestMethod.name());
+    request.setCustomerId(customerId);
+    if (ibId != null) {
+      request.setIbId(ibId);
+    }
 
-          @Override
-          public void onFailure(Throwable ex) {
-            log.error("Error sending Comms request: {}", ex.getMessage());
-          }
-        });
+    return RecordAssembler.record(
+        registerTopic,
+        registerKeyStrategy.key(uuid, customerId, string(request.getToken())),
+        request,
+        RecordAssembler.registrationHeaders(requestMethod),
+        requestId(registerKeyStrategy, uuid));
+  }
 
-    return new ResponseEntity<>(HttpStatus.OK);
+  /** Builds the send communication record, resolving the customerId from the IbId if needed. */
+  public ProducerRecord<String, SpecificRecordBase> createSendRecord(
+      final String ibId, Integer customerId, final SendRequest request, final String uuid) {
+
+    // If customerId not present in request get it from the mapping table
+    if (customerId == null) {
+      customerId = getCustomerIdFromIbId(ibId);
+    }
+
+    return createSendRecord(
+        ibId, customerId, RecordAssembler.buildSendAvroRequest(customerId, request), uuid);
   }
 
-  @Override
-  public ResponseEntity sendPreferenceRequest(
+  /**
+   * Builds the send communication record from a decoded request, filling in the customerId and
+   * resolving it from the IbId if needed.
+   */
+  public ProducerRecord<String, SpecificRecordBase> createSendRecord(
+      final String ibId, Integer customerId, final SendAvroRequest request, final String uuid) {
+
+    // If customerId not present in request get it from the mapping table
+    if (customerId == null) {
+      customerId = getCustomerIdFromIbId(ibId);
+    }
+
+    request.setCustomerId(customerId);
+
+    return RecordAssembler.record(
+        sendTopic,
+        sendKeyStrategy.key(uuid, customerId, null),
+        request,
+        RecordAssembler.sendHeaders(),
+        requestId(sendKeyStrategy, uuid));
+  }
+
+  /** Builds the preference record, resolving the customerId from the IbId if needed. */
+  public ProducerRecord<String, SpecificRecordBase> createPreferenceRecord(
       final String ibId, Integer customerId, final PreferenceRequest request, final String uuid) {
 
-    log.info("RestProxyService :: SendPreference :: received request : {}", request);
+    // If customerId not present in request get it from the mapping table
+    if (customerId == null) {
+      customerId = getCustomerIdFromIbId(ibId);
+    }
+
+    return createPreferenceRecord(
+        ibId, customerId, RecordAssembler.buildPreferenceRequest(ibId, customerId, request), uuid);
+  }
+
+  /**
+   * Builds the preference record from a decoded request, filling in the IbId, the method and the
+   * customerId, resolving it from the IbId if needed.
+   */
+  public ProducerRecord<String, SpecificRecordBase> createPreferenceRecord(
+      final String ibId, Integer customerId, final CommsPreference request, final String uuid) {
 
     // If customerId not present in request get it from the mapping table
     if (customerId == null) {
       customerId = getCustomerIdFromIbId(ibId);
     }
 
-    final CommsPreference avroRequest = buildPreferenceRequest(ibId, customerId, request);
+    request.setCustomerId(customerId);
+    request.setIbId(ibId);
+    request.setMethod(HttpMethod.POST.name());
+
+    return RecordAssembler.record(
+        preferenceTopic,
+        preferenceKeyStrategy.key(uuid, customerId, string(request.getDeviceId())),
+        request,
+        RecordAssembler.preferenceHeaders(),
+        requestId(preferenceKeyStrategy, uuid));
+  }
 
-    ProducerRecord<String, SpecificRecordBase> preferenceRecord =
-        new ProducerRecord<>(preferenceTopic, null, uuid, avroRequest);
-    preferenceRecord.headers().add(PROCESS_NAME, PREFERENCE_PROCESS_NAME.getBytes());
-    preferenceRecord.headers().add(ACTIVTY_NAME, PREFERENCE_ACTIVITY_NAME.getBytes());
+  /**
+   * Sends the record once the admission controller lets it through, holding the topic's in-flight
+   * slot until the broker answers. The record is only built, and its IbId resolved, once admitted.
+   */
+  ListenableFuture<SendResult<String, SpecificRecordBase>> publish(
+      final String topic, final Supplier<ProducerRecord<String, SpecificRecordBase>> record) {
+    return publish(admissionController, kafkaTemplate, topic, record);
+  }
 
-    final ListenableFuture<SendResult<String, SpecificRecordBase>> future =
-        kafkaTemplate.send(preferenceRecord);
+  /** Publishes a send through the QoS lane for its comms and message type, if one takes it. */
+  ListenableFuture<SendResult<String, SpecificRecordBase>> publishSend(
+      final Object commsType,
+      final Object messageType,
+      final Supplier<ProducerRecord<String, SpecificRecordBase>> record) {
+    final QosLanes.Lane lane = qosLanes == null ? null : qosLanes.route(commsType, messageType);
+    if (lane == null) {
+      return publish(sendTopic, record);
+    }
+    return publish(
+        lane.admissionController(),
+        lane.kafkaTemplate(),
+        lane.topic(sendTopic),
+        () -> lane.route(record.get()));
+  }
 
+  /**
+   * Publishes a send unless storm suppression drops it as a repeat, in which case there is no
+   * future. With suppression on, the customerId is resolved up front so the send is fingerprinted
+   * on the customer whichever id addressed it; the record is built with the customerId as given or
+   * resolved. The send holds its claim until the broker answers, counting toward the storm window
+   * once acknowledged and released if it fails.
+   */
+  Optional<ListenableFuture<SendResult<String, SpecificRecordBase>>> publishCommunication(
+      final String ibId,
+      final Integer customerId,
+      final Object commsType,
+      final Object messageType,
+      final CharSequence templateId,
+      final List<? extends CharSequence> templateParams,
+      final Function<Integer, ProducerRecord<String, SpecificRecordBase>> record) {
+    if (stormSuppressor == null) {
+      return Optional.of(publishSend(commsType, messageType, () -> record.apply(customerId)));
+    }
+    final Integer resolved = customerId != null ? customerId : getCustomerIdFromIbId(ibId);
+    final long fingerprint =
+        stormSuppressor.fingerprint(resolved, commsType, templateId, templateParams);
+    final StormSuppressor.Verdict verdict = stormSuppressor.check(fingerprint);
+    if (verdict == StormSuppressor.Verdict.DROPPED) {
+      return Optional.empty();
+    }
+    final ListenableFuture<SendResult<String, SpecificRecordBase>> future;
+    try {
+      future = publishSend(commsType, messageType, () -> record.apply(resolved));
+    } catch (RuntimeException e) {
+      if (verdict == StormSuppressor.Verdict.CLAIMED) {
+        stormSuppressor.release(fingerprint);
+      }
+      throw e;
+    }
+    if (verdict == StormSuppressor.Verdict.CLAIMED) {
+      future.addCallback(
+          result -> stormSuppressor.record(fingerprint),
+          ex -> stormSuppressor.release(fingerprint));
+    }
+    return Optional.of(future);
+  }
+
+  private ListenableFuture<SendResult<String, SpecificRecordBase>> publish(
+      final AdmissionController admission,
+      final KafkaTemplate<String, SpecificRecordBase> template,
+      final String topic,
+      final Supplier<ProducerRecord<String, SpecificRecordBase>> record) {
+    RequestDeadline.check("Kafka send");
+    final AdmissionController.Permit permit = admission.acquire(topic);
+    final ListenableFuture<SendResult<String, SpecificRecordBase>> future;
+    try {
+      future = template.send(withDeadline(record.get()));
+    } catch (RuntimeException e) {
+      permit.release();
+      throw e;
+    }
+    future.addCallback(permit);
+    return callbackExecutor == null ? future : handOff(future);
+  }
+
+  /**
+   * Stamps the record with the request's deadline, in epoch milliseconds, so consumers can expire
+   * it too; the producer itself only has the global delivery timeout. The IbId lookup building the
+   * record may have used up the budget, which is checked again before sending.
+   */
+  private static ProducerRecord<String, SpecificRecordBase> withDeadline(
+      final ProducerRecord<String, SpecificRecordBase> record) {
+    final OptionalLong remaining = RequestDeadline.remainingMillis();
+    if (remaining.isPresent()) {
+      RequestDeadline.check("Kafka send");
+      record
+          .headers()
+          .add(
+              REQUEST_DEADLINE_HEADER,
+              Long.toString(System.currentTimeMillis() + remaining.getAsLong())
+                  .getBytes(StandardCharsets.UTF_8));
+    }
+    return record;
+  }
+
+  /** Completes a copy of the future on the callback executor, so its callbacks run there. */
+  private ListenableFuture<SendResult<String, SpecificRecordBase>> handOff(
+      final ListenableFuture<SendResult<String, SpecificRecordBase>> future) {
+    final SettableListenableFuture<SendResult<String, SpecificRecordBase>> handedOff =
+        new SettableListenableFuture<>();
     future.addCallback(
         new ListenableFutureCallback<>() {
           @Override
           public void onSuccess(SendResult<String, SpecificRecordBase> result) {
-            log.info("Sent Preference request with offset:{}", result.getRecordMetadata().offset());
+            callbackExecutor.execute(() -> handedOff.set(result));
           }
 
           @Override
           public void onFailure(Throwable ex) {
-            log.error("Error sending Preference request: {}", ex.getMessage());
+            callbackExecutor.execute(() -> handedOff.setException(ex));
           }
         });
+    return handedOff;
+  }
 
-    return new ResponseEntity<>(HttpStatus.OK);
+  /**
+   * Completes once the broker has acknowledged the record, or exceptionally when the send fails or
+   * the acknowledgement does not arrive within the confirmed delivery timeout, or the request's
+   * deadline when that is sooner. Nothing blocks while waiting, the continuation runs on the
+   * producer callback. A record taken by the spool instead completes with 202 Accepted, as the
+   * broker has yet to see it.
+   */
+  private CompletableFuture<ResponseEntity<Void>> confirmDelivery(
+      final ListenableFuture<SendResult<String, SpecificRecordBase>> future,
+      final String recordType,
+      final String uuid,
+      final HttpStatus status) {
+    return future
+        .completable()
+        .orTimeout(RequestDeadline.bound(confirmedDeliveryTimeoutMs), TimeUnit.MILLISECONDS)
+        .whenComplete(
+            (result, ex) -> {
+              if (ex != null) {
+                log.error(
+                    "Error sending {} request {}: {}", recordType, uuid, ex.getMessage());
+              } else if (result instanceof SpooledSendResult) {
+                log.info("Spooled {} request {}, not yet acknowledged", recordType, uuid);
+              } else {
+                log.info(
+                    "Confirmed {} request {} with offset:{}",
+                    recordType,
+                    uuid,
+                    result.getRecordMetadata().offset());
+              }
+            })
+        .thenApply(
+            result ->
+                new ResponseEntity<>(
+                    result instanceof SpooledSendResult ? HttpStatus.ACCEPTED : status));
   }
 
-  private RegistrationAvroRequest buildRegistrationRequest(
-      Integer customerId, RegistrationRequest request, HttpMethod requestMethod) {
-    return RegistrationAvroRequest.newBuilder()
-        .setMethod(requestMethod.toString())
-        .setCommsType(request.getCommsType().toString())
-        .setDeviceType(request.getDeviceType().toString())
-        .setCustomerId(customerId)
-        .setToken(request.getToken())
-        .setEmail(request.getEmail())
-        .setMobileNo(request.getMobileNo())
-        .build();
-  }
-
-  private SendAvroRequest buildSendAvroRequest(Integer customerId, SendRequest request) {
-    return SendAvroRequest.newBuilder()
-        .setCommsType(request.getCommsType().toString())
-        .setCustomerId(customerId)
-        .setMessageType(request.getMessageType().toString())
-        .setEmail(request.getEmail())
-        .setMobileNo(request.getMobileNo())
-        .setTemplateId(request.getTemplateId())
-        .setTemplateParams(request.getTemplateParams())
-        .build();
-  }
-
-  private CommsPreference buildPreferenceRequest(
-      String ibId, Integer customerId, PreferenceRequest request) {
-    return CommsPreference.newBuilder()
-        .setCommsType(request.getCommsType().toString())
-        .setCustomerId(customerId)
-        .setMessageType(request.getMessageType().toString())
-        .setIbId(ibId)
-        .setDeviceId(request.getDeviceId())
-        .setMethod(HttpMethod.POST.toString())
-        .setPreferences(
-            request.getPreferences().stream()
-                .map(p -> Preference.newBuilder().setKey(p.getKey()).setValue(p.getValue()).build())
-                .collect(Collectors.toList()))
-        .build();
+  /** The key no longer carries the request id once records are keyed by customer, so a header does. */
+  private static String requestId(final RecordKeyStrategy keyStrategy, final String uuid) {
+    return keyStrategy == RecordKeyStrategy.UUID ? null : uuid;
+  }
+
+  private static String string(final CharSequence value) {
+    return value == null ? null : value.toString();
+  }
+
+  static HttpStatus registrationStatus(final HttpMethod requestMethod) {
+    return (requestMethod == HttpMethod.POST) ? HttpStatus.CREATED : HttpStatus.NO_CONTENT;
   }
 
   private Integer getCustomerIdFromIbId(String ibId) {
     Optional<Integer> customerIdFromIbId;
-    customerIdFromIbId = customerIdIbIdMappingService.getCustomerIdFromIbId(ibId);
+    customerIdFromIbId = customerIdResolver.getCustomerIdFromIbId(ibId);
     if (customerIdFromIbId.isEmpty()) {
       log.error("Invalid IbId: {}", ibId);
       throw new RestProxyUnprocessableEntityException("Bad Request");
@@ -231,4 +617,27 @@ public class RestProxyService implements RestProxy {
       return customerIdFromIbId.get();
     }
   }
+
+  private static final class DeliveryLogger
+      implements ListenableFutureCallback<SendResult<String, SpecificRecordBase>> {
+    private final String recordType;
+
+    private DeliveryLogger(final String recordType) {
+      this.recordType = recordType;
+    }
+
+    @Override
+    public void onSuccess(SendResult<String, SpecificRecordBase> result) {
+      if (result instanceof SpooledSendResult) {
+        log.info("Spooled {} request", recordType);
+      } else {
+        log.info("Sent {} request with offset:{}", recordType, result.getRecordMetadata().offset());
+      }
+    }
+
+    @Override
+    public void onFailure(Throwable ex) {
+      log.error("Error sending {} request: {}", recordType, ex.getMessage());
+    }
+  }
 }
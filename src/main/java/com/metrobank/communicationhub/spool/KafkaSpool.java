@@ -0,0 +1,214 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.spool;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+/**
+ * Local write-ahead spool in front of the broker. Records are appended to a per-topic {@link
+ * SpoolLog} at memory speed and a drainer thread per topic replays them, in order, through the
+ * real producer. The checkpoint only moves once the broker has acknowledged a record, so delivery
+ * is at-least-once: records the broker took before a failure can be sent again after it.
+ */
+@Log4j2
+public class KafkaSpool {
+
+  private final KafkaTemplate<String, SpecificRecordBase> kafkaTemplate;
+  private final MeterRegistry meterRegistry;
+  private final SpoolRecordCodec codec = new SpoolRecordCodec();
+  private final Map<String, SpoolLog> logs = new ConcurrentHashMap<>();
+  private final List<Thread> drainers = new ArrayList<>();
+  private volatile boolean running;
+
+  @Value("${spool.directory:spool}")
+  protected String directory;
+
+  @Value("${spool.segment-bytes:67108864}")
+  protected int segmentBytes;
+
+  @Value("${spool.max-segments:16}")
+  protected int maxSegments;
+
+  @Value("${spool.drain.batch-size:500}")
+  protected int drainBatchSize;
+
+  @Value("${spool.drain.ack-timeout-ms:30000}")
+  protected long ackTimeoutMs;
+
+  @Value("${spool.drain.retry-backoff-ms:500}")
+  protected long retryBackoffMs;
+
+  @Value("${spool.drain.max-retry-backoff-ms:30000}")
+  protected long maxRetryBackoffMs;
+
+  @Value("${spool.flush-interval-ms:1000}")
+  protected long flushIntervalMs;
+
+  public KafkaSpool(
+      final KafkaTemplate<String, SpecificRecordBase> kafkaTemplate,
+      final MeterRegistry meterRegistry) {
+    this.kafkaTemplate = kafkaTemplate;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /** Reopens every topic already spooled on disk and starts draining it. */
+  @PostConstruct
+  public void start() throws IOException {
+    running = true;
+    final Path root = Files.createDirectories(Paths.get(directory));
+    try (Stream<Path> topics = Files.list(root)) {
+      topics.filter(Files::isDirectory).forEach(dir -> open(dir.getFileName().toString()));
+    }
+  }
+
+  /** Stops the drainers and forces every spooled record to disk. */
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    running = false;
+    synchronized (drainers) {
+      drainers.forEach(Thread::interrupt);
+      for (Thread drainer : drainers) {
+        drainer.join(ackTimeoutMs);
+      }
+    }
+    logs.values().forEach(SpoolLog::flush);
+  }
+
+  /**
+   * Appends a record to its topic's spool.
+   *
+   * @throws SpoolFullException if the topic's spool is full
+   */
+  public void append(final ProducerRecord<String, SpecificRecordBase> record) {
+    try {
+      open(record.topic()).append(codec.encode(record));
+    } catch (IOException | UncheckedIOException e) {
+      throw new KafkaException("Could not spool record for " + record.topic(), e);
+    }
+  }
+
+  private SpoolLog open(final String topic) {
+    return logs.computeIfAbsent(
+        topic,
+        name -> {
+          final SpoolLog spoolLog;
+          try {
+            spoolLog = new SpoolLog(Paths.get(directory, name), segmentBytes, maxSegments);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          Gauge.builder("restproxy.spool.pending.bytes", spoolLog, SpoolLog::pendingBytes)
+              .tag("topic", name)
+              .register(meterRegistry);
+          final Thread drainer = new Thread(() -> drain(name, spoolLog), "spool-drainer-" + name);
+          drainer.setDaemon(true);
+          synchronized (drainers) {
+            drainers.add(drainer);
+          }
+          drainer.start();
+          return spoolLog;
+        });
+  }
+
+  private void drain(final String topic, final SpoolLog spoolLog) {
+    long backoff = retryBackoffMs;
+    long lastFlush = System.nanoTime();
+    while (running) {
+      try {
+        if (System.nanoTime() - lastFlush > TimeUnit.MILLISECONDS.toNanos(flushIntervalMs)) {
+          spoolLog.flush();
+          lastFlush = System.nanoTime();
+        }
+        final List<SpoolLog.Entry> entries = spoolLog.read(drainBatchSize);
+        if (entries.isEmpty()) {
+          spoolLog.awaitAppend(flushIntervalMs);
+          continue;
+        }
+        final int delivered = deliver(topic, entries);
+        if (delivered > 0) {
+          spoolLog.commit(entries.get(delivered - 1).next());
+        }
+        if (delivered < entries.size()) {
+          Thread.sleep(backoff);
+          backoff = Math.min(backoff * 2, maxRetryBackoffMs);
+        } else {
+          backoff = retryBackoffMs;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (IOException | RuntimeException e) {
+        log.error("Spool drainer for {} failed, retrying", topic, e);
+        try {
+          Thread.sleep(backoff);
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  /** Sends the entries back to back and returns how many leading ones the broker acknowledged. */
+  private int deliver(final String topic, final List<SpoolLog.Entry> entries)
+      throws InterruptedException {
+    final List<ListenableFuture<SendResult<String, SpecificRecordBase>>> futures =
+        new ArrayList<>(entries.size());
+    for (SpoolLog.Entry entry : entries) {
+      final ProducerRecord<String, SpecificRecordBase> record;
+      try {
+        record = codec.decode(entry.payload());
+      } catch (IOException | RuntimeException e) {
+        // An unreadable record would stall the topic forever, so it is logged and skipped
+        log.error("Skipping unreadable spooled record for {}", topic, e);
+        futures.add(null);
+        continue;
+      }
+      try {
+        futures.add(kafkaTemplate.send(record));
+      } catch (RuntimeException e) {
+        log.warn("Spool drainer for {} could not send: {}", topic, e.getMessage());
+        break;
+      }
+    }
+
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ackTimeoutMs);
+    int delivered = 0;
+    for (ListenableFuture<SendResult<String, SpecificRecordBase>> future : futures) {
+      if (future != null) {
+        try {
+          future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+          log.warn("Spool drainer for {} not acknowledged: {}", topic, e.getMessage());
+          break;
+        }
+      }
+      delivered++;
+    }
+    return delivered;
+  }
+}
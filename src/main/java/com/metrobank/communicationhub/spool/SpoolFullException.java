@@ -0,0 +1,14 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.spool;
+
+import org.springframework.kafka.KafkaException;
+
+/**
+ * Raised when a topic's spool has reached {@code spool.max-segments}. It is a {@link
+ * KafkaException} so callers see the same 503 as when the broker itself rejects a record.
+ */
+public class SpoolFullException extends KafkaException {
+  public SpoolFullException(final String topic) {
+    super("Spool for topic " + topic + " is full");
+  }
+}
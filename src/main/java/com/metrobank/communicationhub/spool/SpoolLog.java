@@ -0,0 +1,251 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.spool;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only log of one topic's spooled records, split into fixed size {@link SpoolSegment}s.
+ * Producers append under the log's lock; a single drainer reads from the checkpointed position,
+ * moving the checkpoint forward once the records it read have been delivered. Segments behind the
+ * checkpoint are deleted and the checkpoint itself is written atomically, so a restart resumes
+ * from the first record that was not acknowledged.
+ */
+@Log4j2
+final class SpoolLog {
+  private static final String CHECKPOINT = "checkpoint";
+
+  private final Path directory;
+  private final int segmentBytes;
+  private final int maxSegments;
+  private final TreeMap<Long, SpoolSegment> segments = new TreeMap<>();
+  // Appends run on request threads and may create a segment file; a ReentrantLock, unlike a
+  // monitor, does not pin the carrier when those threads are virtual
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition appended = lock.newCondition();
+  private volatile SpoolSegment active;
+  private volatile Position checkpoint;
+
+  SpoolLog(final Path directory, final int segmentBytes, final int maxSegments)
+      throws IOException {
+    this.directory = Files.createDirectories(directory);
+    this.segmentBytes = segmentBytes;
+    this.maxSegments = maxSegments;
+    recover();
+  }
+
+  /**
+   * Appends a record, rolling onto a new segment when the active one is full.
+   *
+   * @throws SpoolFullException if the log already holds its maximum number of segments
+   */
+  void append(final byte[] payload) throws IOException {
+    if (payload.length + SpoolSegment.ENTRY_HEADER_BYTES > segmentBytes) {
+      throw new IllegalArgumentException(
+          "Record of " + payload.length + " bytes does not fit a spool segment");
+    }
+    lock.lock();
+    try {
+      if (!active.append(payload)) {
+        if (segments.size() >= maxSegments) {
+          throw new SpoolFullException(directory.getFileName().toString());
+        }
+        active.flush();
+        final SpoolSegment next = SpoolSegment.open(directory, active.index() + 1, segmentBytes);
+        segments.put(next.index(), next);
+        active = next;
+        active.append(payload);
+      }
+      appended.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Waits until something is appended or the timeout elapses. */
+  void awaitAppend(final long timeoutMs) throws InterruptedException {
+    lock.lock();
+    try {
+      if (!hasPending()) {
+        appended.await(timeoutMs, TimeUnit.MILLISECONDS);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Reads up to {@code max} records from the checkpoint without moving it. */
+  List<Entry> read(final int max) {
+    final List<Entry> entries = new ArrayList<>(max);
+    Position position = checkpoint;
+    while (entries.size() < max) {
+      final SpoolSegment segment = segment(position.segment);
+      if (segment == null) {
+        break;
+      }
+      final byte[] payload = segment.read(position.offset);
+      if (payload == null) {
+        if (segment == active) {
+          break;
+        }
+        // A sealed segment is exhausted, carry on from the start of the next one
+        position = new Position(segment.index() + 1, 0);
+        continue;
+      }
+      position =
+          new Position(
+              segment.index(),
+              position.offset + SpoolSegment.ENTRY_HEADER_BYTES + payload.length);
+      entries.add(new Entry(payload, position));
+    }
+    return entries;
+  }
+
+  /** Moves the checkpoint past a delivered record and drops the segments fully behind it. */
+  void commit(final Position position) throws IOException {
+    final Path temp = directory.resolve(CHECKPOINT + ".tmp");
+    Files.write(temp, position.toString().getBytes(StandardCharsets.US_ASCII));
+    Files.move(
+        temp,
+        directory.resolve(CHECKPOINT),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    checkpoint = position;
+
+    final List<SpoolSegment> drained;
+    lock.lock();
+    try {
+      final Map<Long, SpoolSegment> behind = segments.headMap(position.segment);
+      drained = new ArrayList<>(behind.values());
+      behind.clear();
+    } finally {
+      lock.unlock();
+    }
+    for (SpoolSegment segment : drained) {
+      segment.delete();
+    }
+  }
+
+  boolean hasPending() {
+    lock.lock();
+    try {
+      final Position position = checkpoint;
+      return position.segment < active.index() || position.offset < active.writePosition();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Bytes appended but not yet checkpointed. */
+  long pendingBytes() {
+    lock.lock();
+    try {
+      final Position position = checkpoint;
+      long pending = 0;
+      for (SpoolSegment segment : segments.tailMap(position.segment).values()) {
+        pending += segment.writePosition();
+      }
+      return pending - (segments.containsKey(position.segment) ? position.offset : 0);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Forces the active segment's dirty pages to disk. */
+  void flush() {
+    active.flush();
+  }
+
+  private SpoolSegment segment(final long index) {
+    lock.lock();
+    try {
+      return segments.get(index);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void recover() throws IOException {
+    final List<Path> files;
+    try (Stream<Path> listing = Files.list(directory)) {
+      files =
+          listing
+              .filter(file -> file.getFileName().toString().endsWith(SpoolSegment.SUFFIX))
+              .collect(Collectors.toList());
+    }
+    for (Path file : files) {
+      final SpoolSegment segment =
+          SpoolSegment.open(directory, SpoolSegment.indexOf(file), segmentBytes);
+      segments.put(segment.index(), segment);
+    }
+    if (segments.isEmpty()) {
+      segments.put(0L, SpoolSegment.open(directory, 0, segmentBytes));
+    }
+    active = segments.lastEntry().getValue();
+
+    final Path checkpointFile = directory.resolve(CHECKPOINT);
+    checkpoint =
+        Files.exists(checkpointFile)
+            ? Position.parse(new String(Files.readAllBytes(checkpointFile), StandardCharsets.US_ASCII))
+            : new Position(segments.firstKey(), 0);
+    if (!segments.containsKey(checkpoint.segment) || checkpoint.offset > segment(checkpoint.segment).writePosition()) {
+      log.warn("Spool checkpoint {} in {} is not valid, replaying from the oldest segment", checkpoint, directory);
+      checkpoint = new Position(segments.firstKey(), 0);
+    }
+    log.info("Recovered spool {} with {} pending bytes", directory, pendingBytes());
+  }
+
+  /** Location of a record boundary in the log. */
+  static final class Position {
+    private final long segment;
+    private final int offset;
+
+    Position(final long segment, final int offset) {
+      this.segment = segment;
+      this.offset = offset;
+    }
+
+    static Position parse(final String value) {
+      final String[] parts = value.trim().split(" ");
+      return new Position(Long.parseLong(parts[0]), Integer.parseInt(parts[1]));
+    }
+
+    @Override
+    public String toString() {
+      return segment + " " + offset;
+    }
+  }
+
+  /** A spooled record and the position just past it. */
+  static final class Entry {
+    private final byte[] payload;
+    private final Position next;
+
+    Entry(final byte[] payload, final Position next) {
+      this.payload = payload;
+      this.next = next;
+    }
+
+    byte[] payload() {
+      return payload;
+    }
+
+    Position next() {
+      return next;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.spool;
+
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Turns a {@link ProducerRecord} into the bytes stored in the spool and back. The payload holds the
+ * topic, key, headers and the value's class name followed by the value in Avro binary encoding;
+ * the value's schema comes from its generated class, so nothing depends on the schema registry
+ * being reachable while the broker is down.
+ */
+final class SpoolRecordCodec {
+  private static final int NULL_LENGTH = -1;
+
+  private final Map<String, SpecificDatumReader<SpecificRecordBase>> readers =
+      new ConcurrentHashMap<>();
+  private final Map<Class<?>, SpecificDatumWriter<SpecificRecordBase>> writers =
+      new ConcurrentHashMap<>();
+
+  byte[] encode(final ProducerRecord<String, SpecificRecordBase> record) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(record.topic());
+    writeBytes(out, record.key() == null ? null : record.key().getBytes(StandardCharsets.UTF_8));
+    final Header[] headers = record.headers().toArray();
+    out.writeInt(headers.length);
+    for (Header header : headers) {
+      out.writeUTF(header.key());
+      writeBytes(out, header.value());
+    }
+    final SpecificRecordBase value = record.value();
+    out.writeUTF(value.getClass().getName());
+    out.flush();
+    final BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(bytes, null);
+    writers
+        .computeIfAbsent(value.getClass(), type -> new SpecificDatumWriter<>(value.getSchema()))
+        .write(value, encoder);
+    encoder.flush();
+    return bytes.toByteArray();
+  }
+
+  ProducerRecord<String, SpecificRecordBase> decode(final byte[] payload) throws IOException {
+    final ByteArrayInputStream bytes = new ByteArrayInputStream(payload);
+    final DataInputStream in = new DataInputStream(bytes);
+    final String topic = in.readUTF();
+    final byte[] key = readBytes(in);
+    final int headerCount = in.readInt();
+    final RecordHeaders headers = new RecordHeaders();
+    for (int i = 0; i < headerCount; i++) {
+      headers.add(in.readUTF(), readBytes(in));
+    }
+    final String valueClass = in.readUTF();
+    final BinaryDecoder decoder = DecoderFactory.get().directBinaryDecoder(bytes, null);
+    final SpecificRecordBase value = reader(valueClass).read(null, decoder);
+    return new ProducerRecord<>(
+        topic, null, key == null ? null : new String(key, StandardCharsets.UTF_8), value, headers);
+  }
+
+  private SpecificDatumReader<SpecificRecordBase> reader(final String valueClass) {
+    return readers.computeIfAbsent(
+        valueClass,
+        name -> {
+          try {
+            return new SpecificDatumReader<>(
+                SpecificData.get()
+                    .getSchema(Class.forName(name, true, SpoolRecordCodec.class.getClassLoader())));
+          } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Unknown spooled record type " + name, e);
+          }
+        });
+  }
+
+  private static void writeBytes(final DataOutputStream out, final byte[] value)
+      throws IOException {
+    if (value == null) {
+      out.writeInt(NULL_LENGTH);
+      return;
+    }
+    out.writeInt(value.length);
+    out.write(value);
+  }
+
+  private static byte[] readBytes(final DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length == NULL_LENGTH) {
+      return null;
+    }
+    final byte[] value = new byte[length];
+    in.readFully(value);
+    return value;
+  }
+}
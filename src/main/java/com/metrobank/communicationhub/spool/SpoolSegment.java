@@ -0,0 +1,128 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.spool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A fixed size, memory mapped file of length prefixed, checksummed entries. Each entry is laid out
+ * as {@code [int length][int crc32][payload]}; a zero length marks the end of the written data,
+ * which is what the zero filled tail of a freshly mapped file reads as.
+ */
+final class SpoolSegment {
+  static final int ENTRY_HEADER_BYTES = 8;
+  static final String SUFFIX = ".seg";
+
+  private final long index;
+  private final Path path;
+  private final MappedByteBuffer buffer;
+  private final ByteBuffer writer;
+  private volatile int writePosition;
+
+  private SpoolSegment(long index, Path path, MappedByteBuffer buffer) {
+    this.index = index;
+    this.path = path;
+    this.buffer = buffer;
+    this.writer = buffer.duplicate();
+  }
+
+  /** Maps the segment file, creating it if needed, and recovers the end of its valid entries. */
+  static SpoolSegment open(Path directory, long index, int capacity) throws IOException {
+    final Path path = directory.resolve(String.format("%020d%s", index, SUFFIX));
+    final MappedByteBuffer buffer;
+    try (FileChannel channel =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+    final SpoolSegment segment = new SpoolSegment(index, path, buffer);
+    segment.writePosition = segment.recover();
+    return segment;
+  }
+
+  static long indexOf(Path file) {
+    final String name = file.getFileName().toString();
+    return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+  }
+
+  long index() {
+    return index;
+  }
+
+  int writePosition() {
+    return writePosition;
+  }
+
+  int capacity() {
+    return buffer.capacity();
+  }
+
+  /** Appends the payload, returning false when the segment has no room left for it. */
+  boolean append(byte[] payload) {
+    final int position = writePosition;
+    if (position + ENTRY_HEADER_BYTES + payload.length > buffer.capacity()) {
+      return false;
+    }
+    final CRC32 crc = new CRC32();
+    crc.update(payload, 0, payload.length);
+    writer.position(position + 4);
+    writer.putInt((int) crc.getValue());
+    writer.put(payload);
+    // The length goes in last so a torn write never looks like a complete entry
+    writer.putInt(position, payload.length);
+    writePosition = position + ENTRY_HEADER_BYTES + payload.length;
+    return true;
+  }
+
+  /** Reads the entry at the position, or null if no complete entry has been written there. */
+  byte[] read(int position) {
+    if (position + ENTRY_HEADER_BYTES > writePosition) {
+      return null;
+    }
+    final ByteBuffer reader = buffer.duplicate();
+    final int length = reader.getInt(position);
+    final byte[] payload = new byte[length];
+    reader.position(position + ENTRY_HEADER_BYTES);
+    reader.get(payload);
+    return payload;
+  }
+
+  void flush() {
+    buffer.force();
+  }
+
+  void delete() throws IOException {
+    Files.deleteIfExists(path);
+  }
+
+  private int recover() {
+    final ByteBuffer reader = buffer.duplicate();
+    int position = 0;
+    while (position + ENTRY_HEADER_BYTES <= buffer.capacity()) {
+      final int length = reader.getInt(position);
+      if (length <= 0 || position + ENTRY_HEADER_BYTES + length > buffer.capacity()) {
+        break;
+      }
+      final byte[] payload = new byte[length];
+      reader.position(position + ENTRY_HEADER_BYTES);
+      reader.get(payload);
+      final CRC32 crc = new CRC32();
+      crc.update(payload, 0, length);
+      if ((int) crc.getValue() != reader.getInt(position + 4)) {
+        break;
+      }
+      position += ENTRY_HEADER_BYTES + length;
+    }
+    // Zero whatever a crash left half written so new appends start from a clean tail
+    for (int i = position; i < Math.min(position + ENTRY_HEADER_BYTES, buffer.capacity()); i++) {
+      reader.put(i, (byte) 0);
+    }
+    return position;
+  }
+}
@@ -0,0 +1,18 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.spool;
+
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.kafka.support.SendResult;
+
+/**
+ * The result of a send taken by the {@link KafkaSpool} rather than the broker. It carries no
+ * {@link #getRecordMetadata() metadata}, as the partition and offset are only known once a drainer
+ * has replayed the record, and must not be reported as an acknowledged delivery.
+ */
+public class SpooledSendResult extends SendResult<String, SpecificRecordBase> {
+
+  public SpooledSendResult(final ProducerRecord<String, SpecificRecordBase> producerRecord) {
+    super(producerRecord, null);
+  }
+}
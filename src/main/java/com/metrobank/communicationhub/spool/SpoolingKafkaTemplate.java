@@ -0,0 +1,37 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.spool;
+
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+/**
+ * {@link KafkaTemplate} whose sends append to the {@link KafkaSpool} instead of the producer. The
+ * returned future is already complete once the record is spooled, so callers never wait on the
+ * broker, and holds a {@link SpooledSendResult} telling them the broker has not seen it yet.
+ */
+public class SpoolingKafkaTemplate extends KafkaTemplate<String, SpecificRecordBase> {
+
+  private final KafkaSpool kafkaSpool;
+
+  public SpoolingKafkaTemplate(
+      final ProducerFactory<String, SpecificRecordBase> producerFactory,
+      final KafkaSpool kafkaSpool) {
+    super(producerFactory);
+    this.kafkaSpool = kafkaSpool;
+  }
+
+  @Override
+  protected ListenableFuture<SendResult<String, SpecificRecordBase>> doSend(
+      final ProducerRecord<String, SpecificRecordBase> producerRecord) {
+    kafkaSpool.append(producerRecord);
+    final SettableListenableFuture<SendResult<String, SpecificRecordBase>> future =
+        new SettableListenableFuture<>();
+    future.set(new SpooledSendResult(producerRecord));
+    return future;
+  }
+}
@@ -0,0 +1,209 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.streams;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.metrobank.communicationhub.schema.CommsPreference;
+import io.confluent.kafka.streams.serdes.avro.SpecificAvroSerde;
+import lombok.extern.log4j.Log4j2;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.streams.KafkaStreams;
+import org.apache.kafka.streams.StoreQueryParameters;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.Topology;
+import org.apache.kafka.streams.errors.InvalidStateStoreException;
+import org.apache.kafka.streams.kstream.Consumed;
+import org.apache.kafka.streams.state.QueryableStoreTypes;
+import org.apache.kafka.streams.state.ReadOnlyKeyValueStore;
+import org.apache.kafka.streams.state.Stores;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Materializes the preference topic into a local RocksDB store keyed by customerId, commsType and
+ * deviceId, so preference reads can be answered without MongoDB. Every instance needs the whole
+ * topic, so each runs under its own {@code application.id} and reads from the earliest offset;
+ * the store is rebuilt from the topic rather than from a changelog, which is disabled. Until the
+ * instance is running and has caught up to within {@code preference-view.max-lag} records the
+ * view reports itself not ready and callers are expected to read MongoDB instead.
+ */
+@Component
+@Log4j2
+public class PreferenceView {
+  static final String STORE = "preference-view";
+  private static final char SEPARATOR = '|';
+
+  private final KafkaProperties kafkaProperties;
+  private final ObjectMapper objectMapper;
+  // Partitions once seen within max-lag, whose lag reads NaN when they go idle
+  private final Set<String> caughtUp = ConcurrentHashMap.newKeySet();
+  private KafkaStreams kafkaStreams;
+
+  @Value("${preference-view.enabled:false}")
+  protected boolean enabled;
+
+  @Value("${topic.preference.request}")
+  protected String preferenceTopic;
+
+  @Value("${preference-view.application-id}")
+  protected String applicationId;
+
+  @Value("${preference-view.state-dir:/tmp/kafka-streams}")
+  protected String stateDir;
+
+  @Value("${preference-view.max-lag:100}")
+  protected long maxLag;
+
+  public PreferenceView(final KafkaProperties kafkaProperties, final ObjectMapper objectMapper) {
+    this.kafkaProperties = kafkaProperties;
+    this.objectMapper = objectMapper;
+  }
+
+  @PostConstruct
+  public void start() {
+    if (!enabled) {
+      return;
+    }
+    final Map<String, Object> properties = kafkaProperties.buildStreamsProperties();
+    properties.put(StreamsConfig.APPLICATION_ID_CONFIG, applicationId);
+    properties.put(StreamsConfig.STATE_DIR_CONFIG, stateDir);
+    properties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+
+    final SpecificAvroSerde<CommsPreference> valueSerde = new SpecificAvroSerde<>();
+    final Map<String, Object> serdeConfig = new HashMap<>(properties);
+    serdeConfig.put("specific.avro.reader", true);
+    valueSerde.configure(serdeConfig, false);
+
+    kafkaStreams = new KafkaStreams(topology(valueSerde), new StreamsConfig(properties));
+    kafkaStreams.setStateListener(
+        (newState, oldState) -> log.info("Preference view {} -> {}", oldState, newState));
+    kafkaStreams.start();
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (kafkaStreams != null) {
+      kafkaStreams.close();
+    }
+  }
+
+  /** True once the view is running and close enough to the end of the topic to be read. */
+  public boolean isReady() {
+    return kafkaStreams != null
+        && kafkaStreams.state() == KafkaStreams.State.RUNNING
+        && lag() <= maxLag;
+  }
+
+  /**
+   * Preferences of a device keyed by message type, or empty when the view cannot answer or holds
+   * nothing for the device, in which case the caller should read MongoDB.
+   */
+  public Optional<Map<String, Map<String, String>>> find(
+      final Integer customerId, final String commsType, final String deviceId) {
+    if (!isReady()) {
+      return Optional.empty();
+    }
+    try {
+      final ReadOnlyKeyValueStore<String, Map<String, Map<String, String>>> store =
+          kafkaStreams.store(
+              StoreQueryParameters.fromNameAndType(STORE, QueryableStoreTypes.keyValueStore()));
+      final Map<String, Map<String, String>> preferences =
+          store.get(key(customerId, commsType, deviceId));
+      return Optional.ofNullable(preferences);
+    } catch (InvalidStateStoreException e) {
+      // The store is migrating or restoring; MongoDB answers until it is back
+      log.debug("Preference view unavailable: {}", e.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  Topology topology(final Serde<CommsPreference> valueSerde) {
+    final StreamsBuilder builder = new StreamsBuilder();
+    builder.addStateStore(
+        Stores.keyValueStoreBuilder(
+                Stores.persistentKeyValueStore(STORE), Serdes.String(), viewSerde())
+            .withLoggingDisabled());
+    builder.stream(preferenceTopic, Consumed.with(Serdes.String(), valueSerde))
+        .process(PreferenceViewProcessor::new, STORE);
+    return builder.build();
+  }
+
+  static String key(final Integer customerId, final String commsType, final String deviceId) {
+    return String.valueOf(customerId) + SEPARATOR + commsType + SEPARATOR + deviceId;
+  }
+
+  private Serde<Map<String, Map<String, String>>> viewSerde() {
+    final TypeReference<Map<String, Map<String, String>>> type = new TypeReference<>() {};
+    return Serdes.serdeFrom(
+        (topic, data) -> {
+          try {
+            return data == null ? null : objectMapper.writeValueAsBytes(data);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        },
+        (topic, data) -> {
+          try {
+            return data == null ? null : objectMapper.readValue(data, type);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  /**
+   * Largest consumer lag over the partitions assigned to the instance, or {@link Long#MAX_VALUE}
+   * while it is not yet known. An idle partition stops reporting its lag, which then reads NaN; one
+   * already seen within {@code preference-view.max-lag} counts as caught up.
+   */
+  private long lag() {
+    return lag(kafkaStreams.metrics());
+  }
+
+  long lag(final Map<MetricName, ? extends Metric> metrics) {
+    long lag = 0;
+    boolean assigned = false;
+    for (Map.Entry<MetricName, ? extends Metric> metric : metrics.entrySet()) {
+      final MetricName name = metric.getKey();
+      if (!"records-lag".equals(name.name())
+          || !"consumer-fetch-manager-metrics".equals(name.group())
+          || !name.tags().containsKey("partition")) {
+        continue;
+      }
+      assigned = true;
+      final String partition = name.tags().get("topic") + '-' + name.tags().get("partition");
+      final Object value = metric.getValue().metricValue();
+      final double partitionLag =
+          value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+      if (Double.isNaN(partitionLag)) {
+        if (!caughtUp.contains(partition)) {
+          return Long.MAX_VALUE;
+        }
+      } else {
+        if (partitionLag <= maxLag) {
+          caughtUp.add(partition);
+        } else {
+          caughtUp.remove(partition);
+        }
+        lag = Math.max(lag, (long) partitionLag);
+      }
+    }
+    return assigned ? lag : Long.MAX_VALUE;
+  }
+}
@@ -0,0 +1,58 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.streams;
+
+import com.metrobank.communicationhub.schema.CommsPreference;
+import com.metrobank.communicationhub.schema.Preference;
+import org.apache.kafka.streams.processor.AbstractProcessor;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.state.KeyValueStore;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Folds each {@link CommsPreference} into the view entry of its customer, comms type and device,
+ * replacing the preferences previously held for the record's message type.
+ */
+class PreferenceViewProcessor extends AbstractProcessor<String, CommsPreference> {
+
+  private KeyValueStore<String, Map<String, Map<String, String>>> store;
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void init(final ProcessorContext context) {
+    super.init(context);
+    store =
+        (KeyValueStore<String, Map<String, Map<String, String>>>)
+            context.getStateStore(PreferenceView.STORE);
+  }
+
+  @Override
+  public void process(final String key, final CommsPreference value) {
+    if (value == null || value.getCustomerId() == null || value.getMessageType() == null) {
+      return;
+    }
+    final String viewKey =
+        PreferenceView.key(
+            value.getCustomerId(), string(value.getCommsType()), string(value.getDeviceId()));
+
+    final Map<String, Map<String, String>> byMessageType = new TreeMap<>();
+    final Map<String, Map<String, String>> current = store.get(viewKey);
+    if (current != null) {
+      byMessageType.putAll(current);
+    }
+    final Map<String, String> preferences = new LinkedHashMap<>();
+    if (value.getPreferences() != null) {
+      for (Preference preference : value.getPreferences()) {
+        preferences.put(string(preference.getKey()), string(preference.getValue()));
+      }
+    }
+    byMessageType.put(string(value.getMessageType()), preferences);
+    store.put(viewKey, byMessageType);
+  }
+
+  private static String string(final CharSequence value) {
+    return value == null ? null : value.toString();
+  }
+}
@@ -0,0 +1,261 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.suppression;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Spots notification storms: the same communication sent to the same customer over and over, as
+ * when an upstream bug fires one request in a loop. Each send is hashed on the customer, comms
+ * type, template and template parameters and looked up in a Bloom filter of the sends delivered
+ * in the last window; a hit is a duplicate, dropped or only counted depending on {@code
+ * storm-suppression.action}. A send is claimed when checked, so copies arriving before it is
+ * acknowledged are duplicates too, and only added to the filter once delivered; the claim of one
+ * that failed is released, so it can be retried straight away.
+ *
+ * <p>The filter has two generations, swapped every window, so a send is remembered for between
+ * one and two windows and memory stays fixed whatever the traffic. Lookups are lock-free. Bloom
+ * filters have false positives but no false negatives: a storm is always caught, and a distinct
+ * send is mistaken for a duplicate at most at the configured rate, which is only reached once a
+ * window holds the expected number of sends. Claims are kept exactly, in a set holding no more
+ * than the sends awaiting their acknowledgement.
+ */
+@Component
+@ConditionalOnProperty(name = "storm-suppression.enabled", havingValue = "true", matchIfMissing = true)
+@Log4j2
+public class StormSuppressor {
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private static final char SEPARATOR = '\u001f';
+
+  private final MeterRegistry meterRegistry;
+  private final LongSupplier clock;
+  private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+  private Counter dropped;
+  private Counter counted;
+  private int bits;
+  private int hashes;
+  private long windowNanos;
+  private volatile Generation current;
+  private volatile Generation previous;
+
+  @Value("${storm-suppression.action:COUNT}")
+  protected Action action = Action.COUNT;
+
+  @Value("${storm-suppression.window:60s}")
+  protected Duration window = Duration.ofSeconds(60);
+
+  @Value("${storm-suppression.expected-sends:100000}")
+  protected int expectedSends = 100_000;
+
+  @Value("${storm-suppression.false-positive-rate:0.0001}")
+  protected double falsePositiveRate = 0.0001;
+
+  @Autowired
+  public StormSuppressor(final MeterRegistry meterRegistry) {
+    this(meterRegistry, System::nanoTime);
+  }
+
+  StormSuppressor(final MeterRegistry meterRegistry, final LongSupplier clock) {
+    this.meterRegistry = meterRegistry;
+    this.clock = clock;
+  }
+
+  /** What to do with a duplicate send. */
+  public enum Action {
+    /** Accept the request without producing it. */
+    DROP,
+    /** Produce it anyway, only counting it; for sizing the window before turning DROP on. */
+    COUNT
+  }
+
+  /** What became of a checked send. */
+  public enum Verdict {
+    /** Not seen: the caller holds the send's claim until it calls {@link #record} or release. */
+    CLAIMED,
+    /** A duplicate, produced anyway under {@code COUNT}. */
+    COUNTED,
+    /** A duplicate, not to be produced. */
+    DROPPED
+  }
+
+  @PostConstruct
+  public void init() {
+    // Optimal size and hash count for the expected sends per window at the false positive rate
+    final double ln2 = Math.log(2);
+    final long optimalBits =
+        (long) Math.ceil(-expectedSends * Math.log(falsePositiveRate) / (ln2 * ln2));
+    bits = (int) Math.min(Math.max(optimalBits, Long.SIZE), (long) Integer.MAX_VALUE - Long.SIZE);
+    hashes = Math.max(1, (int) Math.round((double) bits / expectedSends * ln2));
+    windowNanos = window.toNanos();
+    final long now = clock.getAsLong();
+    current = new Generation(bits, now);
+    previous = new Generation(bits, now - windowNanos);
+    dropped = duplicates("dropped");
+    counted = duplicates("counted");
+    log.info(
+        "Storm suppression {} duplicates within {}, {} KiB of filters, {} hashes",
+        action,
+        window,
+        bits / Byte.SIZE / 1024 * 2,
+        hashes);
+  }
+
+  /**
+   * Hashes the send on the fields that make it the same communication, for {@link #check}.
+   *
+   * @param customer the customerId, resolved from the IbId when the request did not carry one, so
+   *     copies addressing the customer either way match
+   */
+  public long fingerprint(
+      final Object customer,
+      final Object commsType,
+      final CharSequence templateId,
+      final List<? extends CharSequence> templateParams) {
+    long hash = hash(FNV_OFFSET_BASIS, customer == null ? null : customer.toString());
+    hash = hash(hash, commsType == null ? null : commsType.toString());
+    hash = hash(hash, templateId);
+    if (templateParams != null) {
+      for (CharSequence param : templateParams) {
+        hash = hash(hash, param);
+      }
+    }
+    return mix(hash);
+  }
+
+  /**
+   * Checks the send against those delivered within the window and those still in flight. A send
+   * seen in neither is claimed, and the caller must {@link #record} it once delivered or {@link
+   * #release} it if it fails; a duplicate is counted and leaves the claims alone.
+   */
+  public Verdict check(final long fingerprint) {
+    // Looked up again once claimed: a copy may have been recorded, and its claim released, between
+    if (!seen(fingerprint) && inFlight.add(fingerprint)) {
+      if (!seen(fingerprint)) {
+        return Verdict.CLAIMED;
+      }
+      inFlight.remove(fingerprint);
+    }
+    if (action == Action.DROP) {
+      dropped.increment();
+      log.debug("Dropped duplicate send {}", Long.toHexString(fingerprint));
+      return Verdict.DROPPED;
+    }
+    counted.increment();
+    return Verdict.COUNTED;
+  }
+
+  /** Remembers a claimed send for the window once it has been delivered, ending its claim. */
+  public void record(final long fingerprint) {
+    final Generation generation = generation();
+    final int h1 = (int) fingerprint;
+    final int h2 = (int) (fingerprint >>> 32) | 1;
+    for (int i = 0; i < hashes; i++) {
+      generation.set(Math.floorMod(h1 + i * h2, bits));
+    }
+    inFlight.remove(fingerprint);
+  }
+
+  /** Ends the claim of a send that was not delivered, so a retry is not taken for a duplicate. */
+  public void release(final long fingerprint) {
+    inFlight.remove(fingerprint);
+  }
+
+  /** Whether either generation has all of the send's bits. */
+  private boolean seen(final long hash) {
+    final Generation generation = generation();
+    final Generation older = previous;
+    // Kirsch-Mitzenmacher: the k indexes are h1 + i * h2, as good as k independent hashes
+    final int h1 = (int) hash;
+    final int h2 = (int) (hash >>> 32) | 1;
+    boolean inCurrent = true;
+    boolean inPrevious = true;
+    for (int i = 0; i < hashes && (inCurrent || inPrevious); i++) {
+      final int index = Math.floorMod(h1 + i * h2, bits);
+      inCurrent = inCurrent && generation.get(index);
+      inPrevious = inPrevious && older.get(index);
+    }
+    return inCurrent || inPrevious;
+  }
+
+  private Generation generation() {
+    final Generation generation = current;
+    final long now = clock.getAsLong();
+    if (now - generation.startNanos < windowNanos) {
+      return generation;
+    }
+    synchronized (this) {
+      if (current == generation) {
+        // Idle for over two windows, so nothing in the current generation is recent either
+        previous =
+            now - generation.startNanos < 2 * windowNanos ? generation : new Generation(bits, now);
+        current = new Generation(bits, now);
+      }
+      return current;
+    }
+  }
+
+  private Counter duplicates(final String outcome) {
+    return Counter.builder("comms.storm.duplicates")
+        .description("Sends seen again within the storm suppression window")
+        .tag("action", outcome)
+        .register(meterRegistry);
+  }
+
+  /** FNV-1a over the characters, with a separator so field boundaries count. */
+  private static long hash(long hash, final CharSequence value) {
+    if (value != null) {
+      for (int i = 0; i < value.length(); i++) {
+        hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+      }
+    }
+    return (hash ^ SEPARATOR) * FNV_PRIME;
+  }
+
+  /** Murmur3 finalizer, spreading FNV's weak high bits across the whole word. */
+  private static long mix(long hash) {
+    hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+    hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return hash ^ (hash >>> 33);
+  }
+
+  private static final class Generation {
+    private final AtomicLongArray words;
+    private final long startNanos;
+
+    private Generation(final int bits, final long startNanos) {
+      this.words = new AtomicLongArray((bits + Long.SIZE - 1) / Long.SIZE);
+      this.startNanos = startNanos;
+    }
+
+    private boolean get(final int index) {
+      return (words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    private void set(final int index) {
+      final long mask = 1L << index;
+      final int word = index >>> 6;
+      long value = words.get(word);
+      while ((value & mask) == 0) {
+        final long witness = words.compareAndExchange(word, value, value | mask);
+        if (witness == value) {
+          return;
+        }
+        value = witness;
+      }
+    }
+  }
+}
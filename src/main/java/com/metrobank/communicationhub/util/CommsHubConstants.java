@@ -14,6 +14,7 @@ public class CommsHubConstants {
   public static final String REGISTRATION_STATUS = "ACTIVE";
   public static final String PROCESS_NAME = "x-process-name";
   public static final String ACTIVTY_NAME = "x-activity-name";
+  public static final String REQUEST_ID = "x-request-id";
   public static final String REGISTRATION_PROCESS_NAME = "mobile-push-registration";
   public static final String DEREGISTRATION_PROCESS_NAME = "mobile-push-deregistration";
   public static final String REGISTRATION_ACTIVITY_NAME = "COMMS-REGISTRATION-STARTED";
@@ -22,6 +23,31 @@ public class CommsHubConstants {
   public static final String ROUTING_ACTIVITY_NAME = "COMMS-ROUTER-ROUTING-STARTED";
   public static final String PREFERENCE_ACTIVITY_NAME = "COMMS-PREF-STARTED";
   public static final String PREFERENCE_PROCESS_NAME = "mobile-push-set-preference";
+  public static final String INVALID_IBID_MESSAGE = "Invalid IbId";
+  public static final String BATCH_LIMIT_EXCEEDED_MESSAGE = "Batch line limit exceeded, remaining lines not read";
+  public static final String BATCH_LINE_TOO_LARGE_MESSAGE = "Batch line too large";
+  public static final String DELIVERY_MODE_HEADER = "x-delivery-mode";
+  public static final String DELIVERY_MODE_CONFIRMED = "confirmed";
+  public static final String SERVICE_UNAVAILABLE_ERROR_CODE = "Service Unavailable";
+  public static final String TOO_MANY_REQUESTS_ERROR_CODE = "Too Many Requests";
+  public static final String TOO_MANY_REQUESTS_ERROR_MESSAGE = "Too many requests, please retry later";
+  public static final String DELIVERY_FAILED_ERROR_MESSAGE =
+      "Request could not be delivered, please try again";
+  public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+  public static final String IDEMPOTENT_REPLAYED_HEADER = "Idempotent-Replayed";
+  public static final String CONFLICT_ERROR_CODE = "Conflict";
+  public static final String PAYLOAD_TOO_LARGE_ERROR_CODE = "Payload Too Large";
+  public static final String PAYLOAD_TOO_LARGE_ERROR_MESSAGE = "Request body is too large";
+  public static final String INVALID_IDEMPOTENCY_KEY_MESSAGE = "Invalid Idempotency-Key";
+  public static final String IDEMPOTENCY_KEY_REUSED_MESSAGE =
+      "Idempotency-Key was already used for a different request";
+  public static final String IDEMPOTENCY_KEY_IN_PROGRESS_MESSAGE =
+      "A request with this Idempotency-Key is still in progress";
+  public static final String READS_UNAVAILABLE_ERROR_MESSAGE =
+      "Data temporarily unavailable, please retry later";
+  public static final String REQUEST_DEADLINE_HEADER = "x-request-deadline";
+  public static final String REQUEST_TIMEOUT_HEADER = "x-request-timeout";
+  public static final String STALE_RESPONSE_WARNING = "110 - \"Response is Stale\"";
 
 
 
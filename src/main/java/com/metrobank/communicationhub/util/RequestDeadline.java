@@ -0,0 +1,120 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.util;
+
+import com.metrobank.communicationhub.exception.RestProxyDeadlineExceededException;
+
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The deadline of the request handled on the current thread, taken from its {@code
+ * x-request-deadline} header, in epoch milliseconds, or its {@code x-request-timeout} header, in
+ * milliseconds from arrival, whichever is earlier. Requests without either have no deadline.
+ *
+ * <p>Work for a caller that has already given up is dropped just before it would reach MongoDB or
+ * Kafka, and whatever remains of the budget bounds the MongoDB queries and confirmed sends made on
+ * the request's behalf. Work done on other threads, such as background refreshes, and queries
+ * shared with other requests through {@link SingleFlight} have no deadline.
+ */
+public final class RequestDeadline {
+  // Far enough to mean no deadline at all, near enough for nanoTime arithmetic not to overflow
+  private static final long MAX_BUDGET_MILLIS = TimeUnit.DAYS.toMillis(1);
+  private static final ThreadLocal<Long> DEADLINE_NANOS = new ThreadLocal<>();
+
+  private RequestDeadline() {}
+
+  /**
+   * The deadline in {@link System#nanoTime()} terms from the request's headers, or null when
+   * neither is present and valid.
+   */
+  public static Long fromHeaders(final String deadline, final String timeout) {
+    long remainingMillis = Long.MAX_VALUE;
+    final Long deadlineMillis = parse(deadline);
+    if (deadlineMillis != null) {
+      remainingMillis = deadlineMillis - System.currentTimeMillis();
+    }
+    final Long timeoutMillis = parse(timeout);
+    if (timeoutMillis != null) {
+      remainingMillis = Math.min(remainingMillis, timeoutMillis);
+    }
+    if (remainingMillis == Long.MAX_VALUE) {
+      return null;
+    }
+    final long budgetMillis = Math.max(0, Math.min(remainingMillis, MAX_BUDGET_MILLIS));
+    return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+  }
+
+  public static void set(final Long deadlineNanos) {
+    if (deadlineNanos == null) {
+      DEADLINE_NANOS.remove();
+    } else {
+      DEADLINE_NANOS.set(deadlineNanos);
+    }
+  }
+
+  public static void clear() {
+    DEADLINE_NANOS.remove();
+  }
+
+  /** Whole milliseconds left, rounded up, or empty when the request has no deadline. */
+  public static OptionalLong remainingMillis() {
+    final Long deadlineNanos = DEADLINE_NANOS.get();
+    if (deadlineNanos == null) {
+      return OptionalLong.empty();
+    }
+    final long remainingNanos = deadlineNanos - System.nanoTime();
+    if (remainingNanos <= 0) {
+      return OptionalLong.of(0);
+    }
+    return OptionalLong.of(
+        TimeUnit.NANOSECONDS.toMillis(remainingNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+  }
+
+  public static boolean expired() {
+    final OptionalLong remaining = remainingMillis();
+    return remaining.isPresent() && remaining.getAsLong() == 0;
+  }
+
+  /** The timeout, cut down to what is left of the request's budget. */
+  public static long bound(final long timeoutMillis) {
+    final OptionalLong remaining = remainingMillis();
+    return remaining.isPresent() ? Math.min(timeoutMillis, remaining.getAsLong()) : timeoutMillis;
+  }
+
+  /**
+   * Gives up on the request's work once its deadline has passed.
+   *
+   * @throws RestProxyDeadlineExceededException if it has
+   */
+  public static void check(final String work) {
+    if (expired()) {
+      throw new RestProxyDeadlineExceededException("Request deadline passed before " + work);
+    }
+  }
+
+  /**
+   * Runs the work with no deadline on this thread, restoring the request's afterwards; for work
+   * shared with other requests, which this one's deadline must not cut short.
+   */
+  public static <T> T suspended(final Supplier<T> work) {
+    final Long deadlineNanos = DEADLINE_NANOS.get();
+    DEADLINE_NANOS.remove();
+    try {
+      return work.get();
+    } finally {
+      set(deadlineNanos);
+    }
+  }
+
+  private static Long parse(final String header) {
+    if (header == null || header.isBlank()) {
+      return null;
+    }
+    try {
+      return Long.parseLong(header.trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.util;
+
+import com.metrobank.communicationhub.exception.RestProxyDeadlineExceededException;
+import com.metrobank.communicationhub.exception.RestProxyException;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent identical queries into one. The first caller for a key runs the query on
+ * its own thread; callers arriving while it is in flight wait, for at most the given timeout, and
+ * share its result or its exception. Nothing is cached: once the query completes the next caller
+ * for the key runs it again.
+ *
+ * <p>The query serves every caller, so it runs without the first caller's {@link
+ * RequestDeadline}, which would otherwise cut it short, or fail it, for callers with time left.
+ * Each waiting caller instead stops waiting at its own deadline.
+ *
+ * @param <K> query parameters, compared with {@code equals}
+ * @param <V> query result
+ */
+public class SingleFlight<K, V> {
+
+  private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  /**
+   * Runs the query, or joins the identical one already in flight.
+   *
+   * @throws QueryTimeoutException if the in-flight query does not complete within the timeout
+   * @throws RestProxyDeadlineExceededException if the caller's request deadline passes first
+   */
+  public V execute(final K key, final long timeoutMs, final Supplier<V> query) {
+    RequestDeadline.check("query for " + key);
+    final CompletableFuture<V> flight = new CompletableFuture<>();
+    final CompletableFuture<V> leader = inFlight.putIfAbsent(key, flight);
+    if (leader == null) {
+      try {
+        final V result = RequestDeadline.suspended(query);
+        flight.complete(result);
+        return result;
+      } catch (RuntimeException | Error e) {
+        flight.completeExceptionally(e);
+        throw e;
+      } finally {
+        inFlight.remove(key, flight);
+      }
+    }
+
+    try {
+      return leader.get(RequestDeadline.bound(timeoutMs), TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new RestProxyException(e.getCause());
+    } catch (TimeoutException e) {
+      RequestDeadline.check("in-flight query for " + key + " completed");
+      throw new QueryTimeoutException("Timed out waiting for in-flight query for " + key, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RestProxyException(e);
+    }
+  }
+}
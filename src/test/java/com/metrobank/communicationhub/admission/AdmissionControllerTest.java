@@ -0,0 +1,168 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.admission;
+
+import com.metrobank.communicationhub.exception.RestProxyTooManyRequestsException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class AdmissionControllerTest {
+  private static final String SEND_TOPIC = "sendTopic";
+
+  @Mock private KafkaTemplate kafkaTemplate;
+  private AdmissionController admissionController;
+
+  @BeforeEach
+  void setUp() {
+    admissionController = new AdmissionController(kafkaTemplate, new SimpleMeterRegistry());
+    admissionController.enabled = true;
+    admissionController.registerTopic = "registrationTopic";
+    admissionController.sendTopic = SEND_TOPIC;
+    admissionController.preferenceTopic = "preferenceTopic";
+    admissionController.registerMaxInFlight = 1;
+    admissionController.sendMaxInFlight = 2;
+    admissionController.preferenceMaxInFlight = 1;
+    admissionController.defaultMaxInFlight = 1;
+    admissionController.bufferHighWatermark = 0.9;
+    admissionController.maxRetryAfterSeconds = 30;
+    admissionController.metricsRefreshMs = 0;
+    admissionController.init();
+  }
+
+  @DisplayName("Admission :: rejects once the topic's in-flight limit is reached")
+  @Test
+  void acquire_inFlightLimit() {
+    AdmissionController.Permit first;
+    Given:
+    {
+      when(kafkaTemplate.metrics()).thenReturn(Collections.emptyMap());
+      first = admissionController.acquire(SEND_TOPIC);
+      admissionController.acquire(SEND_TOPIC);
+    }
+    When:
+    {
+      RestProxyTooManyRequestsException exception =
+          assertThrows(
+              RestProxyTooManyRequestsException.class,
+              () -> admissionController.acquire(SEND_TOPIC));
+      assertEquals(1, exception.getRetryAfterSeconds());
+    }
+    Then:
+    {
+      first.release();
+      first.release();
+      admissionController.acquire(SEND_TOPIC);
+      Map<String, Object> topic =
+          (Map<String, Object>) ((Map<String, Object>) admissionController.snapshot().get("topics")).get(SEND_TOPIC);
+      assertEquals(2, topic.get("inFlight"));
+      assertEquals(1L, topic.get("rejected"));
+    }
+  }
+
+  @DisplayName("Admission :: rejects when the producer buffer is over the high watermark")
+  @Test
+  void acquire_bufferSaturated() {
+    Map<MetricName, Metric> metrics = new HashMap<>();
+    metrics.put(name("buffer-total-bytes"), metric(1000.0));
+    metrics.put(name("buffer-available-bytes"), metric(0.0));
+    metrics.put(name("outgoing-byte-rate"), metric(20.0));
+    when(kafkaTemplate.metrics()).thenReturn(metrics);
+
+    RestProxyTooManyRequestsException exception =
+        assertThrows(
+            RestProxyTooManyRequestsException.class,
+            () -> admissionController.acquire(SEND_TOPIC));
+
+    // 100 bytes over the watermark drain at 20 bytes a second
+    assertEquals(5, exception.getRetryAfterSeconds());
+  }
+
+  @DisplayName("Admission :: admits everything when disabled")
+  @Test
+  void acquire_disabled() {
+    List<AdmissionController.Permit> permits = new ArrayList<>();
+    Given:
+    {
+      admissionController.enabled = false;
+    }
+    When:
+    {
+      for (int i = 0; i < 3; i++) {
+        permits.add(admissionController.acquire(SEND_TOPIC));
+      }
+    }
+    Then:
+    {
+      permits.forEach(Assertions::assertNotNull);
+      // The producer buffer is not even sampled
+      verify(kafkaTemplate, never()).metrics();
+      when(kafkaTemplate.metrics()).thenReturn(Collections.emptyMap());
+      assertEquals(3, sendTopic().get("inFlight"));
+      assertEquals(2, sendTopic().get("maxInFlight"));
+      assertEquals(0L, sendTopic().get("rejected"));
+      permits.forEach(AdmissionController.Permit::release);
+      assertEquals(0, sendTopic().get("inFlight"));
+    }
+  }
+
+  @DisplayName("Admission :: a QoS lane has its own producer buffer and in-flight budget")
+  @Test
+  void forLane_independentBudget() {
+    // Given: the shared producer's buffer is full
+    Map<MetricName, Metric> metrics = new HashMap<>();
+    metrics.put(name("buffer-total-bytes"), metric(1000.0));
+    metrics.put(name("buffer-available-bytes"), metric(0.0));
+    when(kafkaTemplate.metrics()).thenReturn(metrics);
+    KafkaTemplate laneTemplate = mock(KafkaTemplate.class);
+    when(laneTemplate.metrics()).thenReturn(Collections.emptyMap());
+
+    // When:
+    AdmissionController lane = admissionController.forLane("critical", laneTemplate, 1);
+
+    // Then:
+    assertThrows(
+        RestProxyTooManyRequestsException.class, () -> admissionController.acquire(SEND_TOPIC));
+    lane.acquire(SEND_TOPIC);
+    assertThrows(RestProxyTooManyRequestsException.class, () -> lane.acquire(SEND_TOPIC));
+    Map<String, Object> lanes = (Map<String, Object>) admissionController.snapshot().get("lanes");
+    assertEquals(
+        lane.snapshot().get("topics"), ((Map<String, Object>) lanes.get("critical")).get("topics"));
+  }
+
+  private Map<String, Object> sendTopic() {
+    return (Map<String, Object>)
+        ((Map<String, Object>) admissionController.snapshot().get("topics")).get(SEND_TOPIC);
+  }
+
+  private static MetricName name(String name) {
+    return new MetricName(name, "producer-metrics", "", Collections.emptyMap());
+  }
+
+  private static Metric metric(double value) {
+    Metric metric = mock(Metric.class);
+    when(metric.metricValue()).thenReturn(value);
+    return metric;
+  }
+}
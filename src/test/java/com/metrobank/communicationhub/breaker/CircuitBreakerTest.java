@@ -0,0 +1,105 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.breaker;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+  private static final long SLOW = TimeUnit.SECONDS.toNanos(1);
+  private static final long OPEN = TimeUnit.SECONDS.toNanos(10);
+
+  private final AtomicLong clock = new AtomicLong();
+  private final CircuitBreaker breaker = new CircuitBreaker(10, 4, 50, SLOW, 80, OPEN, clock::get);
+
+  @DisplayName("Circuit Breaker :: opens at the failure rate, then a successful probe closes it")
+  @Test
+  void failureRate() {
+    // Given:
+    succeed(2);
+    breaker.tryAcquire();
+    breaker.onFailure();
+
+    // When:
+    breaker.tryAcquire();
+    breaker.onFailure();
+
+    // Then:
+    assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    assertFalse(breaker.tryAcquire());
+    clock.addAndGet(OPEN - 1);
+    assertEquals(1, breaker.remainingOpenNanos());
+    assertFalse(breaker.tryAcquire());
+
+    clock.incrementAndGet();
+    assertTrue(breaker.tryAcquire());
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+    assertFalse(breaker.tryAcquire());
+    breaker.onSuccess(0);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+  }
+
+  @DisplayName("Circuit Breaker :: opens at the slow call rate and a slow probe opens it again")
+  @Test
+  void slowCallRate() {
+    // Given:
+    succeed(1);
+
+    // When:
+    for (int i = 0; i < 4; i++) {
+      breaker.tryAcquire();
+      breaker.onSuccess(SLOW);
+    }
+
+    // Then:
+    assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    clock.addAndGet(OPEN);
+    assertTrue(breaker.tryAcquire());
+    breaker.onSuccess(SLOW);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    assertEquals(OPEN, breaker.remainingOpenNanos());
+  }
+
+  @DisplayName("Circuit Breaker :: only the last window of calls counts and ignored probes retry")
+  @Test
+  void window() {
+    // Given:
+    succeed(4);
+    breaker.tryAcquire();
+    breaker.onFailure();
+    breaker.tryAcquire();
+    breaker.onFailure();
+    breaker.tryAcquire();
+    breaker.onFailure();
+
+    // When:
+    succeed(10);
+
+    // Then:
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    for (int i = 0; i < 5; i++) {
+      breaker.tryAcquire();
+      breaker.onFailure();
+    }
+    assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    clock.addAndGet(OPEN);
+    assertTrue(breaker.tryAcquire());
+    breaker.onIgnored();
+    assertTrue(breaker.tryAcquire());
+    breaker.onFailure();
+    assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+  }
+
+  private void succeed(final int calls) {
+    for (int i = 0; i < calls; i++) {
+      assertTrue(breaker.tryAcquire());
+      breaker.onSuccess(0);
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.breaker;
+
+import com.metrobank.communicationhub.exception.RestProxyServiceUnavailableException;
+import com.mongodb.MongoExecutionTimeoutException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.metrobank.communicationhub.util.CommsHubConstants.STALE_RESPONSE_WARNING;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MongoReadsTest {
+  private static final String READ = MongoReads.PREFERENCES;
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final MockHttpServletResponse response = new MockHttpServletResponse();
+  private final AtomicInteger queries = new AtomicInteger();
+  private final MongoReads mongoReads = new MongoReads(meterRegistry);
+
+  @BeforeEach
+  void setUp() {
+    mongoReads.minimumCalls = 2;
+    mongoReads.windowSize = 2;
+    mongoReads.openDuration = Duration.ofMinutes(1);
+    mongoReads.init();
+    RequestContextHolder.setRequestAttributes(
+        new ServletRequestAttributes(new MockHttpServletRequest(), response));
+  }
+
+  @AfterEach
+  void tearDown() {
+    RequestContextHolder.resetRequestAttributes();
+    mongoReads.destroy();
+  }
+
+  @DisplayName("Mongo Reads :: a failed read answers with the last result, marked stale")
+  @Test
+  void read_failedServesStale() {
+    // Given:
+    mongoReads.failureRateThreshold = 100;
+    assertEquals("fresh", read("key", () -> "fresh"));
+    assertNull(response.getHeader(HttpHeaders.WARNING));
+
+    // When:
+    final String value = read("key", this::timeout);
+
+    // Then:
+    assertEquals("fresh", value);
+    assertEquals("0", response.getHeader(HttpHeaders.AGE));
+    assertEquals(STALE_RESPONSE_WARNING, response.getHeader(HttpHeaders.WARNING));
+    assertThrows(MongoExecutionTimeoutException.class, () -> read("other", this::timeout));
+    assertEquals(
+        1.0,
+        meterRegistry.get("restproxy.mongo.breaker.stale").tag("read", READ).counter().count());
+  }
+
+  @DisplayName("Mongo Reads :: an open breaker stops querying, failing fast without a stale result")
+  @Test
+  void read_openBreaker() {
+    // Given:
+    read("key", () -> "fresh");
+    assertThrows(
+        DataAccessResourceFailureException.class,
+        () ->
+            read(
+                "other",
+                () -> {
+                  throw new DataAccessResourceFailureException("Mongo down");
+                }));
+    assertEquals(CircuitBreaker.State.OPEN, mongoReads.state(READ));
+
+    // When:
+    final String value = read("key", () -> "fresh again");
+    final RestProxyServiceUnavailableException exception =
+        assertThrows(RestProxyServiceUnavailableException.class, () -> read("other", () -> "x"));
+
+    // Then:
+    assertEquals("fresh", value);
+    assertEquals(60, exception.getRetryAfterSeconds());
+    assertEquals(2, queries.get());
+    assertEquals(
+        1.0,
+        meterRegistry.get("restproxy.mongo.breaker.rejected").tag("read", READ).counter().count());
+  }
+
+  @DisplayName("Mongo Reads :: once the breaker may probe, stale reads revalidate in the background")
+  @Test
+  void read_revalidates() throws InterruptedException {
+    // Given:
+    mongoReads.openDuration = Duration.ZERO;
+    read("key", () -> "fresh");
+    assertThrows(MongoExecutionTimeoutException.class, () -> read("other", this::timeout));
+    assertEquals(CircuitBreaker.State.OPEN, mongoReads.state(READ));
+
+    // When:
+    final String value = read("key", () -> "revalidated");
+
+    // Then:
+    assertEquals("fresh", value);
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (mongoReads.state(READ) != CircuitBreaker.State.CLOSED && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(CircuitBreaker.State.CLOSED, mongoReads.state(READ));
+    assertEquals("revalidated", read("key", () -> "revalidated"));
+    assertEquals(4, queries.get());
+  }
+
+  private String read(final String key, final Supplier<String> query) {
+    return mongoReads.read(
+        READ,
+        key,
+        () -> {
+          queries.incrementAndGet();
+          return query.get();
+        });
+  }
+
+  private String timeout() {
+    throw new MongoExecutionTimeoutException(50, "operation exceeded time limit");
+  }
+}
@@ -0,0 +1,116 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.bulkhead;
+
+import com.metrobank.communicationhub.controller.RestProxyController;
+import com.metrobank.communicationhub.exception.RestProxyTooManyRequestsException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+
+import javax.servlet.DispatcherType;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkheadInterceptorTest {
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final MockHttpServletResponse response = new MockHttpServletResponse();
+  private final BulkheadInterceptor interceptor = new BulkheadInterceptor(meterRegistry);
+
+  @BeforeEach
+  void setUp() {
+    interceptor.readsMaxConcurrent = 1;
+    interceptor.writesMaxConcurrent = 2;
+    interceptor.init();
+  }
+
+  @DisplayName("Bulkhead :: handlers take the group of their method, else of their controller")
+  @Test
+  void group_byAnnotation() {
+    assertEquals(Bulkhead.Group.READS, BulkheadInterceptor.group(handler("getRegistration")));
+    assertEquals(Bulkhead.Group.READS, BulkheadInterceptor.group(handler("getPreference")));
+    assertEquals(Bulkhead.Group.WRITES, BulkheadInterceptor.group(handler("send")));
+    assertEquals(Bulkhead.Group.WRITES, BulkheadInterceptor.group(handler("registerConfirmed")));
+    assertNull(BulkheadInterceptor.group(new Object()));
+  }
+
+  @DisplayName("Bulkhead :: a full group refuses with 429 while the other still admits")
+  @Test
+  void preHandle_fullGroup() throws Exception {
+    // Given:
+    final MockHttpServletRequest slowRead = new MockHttpServletRequest();
+    interceptor.preHandle(slowRead, response, handler("getRegistration"));
+
+    // When:
+    final RestProxyTooManyRequestsException exception =
+        assertThrows(
+            RestProxyTooManyRequestsException.class,
+            () ->
+                interceptor.preHandle(
+                    new MockHttpServletRequest(), response, handler("getPreference")));
+
+    // Then:
+    assertEquals(1, exception.getRetryAfterSeconds());
+    assertTrue(interceptor.preHandle(new MockHttpServletRequest(), response, handler("send")));
+    assertEquals(1, interceptor.active(Bulkhead.Group.READS));
+    assertEquals(1, interceptor.active(Bulkhead.Group.WRITES));
+    assertEquals(
+        1.0,
+        meterRegistry.get("restproxy.bulkhead.rejected").tag("group", "reads").counter().count());
+    assertEquals(
+        1.0, meterRegistry.get("restproxy.bulkhead.active").tag("group", "reads").gauge().value());
+
+    interceptor.afterCompletion(slowRead, response, handler("getRegistration"), null);
+    assertEquals(0, interceptor.active(Bulkhead.Group.READS));
+  }
+
+  @DisplayName("Bulkhead :: asynchronous handlers give their permit back once, when they go async")
+  @Test
+  void afterConcurrentHandlingStarted_releases() throws Exception {
+    // Given:
+    final MockHttpServletRequest request = new MockHttpServletRequest();
+    final HandlerMethod handler = handler("sendConfirmed");
+    interceptor.preHandle(request, response, handler);
+
+    // When:
+    interceptor.afterConcurrentHandlingStarted(request, response, handler);
+    request.setDispatcherType(DispatcherType.ASYNC);
+    interceptor.preHandle(request, response, handler);
+    interceptor.afterCompletion(request, response, handler, null);
+
+    // Then:
+    assertEquals(0, interceptor.active(Bulkhead.Group.WRITES));
+  }
+
+  @DisplayName("Bulkhead :: disabled bulkheads admit everything")
+  @Test
+  void preHandle_disabled() throws Exception {
+    interceptor.enabled = false;
+    for (int i = 0; i < 3; i++) {
+      assertTrue(
+          interceptor.preHandle(new MockHttpServletRequest(), response, handler("getPreference")));
+    }
+    assertEquals(0, interceptor.active(Bulkhead.Group.READS));
+  }
+
+  private static HandlerMethod handler(final String name) {
+    return new HandlerMethod(
+        new Object(),
+        Arrays.stream(RestProxyController.class.getMethods())
+            .filter(method -> method.getName().equals(name))
+            .findFirst()
+            .orElseThrow()) {
+      @Override
+      public Class<?> getBeanType() {
+        return RestProxyController.class;
+      }
+    };
+  }
+}
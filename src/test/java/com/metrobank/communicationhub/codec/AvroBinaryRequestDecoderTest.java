@@ -0,0 +1,210 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.codec;
+
+import com.metrobank.communicationhub.schema.CommsPreference;
+import com.metrobank.communicationhub.schema.RegistrationAvroRequest;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
+import io.confluent.kafka.schemaregistry.avro.AvroSchema;
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.metrobank.communicationhub.util.Constant.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AvroBinaryRequestDecoderTest {
+  private static final SendAvroRequest SEND =
+      SendAvroRequest.newBuilder()
+          .setCommsType("MOBILE_PUSH")
+          .setMessageType("PAYMENT_SEPA")
+          .setEmail(EMAIL)
+          .setMobileNo(MOBILE_NO)
+          .setTemplateId("payment-received")
+          .setTemplateParams(List.of("John", "125.50"))
+          .setCustomerId(999)
+          .build();
+
+  private MockSchemaRegistryClient schemaRegistryClient;
+  private AvroBinaryRequestDecoder decoder;
+  private int sendSchemaId;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    schemaRegistryClient = new MockSchemaRegistryClient();
+    sendSchemaId =
+        schemaRegistryClient.register("send-value", new AvroSchema(SendAvroRequest.getClassSchema()));
+    decoder =
+        new AvroBinaryRequestDecoder(
+            schemaRegistryClient, Validation.buildDefaultValidatorFactory().getValidator());
+  }
+
+  @DisplayName("Avro Decoder :: wire format body into the Avro record")
+  @Test
+  void decodeSend_wireFormat() throws Exception {
+    // Given: a record in the wire format, with a customerId the sender should not set
+    final byte[] body = wireFormat(sendSchemaId, encode(SEND.getSchema(), SEND));
+
+    // When:
+    final DecodedRequest<SendAvroRequest> decoded = decoder.decodeSend(stream(body), null);
+
+    // Then:
+    assertFalse(decoded.hasViolation());
+    final SendAvroRequest request = decoded.getValue();
+    assertEquals("MOBILE_PUSH", request.getCommsType().toString());
+    assertEquals(EMAIL, request.getEmail().toString());
+    assertEquals("payment-received", request.getTemplateId().toString());
+    assertEquals(List.of("John", "125.50"), request.getTemplateParams());
+    assertNull(request.getCustomerId());
+  }
+
+  @DisplayName("Avro Decoder :: bare encoding with the schema id from the content type")
+  @Test
+  void decodePreference_schemaHint() throws Exception {
+    // Given:
+    final int schemaId =
+        schemaRegistryClient.register(
+            "preference-value", new AvroSchema(CommsPreference.getClassSchema()));
+    final byte[] body = encode(COMMS_PREFERENCE.getSchema(), COMMS_PREFERENCE);
+
+    // When:
+    final DecodedRequest<CommsPreference> decoded =
+        decoder.decodePreference(stream(body), schemaId);
+
+    // Then:
+    assertFalse(decoded.hasViolation());
+    final CommsPreference request = decoded.getValue();
+    assertEquals(DEVICE_ID, request.getDeviceId().toString());
+    assertEquals("enabled", request.getPreferences().get(0).getKey().toString());
+    assertNull(request.getIbId());
+    assertNull(request.getCustomerId());
+    assertNull(request.getMethod());
+  }
+
+  @DisplayName("Avro Decoder :: older writer schemas are resolved against the record's")
+  @Test
+  void decodeSend_resolvesWriterSchema() throws Exception {
+    // Given: a writer without the email and mobile fields and with one the record does not have
+    final Schema writer = olderSendSchema();
+    final int schemaId = schemaRegistryClient.register("send-value", new AvroSchema(writer));
+    final GenericRecord record = new GenericData.Record(writer);
+    record.put("commsType", "SMS");
+    record.put("messageType", "PAYMENT_SEPA");
+    record.put("templateId", "t");
+    record.put("channel", "batch");
+
+    // When:
+    final DecodedRequest<SendAvroRequest> decoded =
+        decoder.decodeSend(stream(wireFormat(schemaId, encode(writer, record))), null);
+
+    // Then:
+    assertFalse(decoded.hasViolation());
+    assertEquals("SMS", decoded.getValue().getCommsType().toString());
+    assertNull(decoded.getValue().getEmail());
+  }
+
+  @DisplayName("Avro Decoder :: reports the DTO constraint messages")
+  @Test
+  void decodeRegistration_violation() throws Exception {
+    // Given:
+    final int schemaId =
+        schemaRegistryClient.register(
+            "register-value", new AvroSchema(RegistrationAvroRequest.getClassSchema()));
+    final RegistrationAvroRequest request =
+        RegistrationAvroRequest.newBuilder(REGISTRATION_AVRO_REQUEST).setMobileNo("12345").build();
+
+    // When:
+    final DecodedRequest<RegistrationAvroRequest> decoded =
+        decoder.decodeRegistration(
+            stream(wireFormat(schemaId, encode(request.getSchema(), request))), null);
+
+    // Then:
+    assertEquals("Invalid Input", decoded.getViolation());
+  }
+
+  @DisplayName("Avro Decoder :: rejects bodies that are not valid Avro for their schema")
+  @Test
+  void decodeSend_unreadable() throws Exception {
+    final byte[] encoded = encode(SEND.getSchema(), SEND);
+    final SendAvroRequest fax = SendAvroRequest.newBuilder(SEND).setCommsType("FAX").build();
+
+    // No wire format header and no schema id
+    assertThrows(IllegalArgumentException.class, () -> decoder.decodeSend(stream(encoded), null));
+    // Unknown schema id
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> decoder.decodeSend(stream(wireFormat(sendSchemaId + 100, encoded)), null));
+    // Truncated and trailing bytes
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> decoder.decodeSend(stream(Arrays.copyOf(encoded, encoded.length - 3)), sendSchemaId));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> decoder.decodeSend(stream(Arrays.copyOf(encoded, encoded.length + 1)), sendSchemaId));
+    // A comms type the DTO enum does not have
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> decoder.decodeSend(stream(encode(fax.getSchema(), fax)), sendSchemaId));
+  }
+
+  @DisplayName("Avro Decoder :: lengths longer than the body are rejected before allocating")
+  @Test
+  void decodeSend_oversizedLength() throws Exception {
+    // Given: the string branch of commsType, then a length of 1 GiB in zig-zag varint form
+    final int schemaId =
+        schemaRegistryClient.register("send-value", new AvroSchema(olderSendSchema()));
+    final byte[] body = {2, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08};
+
+    // When: Then:
+    assertThrows(IllegalArgumentException.class, () -> decoder.decodeSend(stream(body), schemaId));
+  }
+
+  private static Schema olderSendSchema() {
+    return SchemaBuilder.record("SendAvroRequest")
+        .namespace(SendAvroRequest.getClassSchema().getNamespace())
+        .fields()
+        .optionalString("commsType")
+        .optionalString("messageType")
+        .optionalString("templateId")
+        .optionalString("channel")
+        .endRecord();
+  }
+
+  private static byte[] encode(final Schema schema, final Object record) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+    new GenericDatumWriter<>(schema).write(record, encoder);
+    encoder.flush();
+    return out.toByteArray();
+  }
+
+  private static byte[] wireFormat(final int schemaId, final byte[] encoded) {
+    return ByteBuffer.allocate(1 + Integer.BYTES + encoded.length)
+        .put((byte) 0)
+        .putInt(schemaId)
+        .put(encoded)
+        .array();
+  }
+
+  private static ByteArrayInputStream stream(final byte[] body) {
+    return new ByteArrayInputStream(body);
+  }
+}
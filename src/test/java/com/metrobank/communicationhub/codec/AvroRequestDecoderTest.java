@@ -0,0 +1,215 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.codec;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import com.metrobank.communicationhub.model.request.PreferenceRequest;
+import com.metrobank.communicationhub.model.request.RegistrationRequest;
+import com.metrobank.communicationhub.model.request.SendRequest;
+import com.metrobank.communicationhub.schema.CommsPreference;
+import com.metrobank.communicationhub.schema.RegistrationAvroRequest;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.metrobank.communicationhub.util.Constant.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AvroRequestDecoderTest {
+  private static final String SEND_JSON =
+      "{\"commsType\":\"MOBILE_PUSH\",\"email\":\"test@gmail.com\",\"messageType\":\"PAYMENT_SEPA\","
+          + "\"mobileNo\":\"9234567890\",\"templateId\":\"payment-received\","
+          + "\"templateParams\":[\"John\",\"125.50\"]}";
+  private static final String REGISTRATION_JSON =
+      "{\"deviceToken\":\"abc123ed\",\"deviceType\":\"ANDROID\",\"commsType\":\"MOBILE_PUSH\","
+          + "\"email\":\"test@gmail.com\",\"mobileNo\":\"9234567890\"}";
+  private static final String PREFERENCE_JSON =
+      "{\"commsType\":\"MOBILE_PUSH\",\"messageType\":\"PAYMENT_SEPA\",\"deviceId\":\"abc123ed\","
+          + "\"preferences\":[{\"key\":\"push\",\"value\":\"true\"}]}";
+
+  private final ObjectMapper objectMapper =
+      Jackson2ObjectMapperBuilder.json()
+          .modulesToInstall(new ParameterNamesModule(JsonCreator.Mode.DEFAULT))
+          .build();
+  private final Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+  private final AvroRequestDecoder decoder = new AvroRequestDecoder(objectMapper, validator);
+
+  @DisplayName("Decoder :: send body into the Avro record")
+  @Test
+  void decodeSend_validRequest() {
+    final DecodedRequest<SendAvroRequest> decoded = decoder.decodeSend(body(SEND_JSON));
+
+    assertFalse(decoded.hasViolation());
+    final SendAvroRequest request = decoded.getValue();
+    assertEquals("MOBILE_PUSH", request.getCommsType().toString());
+    assertEquals(EMAIL, request.getEmail().toString());
+    assertEquals("PAYMENT_SEPA", request.getMessageType().toString());
+    assertEquals(MOBILE_NO, request.getMobileNo().toString());
+    assertEquals("payment-received", request.getTemplateId().toString());
+    assertEquals(List.of("John", "125.50"), request.getTemplateParams());
+    assertNull(request.getCustomerId());
+  }
+
+  @DisplayName("Decoder :: registration body into the Avro record")
+  @Test
+  void decodeRegistration_validRequest() {
+    final DecodedRequest<RegistrationAvroRequest> decoded =
+        decoder.decodeRegistration(body(REGISTRATION_JSON));
+
+    assertFalse(decoded.hasViolation());
+    final RegistrationAvroRequest request = decoded.getValue();
+    assertEquals(DEVICE_TOKEN, request.getToken().toString());
+    assertEquals(DEVICE_TYPE, request.getDeviceType().toString());
+    assertEquals("MOBILE_PUSH", request.getCommsType().toString());
+    assertEquals(EMAIL, request.getEmail().toString());
+    assertEquals(MOBILE_NO, request.getMobileNo().toString());
+  }
+
+  @DisplayName("Decoder :: preference body into the Avro record")
+  @Test
+  void decodePreference_validRequest() {
+    final DecodedRequest<CommsPreference> decoded =
+        decoder.decodePreference(body(PREFERENCE_JSON));
+
+    assertFalse(decoded.hasViolation());
+    final CommsPreference request = decoded.getValue();
+    assertEquals("MOBILE_PUSH", request.getCommsType().toString());
+    assertEquals("PAYMENT_SEPA", request.getMessageType().toString());
+    assertEquals(DEVICE_ID, request.getDeviceId().toString());
+    assertEquals(1, request.getPreferences().size());
+    assertEquals("push", request.getPreferences().get(0).getKey().toString());
+    assertEquals("true", request.getPreferences().get(0).getValue().toString());
+  }
+
+  @DisplayName("Decoder :: reports the DTO constraint messages")
+  @Test
+  void decode_violations() {
+    assertEquals(
+        "Missing Data",
+        decoder.decodeSend(body(SEND_JSON.replace("\"templateId\"", "\"other\""))).getViolation());
+    assertEquals(
+        "Invalid email format",
+        decoder.decodeSend(body(SEND_JSON.replace(EMAIL, "not-an-email"))).getViolation());
+    assertEquals(
+        "Invalid Input",
+        decoder.decodeRegistration(body(REGISTRATION_JSON.replace(MOBILE_NO, "12345")))
+            .getViolation());
+    assertEquals(
+        "Missing Data",
+        decoder.decodePreference(body("{\"commsType\":\"SMS\",\"messageType\":\"PAYMENT_SEPA\"}"))
+            .getViolation());
+  }
+
+  @DisplayName("Decoder :: rejects bodies Jackson cannot bind")
+  @Test
+  void decode_unreadable() {
+    assertThrows(IllegalArgumentException.class, () -> decoder.decodeSend(body("")));
+    assertThrows(IllegalArgumentException.class, () -> decoder.decodeSend(body("{\"commsType\":")));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> decoder.decodeSend(body(SEND_JSON.replace("MOBILE_PUSH", "FAX"))));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> decoder.decodePreference(body(PREFERENCE_JSON.replace("{\"key\"", "null,{\"key\""))));
+  }
+
+  @DisplayName("Decoder :: accepts and rejects the same bodies as the DTO path")
+  @Test
+  void decode_matchesDtoPath() {
+    final List<String> sendBodies =
+        List.of(
+            SEND_JSON,
+            "{\"commsType\":\"SMS\",\"messageType\":\"PAYMENT_SEPA\",\"templateId\":\"t\"}",
+            "{\"commsType\":1,\"messageType\":0,\"templateId\":42,\"templateParams\":[null,\"a\"]}",
+            "{\"extra\":{\"nested\":[1,{\"a\":2}]},\"commsType\":\"EMAIL\",\"messageType\":\"PAYMENT_SEPA\",\"templateId\":\"t\"}",
+            "{\"commsType\":\"EMAIL\",\"email\":null,\"messageType\":\"PAYMENT_SEPA\",\"templateId\":\"t\"}",
+            SEND_JSON.replace("\"commsType\":\"MOBILE_PUSH\",", ""),
+            SEND_JSON.replace(EMAIL, "a@b@c"),
+            SEND_JSON.replace(EMAIL, "a..b@c.com"),
+            SEND_JSON.replace(EMAIL, "a@localhost"),
+            SEND_JSON.replace(EMAIL, "first.last+tag@mail.example.co.uk"),
+            SEND_JSON.replace(MOBILE_NO, "92345678901"),
+            SEND_JSON.replace(MOBILE_NO, "923456789a"),
+            SEND_JSON.replace("MOBILE_PUSH", "FAX"),
+            SEND_JSON.replace("\"MOBILE_PUSH\"", "7"),
+            SEND_JSON.replace("[\"John\",\"125.50\"]", "\"John\""),
+            SEND_JSON.replace("\"payment-received\"", "{}"),
+            "[]",
+            "{\"commsType\":");
+    for (String body : sendBodies) {
+      assertSameOutcome(body, SendRequest.class, decoder::decodeSend);
+    }
+
+    final List<String> registrationBodies =
+        List.of(
+            REGISTRATION_JSON,
+            REGISTRATION_JSON.replace("\"deviceToken\":\"abc123ed\",", ""),
+            REGISTRATION_JSON.replace("ANDROID", "WINDOWS"),
+            REGISTRATION_JSON.replace(EMAIL, "not-an-email"),
+            REGISTRATION_JSON.replace(MOBILE_NO, "12345"));
+    for (String body : registrationBodies) {
+      assertSameOutcome(body, RegistrationRequest.class, decoder::decodeRegistration);
+    }
+
+    final List<String> preferenceBodies =
+        List.of(
+            PREFERENCE_JSON,
+            PREFERENCE_JSON.replace(",\"deviceId\":\"abc123ed\"", ""),
+            "{\"commsType\":\"SMS\",\"messageType\":\"PAYMENT_SEPA\",\"preferences\":[]}",
+            "{\"commsType\":\"SMS\",\"messageType\":\"PAYMENT_SEPA\",\"preferences\":null}",
+            "{\"commsType\":\"SMS\",\"messageType\":\"PAYMENT_SEPA\",\"preferences\":\"all\"}",
+            PREFERENCE_JSON.replace("\"push\"", "{\"k\":1}"));
+    for (String body : preferenceBodies) {
+      assertSameOutcome(body, PreferenceRequest.class, decoder::decodePreference);
+    }
+  }
+
+  /**
+   * Bean Validation reports violations in no particular order, so the decoder's must be one of
+   * those the DTO path found.
+   */
+  private <T> void assertSameOutcome(
+      final String body,
+      final Class<T> requestType,
+      final Function<InputStream, DecodedRequest<?>> decode) {
+    final Set<String> expected;
+    try {
+      final T request = objectMapper.readValue(body, requestType);
+      expected =
+          validator.validate(request).stream()
+              .map(ConstraintViolation::getMessage)
+              .collect(Collectors.toSet());
+    } catch (Exception e) {
+      assertThrows(IllegalArgumentException.class, () -> decode.apply(body(body)), body);
+      return;
+    }
+
+    final DecodedRequest<?> decoded = decode.apply(body(body));
+    if (expected.isEmpty()) {
+      assertNull(decoded.getViolation(), body);
+    } else {
+      assertTrue(expected.contains(decoded.getViolation()), body + " -> " + expected);
+    }
+  }
+
+  private static InputStream body(final String json) {
+    return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+  }
+}
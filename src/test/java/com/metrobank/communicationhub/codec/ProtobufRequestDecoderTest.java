@@ -0,0 +1,169 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.codec;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.metrobank.communicationhub.schema.CommsPreference;
+import com.metrobank.communicationhub.schema.RegistrationAvroRequest;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static com.metrobank.communicationhub.util.Constant.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ProtobufRequestDecoderTest {
+  private final ProtobufRequestDecoder decoder =
+      new ProtobufRequestDecoder(Validation.buildDefaultValidatorFactory().getValidator());
+
+  @DisplayName("Protobuf Decoder :: send message into the Avro record")
+  @Test
+  void decodeSend_validRequest() throws Exception {
+    // Given: the fields out of order, with a field the proxy does not know
+    final byte[] body =
+        message(
+            out -> {
+              out.writeString(5, "payment-received");
+              out.writeString(1, "MOBILE_PUSH");
+              out.writeString(3, "PAYMENT_SEPA");
+              out.writeString(2, EMAIL);
+              out.writeString(4, MOBILE_NO);
+              out.writeString(6, "John");
+              out.writeString(6, "");
+              out.writeInt64(99, 42L);
+            });
+
+    // When:
+    final DecodedRequest<SendAvroRequest> decoded = decoder.decodeSend(stream(body));
+
+    // Then:
+    assertFalse(decoded.hasViolation());
+    final SendAvroRequest request = decoded.getValue();
+    assertEquals("MOBILE_PUSH", request.getCommsType().toString());
+    assertEquals(EMAIL, request.getEmail().toString());
+    assertEquals("PAYMENT_SEPA", request.getMessageType().toString());
+    assertEquals(MOBILE_NO, request.getMobileNo().toString());
+    assertEquals("payment-received", request.getTemplateId().toString());
+    assertEquals(List.of("John", ""), request.getTemplateParams());
+  }
+
+  @DisplayName("Protobuf Decoder :: registration message into the Avro record")
+  @Test
+  void decodeRegistration_validRequest() throws Exception {
+    // Given:
+    final byte[] body =
+        message(
+            out -> {
+              out.writeString(1, DEVICE_TOKEN);
+              out.writeString(2, DEVICE_TYPE);
+              out.writeString(3, "MOBILE_PUSH");
+            });
+
+    // When:
+    final DecodedRequest<RegistrationAvroRequest> decoded =
+        decoder.decodeRegistration(stream(body));
+
+    // Then:
+    assertFalse(decoded.hasViolation());
+    assertEquals(DEVICE_TOKEN, decoded.getValue().getToken().toString());
+    assertEquals(DEVICE_TYPE, decoded.getValue().getDeviceType().toString());
+    assertNull(decoded.getValue().getEmail());
+  }
+
+  @DisplayName("Protobuf Decoder :: preference message into the Avro record")
+  @Test
+  void decodePreference_validRequest() throws Exception {
+    // Given:
+    final byte[] preference =
+        message(
+            out -> {
+              out.writeString(1, "push");
+              out.writeString(2, "true");
+            });
+    final byte[] body =
+        message(
+            out -> {
+              out.writeString(1, "MOBILE_PUSH");
+              out.writeString(2, "PAYMENT_SEPA");
+              out.writeString(3, DEVICE_ID);
+              out.writeBytes(4, ByteString.copyFrom(preference));
+            });
+
+    // When:
+    final DecodedRequest<CommsPreference> decoded = decoder.decodePreference(stream(body));
+
+    // Then:
+    assertFalse(decoded.hasViolation());
+    final CommsPreference request = decoded.getValue();
+    assertEquals(DEVICE_ID, request.getDeviceId().toString());
+    assertEquals(1, request.getPreferences().size());
+    assertEquals("push", request.getPreferences().get(0).getKey().toString());
+    assertEquals("true", request.getPreferences().get(0).getValue().toString());
+  }
+
+  @DisplayName("Protobuf Decoder :: empty strings are unset fields")
+  @Test
+  void decode_violations() throws Exception {
+    // Given:
+    final byte[] send =
+        message(
+            out -> {
+              out.writeString(1, "SMS");
+              out.writeString(3, "PAYMENT_SEPA");
+              out.writeString(5, "");
+            });
+    final byte[] registration =
+        message(
+            out -> {
+              out.writeString(1, DEVICE_TOKEN);
+              out.writeString(2, DEVICE_TYPE);
+              out.writeString(3, "SMS");
+              out.writeString(5, "12345");
+            });
+
+    // When: Then:
+    assertEquals("Missing Data", decoder.decodeSend(stream(send)).getViolation());
+    assertEquals("Invalid Input", decoder.decodeRegistration(stream(registration)).getViolation());
+  }
+
+  @DisplayName("Protobuf Decoder :: rejects bodies that are not valid Protobuf")
+  @Test
+  void decode_unreadable() throws Exception {
+    final byte[] wrongWireType = message(out -> out.writeInt32(1, 2));
+    final byte[] unknownEnum = message(out -> out.writeString(1, "FAX"));
+    final byte[] truncated = {0x0a, 0x10, 'S', 'M', 'S'};
+    final byte[] truncatedPreference = {0x22, 0x7f};
+
+    assertThrows(IllegalArgumentException.class, () -> decoder.decodeSend(stream(wrongWireType)));
+    assertThrows(IllegalArgumentException.class, () -> decoder.decodeSend(stream(unknownEnum)));
+    assertThrows(IllegalArgumentException.class, () -> decoder.decodeSend(stream(truncated)));
+    assertThrows(
+        IllegalArgumentException.class, () -> decoder.decodePreference(stream(truncatedPreference)));
+  }
+
+  private static byte[] message(final Fields fields) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+    fields.write(out);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static ByteArrayInputStream stream(final byte[] body) {
+    return new ByteArrayInputStream(body);
+  }
+
+  @FunctionalInterface
+  private interface Fields {
+    void write(CodedOutputStream out) throws IOException;
+  }
+}
@@ -0,0 +1,55 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.codec;
+
+import com.metrobank.communicationhub.model.request.CommsType;
+import com.metrobank.communicationhub.model.request.SendRequest;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.util.List;
+
+import static com.metrobank.communicationhub.util.Constant.EMAIL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestConstraintsTest {
+  private final Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+
+  @DisplayName("Constraints :: plain addresses are ones @Email accepts, the rest go to the validator")
+  @Test
+  void isPlainAddress_agreesWithValidator() {
+    final List<String> plain =
+        List.of(EMAIL, "first.last+tag@mail.example.co.uk", "a_b%c-d@x-y.io", "1@2.3");
+    for (String email : plain) {
+      assertTrue(RequestConstraints.isPlainAddress(email), email);
+      assertTrue(validator.validateValue(SendRequest.class, "email", email).isEmpty(), email);
+    }
+
+    final List<String> other =
+        List.of(
+            "not-an-email", ".a@b.com", "a.@b.com", "a..b@c.com", "a@b", "a@-b.com", "a@b-.com",
+            "a@b..com", "a@b.com.", "a@b@c.com", "\"a b\"@c.com", "j\u00fcrgen@example.com",
+            "a@[127.0.0.1]", "x".repeat(65) + "@b.com");
+    for (String email : other) {
+      assertFalse(RequestConstraints.isPlainAddress(email), email);
+    }
+  }
+
+  @DisplayName("Constraints :: enum names must be those of the DTO enum")
+  @Test
+  void constantName_checksTheDtoEnum() {
+    final CommsType[] constants = CommsType.values();
+
+    assertEquals("SMS", RequestConstraints.constantName(new StringBuilder("SMS"), constants));
+    assertNull(RequestConstraints.constantName(null, constants));
+    assertThrows(
+        IllegalArgumentException.class, () -> RequestConstraints.constantName("FAX", constants));
+    assertThrows(
+        IllegalArgumentException.class, () -> RequestConstraints.constantName("sms", constants));
+  }
+}
@@ -0,0 +1,69 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.codec;
+
+import com.metrobank.communicationhub.exception.RestProxyPayloadTooLargeException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SizeLimitedInputStreamTest {
+
+  @DisplayName("Size Limit :: reads a body of exactly the limit")
+  @Test
+  void readAllBytes_atLimit() throws IOException {
+    // Given:
+    final InputStream body = new SizeLimitedInputStream(body(16), 16);
+
+    // When:
+    final byte[] bytes = body.readAllBytes();
+
+    // Then:
+    assertEquals(16, bytes.length);
+  }
+
+  @DisplayName("Size Limit :: fails a body one byte over the limit")
+  @Test
+  void readAllBytes_overLimit() {
+    // Given:
+    final InputStream body = new SizeLimitedInputStream(body(17), 16);
+
+    // When: Then:
+    assertThrows(RestProxyPayloadTooLargeException.class, body::readAllBytes);
+  }
+
+  @DisplayName("Size Limit :: stops a large body without reading it whole")
+  @Test
+  void read_stopsPastLimit() {
+    // Given:
+    final ByteArrayInputStream source = body(1 << 20);
+    final InputStream body = new SizeLimitedInputStream(source, 16);
+
+    // When:
+    assertThrows(RestProxyPayloadTooLargeException.class, () -> body.read(new byte[8192]));
+
+    // Then: no more than the limit and the byte telling the body is over it
+    assertEquals((1 << 20) - 17, source.available());
+  }
+
+  @DisplayName("Size Limit :: counts bytes read one at a time")
+  @Test
+  void read_singleBytes() throws IOException {
+    // Given:
+    final InputStream body = new SizeLimitedInputStream(body(3), 2);
+    body.read();
+    body.read();
+
+    // When: Then:
+    assertThrows(RestProxyPayloadTooLargeException.class, body::read);
+  }
+
+  private static ByteArrayInputStream body(final int length) {
+    return new ByteArrayInputStream(new byte[length]);
+  }
+}
@@ -0,0 +1,42 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.config;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+
+import java.util.Set;
+
+import static com.metrobank.communicationhub.codec.RequestBodyDecoder.APPLICATION_AVRO_VALUE;
+import static com.metrobank.communicationhub.codec.RequestBodyDecoder.APPLICATION_PROTOBUF_VALUE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RequestDecodingConfigurationTest {
+
+  @DisplayName("Request Decoding :: unselected handlers keep only their binary content types")
+  @Test
+  void withoutJson() {
+    // Given:
+    final RequestMappingInfo direct =
+        RequestMappingInfo.paths("comms/v1/send")
+            .consumes(
+                MediaType.APPLICATION_JSON_VALUE, APPLICATION_AVRO_VALUE, APPLICATION_PROTOBUF_VALUE)
+            .build();
+    final RequestMappingInfo jsonOnly =
+        RequestMappingInfo.paths("comms/v1/send").consumes(MediaType.APPLICATION_JSON_VALUE).build();
+    final RequestMappingInfo any = RequestMappingInfo.paths("comms/v1/send").build();
+
+    // When:
+    final RequestMappingInfo binary = RequestDecodingConfiguration.withoutJson(direct);
+
+    // Then:
+    assertEquals(
+        Set.of(MediaType.valueOf(APPLICATION_AVRO_VALUE), MediaType.valueOf(APPLICATION_PROTOBUF_VALUE)),
+        binary.getConsumesCondition().getConsumableMediaTypes());
+    assertEquals(direct.getPatternValues(), binary.getPatternValues());
+    assertNull(RequestDecodingConfiguration.withoutJson(jsonOnly));
+    assertNull(RequestDecodingConfiguration.withoutJson(any));
+  }
+}
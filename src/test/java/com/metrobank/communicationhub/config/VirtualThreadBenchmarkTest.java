@@ -0,0 +1,158 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.config;
+
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServer;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares Tomcat's bounded platform thread pool with virtual thread mode at 5k concurrent
+ * connections. Each request blocks for a fixed time, standing in for a MongoDB lookup, so
+ * throughput on the platform pool is capped at threads / latency while virtual threads are not.
+ * Run with {@code mvn test -Pbenchmark}.
+ */
+@Log4j2
+@Tag("benchmark")
+class VirtualThreadBenchmarkTest {
+  private static final int CONNECTIONS = 5000;
+  private static final int PLATFORM_THREADS = 200;
+  private static final long BLOCKING_MS = 500;
+  private static final byte[] REQUEST =
+      "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+  @DisplayName("Benchmark :: platform thread pool vs virtual threads at 5k concurrent connections")
+  @Test
+  void platformVersusVirtualThreads() throws Exception {
+    final Result platform = run(false);
+    final Result virtual = run(true);
+
+    log.info(
+        "{} connections, {} ms blocking per request, {} platform threads",
+        CONNECTIONS,
+        BLOCKING_MS,
+        PLATFORM_THREADS);
+    log.info("platform: {}", platform);
+    log.info("virtual:  {}", virtual);
+  }
+
+  private Result run(final boolean virtualThreads) throws Exception {
+    final TomcatServletWebServerFactory factory = new TomcatServletWebServerFactory(0);
+    factory.addConnectorCustomizers(
+        connector -> {
+          connector.setProperty("maxThreads", String.valueOf(PLATFORM_THREADS));
+          connector.setProperty("maxConnections", String.valueOf(CONNECTIONS * 2));
+          connector.setProperty("acceptCount", String.valueOf(CONNECTIONS));
+        });
+    if (virtualThreads) {
+      factory.addProtocolHandlerCustomizers(
+          new VirtualThreadConfiguration().virtualThreadProtocolHandlerCustomizer());
+    }
+    final WebServer server =
+        factory.getWebServer(
+            context -> context.addServlet("blocking", new BlockingServlet()).addMapping("/"));
+    server.start();
+    final Socket[] sockets = new Socket[CONNECTIONS];
+    try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < CONNECTIONS; i++) {
+        sockets[i] = new Socket("localhost", server.getPort());
+      }
+      // The first round warms up the server, the second one is measured
+      round(clients, sockets);
+      return round(clients, sockets);
+    } finally {
+      for (Socket socket : sockets) {
+        if (socket != null) {
+          socket.close();
+        }
+      }
+      server.stop();
+    }
+  }
+
+  /** Sends one keep-alive request down every connection at once. */
+  private Result round(final ExecutorService clients, final Socket[] sockets) throws Exception {
+    final long start = System.nanoTime();
+    final List<Future<Long>> latencies = new ArrayList<>(CONNECTIONS);
+    for (Socket socket : sockets) {
+      latencies.add(clients.submit(() -> exchange(socket)));
+    }
+    final long[] nanos = new long[CONNECTIONS];
+    for (int i = 0; i < CONNECTIONS; i++) {
+      nanos[i] = latencies.get(i).get();
+    }
+    final long elapsed = System.nanoTime() - start;
+    Arrays.sort(nanos);
+    return new Result(
+        CONNECTIONS * 1_000_000_000.0 / elapsed,
+        nanos[nanos.length / 2] / 1_000_000,
+        nanos[(int) (nanos.length * 0.99)] / 1_000_000);
+  }
+
+  private static long exchange(final Socket socket) throws IOException {
+    final long sent = System.nanoTime();
+    final OutputStream out = socket.getOutputStream();
+    out.write(REQUEST);
+    out.flush();
+    // The servlet writes no body, so the response ends with the blank line after its headers
+    final InputStream in = socket.getInputStream();
+    final StringBuilder response = new StringBuilder();
+    int b;
+    while ((b = in.read()) != -1) {
+      response.append((char) b);
+      if (response.length() >= 4 && response.lastIndexOf("\r\n\r\n") == response.length() - 4) {
+        break;
+      }
+    }
+    assertTrue(response.toString().startsWith("HTTP/1.1 200"), response.toString());
+    return System.nanoTime() - sent;
+  }
+
+  private static final class BlockingServlet extends HttpServlet {
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) {
+      try {
+        Thread.sleep(BLOCKING_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      response.setStatus(200);
+    }
+  }
+
+  private static final class Result {
+    private final double requestsPerSecond;
+    private final long p50Ms;
+    private final long p99Ms;
+
+    private Result(final double requestsPerSecond, final long p50Ms, final long p99Ms) {
+      this.requestsPerSecond = requestsPerSecond;
+      this.p50Ms = p50Ms;
+      this.p99Ms = p99Ms;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%.0f req/s, p50 %d ms, p99 %d ms", requestsPerSecond, p50Ms, p99Ms);
+    }
+  }
+}
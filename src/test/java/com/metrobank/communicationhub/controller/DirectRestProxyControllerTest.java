@@ -0,0 +1,386 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.CodedOutputStream;
+import com.metrobank.communicationhub.codec.AvroBinaryRequestDecoder;
+import com.metrobank.communicationhub.codec.AvroRequestDecoder;
+import com.metrobank.communicationhub.codec.ProtobufRequestDecoder;
+import com.metrobank.communicationhub.codec.RequestBodyDecoder;
+import com.metrobank.communicationhub.idempotency.IdempotentRequests;
+import com.metrobank.communicationhub.model.preferences.PreferencesResponse;
+import com.metrobank.communicationhub.schema.CommsPreference;
+import com.metrobank.communicationhub.schema.RegistrationAvroRequest;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
+import com.metrobank.communicationhub.service.PreferencesService;
+import com.metrobank.communicationhub.service.RegisterService;
+import com.metrobank.communicationhub.service.RestProxyService;
+import io.confluent.kafka.schemaregistry.avro.AvroSchema;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.hamcrest.core.Is;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.metrobank.communicationhub.util.CommsHubConstants.DELIVERY_MODE_CONFIRMED;
+import static com.metrobank.communicationhub.util.CommsHubConstants.DELIVERY_MODE_HEADER;
+import static com.metrobank.communicationhub.util.Constant.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// Both controllers map the same paths, so this also checks the DTO handlers are left unmapped
+@WebMvcTest(
+    value = {DirectRestProxyController.class, RestProxyController.class},
+    properties = "request.decoding=DIRECT")
+@Import({
+  RequestBodyDecoder.class,
+  AvroRequestDecoder.class,
+  AvroBinaryRequestDecoder.class,
+  ProtobufRequestDecoder.class,
+  IdempotentRequests.class,
+  SimpleMeterRegistry.class
+})
+class DirectRestProxyControllerTest extends RestProxyControllerContractTest {
+  private static final int SEND_SCHEMA_ID = 7;
+
+  @MockBean private SchemaRegistryClient schemaRegistryClient;
+  @MockBean private RestProxyService restProxyService;
+  @MockBean private RegisterService registerService;
+  @MockBean private PreferencesService preferencesService;
+
+  @Autowired private MockMvc mockMvc;
+
+  @Override
+  protected WebTestClient client() {
+    return MockMvcWebTestClient.bindTo(mockMvc).build();
+  }
+
+  @Override
+  protected void givenRegisterAnswers(final HttpStatus status) {
+    when(restProxyService.sendRegisterRequest(
+            any(), any(), any(RegistrationAvroRequest.class), any(), any()))
+        .thenReturn(new ResponseEntity<>(status));
+  }
+
+  @Override
+  protected void givenPreferenceSaveAnswers(final HttpStatus status) {
+    when(restProxyService.sendPreferenceRequest(any(), any(), any(CommsPreference.class), any()))
+        .thenReturn(new ResponseEntity<>(status));
+  }
+
+  @Override
+  protected void givenPreferenceSaveFails(final RuntimeException failure) {
+    when(restProxyService.sendPreferenceRequest(any(), any(), any(CommsPreference.class), any()))
+        .thenThrow(failure);
+  }
+
+  @Override
+  protected void givenSendAnswers(final HttpStatus status) {
+    when(restProxyService.sendCommunicateRequest(any(), any(), any(SendAvroRequest.class), any()))
+        .thenReturn(new ResponseEntity<>(status));
+  }
+
+  @Override
+  protected void givenSendFails(final RuntimeException failure) {
+    when(restProxyService.sendCommunicateRequest(any(), any(), any(SendAvroRequest.class), any()))
+        .thenThrow(failure);
+  }
+
+  @Override
+  protected void givenConfirmedSendAnswers(final HttpStatus status) {
+    when(restProxyService.sendCommunicateRequestConfirmed(
+            any(), any(), any(SendAvroRequest.class), any()))
+        .thenReturn(CompletableFuture.completedFuture(new ResponseEntity<>(status)));
+  }
+
+  @Override
+  protected void givenConfirmedSendFails(final Throwable failure) {
+    when(restProxyService.sendCommunicateRequestConfirmed(
+            any(), any(), any(SendAvroRequest.class), any()))
+        .thenReturn(CompletableFuture.failedFuture(failure));
+  }
+
+  @Override
+  protected void givenRegistrationFails(final RuntimeException failure) {
+    when(registerService.getRegistration(any(), any(), any(), any(), any())).thenThrow(failure);
+  }
+
+  @Override
+  protected void givenPreferences(final PreferencesResponse preferences) {
+    when(preferencesService.getPreferencesForCustomer(any(), any(), any(), any()))
+        .thenReturn(preferences);
+  }
+
+  @DisplayName("Direct Send Communication :: Decoded into the Avro record")
+  @Test
+  void testSend_decodedIntoAvro() throws Exception {
+    when(restProxyService.sendCommunicateRequest(any(), any(), any(SendAvroRequest.class), any()))
+        .thenReturn(new ResponseEntity<>(HttpStatus.OK));
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.post(SEND_URL)
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
+                .content(new ObjectMapper().writeValueAsString(SEND_REQUEST)))
+        .andDo(print())
+        .andExpect(status().isOk());
+
+    final ArgumentCaptor<SendAvroRequest> request = ArgumentCaptor.forClass(SendAvroRequest.class);
+    verify(restProxyService)
+        .sendCommunicateRequest(eq(null), eq(CUSTOMER_ID), request.capture(), any());
+    assertEquals(SEND_REQUEST.getCommsType().name(), request.getValue().getCommsType().toString());
+    assertEquals(SEND_REQUEST.getTemplateId(), request.getValue().getTemplateId().toString());
+    assertEquals(SEND_REQUEST.getTemplateParams(), request.getValue().getTemplateParams());
+  }
+
+  @DisplayName("Direct DeRegistration :: Decoded into the Avro record")
+  @Test
+  void testDeregister_validRequest() throws Exception {
+    when(restProxyService.sendRegisterRequest(
+            any(), any(), any(RegistrationAvroRequest.class), any(), eq(HttpMethod.DELETE)))
+        .thenReturn(new ResponseEntity<>(HttpStatus.NO_CONTENT));
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.delete(REGISTER_URL)
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .header(IBID_HEADER, IBID)
+                .content(new ObjectMapper().writeValueAsString(REGISTRATION_REQUEST)))
+        .andDo(print())
+        .andExpect(status().isNoContent());
+  }
+
+  @DisplayName("Direct Save Preference Confirmed :: Success once acknowledged")
+  @Test
+  void testPreferenceConfirmed_validRequest() throws Exception {
+    when(restProxyService.sendPreferenceRequestConfirmed(
+            any(), any(), any(CommsPreference.class), any()))
+        .thenReturn(CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.OK)));
+    MvcResult mvcResult =
+        mockMvc
+            .perform(
+                MockMvcRequestBuilders.post(PREFERENCE_URL)
+                    .contentType(MediaType.APPLICATION_JSON_VALUE)
+                    .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                    .header(DELIVERY_MODE_HEADER, DELIVERY_MODE_CONFIRMED)
+                    .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
+                    .content(new ObjectMapper().writeValueAsString(PREFERENCE_REQUEST)))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    mockMvc.perform(asyncDispatch(mvcResult)).andDo(print()).andExpect(status().isOk());
+  }
+
+  @DisplayName("Direct Registration :: Missing customerId and IbId")
+  @Test
+  void testRegister_missingIds() throws Exception {
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.post(REGISTER_URL)
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"deviceType\":\"ANDROID\",\"commsType\":\"MOBILE_PUSH\"}"))
+        .andDo(print())
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.message", Is.is("Missing customerId or IbId")));
+    verifyNoInteractions(restProxyService);
+  }
+
+  @DisplayName("Direct Send Communication :: Constraint message")
+  @Test
+  void testSend_invalidEmail() throws Exception {
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.post(SEND_URL)
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
+                .content(
+                    "{\"commsType\":\"EMAIL\",\"email\":\"not-an-email\","
+                        + "\"messageType\":\"PAYMENT_SEPA\",\"templateId\":\"t\","
+                        + "\"templateParams\":"
+                        + new ObjectMapper().writeValueAsString(List.of("a"))
+                        + "}"))
+        .andDo(print())
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.code", Is.is("Invalid field")))
+        .andExpect(jsonPath("$.message", Is.is("Invalid email format")));
+    verifyNoInteractions(restProxyService);
+  }
+
+  @DisplayName("Direct Save Preference :: Malformed body")
+  @Test
+  void testPreference_malformedBody() throws Exception {
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.post(PREFERENCE_URL)
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
+                .content("{\"commsType\":\"SMS\","))
+        .andDo(print())
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.message", Is.is("Invalid request")));
+    verifyNoInteractions(restProxyService);
+  }
+
+  @DisplayName("Direct Send Communication :: JSON body over the size limit")
+  @Test
+  void testSend_bodyTooLarge() throws Exception {
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.post(SEND_URL)
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
+                .content("{\"templateId\":\"" + "x".repeat(64 * 1024) + "\"}"))
+        .andDo(print())
+        .andExpect(status().isPayloadTooLarge())
+        .andExpect(jsonPath("$.message", Is.is("Request body is too large")));
+    verifyNoInteractions(restProxyService);
+  }
+
+  @DisplayName("Direct Registration :: Protobuf body over the size limit")
+  @Test
+  void testRegister_protobufBodyTooLarge() throws Exception {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    final CodedOutputStream out = CodedOutputStream.newInstance(body);
+    out.writeString(1, "x".repeat(64 * 1024));
+    out.flush();
+
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.post(REGISTER_URL)
+                .contentType(RequestBodyDecoder.APPLICATION_PROTOBUF_VALUE)
+                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
+                .content(body.toByteArray()))
+        .andDo(print())
+        .andExpect(status().isPayloadTooLarge());
+    verifyNoInteractions(restProxyService);
+  }
+
+  @DisplayName("Direct Send Communication :: Avro wire format body")
+  @Test
+  void testSend_avroBody() throws Exception {
+    // Given:
+    when(schemaRegistryClient.getSchemaById(SEND_SCHEMA_ID))
+        .thenReturn(new AvroSchema(SendAvroRequest.getClassSchema()));
+    when(restProxyService.sendCommunicateRequest(any(), any(), any(SendAvroRequest.class), any()))
+        .thenReturn(new ResponseEntity<>(HttpStatus.OK));
+    final SendAvroRequest sent =
+        SendAvroRequest.newBuilder()
+            .setCommsType(SEND_REQUEST.getCommsType().name())
+            .setMessageType(SEND_REQUEST.getMessageType().name())
+            .setTemplateId(SEND_REQUEST.getTemplateId())
+            .setTemplateParams(SEND_REQUEST.getTemplateParams())
+            .build();
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    body.write(ByteBuffer.allocate(5).put((byte) 0).putInt(SEND_SCHEMA_ID).array());
+    final BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(body, null);
+    new SpecificDatumWriter<>(SendAvroRequest.class).write(sent, encoder);
+    encoder.flush();
+
+    // When:
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.post(SEND_URL)
+                .contentType(RequestBodyDecoder.APPLICATION_AVRO_VALUE)
+                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
+                .content(body.toByteArray()))
+        .andDo(print())
+        .andExpect(status().isOk());
+
+    // Then:
+    final ArgumentCaptor<SendAvroRequest> request = ArgumentCaptor.forClass(SendAvroRequest.class);
+    verify(restProxyService)
+        .sendCommunicateRequest(eq(null), eq(CUSTOMER_ID), request.capture(), any());
+    assertEquals(SEND_REQUEST.getTemplateId(), request.getValue().getTemplateId().toString());
+    assertEquals(SEND_REQUEST.getTemplateParams(), request.getValue().getTemplateParams());
+  }
+
+  @DisplayName("Direct Registration :: Avro body with an unknown schema id")
+  @Test
+  void testRegister_avroUnknownSchema() throws Exception {
+    // Given:
+    when(schemaRegistryClient.getSchemaById(anyInt()))
+        .thenThrow(new RestClientException("Schema not found", 404, 40403));
+
+    // When: Then:
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.post(REGISTER_URL)
+                .contentType(RequestBodyDecoder.APPLICATION_AVRO_VALUE + "; schema-id=42")
+                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
+                .content(new byte[] {2, 8}))
+        .andDo(print())
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.message", Is.is("Invalid request")));
+    verifyNoInteractions(restProxyService);
+  }
+
+  @DisplayName("Direct Save Preference :: Protobuf body")
+  @Test
+  void testPreference_protobufBody() throws Exception {
+    // Given:
+    when(restProxyService.sendPreferenceRequest(any(), any(), any(CommsPreference.class), any()))
+        .thenReturn(new ResponseEntity<>(HttpStatus.OK));
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    final CodedOutputStream out = CodedOutputStream.newInstance(body);
+    out.writeString(1, "MOBILE_PUSH");
+    out.writeString(2, "PAYMENT_SEPA");
+    out.writeString(3, DEVICE_ID);
+    out.flush();
+
+    // When:
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.post(PREFERENCE_URL)
+                .contentType(RequestBodyDecoder.APPLICATION_PROTOBUF_VALUE)
+                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .header(IBID_HEADER, IBID)
+                .content(body.toByteArray()))
+        .andDo(print())
+        .andExpect(status().isOk());
+
+    // Then:
+    final ArgumentCaptor<CommsPreference> request = ArgumentCaptor.forClass(CommsPreference.class);
+    verify(restProxyService)
+        .sendPreferenceRequest(eq(IBID), eq(null), request.capture(), any());
+    assertEquals(DEVICE_ID, request.getValue().getDeviceId().toString());
+    assertEquals(List.of(), request.getValue().getPreferences());
+  }
+}
@@ -0,0 +1,90 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.controller;
+
+import com.metrobank.communicationhub.model.preferences.PreferencesResponse;
+import com.metrobank.communicationhub.service.ReactivePreferencesService;
+import com.metrobank.communicationhub.service.ReactiveRegisterService;
+import com.metrobank.communicationhub.service.ReactiveRestProxyService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@WebFluxTest(ReactiveRestProxyController.class)
+@ActiveProfiles("reactive")
+class ReactiveRestProxyControllerTest extends RestProxyControllerContractTest {
+
+  @MockBean private ReactiveRestProxyService restProxyService;
+  @MockBean private ReactiveRegisterService registerService;
+  @MockBean private ReactivePreferencesService preferencesService;
+
+  @Autowired private WebTestClient webTestClient;
+
+  @Override
+  protected WebTestClient client() {
+    return webTestClient;
+  }
+
+  @Override
+  protected void givenRegisterAnswers(final HttpStatus status) {
+    when(restProxyService.sendRegisterRequest(any(), any(), any(), any(), any(), anyBoolean()))
+        .thenReturn(Mono.just(new ResponseEntity<>(status)));
+  }
+
+  @Override
+  protected void givenPreferenceSaveAnswers(final HttpStatus status) {
+    when(restProxyService.sendPreferenceRequest(any(), any(), any(), any(), anyBoolean()))
+        .thenReturn(Mono.just(new ResponseEntity<>(status)));
+  }
+
+  @Override
+  protected void givenPreferenceSaveFails(final RuntimeException failure) {
+    when(restProxyService.sendPreferenceRequest(any(), any(), any(), any(), anyBoolean()))
+        .thenReturn(Mono.error(failure));
+  }
+
+  @Override
+  protected void givenSendAnswers(final HttpStatus status) {
+    when(restProxyService.sendCommunicateRequest(any(), any(), any(), any(), eq(false)))
+        .thenReturn(Mono.just(new ResponseEntity<>(status)));
+  }
+
+  @Override
+  protected void givenSendFails(final RuntimeException failure) {
+    when(restProxyService.sendCommunicateRequest(any(), any(), any(), any(), eq(false)))
+        .thenReturn(Mono.error(failure));
+  }
+
+  @Override
+  protected void givenConfirmedSendAnswers(final HttpStatus status) {
+    when(restProxyService.sendCommunicateRequest(any(), any(), any(), any(), eq(true)))
+        .thenReturn(Mono.just(new ResponseEntity<>(status)));
+  }
+
+  @Override
+  protected void givenConfirmedSendFails(final Throwable failure) {
+    when(restProxyService.sendCommunicateRequest(any(), any(), any(), any(), eq(true)))
+        .thenReturn(Mono.error(failure));
+  }
+
+  @Override
+  protected void givenRegistrationFails(final RuntimeException failure) {
+    when(registerService.getRegistration(any(), any(), any(), any(), any()))
+        .thenReturn(Mono.error(failure));
+  }
+
+  @Override
+  protected void givenPreferences(final PreferencesResponse preferences) {
+    when(preferencesService.getPreferencesForCustomer(any(), any(), any(), any()))
+        .thenReturn(Mono.just(preferences));
+  }
+}
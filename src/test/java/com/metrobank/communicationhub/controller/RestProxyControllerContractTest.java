@@ -0,0 +1,686 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.controller;
+
+import com.metrobank.communicationhub.exception.RestProxyException;
+import com.metrobank.communicationhub.exception.RestProxyServiceUnavailableException;
+import com.metrobank.communicationhub.exception.RestProxyTooManyRequestsException;
+import com.metrobank.communicationhub.model.preferences.PreferencesResponse;
+import com.metrobank.communicationhub.model.request.CommsType;
+import com.metrobank.communicationhub.model.request.MessageType;
+import com.mongodb.MongoExecutionTimeoutException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.kafka.core.KafkaProducerException;
+import org.springframework.kafka.requestreply.KafkaReplyTimeoutException;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.EOFException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import static com.metrobank.communicationhub.util.CommsHubConstants.DELIVERY_MODE_CONFIRMED;
+import static com.metrobank.communicationhub.util.CommsHubConstants.DELIVERY_MODE_HEADER;
+import static com.metrobank.communicationhub.util.Constant.*;
+
+/**
+ * The {@code comms/v1} contract, which every controller stack must answer identically. Each
+ * subclass binds a {@link WebTestClient} to its stack and stubs its own services' flavour of the
+ * outcomes the cases need.
+ */
+abstract class RestProxyControllerContractTest {
+
+  protected abstract WebTestClient client();
+
+  /** Registrations and de-registrations, confirmed or not, answer with the status. */
+  protected abstract void givenRegisterAnswers(HttpStatus status);
+
+  protected abstract void givenPreferenceSaveAnswers(HttpStatus status);
+
+  protected abstract void givenPreferenceSaveFails(RuntimeException failure);
+
+  protected abstract void givenSendAnswers(HttpStatus status);
+
+  protected abstract void givenSendFails(RuntimeException failure);
+
+  protected abstract void givenConfirmedSendAnswers(HttpStatus status);
+
+  /** The confirmed send is accepted and then fails to be acknowledged. */
+  protected abstract void givenConfirmedSendFails(Throwable failure);
+
+  protected abstract void givenRegistrationFails(RuntimeException failure);
+
+  protected abstract void givenPreferences(PreferencesResponse preferences);
+
+  @DisplayName("Create Registration :: Success Request")
+  @Test
+  void testRegisterRequest_validRequest() {
+    givenRegisterAnswers(HttpStatus.CREATED);
+    client()
+        .post()
+        .uri(REGISTER_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .header(IBID_HEADER, IBID)
+        .bodyValue(REGISTRATION_REQUEST)
+        .exchange()
+        .expectStatus()
+        .isCreated();
+  }
+
+  @DisplayName("Create Registration :: Failure")
+  @Test
+  void testRegisterRequest_MissingCustomerIdAndIbId() {
+    client()
+        .post()
+        .uri(REGISTER_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .bodyValue(REGISTRATION_REQUEST_NULL)
+        .exchange()
+        .expectStatus()
+        .isBadRequest()
+        .expectHeader()
+        .contentType(MediaType.APPLICATION_JSON)
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Invalid field")
+        .jsonPath("$.message")
+        .isEqualTo("Missing customerId or IbId");
+  }
+
+  @DisplayName("Create Registration-> Missing Header CustomerID & IBID  :: Failure")
+  @Test
+  void testRegisterRequest_InvalidRequest() {
+    client()
+        .post()
+        .uri(REGISTER_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .header(IBID_HEADER, IBID)
+        .bodyValue(REGISTRATION_REQUEST_NULL)
+        .exchange()
+        .expectStatus()
+        .isBadRequest()
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Invalid field")
+        .jsonPath("$.message")
+        .isEqualTo("Missing Data");
+  }
+
+  @DisplayName("Create Registration :: Unreadable body")
+  @Test
+  void testRegisterRequest_unreadableBody() {
+    client()
+        .post()
+        .uri(REGISTER_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .bodyValue("{not json")
+        .exchange()
+        .expectStatus()
+        .isBadRequest()
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Invalid field")
+        .jsonPath("$.message")
+        .isEqualTo("Invalid request");
+  }
+
+  @DisplayName("Delete Registration / De-Registration :: Success")
+  @Test
+  void testDeRegisterRequest_validRequest() {
+    givenRegisterAnswers(HttpStatus.CREATED);
+    client()
+        .method(HttpMethod.DELETE)
+        .uri(REGISTER_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .header(IBID_HEADER, IBID)
+        .bodyValue(REGISTRATION_REQUEST)
+        .exchange()
+        .expectStatus()
+        .isCreated();
+  }
+
+  @DisplayName("Delete Registration / De-Registration :: Failure")
+  @Test
+  void testDeRegisterRequest_InvalidRequest() {
+    client()
+        .method(HttpMethod.DELETE)
+        .uri(REGISTER_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .bodyValue(REGISTRATION_REQUEST_NULL)
+        .exchange()
+        .expectStatus()
+        .isBadRequest()
+        .expectHeader()
+        .contentType(MediaType.APPLICATION_JSON)
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Invalid field")
+        .jsonPath("$.message")
+        .isEqualTo("Missing customerId or IbId");
+  }
+
+  @DisplayName("Create Preference :: Success Request")
+  @Test
+  void testPreferenceRequest_validRequest() {
+    givenPreferenceSaveAnswers(HttpStatus.CREATED);
+    client()
+        .post()
+        .uri(PREFERENCE_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .header(IBID_HEADER, IBID)
+        .bodyValue(PREFERENCE_REQUEST)
+        .exchange()
+        .expectStatus()
+        .isCreated();
+  }
+
+  @DisplayName("Create Preference :: TimeOut")
+  @Test
+  void testPreferenceRequest_timeout() {
+    givenPreferenceSaveFails(new KafkaReplyTimeoutException("Response timed out"));
+    client()
+        .post()
+        .uri(PREFERENCE_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .header(IBID_HEADER, IBID)
+        .bodyValue(PREFERENCE_REQUEST)
+        .exchange()
+        .expectStatus()
+        .isEqualTo(HttpStatus.REQUEST_TIMEOUT)
+        .expectHeader()
+        .contentType(MediaType.APPLICATION_JSON)
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Response Timeout")
+        .jsonPath("$.message")
+        .isEqualTo("Response timed out");
+  }
+
+  @DisplayName("Create Preference :: Exception")
+  @Test
+  void testPreferenceRequest_exception() {
+    givenPreferenceSaveFails(new RestProxyException(new Throwable()));
+    client()
+        .post()
+        .uri(PREFERENCE_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .header(IBID_HEADER, IBID)
+        .bodyValue(PREFERENCE_REQUEST)
+        .exchange()
+        .expectStatus()
+        .isEqualTo(HttpStatus.INTERNAL_SERVER_ERROR)
+        .expectHeader()
+        .contentType(MediaType.APPLICATION_JSON)
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Server Error")
+        .jsonPath("$.message")
+        .isEqualTo("Internal server error, please try again");
+  }
+
+  @DisplayName("Create Preference :: Failure")
+  @Test
+  void testPreferenceRequest_InvalidRequest() {
+    client()
+        .post()
+        .uri(PREFERENCE_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .bodyValue(PREFERENCE_REQUEST_NULL)
+        .exchange()
+        .expectStatus()
+        .isBadRequest()
+        .expectHeader()
+        .contentType(MediaType.APPLICATION_JSON)
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Invalid field");
+  }
+
+  @DisplayName("Send Communication :: Success")
+  @Test
+  void testSend_validRequest() {
+    givenSendAnswers(HttpStatus.OK);
+    client()
+        .post()
+        .uri(SEND_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .header(IBID_HEADER, IBID)
+        .bodyValue(SEND_REQUEST)
+        .exchange()
+        .expectStatus()
+        .isOk();
+  }
+
+  @DisplayName("Send Communication :: Too many requests")
+  @Test
+  void testSend_tooManyRequests() {
+    givenSendFails(
+        new RestProxyTooManyRequestsException("Too many requests, please retry later", 3));
+    client()
+        .post()
+        .uri(SEND_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .bodyValue(SEND_REQUEST)
+        .exchange()
+        .expectStatus()
+        .isEqualTo(HttpStatus.TOO_MANY_REQUESTS)
+        .expectHeader()
+        .valueEquals("Retry-After", "3")
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Too Many Requests");
+  }
+
+  @DisplayName("Send Communication :: Body cut off while reading")
+  @Test
+  void testSend_bodyReadFailed() {
+    givenSendFails(new UncheckedIOException(new EOFException("Connection reset")));
+    client()
+        .post()
+        .uri(SEND_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .bodyValue(SEND_REQUEST)
+        .exchange()
+        .expectStatus()
+        .isBadRequest()
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Invalid field")
+        .jsonPath("$.message")
+        .isEqualTo("Invalid request");
+  }
+
+  @DisplayName("Send Communication :: Failure")
+  @Test
+  void testSendRequest_InvalidRequest() {
+    client()
+        .post()
+        .uri(SEND_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .header(IBID_HEADER, IBID)
+        .bodyValue(NULL_SEND_REQUEST)
+        .exchange()
+        .expectStatus()
+        .isBadRequest()
+        .expectHeader()
+        .contentType(MediaType.APPLICATION_JSON)
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Invalid field")
+        .jsonPath("$.message")
+        .isEqualTo("Missing Data");
+  }
+
+  @DisplayName("Send Communication-> Missing Header CustomerID & IBID  :: Failure")
+  @Test
+  void testSendRequest_MissingCustomerIdAndIbId() {
+    client()
+        .post()
+        .uri(SEND_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .bodyValue(NULL_SEND_REQUEST)
+        .exchange()
+        .expectStatus()
+        .isBadRequest()
+        .expectHeader()
+        .contentType(MediaType.APPLICATION_JSON)
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Invalid field");
+  }
+
+  @DisplayName("Send Communication Confirmed :: Success once acknowledged")
+  @Test
+  void testSendConfirmed_validRequest() {
+    givenConfirmedSendAnswers(HttpStatus.OK);
+    client()
+        .post()
+        .uri(SEND_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(DELIVERY_MODE_HEADER, DELIVERY_MODE_CONFIRMED)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .bodyValue(SEND_REQUEST)
+        .exchange()
+        .expectStatus()
+        .isOk();
+  }
+
+  @DisplayName("Send Communication Confirmed :: Broker failure")
+  @Test
+  void testSendConfirmed_deliveryFailed() {
+    givenConfirmedSendFails(new KafkaProducerException(null, "Failed to send", new Exception()));
+    client()
+        .post()
+        .uri(SEND_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(DELIVERY_MODE_HEADER, DELIVERY_MODE_CONFIRMED)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .bodyValue(SEND_REQUEST)
+        .exchange()
+        .expectStatus()
+        .isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Service Unavailable");
+  }
+
+  @DisplayName("Send Communication Confirmed :: Not acknowledged in time")
+  @Test
+  void testSendConfirmed_timeout() {
+    givenConfirmedSendFails(new TimeoutException());
+    client()
+        .post()
+        .uri(SEND_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(DELIVERY_MODE_HEADER, DELIVERY_MODE_CONFIRMED)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .bodyValue(SEND_REQUEST)
+        .exchange()
+        .expectStatus()
+        .isEqualTo(HttpStatus.REQUEST_TIMEOUT)
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Response Timeout");
+  }
+
+  @DisplayName("Send Communication Confirmed :: Missing Header CustomerID & IBID")
+  @Test
+  void testSendConfirmed_MissingCustomerIdAndIbId() {
+    client()
+        .post()
+        .uri(SEND_URL)
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(DELIVERY_MODE_HEADER, DELIVERY_MODE_CONFIRMED)
+        .bodyValue(SEND_REQUEST)
+        .exchange()
+        .expectStatus()
+        .isBadRequest()
+        .expectBody()
+        .jsonPath("$.message")
+        .isEqualTo("Missing customerId or IbId");
+  }
+
+  @DisplayName("Get Registration-> Missing Mandatory Header DeviceId :: Failure")
+  @Test
+  void testGetRegistrationRequest_missingDeviceIdHeader() {
+    client()
+        .get()
+        .uri(u -> u.path(REGISTER_URL).queryParam(COMMS_TYPE_QUERY_PARAM, "MOBILE_PUSH").build())
+        .header(IBID_HEADER, IBID)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .header(DEVICE_TYPE_HEADER, DEVICE_TYPE)
+        .exchange()
+        .expectStatus()
+        .isBadRequest()
+        .expectBody()
+        .jsonPath("$.message")
+        .isEqualTo("Invalid request");
+  }
+
+  @DisplayName("Get Registration-> Missing Mandatory Header Device Type :: Failure")
+  @Test
+  void testGetRegistrationRequest_missingDeviceTypeHeader() {
+    client()
+        .get()
+        .uri(u -> u.path(REGISTER_URL).queryParam(COMMS_TYPE_QUERY_PARAM, "MOBILE_PUSH").build())
+        .header(IBID_HEADER, IBID)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .header(DEVICE_ID_HEADER, DEVICE_ID)
+        .exchange()
+        .expectStatus()
+        .isBadRequest()
+        .expectBody()
+        .jsonPath("$.message")
+        .isEqualTo("Invalid request");
+  }
+
+  @DisplayName("Get Registration-> Missing Mandatory Headers CustomerID & IBID :: Failure")
+  @Test
+  void testGetRegistrationRequest_missingCustomerIdAndIbIdHeaders() {
+    client()
+        .get()
+        .uri(u -> u.path(REGISTER_URL).queryParam(COMMS_TYPE_QUERY_PARAM, "MOBILE_PUSH").build())
+        .header(DEVICE_ID_HEADER, DEVICE_ID)
+        .header(DEVICE_TYPE_HEADER, DEVICE_TYPE)
+        .exchange()
+        .expectStatus()
+        .isBadRequest()
+        .expectBody()
+        .jsonPath("$.message")
+        .isEqualTo("Missing customerId or IbId");
+  }
+
+  @DisplayName("Get Registration-> Argument Exception :: Failure")
+  @Test
+  void testGetRegistrationRequest_ArgumentException() {
+    givenRegistrationFails(new IllegalArgumentException("Unexpected Exception"));
+    client()
+        .get()
+        .uri(u -> u.path(REGISTER_URL).queryParam(COMMS_TYPE_QUERY_PARAM, "MOBILE_PUSH").build())
+        .header(IBID_HEADER, IBID)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .header(DEVICE_ID_HEADER, DEVICE_ID)
+        .header(DEVICE_TYPE_HEADER, DEVICE_TYPE)
+        .exchange()
+        .expectStatus()
+        .isBadRequest()
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Invalid field");
+  }
+
+  @DisplayName("Get Registration-> Mongo Timeout Exception :: Failure")
+  @Test
+  void testGetRegistrationRequest_TimeoutException() {
+    givenRegistrationFails(new MongoExecutionTimeoutException(500, "timedout"));
+    client()
+        .get()
+        .uri(u -> u.path(REGISTER_URL).queryParam(COMMS_TYPE_QUERY_PARAM, "MOBILE_PUSH").build())
+        .header(IBID_HEADER, IBID)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .header(DEVICE_ID_HEADER, DEVICE_ID)
+        .header(DEVICE_TYPE_HEADER, DEVICE_TYPE)
+        .exchange()
+        .expectStatus()
+        .isEqualTo(HttpStatus.REQUEST_TIMEOUT)
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Response Timeout");
+  }
+
+  @DisplayName("Get Registration-> Circuit open without a stale result :: 503 with Retry-After")
+  @Test
+  void testGetRegistrationRequest_CircuitOpen() {
+    givenRegistrationFails(
+        new RestProxyServiceUnavailableException("Circuit open for registrations reads", 7));
+    client()
+        .get()
+        .uri(u -> u.path(REGISTER_URL).queryParam(COMMS_TYPE_QUERY_PARAM, "MOBILE_PUSH").build())
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .header(DEVICE_ID_HEADER, DEVICE_ID)
+        .header(DEVICE_TYPE_HEADER, DEVICE_TYPE)
+        .exchange()
+        .expectStatus()
+        .isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)
+        .expectHeader()
+        .valueEquals("Retry-After", "7")
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Service Unavailable");
+  }
+
+  @DisplayName("Get Registration :: Invalid Comms Type :: Failure")
+  @Test
+  void testGetRegistrationRequest_invalidCommsType() {
+    client()
+        .get()
+        .uri(u -> u.path(REGISTER_URL).queryParam(COMMS_TYPE_QUERY_PARAM, "INVALID").build())
+        .header(IBID_HEADER, IBID)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .header(DEVICE_ID_HEADER, DEVICE_ID)
+        .header(DEVICE_TYPE_HEADER, DEVICE_TYPE)
+        .exchange()
+        .expectStatus()
+        .isBadRequest()
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Invalid field");
+  }
+
+  @DisplayName("Get Preference :: Success")
+  @Test
+  void testGetPreferenceRequest_validRequest() {
+    givenPreferences(preferences());
+    client()
+        .get()
+        .uri(
+            u ->
+                u.path(PREFERENCE_URL)
+                    .queryParam(COMMS_TYPE_QUERY_PARAM, CommsType.MOBILE_PUSH.toString())
+                    .build())
+        .header(IBID_HEADER, IBID)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .header(DEVICE_ID_HEADER, DEVICE_ID)
+        .exchange()
+        .expectStatus()
+        .isOk()
+        .expectHeader()
+        .contentType(MediaType.APPLICATION_JSON)
+        .expectBody()
+        .json(RETRIEVE_PREFERENCE_RESPONSE);
+  }
+
+  @DisplayName("Get Preference-> Missing ibId :: Success")
+  @Test
+  void testGetPreferenceRequest_missingIbId() {
+    givenPreferences(preferences());
+    client()
+        .get()
+        .uri(
+            u ->
+                u.path(PREFERENCE_URL)
+                    .queryParam(COMMS_TYPE_QUERY_PARAM, CommsType.MOBILE_PUSH.toString())
+                    .build())
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .header(DEVICE_ID_HEADER, DEVICE_ID)
+        .exchange()
+        .expectStatus()
+        .isOk()
+        .expectBody()
+        .json(RETRIEVE_PREFERENCE_RESPONSE);
+  }
+
+  @DisplayName("Get Preference-> Missing customerId :: Failure")
+  @Test
+  void testGetPreferenceRequest_missingCustomerId() {
+    client()
+        .get()
+        .uri(
+            u ->
+                u.path(PREFERENCE_URL)
+                    .queryParam(COMMS_TYPE_QUERY_PARAM, CommsType.MOBILE_PUSH.toString())
+                    .build())
+        .header(DEVICE_ID_HEADER, DEVICE_ID)
+        .exchange()
+        .expectStatus()
+        .isBadRequest();
+  }
+
+  @DisplayName("Get Preference-> Missing Header DeviceId :: Failure")
+  @Test
+  void testGetPreferenceRequest_missingDeviceIdHeader() {
+    client()
+        .get()
+        .uri(
+            u ->
+                u.path(PREFERENCE_URL)
+                    .queryParam(COMMS_TYPE_QUERY_PARAM, CommsType.MOBILE_PUSH.toString())
+                    .build())
+        .header(IBID_HEADER, IBID)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .exchange()
+        .expectStatus()
+        .isBadRequest()
+        .expectBody()
+        .jsonPath("$.message")
+        .isEqualTo("Invalid request");
+  }
+
+  @DisplayName("Get Preference-> Missing Param CommsType :: Failure")
+  @Test
+  void testGetPreferenceRequest_missingCommsType() {
+    client()
+        .get()
+        .uri(PREFERENCE_URL)
+        .header(IBID_HEADER, IBID)
+        .header(CUSTOMER_ID_HEADER, CUSTOMER_ID.toString())
+        .header(DEVICE_ID_HEADER, DEVICE_ID)
+        .exchange()
+        .expectStatus()
+        .isBadRequest()
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Invalid field");
+  }
+
+  @DisplayName("Get Preference-> Missing Mandatory Header CustomerAndIbId :: Failure")
+  @Test
+  void testGetPreferenceRequest_missingCustomerAndIbIdHeader() {
+    client()
+        .get()
+        .uri(
+            u ->
+                u.path(PREFERENCE_URL)
+                    .queryParam(COMMS_TYPE_QUERY_PARAM, CommsType.MOBILE_PUSH.toString())
+                    .build())
+        .header(DEVICE_ID_HEADER, DEVICE_ID)
+        .exchange()
+        .expectStatus()
+        .isBadRequest()
+        .expectBody()
+        .jsonPath("$.message")
+        .isEqualTo("Missing customerId or IbId");
+  }
+
+  @DisplayName("Get Preference-> Invalid Comms Type :: Failure")
+  @Test
+  void testGetPreferenceRequest_invalidCommsType() {
+    client()
+        .get()
+        .uri(u -> u.path(PREFERENCE_URL).queryParam(COMMS_TYPE_QUERY_PARAM, "PIGEON").build())
+        .header(IBID_HEADER, IBID)
+        .header(DEVICE_ID_HEADER, DEVICE_ID)
+        .exchange()
+        .expectStatus()
+        .isBadRequest()
+        .expectBody()
+        .jsonPath("$.code")
+        .isEqualTo("Invalid field");
+  }
+
+  private static PreferencesResponse preferences() {
+    return PreferencesResponse.builder()
+        .preferences(
+            List.of(
+                PreferencesResponse.Preference.builder()
+                    .messageType(MessageType.PAYMENT_SEPA.name())
+                    .commsPreference(Map.of("enabled", "true"))
+                    .build()))
+        .build();
+  }
+}
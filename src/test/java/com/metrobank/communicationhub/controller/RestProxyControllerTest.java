@@ -2,16 +2,18 @@
 package com.metrobank.communicationhub.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.metrobank.communicationhub.exception.RestProxyException;
+import com.metrobank.communicationhub.idempotency.IdempotentRequests;
 import com.metrobank.communicationhub.model.preferences.PreferencesResponse;
 import com.metrobank.communicationhub.model.registration.RegistrationResponse;
 import com.metrobank.communicationhub.model.request.CommsType;
 import com.metrobank.communicationhub.model.request.MessageType;
+import com.metrobank.communicationhub.model.request.PreferenceRequest;
+import com.metrobank.communicationhub.model.request.RegistrationRequest;
+import com.metrobank.communicationhub.model.request.SendRequest;
 import com.metrobank.communicationhub.service.PreferencesService;
 import com.metrobank.communicationhub.service.RegisterService;
 import com.metrobank.communicationhub.service.RestProxyService;
-import com.mongodb.MongoExecutionTimeoutException;
-import org.hamcrest.core.Is;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -21,27 +23,38 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.kafka.requestreply.KafkaReplyTimeoutException;
+import org.springframework.kafka.core.KafkaProducerException;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+import static com.metrobank.communicationhub.util.CommsHubConstants.DELIVERY_MODE_CONFIRMED;
+import static com.metrobank.communicationhub.util.CommsHubConstants.DELIVERY_MODE_HEADER;
+import static com.metrobank.communicationhub.util.CommsHubConstants.IDEMPOTENCY_KEY_HEADER;
+import static com.metrobank.communicationhub.util.CommsHubConstants.IDEMPOTENT_REPLAYED_HEADER;
 import static com.metrobank.communicationhub.util.Constant.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @ExtendWith({SpringExtension.class, MockitoExtension.class})
-@WebMvcTest(RestProxyController.class)
-class RestProxyControllerTest {
+@WebMvcTest(value = RestProxyController.class, properties = "request.decoding=DTO")
+@Import({IdempotentRequests.class, SimpleMeterRegistry.class})
+class RestProxyControllerTest extends RestProxyControllerContractTest {
 
   protected ResponseEntity result;
   @MockBean private RestProxyService restProxyService;
@@ -53,440 +66,169 @@ class RestProxyControllerTest {
 
   @Autowired private MockMvc mockMvc;
 
-  @DisplayName("Create Registration :: Success Request")
-  @Test
-  void testRegisterRequest_validRequest() throws Exception {
-    when(restProxyService.sendRegisterRequest(any(), any(), any(), any(), any()))
-        .thenReturn(new ResponseEntity<>(HttpStatus.CREATED));
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.post(REGISTER_URL)
-                .contentType(MediaType.APPLICATION_JSON_VALUE)
-                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
-                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
-                .header(IBID_HEADER, IBID)
-                .content(new ObjectMapper().writeValueAsString(REGISTRATION_REQUEST)))
-        .andDo(print())
-        .andExpect(MockMvcResultMatchers.status().isCreated());
+  @Override
+  protected WebTestClient client() {
+    return MockMvcWebTestClient.bindTo(mockMvc).build();
   }
 
-  @DisplayName("Create Preference :: Success Request")
-  @Test
-  void testPreferenceRequest_validRequest() throws Exception {
-    when(restProxyService.sendPreferenceRequest(any(), any(), any(), any()))
-        .thenReturn(new ResponseEntity<>(HttpStatus.CREATED));
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.post(PREFERENCE_URL)
-                .contentType(MediaType.APPLICATION_JSON_VALUE)
-                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
-                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
-                .header(IBID_HEADER, IBID)
-                .content(new ObjectMapper().writeValueAsString(PREFERENCE_REQUEST)))
-        .andDo(print())
-        .andExpect(MockMvcResultMatchers.status().isCreated());
+  @Override
+  protected void givenRegisterAnswers(final HttpStatus status) {
+    when(restProxyService.sendRegisterRequest(
+            any(), any(), any(RegistrationRequest.class), any(), any()))
+        .thenReturn(new ResponseEntity<>(status));
   }
 
-  @DisplayName("Create Preference :: TimeOut")
-  @Test
-  void testPreferenceRequest_timeout() throws Exception {
-    when(restProxyService.sendPreferenceRequest(any(), any(), any(), any()))
-        .thenThrow(new KafkaReplyTimeoutException("Response timed out"));
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.post(PREFERENCE_URL)
-                .contentType(MediaType.APPLICATION_JSON_VALUE)
-                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
-                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
-                .header(IBID_HEADER, IBID)
-                .content(new ObjectMapper().writeValueAsString(PREFERENCE_REQUEST)))
-        .andDo(print())
-        .andExpect(MockMvcResultMatchers.status().is4xxClientError())
-        .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_JSON_VALUE))
-        .andExpect(MockMvcResultMatchers.jsonPath("$.code", Is.is("Response Timeout")))
-        .andExpect(MockMvcResultMatchers.jsonPath("$.message", Is.is("Response timed out")));
+  @Override
+  protected void givenPreferenceSaveAnswers(final HttpStatus status) {
+    when(restProxyService.sendPreferenceRequest(any(), any(), any(PreferenceRequest.class), any()))
+        .thenReturn(new ResponseEntity<>(status));
   }
 
-  @DisplayName("Create Preference :: Exception")
-  @Test
-  void testPreferenceRequest_exception() throws Exception {
-    when(restProxyService.sendPreferenceRequest(any(), any(), any(), any()))
-        .thenThrow(new RestProxyException(new Throwable()));
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.post(PREFERENCE_URL)
-                .contentType(MediaType.APPLICATION_JSON_VALUE)
-                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
-                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
-                .header(IBID_HEADER, IBID)
-                .content(new ObjectMapper().writeValueAsString(PREFERENCE_REQUEST)))
-        .andDo(print())
-        .andExpect(MockMvcResultMatchers.status().is5xxServerError())
-        .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_JSON_VALUE))
-        .andExpect(MockMvcResultMatchers.jsonPath("$.code", Is.is("Server Error")))
-        .andExpect(
-            MockMvcResultMatchers.jsonPath(
-                "$.message", Is.is("Internal server error, please try again")));
+  @Override
+  protected void givenPreferenceSaveFails(final RuntimeException failure) {
+    when(restProxyService.sendPreferenceRequest(any(), any(), any(PreferenceRequest.class), any()))
+        .thenThrow(failure);
   }
 
-  @DisplayName("Create Registration :: Failure")
-  @Test
-  void testRegisterRequest_MissingCustomerIdAndIbId() throws Exception {
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.post(REGISTER_URL)
-                .contentType(MediaType.APPLICATION_JSON_VALUE)
-                .header(ACCEPT, MediaType.APPLICATION_JSON)
-                .content(new ObjectMapper().writeValueAsString(REGISTRATION_REQUEST_NULL)))
-        .andDo(print())
-        .andExpect(MockMvcResultMatchers.status().is4xxClientError())
-        .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_JSON_VALUE))
-        .andExpect(MockMvcResultMatchers.jsonPath("$.code", Is.is("Invalid field")));
+  @Override
+  protected void givenSendAnswers(final HttpStatus status) {
+    when(restProxyService.sendCommunicateRequest(any(), any(), any(SendRequest.class), any()))
+        .thenReturn(new ResponseEntity<>(status));
   }
 
-  @DisplayName("Create Registration-> Missing Header CustomerID & IBID  :: Failure")
-  @Test
-  void testRegisterRequest_InvalidRequest() throws Exception {
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.post(REGISTER_URL)
-                .contentType(MediaType.APPLICATION_JSON_VALUE)
-                .header(ACCEPT, MediaType.APPLICATION_JSON)
-                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
-                .header(IBID_HEADER, IBID)
-                .content(new ObjectMapper().writeValueAsString(REGISTRATION_REQUEST_NULL)))
-        .andDo(print())
-        .andExpect(MockMvcResultMatchers.status().is4xxClientError())
-        .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_JSON_VALUE))
-        .andExpect(MockMvcResultMatchers.jsonPath("$.code", Is.is("Invalid field")))
-        .andExpect(MockMvcResultMatchers.jsonPath("$.message", Is.is("Missing Data")));
+  @Override
+  protected void givenSendFails(final RuntimeException failure) {
+    when(restProxyService.sendCommunicateRequest(any(), any(), any(SendRequest.class), any()))
+        .thenThrow(failure);
   }
 
-  @DisplayName("Create Preference :: Failure")
-  @Test
-  void testPreferenceRequest_InvalidRequest() throws Exception {
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.post(PREFERENCE_URL)
-                .contentType(MediaType.APPLICATION_JSON_VALUE)
-                .header(ACCEPT, MediaType.APPLICATION_JSON)
-                .content(new ObjectMapper().writeValueAsString(PREFERENCE_REQUEST_NULL)))
-        .andDo(print())
-        .andExpect(MockMvcResultMatchers.status().is4xxClientError())
-        .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_JSON_VALUE))
-        .andExpect(MockMvcResultMatchers.jsonPath("$.code", Is.is("Invalid field")));
+  @Override
+  protected void givenConfirmedSendAnswers(final HttpStatus status) {
+    when(restProxyService.sendCommunicateRequestConfirmed(
+            any(), any(), any(SendRequest.class), any()))
+        .thenReturn(CompletableFuture.completedFuture(new ResponseEntity<>(status)));
   }
 
-  @DisplayName("Send Communication :: Success")
-  @Test
-  void testSend_validRequest() throws Exception {
-    when(restProxyService.sendCommunicateRequest(any(), any(), any(), any()))
-        .thenReturn(new ResponseEntity<>(HttpStatus.OK));
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.post(SEND_URL)
-                .contentType(MediaType.APPLICATION_JSON_VALUE)
-                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
-                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
-                .header(IBID_HEADER, IBID)
-                .content(new ObjectMapper().writeValueAsString(SEND_REQUEST)))
-        .andDo(print())
-        .andExpect(MockMvcResultMatchers.status().isOk());
+  @Override
+  protected void givenConfirmedSendFails(final Throwable failure) {
+    when(restProxyService.sendCommunicateRequestConfirmed(
+            any(), any(), any(SendRequest.class), any()))
+        .thenReturn(CompletableFuture.failedFuture(failure));
   }
 
-  @DisplayName("Send Communication :: Failure")
-  @Test
-  void testSendRequest_InvalidRequest() throws Exception {
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.post(SEND_URL)
-                .contentType(MediaType.APPLICATION_JSON_VALUE)
-                .header(ACCEPT, MediaType.APPLICATION_JSON)
-                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
-                .header(IBID_HEADER, IBID)
-                .content(new ObjectMapper().writeValueAsString(NULL_SEND_REQUEST)))
-        .andDo(print())
-        .andExpect(MockMvcResultMatchers.status().is4xxClientError())
-        .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_JSON_VALUE))
-        .andExpect(MockMvcResultMatchers.jsonPath("$.code", Is.is("Invalid field")))
-        .andExpect(MockMvcResultMatchers.jsonPath("$.message", Is.is("Missing Data")));
+  @Override
+  protected void givenRegistrationFails(final RuntimeException failure) {
+    when(registerService.getRegistration(any(), any(), any(), any(), any())).thenThrow(failure);
   }
 
-  @DisplayName("Send Communication-> Missing Header CustomerID & IBID  :: Failure")
-  @Test
-  void testSendRequest_MissingCustomerIdAndIbId() throws Exception {
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.post(SEND_URL)
-                .contentType(MediaType.APPLICATION_JSON_VALUE)
-                .header(ACCEPT, MediaType.APPLICATION_JSON)
-                .content(new ObjectMapper().writeValueAsString(NULL_SEND_REQUEST)))
-        .andDo(print())
-        .andExpect(MockMvcResultMatchers.status().is4xxClientError())
-        .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_JSON_VALUE))
-        .andExpect(MockMvcResultMatchers.jsonPath("$.code", Is.is("Invalid field")));
+  @Override
+  protected void givenPreferences(final PreferencesResponse preferences) {
+    when(preferencesService.getPreferencesForCustomer(any(), any(), any(), any()))
+        .thenReturn(preferences);
   }
 
-  @DisplayName("Delete Registration / De-Registration :: Success")
+  @DisplayName("Send Communication :: Retry with the same Idempotency-Key is replayed")
   @Test
-  void testDeRegisterRequest_validRequest() throws Exception {
-    when(restProxyService.sendRegisterRequest(any(), any(), any(), any(), any()))
-        .thenReturn(new ResponseEntity<>(HttpStatus.CREATED));
+  void testSend_idempotentRetry() throws Exception {
+    when(restProxyService.sendCommunicateRequestConfirmed(
+            any(), any(), any(SendRequest.class), any()))
+        .thenReturn(CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.OK)));
     mockMvc
         .perform(
-            MockMvcRequestBuilders.delete(REGISTER_URL)
+            MockMvcRequestBuilders.post(SEND_URL)
                 .contentType(MediaType.APPLICATION_JSON_VALUE)
-                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
                 .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
-                .header(IBID_HEADER, IBID)
-                .content(new ObjectMapper().writeValueAsString(REGISTRATION_REQUEST)))
-        .andDo(print())
-        .andExpect(MockMvcResultMatchers.status().isCreated());
-  }
-
-  @DisplayName("Delete Registration / De-Registration :: Failure")
-  @Test
-  void testDeRegisterRequest_InvalidRequest() throws Exception {
+                .header(IDEMPOTENCY_KEY_HEADER, "send-retry-1")
+                .content(new ObjectMapper().writeValueAsString(SEND_REQUEST)))
+        .andExpect(MockMvcResultMatchers.status().isOk())
+        .andExpect(header().doesNotExist(IDEMPOTENT_REPLAYED_HEADER));
     mockMvc
         .perform(
-            MockMvcRequestBuilders.delete(REGISTER_URL)
+            MockMvcRequestBuilders.post(SEND_URL)
                 .contentType(MediaType.APPLICATION_JSON_VALUE)
-                .header(ACCEPT, MediaType.APPLICATION_JSON)
-                .content(new ObjectMapper().writeValueAsString(REGISTRATION_REQUEST_NULL)))
-        .andDo(print())
-        .andExpect(MockMvcResultMatchers.status().is4xxClientError())
-        .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_JSON_VALUE))
-        .andExpect(MockMvcResultMatchers.status().isBadRequest())
-        .andExpect(MockMvcResultMatchers.jsonPath("$.code", Is.is("Invalid field")));
-  }
-
-  @DisplayName("Get Registration-> Missing Mandatory Header DeviceId :: Failure")
-  @Test
-  void testGetRegistrationRequest_missingDeviceIdHeader() throws Exception {
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.get(REGISTER_URL)
-                .header(IBID_HEADER, IBID)
                 .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
-                .header(DEVICE_TYPE_HEADER, DEVICE_TYPE)
-                .queryParam(COMMS_TYPE_QUERY_PARAM, CommsType.MOBILE_PUSH.toString())
-                .content(new ObjectMapper().writeValueAsString("")))
-        .andDo(print())
-        .andExpect(status().isBadRequest());
-  }
-
-  @DisplayName("Get Registration-> Missing Mandatory Header Device Type :: Failure")
-  @Test
-  void testGetRegistrationRequest_missingDeviceTypeHeader() throws Exception {
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.get(REGISTER_URL)
-                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
-                .header(IBID_HEADER, IBID)
-                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
-                .header(DEVICE_ID_HEADER, DEVICE_ID)
-                .queryParam(COMMS_TYPE_QUERY_PARAM, CommsType.MOBILE_PUSH.toString())
-                .content(new ObjectMapper().writeValueAsString("")))
-        .andDo(print())
-        .andExpect(status().isBadRequest());
-  }
-
-  @DisplayName("Get Registration-> Missing Mandatory Headers CustomerID & IBID :: Failure")
-  @Test
-  void testGetRegistrationRequest_missingCustomerIdAndIbIdHeaders() throws Exception {
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.get(REGISTER_URL)
-                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
-                .header(DEVICE_ID_HEADER, DEVICE_ID)
-                .header(DEVICE_TYPE_HEADER, DEVICE_TYPE)
-                .queryParam(COMMS_TYPE_QUERY_PARAM, CommsType.MOBILE_PUSH.toString())
-                .content(new ObjectMapper().writeValueAsString("")))
-        .andDo(print())
-        .andExpect(status().isBadRequest());
-  }
-
-  @DisplayName("Get Registration-> Argument Exception :: Failure")
-  @Test
-  void testGetRegistrationRequest_ArgumentException() throws Exception {
-    when(registerService.getRegistration(any(), any(), any(), any(), any()))
-        .thenThrow(new IllegalArgumentException("Unexpected Exception"));
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.get(REGISTER_URL)
-                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
-                .header(IBID_HEADER, IBID)
-                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
-                .header(DEVICE_ID_HEADER, DEVICE_ID)
-                .header(DEVICE_TYPE_HEADER, DEVICE_TYPE)
-                .queryParam(COMMS_TYPE_QUERY_PARAM, CommsType.MOBILE_PUSH.toString())
-                .content(new ObjectMapper().writeValueAsString("")))
-        .andDo(print())
-        .andExpect(status().is4xxClientError())
-        .andExpect(jsonPath("$.code", Is.is("Invalid field")));
-  }
-
-  @DisplayName("Get Registration-> CassandraReadTimeout Exception :: Failure")
-  @Test
-  void testGetRegistrationRequest_TimeoutException() throws Exception {
-    when(registerService.getRegistration(any(), any(), any(), any(), any()))
-        .thenThrow(new MongoExecutionTimeoutException(500, "timedout"));
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.get(REGISTER_URL)
-                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
-                .header(IBID_HEADER, IBID)
-                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
-                .header(DEVICE_ID_HEADER, DEVICE_ID)
-                .header(DEVICE_TYPE_HEADER, DEVICE_TYPE)
-                .queryParam(COMMS_TYPE_QUERY_PARAM, CommsType.MOBILE_PUSH.toString())
-                .content(new ObjectMapper().writeValueAsString("")))
-        .andDo(print())
-        .andExpect(status().isRequestTimeout())
-        .andExpect(jsonPath("$.code", Is.is("Response Timeout")));
-  }
-
-  @DisplayName("Get Preference :: Success")
-  @Test
-  void testGetPreferenceRequest_validRequest() throws Exception {
-    preferencesResponse =
-        PreferencesResponse.builder()
-            .preferences(
-                List.of(
-                    PreferencesResponse.Preference.builder()
-                        .messageType(MessageType.PAYMENT_SEPA.name())
-                        .commsPreference(Map.of("enabled", "true"))
-                        .build()))
-            .build();
-
-    when(preferencesService.getPreferencesForCustomer(any(), any(), any(), any()))
-        .thenReturn(preferencesResponse);
-
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.get(PREFERENCE_URL)
-                .header(IBID_HEADER, IBID)
-                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
-                .header(DEVICE_ID_HEADER, DEVICE_ID)
-                .queryParam(COMMS_TYPE_QUERY_PARAM, CommsType.MOBILE_PUSH.toString())
-                .content(new ObjectMapper().writeValueAsString("")))
-        .andDo(print())
-        .andExpect(status().isOk())
-        .andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE))
-        .andExpect(content().string(RETRIEVE_PREFERENCE_RESPONSE));
-  }
-
-  @DisplayName("Get Preference-> Missing Header DeviceId :: Failure")
-  @Test
-  void testGetPreferenceRequest_missingDeviceIdHeader() throws Exception {
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.get(PREFERENCE_URL)
-                .header(IBID_HEADER, IBID)
-                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
-                .queryParam(COMMS_TYPE_QUERY_PARAM, CommsType.MOBILE_PUSH.toString())
-                .content(new ObjectMapper().writeValueAsString("")))
-        .andDo(print())
-        .andExpect(status().isBadRequest());
-  }
-
-  @DisplayName("Get Preference-> Missing Param CommsType :: Failure")
-  @Test
-  void testGetPreferenceRequest_missingCommsType() throws Exception {
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.get(PREFERENCE_URL)
-                .header(IBID_HEADER, IBID)
-                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
-                .header(DEVICE_ID_HEADER, DEVICE_ID)
-                .content(new ObjectMapper().writeValueAsString("")))
-        .andDo(print())
-        .andExpect(status().is4xxClientError());
-  }
-
-  @DisplayName("Get Preference-> Missing Mandatory Header CustomerAndIbId :: Failure")
-  @Test
-  void testGetPreferenceRequest_missingCustomerAndIbIdHeader() throws Exception {
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.get(PREFERENCE_URL)
-                .queryParam(COMMS_TYPE_QUERY_PARAM, CommsType.MOBILE_PUSH.toString())
-                .content(new ObjectMapper().writeValueAsString("")))
-        .andDo(print())
-        .andExpect(status().isBadRequest());
-  }
-
-  @DisplayName("Get Preference-> Missing ibId :: Failure")
-  @Test
-  void testGetPreferenceRequest_missingIbId() throws Exception {
-    preferencesResponse =
-        PreferencesResponse.builder()
-            .preferences(
-                List.of(
-                    PreferencesResponse.Preference.builder()
-                        .messageType(MessageType.PAYMENT_SEPA.name())
-                        .commsPreference(Map.of("enabled", "true"))
-                        .build()))
+                .header(IDEMPOTENCY_KEY_HEADER, "send-retry-1")
+                .content(new ObjectMapper().writeValueAsString(SEND_REQUEST)))
+        .andExpect(MockMvcResultMatchers.status().isOk())
+        .andExpect(header().string(IDEMPOTENT_REPLAYED_HEADER, "true"));
+
+    verify(restProxyService, times(1))
+        .sendCommunicateRequestConfirmed(any(), any(), any(SendRequest.class), any());
+  }
+
+  @DisplayName("Send Communication :: A keyed send that fails to deliver can be retried")
+  @Test
+  void testSend_idempotentRetryAfterFailedDelivery() throws Exception {
+    when(restProxyService.sendCommunicateRequestConfirmed(
+            any(), any(), any(SendRequest.class), any()))
+        .thenReturn(
+            CompletableFuture.failedFuture(new KafkaProducerException(null, "broker down", null)))
+        .thenReturn(CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.OK)));
+    for (int attempt = 0; attempt < 2; attempt++) {
+      mockMvc
+          .perform(
+              MockMvcRequestBuilders.post(SEND_URL)
+                  .contentType(MediaType.APPLICATION_JSON_VALUE)
+                  .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
+                  .header(IDEMPOTENCY_KEY_HEADER, "send-lost-1")
+                  .content(new ObjectMapper().writeValueAsString(SEND_REQUEST)))
+          .andExpect(MockMvcResultMatchers.status().isOk())
+          .andExpect(header().doesNotExist(IDEMPOTENT_REPLAYED_HEADER));
+    }
+
+    verify(restProxyService, times(2))
+        .sendCommunicateRequestConfirmed(any(), any(), any(SendRequest.class), any());
+  }
+
+  @DisplayName("Send Communication :: Idempotency-Key reused for a different request")
+  @Test
+  void testSend_idempotencyKeyReused() throws Exception {
+    when(restProxyService.sendCommunicateRequestConfirmed(
+            any(), any(), any(SendRequest.class), any()))
+        .thenReturn(CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.OK)));
+    final SendRequest other =
+        SendRequest.builder()
+            .commsType(CommsType.SMS)
+            .messageType(MessageType.PAYMENT_SEPA)
+            .templateId("other-template")
             .build();
-
-    when(preferencesService.getPreferencesForCustomer(any(), any(), any(), any()))
-        .thenReturn(preferencesResponse);
-
     mockMvc
         .perform(
-            MockMvcRequestBuilders.get(PREFERENCE_URL)
+            MockMvcRequestBuilders.post(SEND_URL)
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
                 .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
-                .header(DEVICE_ID_HEADER, DEVICE_ID)
-                .queryParam(COMMS_TYPE_QUERY_PARAM, CommsType.MOBILE_PUSH.toString())
-                .content(new ObjectMapper().writeValueAsString("")))
-        .andDo(print())
-        .andExpect(status().isOk())
-        .andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE))
-        .andExpect(content().string(RETRIEVE_PREFERENCE_RESPONSE));
-  }
-
-  @DisplayName("Get Preference-> Missing customerId :: Failure")
-  @Test
-  void testGetPreferenceRequest_missingCustomerId() throws Exception {
-    mockMvc
-        .perform(
-            MockMvcRequestBuilders.get(PREFERENCE_URL)
-                .header(DEVICE_ID_HEADER, DEVICE_ID)
-                .queryParam(COMMS_TYPE_QUERY_PARAM, CommsType.MOBILE_PUSH.toString())
-                .content(new ObjectMapper().writeValueAsString("")))
-        .andDo(print())
-        .andExpect(status().isBadRequest());
-  }
-
-  @DisplayName("Get Preference-> Invalid Comms Type :: Failure")
-  @Test
-  void testGetPreferenceRequest_invalidCommsType() throws Exception {
+                .header(IDEMPOTENCY_KEY_HEADER, "send-reused-1")
+                .content(new ObjectMapper().writeValueAsString(SEND_REQUEST)))
+        .andExpect(MockMvcResultMatchers.status().isOk());
     mockMvc
         .perform(
-            MockMvcRequestBuilders.get(PREFERENCE_URL)
-                .header(IBID_HEADER, IBID)
+            MockMvcRequestBuilders.post(SEND_URL)
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
                 .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
-                .queryParam(COMMS_TYPE_QUERY_PARAM, "INVALID")
-                .content(new ObjectMapper().writeValueAsString("")))
-        .andDo(print())
-        .andExpect(status().is4xxClientError());
+                .header(IDEMPOTENCY_KEY_HEADER, "send-reused-1")
+                .content(new ObjectMapper().writeValueAsString(other)))
+        .andExpect(MockMvcResultMatchers.status().isBadRequest());
   }
 
-  @DisplayName("Get Registration :: Invalid Comms Type :: Failure")
+  @DisplayName("Send Communication Confirmed :: Answered asynchronously")
   @Test
-  void testGetRegistrationRequest_invalidCommsType() throws Exception {
-
+  void testSendConfirmed_answeredAsynchronously() throws Exception {
+    when(restProxyService.sendCommunicateRequestConfirmed(any(), any(), any(SendRequest.class), any()))
+        .thenReturn(CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.OK)));
+    MvcResult mvcResult =
+        mockMvc
+            .perform(
+                MockMvcRequestBuilders.post(SEND_URL)
+                    .contentType(MediaType.APPLICATION_JSON_VALUE)
+                    .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                    .header(DELIVERY_MODE_HEADER, DELIVERY_MODE_CONFIRMED)
+                    .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
+                    .content(new ObjectMapper().writeValueAsString(SEND_REQUEST)))
+            .andExpect(request().asyncStarted())
+            .andReturn();
     mockMvc
-        .perform(
-            MockMvcRequestBuilders.get(REGISTER_URL)
-                .header(ACCEPT, MediaType.APPLICATION_JSON_VALUE)
-                .header(IBID_HEADER, IBID)
-                .header(CUSTOMER_ID_HEADER, CUSTOMER_ID)
-                .header(DEVICE_ID_HEADER, DEVICE_ID)
-                .header(DEVICE_TYPE_HEADER, DEVICE_TYPE)
-                .queryParam(COMMS_TYPE_QUERY_PARAM, "INVALID")
-                .content(new ObjectMapper().writeValueAsString("")))
+        .perform(asyncDispatch(mvcResult))
         .andDo(print())
-        .andExpect(status().is4xxClientError());
+        .andExpect(MockMvcResultMatchers.status().isOk());
   }
 }
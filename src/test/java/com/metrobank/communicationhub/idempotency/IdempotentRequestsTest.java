@@ -0,0 +1,295 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.idempotency;
+
+import com.metrobank.communicationhub.exception.RestProxyConflictException;
+import com.metrobank.communicationhub.exception.RestProxyUnprocessableEntityException;
+import com.metrobank.communicationhub.model.request.CommsType;
+import com.metrobank.communicationhub.model.request.MessageType;
+import com.metrobank.communicationhub.model.request.SendRequest;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.metrobank.communicationhub.util.CommsHubConstants.IDEMPOTENT_REPLAYED_HEADER;
+import static com.metrobank.communicationhub.util.Constant.CUSTOMER_ID;
+import static com.metrobank.communicationhub.util.Constant.EMAIL;
+import static com.metrobank.communicationhub.util.Constant.IBID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IdempotentRequestsTest {
+  private static final String KEY = "3f1c2a4e-retry";
+
+  private final AtomicInteger sent = new AtomicInteger();
+  private IdempotentRequests idempotentRequests;
+
+  @BeforeEach
+  void setUp() {
+    idempotentRequests = idempotentRequests(null);
+  }
+
+  @DisplayName("Idempotency :: a retry replays the response without sending again")
+  @Test
+  void execute_replays() {
+    // When:
+    final ResponseEntity<Void> first =
+        idempotentRequests.execute(KEY, CUSTOMER_ID, null, "1", ok(), delivered());
+    final ResponseEntity<Void> retry =
+        idempotentRequests.execute(KEY, CUSTOMER_ID, null, "1", ok(), delivered());
+
+    // Then:
+    assertEquals(1, sent.get());
+    assertNull(first.getHeaders().getFirst(IDEMPOTENT_REPLAYED_HEADER));
+    assertEquals(HttpStatus.OK, retry.getStatusCode());
+    assertEquals("true", retry.getHeaders().getFirst(IDEMPOTENT_REPLAYED_HEADER));
+  }
+
+  @DisplayName("Idempotency :: keys are scoped to the customer, and absent keys always send")
+  @Test
+  void execute_scoped() {
+    idempotentRequests.execute(KEY, CUSTOMER_ID, null, "1", ok(), delivered());
+    idempotentRequests.execute(KEY, null, IBID, "1", ok(), delivered());
+    idempotentRequests.execute(null, CUSTOMER_ID, null, "1", ok(), delivered());
+    idempotentRequests.execute(null, CUSTOMER_ID, null, "1", ok(), delivered());
+
+    assertEquals(4, sent.get());
+  }
+
+  @DisplayName("Idempotency :: a key reused for another body, or an invalid key, is rejected")
+  @Test
+  void execute_rejected() {
+    idempotentRequests.execute(KEY, CUSTOMER_ID, null, "1", ok(), delivered());
+
+    assertThrows(
+        RestProxyUnprocessableEntityException.class,
+        () -> idempotentRequests.execute(KEY, CUSTOMER_ID, null, "2", ok(), delivered()));
+    assertThrows(
+        RestProxyUnprocessableEntityException.class,
+        () -> idempotentRequests.execute(" ", CUSTOMER_ID, null, "1", ok(), delivered()));
+    assertThrows(
+        RestProxyUnprocessableEntityException.class,
+        () ->
+            idempotentRequests.execute(
+                "k".repeat(256), CUSTOMER_ID, null, "1", ok(), delivered()));
+    assertEquals(1, sent.get());
+  }
+
+  @DisplayName("Idempotency :: failed and unsuccessful requests can be retried")
+  @Test
+  void execute_failureReleasesKey() {
+    // Given:
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            idempotentRequests.execute(
+                KEY,
+                CUSTOMER_ID,
+                null,
+                "1",
+                ok(),
+                () -> {
+                  throw new IllegalStateException("broker down");
+                }));
+    idempotentRequests.execute(
+        "other",
+        CUSTOMER_ID,
+        null,
+        "1",
+        ok(),
+        () -> CompletableFuture.completedFuture(ResponseEntity.status(503).build()));
+
+    // When:
+    final ResponseEntity<Void> retry =
+        idempotentRequests.execute(KEY, CUSTOMER_ID, null, "1", ok(), delivered());
+    final ResponseEntity<Void> otherRetry =
+        idempotentRequests.execute("other", CUSTOMER_ID, null, "1", ok(), delivered());
+
+    // Then:
+    assertNull(retry.getHeaders().getFirst(IDEMPOTENT_REPLAYED_HEADER));
+    assertNull(otherRetry.getHeaders().getFirst(IDEMPOTENT_REPLAYED_HEADER));
+    assertEquals(2, sent.get());
+  }
+
+  @DisplayName("Idempotency :: a send answered before delivery keeps its key until delivered")
+  @Test
+  void execute_settledOnDelivery() {
+    // Given:
+    final CompletableFuture<ResponseEntity<Void>> lost = new CompletableFuture<>();
+    final ResponseEntity<Void> first =
+        idempotentRequests.execute(KEY, CUSTOMER_ID, null, "1", ok(), () -> lost);
+    final CompletableFuture<ResponseEntity<Void>> delivered = new CompletableFuture<>();
+    idempotentRequests.execute("other", CUSTOMER_ID, null, "1", ok(), () -> delivered);
+
+    // When:
+    lost.completeExceptionally(new IllegalStateException("broker down"));
+    delivered.complete(ResponseEntity.ok().build());
+
+    // Then:
+    assertEquals(HttpStatus.OK, first.getStatusCode());
+    assertNull(
+        idempotentRequests
+            .execute(KEY, CUSTOMER_ID, null, "1", ok(), delivered())
+            .getHeaders()
+            .getFirst(IDEMPOTENT_REPLAYED_HEADER));
+    assertEquals(
+        "true",
+        idempotentRequests
+            .execute("other", CUSTOMER_ID, null, "1", ok(), delivered())
+            .getHeaders()
+            .getFirst(IDEMPOTENT_REPLAYED_HEADER));
+    assertEquals(1, sent.get());
+  }
+
+  @DisplayName("Idempotency :: a retry of an in-flight confirmed request completes with it")
+  @Test
+  void executeAsync_joinsInFlight() {
+    // Given:
+    final CompletableFuture<ResponseEntity<Void>> delivery = new CompletableFuture<>();
+    final CompletableFuture<ResponseEntity<Void>> first =
+        idempotentRequests.executeAsync(KEY, CUSTOMER_ID, null, "1", () -> delivery);
+
+    // When:
+    final CompletableFuture<ResponseEntity<Void>> retry =
+        idempotentRequests.executeAsync(
+            KEY, CUSTOMER_ID, null, "1", () -> CompletableFuture.completedFuture(ok().get()));
+    assertFalse(retry.isDone());
+    delivery.complete(ResponseEntity.ok().build());
+
+    // Then:
+    assertEquals(HttpStatus.OK, first.join().getStatusCode());
+    assertEquals("true", retry.join().getHeaders().getFirst(IDEMPOTENT_REPLAYED_HEADER));
+    assertEquals(0, sent.get());
+  }
+
+  @DisplayName("Idempotency :: keys claimed on another instance are replayed or conflict")
+  @Test
+  void execute_sharedStore() {
+    // Given:
+    final MongoIdempotencyStore store = mock(MongoIdempotencyStore.class);
+    idempotentRequests = idempotentRequests(store);
+    when(store.claim(eq("customer:" + CUSTOMER_ID + ":done"), eq("1"), anyString()))
+        .thenReturn(new MongoIdempotencyStore.Stored("1", 200));
+    when(store.claim(eq("customer:" + CUSTOMER_ID + ":pending"), eq("1"), anyString()))
+        .thenReturn(new MongoIdempotencyStore.Stored("1", null));
+    when(store.claim(eq("customer:" + CUSTOMER_ID + ":" + KEY), eq("1"), anyString()))
+        .thenThrow(new DataAccessResourceFailureException("down"));
+
+    // When: Then:
+    assertEquals(
+        "true",
+        idempotentRequests
+            .execute("done", CUSTOMER_ID, null, "1", ok(), delivered())
+            .getHeaders()
+            .getFirst(IDEMPOTENT_REPLAYED_HEADER));
+    assertThrows(
+        RestProxyConflictException.class,
+        () -> idempotentRequests.execute("pending", CUSTOMER_ID, null, "1", ok(), delivered()));
+    assertNull(
+        idempotentRequests
+            .execute(KEY, CUSTOMER_ID, null, "1", ok(), delivered())
+            .getHeaders()
+            .getFirst(IDEMPOTENT_REPLAYED_HEADER));
+    assertEquals(1, sent.get());
+    verify(store, timeout(1000))
+        .complete(eq("customer:" + CUSTOMER_ID + ":" + KEY), anyString(), eq(200));
+    verify(store, never())
+        .complete(eq("customer:" + CUSTOMER_ID + ":pending"), anyString(), anyInt());
+  }
+
+  @DisplayName("Idempotency :: confirmed requests record their status in the shared store")
+  @Test
+  void executeAsync_sharedStore() {
+    // Given:
+    final MongoIdempotencyStore store = mock(MongoIdempotencyStore.class);
+    idempotentRequests = idempotentRequests(store);
+
+    // When:
+    idempotentRequests
+        .executeAsync(
+            KEY, CUSTOMER_ID, null, "1", () -> CompletableFuture.completedFuture(ok().get()))
+        .join();
+
+    // Then:
+    verify(store, timeout(1000))
+        .complete(eq("customer:" + CUSTOMER_ID + ":" + KEY), anyString(), eq(200));
+  }
+
+  @DisplayName("Idempotency :: JSON and Avro bodies of the same request share a fingerprint")
+  @Test
+  void fingerprint_sameForBothDecodings() {
+    final SendRequest json =
+        SendRequest.builder()
+            .commsType(CommsType.MOBILE_PUSH)
+            .messageType(MessageType.PAYMENT_SEPA)
+            .email(EMAIL)
+            .templateId("payment-received")
+            .templateParams(List.of("John", "125.50"))
+            .build();
+    final SendAvroRequest avro =
+        SendAvroRequest.newBuilder()
+            .setCommsType("MOBILE_PUSH")
+            .setMessageType("PAYMENT_SEPA")
+            .setEmail(EMAIL)
+            .setTemplateId("payment-received")
+            .setTemplateParams(List.of("John", "125.50"))
+            .build();
+
+    assertEquals(IdempotentRequests.fingerprint(json), IdempotentRequests.fingerprint(avro));
+    assertEquals(64, IdempotentRequests.fingerprint(json).length());
+    json.setTemplateParams(List.of("John", "99.00"));
+    assertNotEquals(IdempotentRequests.fingerprint(json), IdempotentRequests.fingerprint(avro));
+    // Field boundaries are part of the encoding
+    json.setTemplateParams(List.of("John99", ".00"));
+    avro.setTemplateParams(List.of("John", "99.00"));
+    assertNotEquals(IdempotentRequests.fingerprint(json), IdempotentRequests.fingerprint(avro));
+    assertTrue(IdempotentRequests.scopedId(KEY, null, IBID).startsWith("ibid:"));
+  }
+
+  private IdempotentRequests idempotentRequests(final MongoIdempotencyStore store) {
+    final IdempotentRequests requests =
+        new IdempotentRequests(new SimpleMeterRegistry(), Optional.ofNullable(store));
+    requests.maximumSize = 100;
+    requests.ttl = Duration.ofMinutes(1);
+    requests.waitTimeoutMs = 1000;
+    requests.init();
+    return requests;
+  }
+
+  private Supplier<CompletableFuture<ResponseEntity<Void>>> delivered() {
+    return () -> {
+      sent.incrementAndGet();
+      return CompletableFuture.completedFuture(ResponseEntity.ok().build());
+    };
+  }
+
+  private Supplier<ResponseEntity<Void>> ok() {
+    return () -> {
+      sent.incrementAndGet();
+      return ResponseEntity.ok().build();
+    };
+  }
+}
@@ -0,0 +1,100 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.idempotency;
+
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MongoIdempotencyStoreTest {
+  private static final String ID = "customer:12345:3f1c2a4e-retry";
+  private static final String FINGERPRINT = "9f86d081884c7d65";
+  private static final String OWNER = "5b0c7a1e-owner";
+
+  @Mock private MongoTemplate mongoTemplate;
+  @InjectMocks private MongoIdempotencyStore store;
+
+  @DisplayName("Shared Idempotency :: claims a key by inserting its document")
+  @Test
+  void claim_inserted() {
+    assertNull(store.claim(ID, FINGERPRINT, OWNER));
+
+    final ArgumentCaptor<Document> document = ArgumentCaptor.forClass(Document.class);
+    verify(mongoTemplate).insert(document.capture(), eq("idempotencyKeys"));
+    assertEquals(ID, document.getValue().get("_id"));
+    assertEquals(FINGERPRINT, document.getValue().get("fingerprint"));
+    assertEquals(OWNER, document.getValue().get("owner"));
+  }
+
+  @DisplayName("Shared Idempotency :: returns what is stored for a key claimed elsewhere")
+  @Test
+  void claim_duplicate() {
+    when(mongoTemplate.insert(any(Document.class), eq("idempotencyKeys")))
+        .thenThrow(new DuplicateKeyException("E11000"));
+    when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq("idempotencyKeys")))
+        .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+    when(mongoTemplate.findById(ID, Document.class, "idempotencyKeys"))
+        .thenReturn(
+            new Document("_id", ID).append("fingerprint", FINGERPRINT).append("status", 200));
+
+    final MongoIdempotencyStore.Stored stored = store.claim(ID, FINGERPRINT, OWNER);
+
+    assertEquals(FINGERPRINT, stored.fingerprint);
+    assertEquals(200, stored.status);
+  }
+
+  @DisplayName("Shared Idempotency :: takes over a claim left unanswered past the timeout")
+  @Test
+  void claim_takeOver() {
+    when(mongoTemplate.insert(any(Document.class), eq("idempotencyKeys")))
+        .thenThrow(new DuplicateKeyException("E11000"));
+    when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq("idempotencyKeys")))
+        .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+    assertNull(store.claim(ID, FINGERPRINT, OWNER));
+
+    final ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate).updateFirst(query.capture(), update.capture(), eq("idempotencyKeys"));
+    final Document filter = query.getValue().getQueryObject();
+    assertEquals(FINGERPRINT, filter.get("fingerprint"));
+    assertEquals(new Document("$exists", false), filter.get("status"));
+    final Date claimedBefore = (Date) ((Document) filter.get("claimedAt")).get("$lt");
+    assertTrue(claimedBefore.getTime() <= System.currentTimeMillis() - 30_000);
+    assertEquals(OWNER, ((Document) update.getValue().getUpdateObject().get("$set")).get("owner"));
+  }
+
+  @DisplayName("Shared Idempotency :: releases only keys without a response")
+  @Test
+  void release() {
+    store.release(ID, OWNER);
+
+    final ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).remove(query.capture(), eq("idempotencyKeys"));
+    assertEquals(
+        new Document("_id", ID)
+            .append("owner", OWNER)
+            .append("status", new Document("$exists", false)),
+        query.getValue().getQueryObject());
+  }
+}
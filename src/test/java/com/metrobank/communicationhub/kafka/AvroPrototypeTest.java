@@ -0,0 +1,166 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.kafka;
+
+import org.apache.avro.Schema;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AvroPrototypeTest {
+  private static final Schema ITEM_SCHEMA =
+      new Schema.Parser()
+          .parse(
+              "{\"type\":\"record\",\"name\":\"Item\",\"namespace\":\"test\",\"fields\":["
+                  + "{\"name\":\"key\",\"type\":\"string\"}]}");
+  private static final Schema ORDER_SCHEMA =
+      new Schema.Parser()
+          .addTypes(Map.of("test.Item", ITEM_SCHEMA))
+          .parse(
+              "{\"type\":\"record\",\"name\":\"Order\",\"namespace\":\"test\",\"fields\":["
+                  + "{\"name\":\"id\",\"type\":\"string\"},"
+                  + "{\"name\":\"note\",\"type\":[\"null\",\"string\"],\"default\":null},"
+                  + "{\"name\":\"priority\",\"type\":\"string\",\"default\":\"NORMAL\"},"
+                  + "{\"name\":\"items\",\"default\":null,"
+                  + "\"type\":[\"null\",{\"type\":\"array\",\"items\":\"test.Item\"}]}]}");
+
+  private final AvroPrototype<Order> prototype = AvroPrototype.of(Order::new);
+
+  @DisplayName("Prototype :: passes a record with every required field set")
+  @Test
+  void checked_complete() {
+    final Order order;
+    final Order checked;
+    Given:
+    {
+      order = prototype.newRecord();
+      order.put(0, "order-1");
+      order.put(3, List.of(new Item("a")));
+    }
+    When:
+    {
+      checked = AvroPrototype.checked(order);
+    }
+    Then:
+    {
+      assertSame(order, checked);
+      assertEquals("NORMAL", checked.get(2).toString());
+      assertNull(AvroPrototype.unsetField(order));
+    }
+  }
+
+  @DisplayName("Prototype :: refuses a required field without a default left unset")
+  @Test
+  void checked_requiredFieldUnset() {
+    final Order order;
+    final IllegalArgumentException e;
+    Given:
+    {
+      order = prototype.newRecord();
+    }
+    When:
+    {
+      e = assertThrows(IllegalArgumentException.class, () -> AvroPrototype.checked(order));
+    }
+    Then:
+    {
+      assertEquals("Field id does not accept null values", e.getMessage());
+    }
+  }
+
+  @DisplayName("Prototype :: refuses a required field set back to null over its default")
+  @Test
+  void unsetField_defaultCleared() {
+    final Order order;
+    final String unset;
+    Given:
+    {
+      order = prototype.newRecord();
+      order.put(0, "order-1");
+      order.put(2, null);
+    }
+    When:
+    {
+      unset = AvroPrototype.unsetField(order);
+    }
+    Then:
+    {
+      assertEquals("priority", unset);
+    }
+  }
+
+  @DisplayName("Prototype :: names a required field left unset in a record held by an array")
+  @Test
+  void unsetField_nestedRecord() {
+    final Order order;
+    final String unset;
+    Given:
+    {
+      order = prototype.newRecord();
+      order.put(0, "order-1");
+      final List<Item> items = new ArrayList<>();
+      items.add(new Item("a"));
+      items.add(new Item(null));
+      order.put(3, items);
+    }
+    When:
+    {
+      unset = AvroPrototype.unsetField(order);
+    }
+    Then:
+    {
+      assertEquals("items.key", unset);
+    }
+  }
+
+  /** Hand-written stand-in for a generated record, so the schema is fixed by the test. */
+  static final class Order extends SpecificRecordBase {
+    private final Object[] values = new Object[ORDER_SCHEMA.getFields().size()];
+
+    @Override
+    public Schema getSchema() {
+      return ORDER_SCHEMA;
+    }
+
+    @Override
+    public Object get(final int field) {
+      return values[field];
+    }
+
+    @Override
+    public void put(final int field, final Object value) {
+      values[field] = value;
+    }
+  }
+
+  static final class Item extends SpecificRecordBase {
+    private Object key;
+
+    Item(final Object key) {
+      this.key = key;
+    }
+
+    @Override
+    public Schema getSchema() {
+      return ITEM_SCHEMA;
+    }
+
+    @Override
+    public Object get(final int field) {
+      return key;
+    }
+
+    @Override
+    public void put(final int field, final Object value) {
+      key = value;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.kafka;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CustomerAffinityPartitionerTest {
+  private static final String TOPIC = "sendTopic";
+  private static final int PARTITIONS = 12;
+
+  private final CustomerAffinityPartitioner partitioner = new CustomerAffinityPartitioner();
+  private final Cluster cluster = cluster();
+
+  @DisplayName("Partitioner :: keeps every device of a customer on the customer's partition")
+  @Test
+  void partition_customerAffinity() {
+    int customerPartition = partition(RecordKeyStrategy.CUSTOMER.key("1", 12345, null));
+
+    assertEquals(
+        customerPartition,
+        partition(RecordKeyStrategy.CUSTOMER_DEVICE.key("2", 12345, "device-1")));
+    assertEquals(
+        customerPartition,
+        partition(RecordKeyStrategy.CUSTOMER_DEVICE.key("3", 12345, "device-2")));
+  }
+
+  @DisplayName("Partitioner :: spreads customers over the partitions")
+  @Test
+  void partition_spreadsCustomers() {
+    boolean[] used = new boolean[PARTITIONS];
+    for (int customerId = 0; customerId < 1000; customerId++) {
+      used[partition(RecordKeyStrategy.CUSTOMER.key("1", customerId, null))] = true;
+    }
+    for (boolean partitionUsed : used) {
+      assertTrue(partitionUsed);
+    }
+  }
+
+  private int partition(String key) {
+    return partitioner.partition(
+        TOPIC, key, key.getBytes(StandardCharsets.UTF_8), null, null, cluster);
+  }
+
+  private static Cluster cluster() {
+    Node node = new Node(0, "localhost", 9092);
+    List<PartitionInfo> partitions = new ArrayList<>();
+    for (int i = 0; i < PARTITIONS; i++) {
+      partitions.add(new PartitionInfo(TOPIC, i, node, new Node[] {node}, new Node[] {node}));
+    }
+    return new Cluster(
+        "cluster",
+        Collections.singletonList(node),
+        partitions,
+        Collections.emptySet(),
+        Collections.emptySet());
+  }
+}
@@ -0,0 +1,64 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.kafka;
+
+import com.metrobank.communicationhub.model.request.CommsType;
+import com.metrobank.communicationhub.model.request.MessageType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static com.metrobank.communicationhub.util.Constant.REGISTRATION_AVRO_REQUEST;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class QosLanesTest {
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final QosLanes.Lane critical =
+      lane("critical", Set.of("MOBILE_PUSH", "SMS"), Set.of("PAYMENT_SEPA"), null);
+  private final QosLanes.Lane bulk = lane("bulk", Set.of("BROADCAST"), Set.of(), "bulkTopic");
+  private final QosLanes qosLanes = new QosLanes(List.of(critical, bulk));
+
+  @DisplayName("QoS Lanes :: sends go to the first lane taking their comms and message type")
+  @Test
+  void route_byType() {
+    assertSame(critical, qosLanes.route(CommsType.SMS, MessageType.PAYMENT_SEPA));
+    assertSame(critical, qosLanes.route("MOBILE_PUSH", "PAYMENT_SEPA"));
+    assertSame(bulk, qosLanes.route(CommsType.BROADCAST, MessageType.PAYMENT_SEPA));
+    assertSame(bulk, qosLanes.route("BROADCAST", null));
+    assertNull(qosLanes.route(CommsType.EMAIL, MessageType.PAYMENT_SEPA));
+    assertNull(qosLanes.route(null, null));
+  }
+
+  @DisplayName("QoS Lanes :: records move to the lane's own topic and are counted")
+  @Test
+  void route_retargets() {
+    final ProducerRecord<String, SpecificRecordBase> record =
+        new ProducerRecord<>("sendTopic", "key", REGISTRATION_AVRO_REQUEST);
+    record.headers().add("x-request-id", "1".getBytes());
+
+    final ProducerRecord<String, SpecificRecordBase> routed = bulk.route(record);
+
+    assertEquals("bulkTopic", routed.topic());
+    assertEquals("key", routed.key());
+    assertEquals(record.headers(), routed.headers());
+    assertSame(record, critical.route(record));
+    assertEquals("sendTopic", critical.topic("sendTopic"));
+    assertEquals(
+        1.0, meterRegistry.get("restproxy.qos.records").tag("lane", "bulk").counter().count());
+  }
+
+  private QosLanes.Lane lane(
+      final String name,
+      final Set<String> commsTypes,
+      final Set<String> messageTypes,
+      final String topic) {
+    return new QosLanes.Lane(
+        name, commsTypes, messageTypes, topic, null, null, null, meterRegistry);
+  }
+}
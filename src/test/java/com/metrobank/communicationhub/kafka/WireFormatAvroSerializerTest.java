@@ -0,0 +1,98 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.kafka;
+
+import com.metrobank.communicationhub.model.request.CommsType;
+import com.metrobank.communicationhub.model.request.MessageType;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.serializers.AbstractKafkaSchemaSerDeConfig;
+import io.confluent.kafka.serializers.KafkaAvroDeserializer;
+import io.confluent.kafka.serializers.KafkaAvroDeserializerConfig;
+import io.confluent.kafka.serializers.KafkaAvroSerializer;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.metrobank.communicationhub.util.Constant.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class WireFormatAvroSerializerTest {
+  private static final Map<String, Object> CONFIG =
+      Map.of(AbstractKafkaSchemaSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG, "mock://test");
+  private static final SendAvroRequest SEND_AVRO_REQUEST =
+      SendAvroRequest.newBuilder()
+          .setCommsType(CommsType.MOBILE_PUSH.name())
+          .setCustomerId(CUSTOMER_ID)
+          .setMessageType(MessageType.PAYMENT_SEPA.name())
+          .setEmail(EMAIL)
+          .setMobileNo(MOBILE_NO)
+          .setTemplateId("payment-received")
+          .setTemplateParams(List.of("John", "125.50"))
+          .build();
+
+  private final SchemaRegistryClient schemaRegistry = new MockSchemaRegistryClient();
+  private final KafkaAvroSerializer stock = new KafkaAvroSerializer(schemaRegistry, CONFIG);
+  private final KafkaAvroSerializer resolver = spy(new KafkaAvroSerializer(schemaRegistry, CONFIG));
+  private final WireFormatAvroSerializer serializer = new WireFormatAvroSerializer(resolver);
+
+  @DisplayName("Serializer :: writes the same bytes as the stock serializer before and after pinning")
+  @Test
+  void serialize_byteCompatible() {
+    for (int i = 0; i < 2; i++) {
+      assertCompatible("send", SEND_AVRO_REQUEST);
+      assertCompatible("register", REGISTRATION_AVRO_REQUEST);
+      assertCompatible("preference", COMMS_PREFERENCE);
+    }
+  }
+
+  @DisplayName("Serializer :: resolves the schema id once per topic and schema")
+  @Test
+  void serialize_pinsSchemaId() {
+    for (int i = 0; i < 3; i++) {
+      serializer.serialize("send", SEND_AVRO_REQUEST);
+      serializer.serialize("register", REGISTRATION_AVRO_REQUEST);
+    }
+
+    verify(resolver, times(1)).serialize(eq("send"), any());
+    verify(resolver, times(1)).serialize(eq("register"), any());
+  }
+
+  @DisplayName("Serializer :: records read back through the stock deserializer")
+  @Test
+  void serialize_roundTrip() {
+    final KafkaAvroDeserializer deserializer =
+        new KafkaAvroDeserializer(
+            schemaRegistry,
+            Map.of(
+                AbstractKafkaSchemaSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG,
+                "mock://test",
+                KafkaAvroDeserializerConfig.SPECIFIC_AVRO_READER_CONFIG,
+                true));
+    serializer.serialize("send", SEND_AVRO_REQUEST);
+
+    assertEquals(
+        SEND_AVRO_REQUEST,
+        deserializer.deserialize("send", serializer.serialize("send", SEND_AVRO_REQUEST)));
+  }
+
+  @DisplayName("Serializer :: leaves null values to the stock serializer")
+  @Test
+  void serialize_null() {
+    assertNull(serializer.serialize("send", null));
+  }
+
+  private void assertCompatible(final String topic, final SpecificRecordBase record) {
+    assertArrayEquals(stock.serialize(topic, record), serializer.serialize(topic, record));
+  }
+}
@@ -0,0 +1,15 @@
+package com.metrobank.communicationhub.model.batch;
+
+import com.metrobank.communicationhub.util.pojoUtility.PojoTestUtility;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class BatchSendResponseTest {
+  @Test
+  @DisplayName("should access Batch Send Response class fields with getter and setter")
+  void shouldAccessBatchSendResponseFieldsProperly() {
+
+    PojoTestUtility.validateAccessors(BatchSendResponse.class);
+    PojoTestUtility.validateAccessors(BatchSendResponse.LineResult.class);
+  }
+}
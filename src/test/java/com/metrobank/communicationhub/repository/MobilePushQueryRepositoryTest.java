@@ -0,0 +1,114 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.repository;
+
+import com.metrobank.communicationhub.common.model.MobilePushPreference;
+import com.metrobank.communicationhub.common.model.MobilePushRegistration;
+import com.metrobank.communicationhub.exception.RestProxyDeadlineExceededException;
+import com.metrobank.communicationhub.util.RequestDeadline;
+import org.bson.Document;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@ExtendWith(MockitoExtension.class)
+class MobilePushQueryRepositoryTest {
+  private static final Integer CUSTOMER_ID = 12345;
+
+  @Mock private MongoTemplate mongoTemplate;
+  @InjectMocks private MobilePushQueryRepository mobilePushQueryRepository;
+
+  @DisplayName("Registrations :: filters on the device and projects the response fields")
+  @Test
+  void findRegistrations() {
+    mobilePushQueryRepository.findRegistrations(
+        CUSTOMER_ID, "MOBILE_PUSH", "ACTIVE", "abd234fe", "ANDROID");
+
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(query.capture(), eq(MobilePushRegistration.class));
+    assertEquals(
+        new Document("customerId", CUSTOMER_ID)
+            .append("commsType", "MOBILE_PUSH")
+            .append("status", "ACTIVE")
+            .append("deviceId", "abd234fe")
+            .append("deviceType", "ANDROID"),
+        query.getValue().getQueryObject());
+    assertEquals(
+        new Document("commsType", 1)
+            .append("deviceId", 1)
+            .append("deviceType", 1)
+            .append("status", 1)
+            .append("id", 0),
+        query.getValue().getFieldsObject());
+  }
+
+  @DisplayName("Registrations :: projects the ids as well for the registration cache")
+  @Test
+  void findRegistrationsWithIds() {
+    mobilePushQueryRepository.findRegistrationsWithIds(
+        CUSTOMER_ID, "MOBILE_PUSH", "ACTIVE", "abd234fe", "ANDROID");
+
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(query.capture(), eq(MobilePushRegistration.class));
+    assertEquals(
+        new Document("commsType", 1)
+            .append("deviceId", 1)
+            .append("deviceType", 1)
+            .append("status", 1)
+            .append("id", 1),
+        query.getValue().getFieldsObject());
+  }
+
+  @DisplayName("Registrations :: bounded by the request deadline, and not run once it has passed")
+  @Test
+  void findRegistrations_deadline() {
+    try {
+      RequestDeadline.set(RequestDeadline.fromHeaders(null, "2000"));
+      mobilePushQueryRepository.findRegistrations(
+          CUSTOMER_ID, "MOBILE_PUSH", "ACTIVE", "abd234fe", "ANDROID");
+
+      ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+      verify(mongoTemplate).find(query.capture(), eq(MobilePushRegistration.class));
+      final Long maxTimeMsec = query.getValue().getMeta().getMaxTimeMsec();
+      assertTrue(maxTimeMsec > 1000 && maxTimeMsec <= 2000, "maxTimeMS " + maxTimeMsec);
+
+      RequestDeadline.set(RequestDeadline.fromHeaders(null, "0"));
+      assertThrows(
+          RestProxyDeadlineExceededException.class,
+          () ->
+              mobilePushQueryRepository.findPreferences(CUSTOMER_ID, "MOBILE_PUSH", "abd234fe"));
+      verifyNoMoreInteractions(mongoTemplate);
+    } finally {
+      RequestDeadline.clear();
+    }
+  }
+
+  @DisplayName("Preferences :: filters on the device and projects the response fields")
+  @Test
+  void findPreferences() {
+    mobilePushQueryRepository.findPreferences(CUSTOMER_ID, "MOBILE_PUSH", "abd234fe");
+
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(query.capture(), eq(MobilePushPreference.class));
+    assertEquals(
+        new Document("customerId", CUSTOMER_ID)
+            .append("commsType", "MOBILE_PUSH")
+            .append("deviceId", "abd234fe"),
+        query.getValue().getQueryObject());
+    assertEquals(
+        new Document("messageType", 1).append("preferences", 1).append("id", 0),
+        query.getValue().getFieldsObject());
+  }
+}
@@ -0,0 +1,94 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.repository;
+
+import com.metrobank.communicationhub.common.model.MobilePushRegistration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MongoIndexVerifierTest {
+  private static final List<String> REGISTRATION_KEYS =
+      List.of("customerId", "commsType", "status", "deviceId", "deviceType");
+
+  @Mock private MongoTemplate mongoTemplate;
+  @Mock private IndexOperations indexOperations;
+  @InjectMocks private MongoIndexVerifier mongoIndexVerifier;
+
+  @BeforeEach
+  void setUp() {
+    when(mongoTemplate.getConverter())
+        .thenReturn(new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+    when(mongoTemplate.indexOps("mobilePushRegistration")).thenReturn(indexOperations);
+  }
+
+  @DisplayName("Index Verifier :: accepts an index leading with the query fields in any order")
+  @Test
+  void verify_indexPresent() {
+    mongoIndexVerifier.createMissing = true;
+    when(indexOperations.getIndexInfo())
+        .thenReturn(
+            List.of(
+                index("_id"),
+                index("deviceId", "customerId", "deviceType", "status", "commsType", "mdInsertDtTm")));
+
+    mongoIndexVerifier.verify(MobilePushRegistration.class, REGISTRATION_KEYS);
+
+    verify(indexOperations, never()).ensureIndex(any());
+  }
+
+  @DisplayName("Index Verifier :: creates a missing index when allowed")
+  @Test
+  void verify_createsMissingIndex() {
+    mongoIndexVerifier.createMissing = true;
+    when(indexOperations.getIndexInfo()).thenReturn(List.of(index("_id"), index("customerId")));
+
+    mongoIndexVerifier.verify(MobilePushRegistration.class, REGISTRATION_KEYS);
+
+    ArgumentCaptor<Index> created = ArgumentCaptor.forClass(Index.class);
+    verify(indexOperations).ensureIndex(created.capture());
+    assertEquals(REGISTRATION_KEYS, List.copyOf(created.getValue().getIndexKeys().keySet()));
+  }
+
+  @DisplayName("Index Verifier :: only warns about a missing index by default")
+  @Test
+  void verify_warnsOnly() {
+    when(indexOperations.getIndexInfo()).thenReturn(Collections.emptyList());
+
+    mongoIndexVerifier.verify(MobilePushRegistration.class, REGISTRATION_KEYS);
+
+    verify(indexOperations, never()).ensureIndex(any());
+  }
+
+  private static IndexInfo index(String... keys) {
+    List<IndexField> fields = new ArrayList<>();
+    for (String key : keys) {
+      fields.add(IndexField.create(key, Sort.Direction.ASC));
+    }
+    return new IndexInfo(fields, String.join("_", keys), false, false, "");
+  }
+}
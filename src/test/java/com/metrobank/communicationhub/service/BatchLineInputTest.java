@@ -0,0 +1,71 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchLineInputTest {
+
+  @DisplayName("Batch Line Input :: cuts a line past the size limit short with NUL")
+  @Test
+  void read_oversized() throws IOException {
+    // Given:
+    final BatchLineInput lines = input("{}\n0123456789\n{}", 10, 4);
+
+    // When:
+    final String read = new String(lines.readAllBytes(), StandardCharsets.UTF_8);
+
+    // Then:
+    assertEquals("{}\n0123\u0000\n{}", read);
+    assertFalse(lines.oversized(0));
+    assertTrue(lines.oversized(1));
+    assertFalse(lines.oversized(2));
+    assertEquals(2, lines.line());
+  }
+
+  @DisplayName("Batch Line Input :: stops after the line limit and flags what is left")
+  @Test
+  void read_truncated() throws IOException {
+    // Given:
+    final BatchLineInput lines = input("{}\n{}\n{}\n", 2, 64);
+
+    // When:
+    final String read = new String(lines.readAllBytes(), StandardCharsets.UTF_8);
+
+    // Then:
+    assertEquals("{}\n{}\n", read);
+    assertTrue(lines.truncated());
+  }
+
+  @DisplayName("Batch Line Input :: replays bytes handed back, then skips the rest of the line")
+  @Test
+  void skipFailedLine_afterUnread() throws IOException {
+    // Given:
+    final BatchLineInput lines = input("{\"a\":1,\n{}\n", 10, 64);
+    final byte[] read = new byte[5];
+    lines.read(read, 0, read.length);
+    lines.read(read, 0, read.length);
+
+    // When:
+    lines.unread("\n{}".getBytes(StandardCharsets.UTF_8));
+    final int failed = lines.skipFailedLine();
+
+    // Then:
+    assertEquals(0, failed);
+    assertEquals(1, lines.line());
+    assertEquals("{}\n", new String(lines.readAllBytes(), StandardCharsets.UTF_8));
+  }
+
+  private static BatchLineInput input(final String body, final int maxLines, final long maxBytes) {
+    return new BatchLineInput(
+        new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), maxLines, maxBytes);
+  }
+}
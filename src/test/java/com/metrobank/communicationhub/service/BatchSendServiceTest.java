@@ -0,0 +1,284 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import com.metrobank.communicationhub.admission.AdmissionController;
+import com.metrobank.communicationhub.model.batch.BatchSendResponse;
+import com.metrobank.communicationhub.model.batch.BatchSendResponse.LineStatus;
+import com.metrobank.communicationhub.model.request.BatchSendRequest;
+import com.metrobank.communicationhub.suppression.StormSuppressor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import javax.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static com.metrobank.communicationhub.util.Constant.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BatchSendServiceTest {
+  private static final String UNKNOWN_IBID = "999999999999";
+
+  @Mock private KafkaTemplate kafkaTemplate;
+  @Mock private CustomerIdResolver customerIdResolver;
+  private final ObjectMapper objectMapper =
+      Jackson2ObjectMapperBuilder.json().modulesToInstall(new ParameterNamesModule()).build();
+  private RestProxyService restProxyService;
+  private BatchSendService batchSendService;
+
+  @BeforeEach
+  void setUp() {
+    restProxyService =
+        new RestProxyService(
+            kafkaTemplate,
+            customerIdResolver,
+            new AdmissionController(kafkaTemplate, new SimpleMeterRegistry()));
+    restProxyService.sendTopic = "sendTopic";
+    batchSendService =
+        new BatchSendService(
+            restProxyService,
+            customerIdResolver,
+            objectMapper,
+            Validation.buildDefaultValidatorFactory().getValidator());
+    batchSendService.chunkSize = 3;
+    batchSendService.maxLines = 7;
+    batchSendService.ackTimeoutMs = 1000L;
+  }
+
+  @DisplayName("Batch Send :: reports the outcome of every line")
+  @Test
+  void sendBatch_mixedLines() throws Exception {
+    BatchSendResponse response;
+    Given:
+    {
+      SettableListenableFuture<SendResult<String, Object>> acked = new SettableListenableFuture<>();
+      acked.set(mock(SendResult.class));
+      when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(acked);
+      when(customerIdResolver.getCustomerIdFromIbId(IBID))
+          .thenReturn(Optional.of(CUSTOMER_ID));
+      when(customerIdResolver.getCustomerIdFromIbId(UNKNOWN_IBID))
+          .thenReturn(Optional.empty());
+    }
+    When:
+    {
+      String body =
+          String.join(
+              "\n",
+              line(BatchSendRequest.builder().customerId(CUSTOMER_ID).request(SEND_REQUEST).build()),
+              line(BatchSendRequest.builder().ibId(IBID).request(SEND_REQUEST).build()),
+              line(BatchSendRequest.builder().ibId(IBID).request(SEND_REQUEST).build()),
+              line(BatchSendRequest.builder().customerId(CUSTOMER_ID).request(NULL_SEND_REQUEST).build()),
+              "",
+              "{not json",
+              line(BatchSendRequest.builder().ibId(UNKNOWN_IBID).request(SEND_REQUEST).build()),
+              line(BatchSendRequest.builder().customerId(CUSTOMER_ID).request(SEND_REQUEST).build()));
+      response =
+          batchSendService.send(
+              new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), "1234567");
+    }
+    Then:
+    {
+      assertEquals(3, response.getAccepted());
+      assertEquals(4, response.getRejected());
+      assertEquals(LineStatus.ACCEPTED, response.getResults().get(0).getStatus());
+      assertEquals(LineStatus.ACCEPTED, response.getResults().get(1).getStatus());
+      assertEquals(LineStatus.ACCEPTED, response.getResults().get(2).getStatus());
+      assertEquals("Missing Data", response.getResults().get(3).getMessage());
+      // the blank line is skipped but still counted
+      assertEquals(5, response.getResults().get(4).getIndex());
+      assertEquals("Invalid request", response.getResults().get(4).getMessage());
+      assertEquals("Invalid IbId", response.getResults().get(5).getMessage());
+      assertEquals(7, response.getResults().get(6).getIndex());
+      assertEquals(
+          "Batch line limit exceeded, remaining lines not read",
+          response.getResults().get(6).getMessage());
+      verify(kafkaTemplate, times(3)).send((ProducerRecord) any());
+      // lines 1 and 2 share a chunk and an IbId, so it is looked up once
+      verify(customerIdResolver, times(1)).getCustomerIdFromIbId(IBID);
+    }
+  }
+
+  @DisplayName("Batch Send :: reports lines the broker did not acknowledge as failed")
+  @Test
+  void sendBatch_deliveryFailed() throws Exception {
+    SettableListenableFuture<SendResult<String, Object>> failed = new SettableListenableFuture<>();
+    failed.setException(new IllegalStateException("broker unavailable"));
+    when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(failed);
+
+    BatchSendResponse response =
+        batchSendService.send(
+            new ByteArrayInputStream(
+                line(BatchSendRequest.builder().customerId(CUSTOMER_ID).request(SEND_REQUEST).build())
+                    .getBytes(StandardCharsets.UTF_8)),
+            "1234567");
+
+    assertEquals(0, response.getAccepted());
+    assertEquals(LineStatus.FAILED, response.getResults().get(0).getStatus());
+  }
+
+  @DisplayName("Batch Send :: stops reading at the line limit, blank lines included")
+  @Test
+  void sendBatch_truncated() throws Exception {
+    BatchSendResponse response;
+    Given:
+    {
+      SettableListenableFuture<SendResult<String, Object>> acked = new SettableListenableFuture<>();
+      acked.set(mock(SendResult.class));
+      when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(acked);
+    }
+    When:
+    {
+      String valid =
+          line(BatchSendRequest.builder().customerId(CUSTOMER_ID).request(SEND_REQUEST).build());
+      String body = valid + "\n".repeat(10) + String.join("\n", valid, valid, valid);
+      response =
+          batchSendService.send(
+              new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), "1234567");
+    }
+    Then:
+    {
+      assertEquals(1, response.getAccepted());
+      assertEquals(1, response.getRejected());
+      assertEquals(2, response.getResults().size());
+      assertEquals(7, response.getResults().get(1).getIndex());
+      assertEquals(LineStatus.REJECTED, response.getResults().get(1).getStatus());
+      verify(kafkaTemplate, times(1)).send((ProducerRecord) any());
+    }
+  }
+
+  @DisplayName("Batch Send :: goes on after lines that are not JSON or not a send request")
+  @Test
+  void sendBatch_recoversPerLine() throws Exception {
+    BatchSendResponse response;
+    Given:
+    {
+      SettableListenableFuture<SendResult<String, Object>> acked = new SettableListenableFuture<>();
+      acked.set(mock(SendResult.class));
+      when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(acked);
+    }
+    When:
+    {
+      String valid =
+          line(BatchSendRequest.builder().customerId(CUSTOMER_ID).request(SEND_REQUEST).build());
+      String body =
+          String.join(
+              "\n",
+              "{\"customerId\":1,\"request\":{\"templateId\":\"cut short",
+              valid,
+              "{\"customerId\":\"not a number\",\"request\":{}}",
+              valid,
+              "{\"customerId\":1,\"request\":",
+              "",
+              valid);
+      response =
+          batchSendService.send(
+              new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), "1234567");
+    }
+    Then:
+    {
+      assertEquals(2, response.getAccepted());
+      assertEquals(5, response.getRejected());
+      assertEquals(LineStatus.REJECTED, response.getResults().get(0).getStatus());
+      assertEquals(1, response.getResults().get(1).getIndex());
+      assertEquals(LineStatus.ACCEPTED, response.getResults().get(1).getStatus());
+      assertEquals(2, response.getResults().get(2).getIndex());
+      assertEquals("Invalid request", response.getResults().get(2).getMessage());
+      assertEquals(LineStatus.ACCEPTED, response.getResults().get(3).getStatus());
+      // the record left open on line 4 takes the next lines with it, up to the end of the body
+      assertEquals(4, response.getResults().get(4).getIndex());
+      assertEquals(5, response.getResults().get(5).getIndex());
+      assertEquals(6, response.getResults().get(6).getIndex());
+      assertEquals(LineStatus.REJECTED, response.getResults().get(6).getStatus());
+    }
+  }
+
+  @DisplayName("Batch Send :: rejects a line over the size limit and reads on after it")
+  @Test
+  void sendBatch_lineTooLarge() throws Exception {
+    BatchSendResponse response;
+    Given:
+    {
+      batchSendService.maxLineSize = DataSize.ofBytes(512);
+      SettableListenableFuture<SendResult<String, Object>> acked = new SettableListenableFuture<>();
+      acked.set(mock(SendResult.class));
+      when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(acked);
+    }
+    When:
+    {
+      String valid =
+          line(BatchSendRequest.builder().customerId(CUSTOMER_ID).request(SEND_REQUEST).build());
+      String body =
+          String.join(
+              "\n",
+              valid,
+              "{\"customerId\":1,\"request\":{\"templateId\":\"" + "x".repeat(100_000) + "\"}}",
+              valid);
+      response =
+          batchSendService.send(
+              new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), "1234567");
+    }
+    Then:
+    {
+      assertEquals(2, response.getAccepted());
+      assertEquals(1, response.getResults().get(1).getIndex());
+      assertEquals(LineStatus.REJECTED, response.getResults().get(1).getStatus());
+      assertEquals("Batch line too large", response.getResults().get(1).getMessage());
+      assertEquals(LineStatus.ACCEPTED, response.getResults().get(2).getStatus());
+    }
+  }
+
+  @DisplayName("Batch Send :: storm repeats are accepted without being produced")
+  @Test
+  void sendBatch_stormSuppressed() throws Exception {
+    BatchSendResponse response;
+    Given:
+    {
+      StormSuppressor stormSuppressor = new StormSuppressor(new SimpleMeterRegistry());
+      ReflectionTestUtils.setField(stormSuppressor, "action", StormSuppressor.Action.DROP);
+      stormSuppressor.init();
+      restProxyService.stormSuppressor = stormSuppressor;
+      when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(new SettableListenableFuture<>());
+      when(customerIdResolver.getCustomerIdFromIbId(IBID)).thenReturn(Optional.of(CUSTOMER_ID));
+    }
+    When:
+    {
+      String body =
+          String.join(
+              "\n",
+              line(BatchSendRequest.builder().customerId(CUSTOMER_ID).request(SEND_REQUEST).build()),
+              line(BatchSendRequest.builder().ibId(IBID).request(SEND_REQUEST).build()),
+              line(BatchSendRequest.builder().customerId(CUSTOMER_ID).request(SEND_REQUEST).build()));
+      response =
+          batchSendService.send(
+              new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), "1234567");
+    }
+    Then:
+    {
+      assertEquals(LineStatus.ACCEPTED, response.getResults().get(1).getStatus());
+      assertEquals(LineStatus.ACCEPTED, response.getResults().get(2).getStatus());
+      verify(kafkaTemplate, times(1)).send((ProducerRecord) any());
+    }
+  }
+
+  private String line(BatchSendRequest request) throws Exception {
+    return objectMapper.writeValueAsString(request);
+  }
+}
@@ -0,0 +1,145 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import com.metrobank.communicationhub.breaker.MongoReads;
+import com.metrobank.communicationhub.common.service.CustomerIdIbIdMappingService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static com.metrobank.communicationhub.util.Constant.CUSTOMER_ID;
+import static com.metrobank.communicationhub.util.Constant.IBID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CustomerIdResolverTest {
+  private static final String UNKNOWN_IBID = "999999999999";
+
+  @Mock private CustomerIdIbIdMappingService customerIdIbIdMappingService;
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private CustomerIdResolver customerIdResolver;
+
+  @BeforeEach
+  void setUp() {
+    customerIdResolver = new CustomerIdResolver(customerIdIbIdMappingService, meterRegistry);
+    customerIdResolver.enabled = true;
+    customerIdResolver.maximumSize = 100;
+    customerIdResolver.ttl = Duration.ofHours(1);
+    customerIdResolver.negativeTtl = Duration.ofSeconds(30);
+    customerIdResolver.init();
+  }
+
+  @DisplayName("Customer Id Resolver :: looks up an IbId once")
+  @Test
+  void getCustomerIdFromIbId_cached() {
+    when(customerIdIbIdMappingService.getCustomerIdFromIbId(IBID))
+        .thenReturn(Optional.of(CUSTOMER_ID));
+
+    assertEquals(Optional.of(CUSTOMER_ID), customerIdResolver.getCustomerIdFromIbId(IBID));
+    assertEquals(Optional.of(CUSTOMER_ID), customerIdResolver.getCustomerIdFromIbId(IBID));
+
+    verify(customerIdIbIdMappingService, times(1)).getCustomerIdFromIbId(IBID);
+    assertEquals(1.0, meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count());
+  }
+
+  @DisplayName("Customer Id Resolver :: caches unknown IbIds")
+  @Test
+  void getCustomerIdFromIbId_negativeCached() {
+    when(customerIdIbIdMappingService.getCustomerIdFromIbId(UNKNOWN_IBID))
+        .thenReturn(Optional.empty());
+
+    assertEquals(Optional.empty(), customerIdResolver.getCustomerIdFromIbId(UNKNOWN_IBID));
+    assertEquals(Optional.empty(), customerIdResolver.getCustomerIdFromIbId(UNKNOWN_IBID));
+
+    verify(customerIdIbIdMappingService, times(1)).getCustomerIdFromIbId(UNKNOWN_IBID);
+  }
+
+  @DisplayName("Customer Id Resolver :: a lookup racing an invalidation is not cached")
+  @Test
+  void getCustomerIdFromIbId_invalidatedWhileLoading() {
+    // Given: the mapping changes while the first lookup is reading the old one
+    when(customerIdIbIdMappingService.getCustomerIdFromIbId(IBID))
+        .thenAnswer(
+            invocation -> {
+              customerIdResolver.invalidate(IBID);
+              return Optional.of(CUSTOMER_ID);
+            })
+        .thenReturn(Optional.of(CUSTOMER_ID + 1));
+
+    // When:
+    assertEquals(Optional.of(CUSTOMER_ID), customerIdResolver.getCustomerIdFromIbId(IBID));
+
+    // Then:
+    assertNull(customerIdResolver.getIfCached(IBID));
+    assertEquals(Optional.of(CUSTOMER_ID + 1), customerIdResolver.getCustomerIdFromIbId(IBID));
+    assertEquals(Optional.of(CUSTOMER_ID + 1), customerIdResolver.getIfCached(IBID));
+  }
+
+  @DisplayName("Customer Id Resolver :: a mapping served stale is not cached")
+  @Test
+  void getCustomerIdFromIbId_staleNotCached() {
+    // Given:
+    final MongoReads mongoReads = new MongoReads(meterRegistry);
+    mongoReads.init();
+    customerIdResolver.mongoReads = mongoReads;
+    when(customerIdIbIdMappingService.getCustomerIdFromIbId(IBID))
+        .thenReturn(Optional.of(CUSTOMER_ID))
+        .thenThrow(new DataAccessResourceFailureException("mongo down"));
+    customerIdResolver.getCustomerIdFromIbId(IBID);
+    customerIdResolver.invalidate(IBID);
+
+    try {
+      // When:
+      final Optional<Integer> customerId = customerIdResolver.getCustomerIdFromIbId(IBID);
+
+      // Then:
+      assertEquals(Optional.of(CUSTOMER_ID), customerId);
+      assertNull(customerIdResolver.getIfCached(IBID));
+    } finally {
+      mongoReads.destroy();
+    }
+  }
+
+  @DisplayName("Customer Id Resolver :: bypasses the cache when disabled")
+  @Test
+  void getCustomerIdFromIbId_bypassed() {
+    customerIdResolver.enabled = false;
+    when(customerIdIbIdMappingService.getCustomerIdFromIbId(IBID))
+        .thenReturn(Optional.of(CUSTOMER_ID));
+
+    customerIdResolver.getCustomerIdFromIbId(IBID);
+    customerIdResolver.getCustomerIdFromIbId(IBID);
+
+    verify(customerIdIbIdMappingService, times(2)).getCustomerIdFromIbId(IBID);
+  }
+
+  @DisplayName("Customer Id Resolver :: answers indexed IbIds from the index")
+  @Test
+  void getCustomerIdFromIbId_indexed() {
+    customerIdResolver.ibIdIndex = mock(IbIdIndex.class);
+    when(customerIdResolver.ibIdIndex.get(IBID)).thenReturn(CUSTOMER_ID);
+    when(customerIdResolver.ibIdIndex.get(UNKNOWN_IBID)).thenReturn(IbIdIndex.NOT_FOUND);
+    when(customerIdIbIdMappingService.getCustomerIdFromIbId(UNKNOWN_IBID))
+        .thenReturn(Optional.empty());
+
+    assertEquals(Optional.of(CUSTOMER_ID), customerIdResolver.getCustomerIdFromIbId(IBID));
+    assertEquals(Optional.of(CUSTOMER_ID), customerIdResolver.getIfCached(IBID));
+    assertEquals(Optional.empty(), customerIdResolver.getCustomerIdFromIbId(UNKNOWN_IBID));
+
+    verify(customerIdIbIdMappingService, never()).getCustomerIdFromIbId(IBID);
+  }
+}
@@ -0,0 +1,104 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class IbIdChangeFeedTest {
+  private static final String TOPIC = "dev.comhub.private.ibid.mapping";
+  private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+  private static final long LOADED_AT = 1_600_000_000_000L;
+
+  @Mock private IbIdIndex ibIdIndex;
+  @Mock private CustomerIdResolver customerIdResolver;
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final Map<TopicPartition, Long> requestedTimestamps = new HashMap<>();
+  private final MockConsumer<String, String> consumer =
+      new MockConsumer<>(OffsetResetStrategy.EARLIEST) {
+        @Override
+        public synchronized Map<TopicPartition, OffsetAndTimestamp> offsetsForTimes(
+            final Map<TopicPartition, Long> timestamps) {
+          requestedTimestamps.putAll(timestamps);
+          return Map.of(PARTITION, new OffsetAndTimestamp(1, LOADED_AT - 1000));
+        }
+      };
+  private IbIdChangeFeed changeFeed;
+
+  @BeforeEach
+  void setUp() {
+    consumer.updatePartitions(TOPIC, List.of(new PartitionInfo(TOPIC, 0, null, null, null)));
+    consumer.updateBeginningOffsets(Map.of(PARTITION, 0L));
+    consumer.updateEndOffsets(Map.of(PARTITION, 3L));
+    changeFeed = new IbIdChangeFeed(ibIdIndex, customerIdResolver, () -> consumer, meterRegistry);
+    changeFeed.maxLag = 1;
+    changeFeed.startMargin = Duration.ofMinutes(5);
+  }
+
+  @DisplayName("IbId Change Feed :: replays changes from before the last full load into the index")
+  @Test
+  void poll_appliesChanges() {
+    // Given:
+    when(ibIdIndex.loadedAtMillis()).thenReturn(LOADED_AT);
+    when(ibIdIndex.isLagging()).thenReturn(true);
+    changeFeed.subscribe(consumer);
+    consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, 1, "123456789012", "1001"));
+    consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, 2, "210987654321", null));
+
+    // When:
+    changeFeed.poll(consumer);
+
+    // Then:
+    assertEquals(LOADED_AT - 300_000, requestedTimestamps.get(PARTITION));
+    verify(ibIdIndex).attachChangeFeed();
+    verify(ibIdIndex).apply("123456789012", 1001);
+    verify(ibIdIndex).apply("210987654321", IbIdIndex.NOT_FOUND);
+    verify(customerIdResolver).invalidate("123456789012");
+    verify(customerIdResolver).invalidate("210987654321");
+    verify(ibIdIndex).setLagging(false);
+    assertEquals(0.0, meterRegistry.get("restproxy.ibid.index.feed.lag").gauge().value());
+    assertEquals(
+        1.0,
+        meterRegistry
+            .get("restproxy.ibid.index.feed.changes")
+            .tag("type", "delete")
+            .counter()
+            .count());
+  }
+
+  @DisplayName("IbId Change Feed :: marks the index lagging once too far behind the topic")
+  @Test
+  void poll_lagging() {
+    // Given:
+    changeFeed.subscribe(consumer);
+    assertEquals(3, consumer.position(PARTITION));
+    consumer.updateEndOffsets(Map.of(PARTITION, 13L));
+
+    // When:
+    changeFeed.poll(consumer);
+
+    // Then:
+    verify(ibIdIndex).setLagging(true);
+    assertEquals(10.0, meterRegistry.get("restproxy.ibid.index.feed.lag").gauge().value());
+  }
+}
@@ -0,0 +1,179 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class IbIdIndexTest {
+  private static final String COLLECTION = "customerIdIbIdMapping";
+  private static final ObjectId FIRST = new ObjectId("5f1c2a4e0000000000000001");
+  private static final ObjectId SECOND = new ObjectId("5f1c2a4e0000000000000002");
+  private static final ObjectId THIRD = new ObjectId("5f1c2a4e0000000000000003");
+
+  @Mock private MongoTemplate mongoTemplate;
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private IbIdIndex ibIdIndex;
+
+  @AfterEach
+  void tearDown() {
+    ibIdIndex.destroy();
+  }
+
+  @DisplayName("IbId Index :: streams the collection at startup, then only newer mappings")
+  @Test
+  void refresh_incremental() {
+    // Given:
+    when(mongoTemplate.estimatedCount(COLLECTION)).thenReturn(2L);
+    when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq(COLLECTION)))
+        .thenReturn(
+            cursor(mapping(FIRST, "123456789012", 1001), mapping(SECOND, "210987654321", 1002)),
+            cursor(mapping(THIRD, "111111111111", 1003)));
+    ibIdIndex = new IbIdIndex(mongoTemplate, meterRegistry);
+    ibIdIndex.init();
+
+    // When:
+    ibIdIndex.refresh();
+
+    // Then:
+    assertEquals(1001, ibIdIndex.get("123456789012"));
+    assertEquals(1002, ibIdIndex.get("210987654321"));
+    assertEquals(1003, ibIdIndex.get("111111111111"));
+    assertEquals(IbIdIndex.NOT_FOUND, ibIdIndex.get("999999999999"));
+    final ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate, times(2)).stream(queries.capture(), eq(Document.class), eq(COLLECTION));
+    assertTrue(queries.getAllValues().get(0).getQueryObject().isEmpty());
+    assertEquals(
+        new Document("_id", new Document("$gt", SECOND)),
+        queries.getAllValues().get(1).getQueryObject());
+    assertEquals(3.0, meterRegistry.get("restproxy.ibid.index.size").gauge().value());
+  }
+
+  @DisplayName("IbId Index :: copies the table only for newer mappings and frees replaced ones")
+  @Test
+  void refresh_copiesOnlyNewer() {
+    // Given:
+    when(mongoTemplate.estimatedCount(COLLECTION)).thenReturn(1L);
+    when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq(COLLECTION)))
+        .thenReturn(
+            cursor(mapping(FIRST, "123456789012", 1001)),
+            cursor(),
+            cursor(mapping(SECOND, "210987654321", 1002)),
+            cursor(mapping(THIRD, "111111111111", 1003)));
+    ibIdIndex = new IbIdIndex(mongoTemplate, meterRegistry);
+    ibIdIndex.init();
+    final IbIdTable loaded = ibIdIndex.table();
+
+    // When:
+    ibIdIndex.refresh();
+
+    // Then:
+    assertSame(loaded, ibIdIndex.table());
+
+    // When:
+    ibIdIndex.refresh();
+    ibIdIndex.refresh();
+
+    // Then:
+    assertNotSame(loaded, ibIdIndex.table());
+    assertEquals(1001, ibIdIndex.get("123456789012"));
+    assertEquals(1002, ibIdIndex.get("210987654321"));
+    assertEquals(1003, ibIdIndex.get("111111111111"));
+  }
+
+  @DisplayName("IbId Index :: a failed refresh keeps the loaded mappings")
+  @Test
+  void refresh_failed() {
+    // Given:
+    when(mongoTemplate.estimatedCount(COLLECTION)).thenReturn(1L);
+    when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq(COLLECTION)))
+        .thenReturn(cursor(mapping(FIRST, "123456789012", 1001)))
+        .thenThrow(new IllegalStateException("Mongo down"));
+    ibIdIndex = new IbIdIndex(mongoTemplate, meterRegistry);
+    ibIdIndex.init();
+
+    // When:
+    ibIdIndex.refresh();
+
+    // Then:
+    assertEquals(1001, ibIdIndex.get("123456789012"));
+  }
+
+  @DisplayName("IbId Index :: changes override the table until a full reload reads past them")
+  @Test
+  void apply_changes() {
+    // Given:
+    when(mongoTemplate.estimatedCount(COLLECTION)).thenReturn(2L);
+    when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq(COLLECTION)))
+        .thenReturn(
+            cursor(mapping(FIRST, "123456789012", 1001), mapping(SECOND, "210987654321", 1002)),
+            cursor(mapping(FIRST, "123456789012", 2001)));
+    ibIdIndex = new IbIdIndex(mongoTemplate, meterRegistry);
+    ibIdIndex.init();
+    ibIdIndex.attachChangeFeed();
+
+    // When:
+    ibIdIndex.apply("123456789012", 2001);
+    ibIdIndex.apply("210987654321", IbIdIndex.NOT_FOUND);
+
+    // Then:
+    assertEquals(2001, ibIdIndex.get("123456789012"));
+    assertEquals(IbIdIndex.NOT_FOUND, ibIdIndex.get("210987654321"));
+    ibIdIndex.setLagging(true);
+    assertEquals(IbIdIndex.NOT_FOUND, ibIdIndex.get("123456789012"));
+    ibIdIndex.setLagging(false);
+
+    ibIdIndex.fullRefreshInterval = Duration.ZERO;
+    ibIdIndex.refresh();
+    assertEquals(2001, ibIdIndex.get("123456789012"));
+    assertEquals(IbIdIndex.NOT_FOUND, ibIdIndex.get("210987654321"));
+    assertEquals(1.0, meterRegistry.get("restproxy.ibid.index.size").gauge().value());
+  }
+
+  private static Document mapping(final ObjectId id, final String ibId, final int customerId) {
+    return new Document("_id", id).append("ibId", ibId).append("customerId", customerId);
+  }
+
+  private static CloseableIterator<Document> cursor(final Document... mappings) {
+    final Iterator<Document> iterator = List.of(mappings).iterator();
+    return new CloseableIterator<>() {
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public Document next() {
+        return iterator.next();
+      }
+
+      @Override
+      public void close() {}
+    };
+  }
+}
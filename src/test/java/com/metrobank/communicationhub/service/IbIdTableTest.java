@@ -0,0 +1,77 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class IbIdTableTest {
+
+  @DisplayName("IbId Table :: finds every mapping after growing past its expected size")
+  @Test
+  void get_afterGrowing() {
+    // Given:
+    final IbIdTable.Builder builder = new IbIdTable.Builder(10);
+
+    // When:
+    for (int i = 0; i < 50_000; i++) {
+      builder.put(ibId(i), i);
+    }
+    final IbIdTable table = builder.build();
+
+    // Then:
+    assertEquals(50_000, table.size());
+    for (int i = 0; i < 50_000; i++) {
+      assertEquals(i, table.get(ibId(i)));
+    }
+    assertEquals(IbIdTable.NOT_FOUND, table.get(ibId(50_000)));
+    assertEquals(IbIdTable.NOT_FOUND, table.get(""));
+  }
+
+  @DisplayName("IbId Table :: copies keep the base table intact and replace remapped IbIds")
+  @Test
+  void builder_fromTable() {
+    // Given:
+    final IbIdTable.Builder builder = new IbIdTable.Builder(2);
+    builder.put("123456789012", 1);
+    builder.put("210987654321", 2);
+    final IbIdTable base = builder.build();
+
+    // When:
+    final IbIdTable.Builder copy = new IbIdTable.Builder(base, 100);
+    copy.put("210987654321", 20);
+    for (int i = 0; i < 100; i++) {
+      copy.put(ibId(i), i);
+    }
+    final IbIdTable table = copy.build();
+
+    // Then:
+    assertEquals(102, table.size());
+    assertEquals(1, table.get("123456789012"));
+    assertEquals(20, table.get("210987654321"));
+    assertEquals(99, table.get(ibId(99)));
+    assertEquals(2, base.size());
+    assertEquals(2, base.get("210987654321"));
+    assertEquals(IbIdTable.NOT_FOUND, base.get(ibId(99)));
+  }
+
+  @DisplayName("IbId Table :: IbIds it cannot hold are refused and never found")
+  @Test
+  void put_unindexable() {
+    final IbIdTable.Builder builder = new IbIdTable.Builder(2);
+
+    assertFalse(builder.put("12345€", 1));
+    assertFalse(builder.put("1".repeat(256), 2));
+
+    final IbIdTable table = builder.build();
+    assertEquals(0, table.size());
+    assertEquals(IbIdTable.NOT_FOUND, table.get("12345€"));
+    assertEquals(IbIdTable.NOT_FOUND, table.get("1".repeat(256)));
+  }
+
+  private static String ibId(final int i) {
+    return String.format("%012d", i * 7919L);
+  }
+}
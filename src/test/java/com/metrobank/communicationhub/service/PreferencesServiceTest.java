@@ -3,11 +3,11 @@ package com.metrobank.communicationhub.service;
 
 import com.metrobank.communicationhub.common.model.MobilePushPreference;
 import com.metrobank.communicationhub.common.model.MobilePushPreference.PreferenceRec;
-import com.metrobank.communicationhub.common.repository.MobilePushPreferencesRepository;
-import com.metrobank.communicationhub.common.service.CustomerIdIbIdMappingService;
 import com.metrobank.communicationhub.model.preferences.PreferencesResponse;
 import com.metrobank.communicationhub.model.request.CommsType;
 import com.metrobank.communicationhub.model.request.MessageType;
+import com.metrobank.communicationhub.repository.MobilePushQueryRepository;
+import com.metrobank.communicationhub.streams.PreferenceView;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -17,17 +17,20 @@ import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static com.metrobank.communicationhub.util.Constant.*;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class PreferencesServiceTest {
-  @Mock private MobilePushPreferencesRepository mobilePushPreferencesRepository;
-  @Mock private CustomerIdIbIdMappingService customerIdIbIdMappingService;
+  @Mock private MobilePushQueryRepository mobilePushQueryRepository;
+  @Mock private CustomerIdResolver customerIdResolver;
+  @Mock private PreferenceView preferenceView;
 
   @InjectMocks private PreferencesService preferencesService;
 
@@ -37,9 +40,9 @@ class PreferencesServiceTest {
     PreferencesResponse preferences;
     Given:
     {
-      when(customerIdIbIdMappingService.getCustomerIdFromIbId(IBID.toString()))
+      when(customerIdResolver.getCustomerIdFromIbId(IBID.toString()))
           .thenReturn(Optional.of(CUSTOMER_ID));
-      when(mobilePushPreferencesRepository.findAllByCustomerIdAndCommsType(any(), any()))
+      when(mobilePushQueryRepository.findPreferences(any(), any(), any()))
           .thenReturn(
               List.of(
                   MobilePushPreference.builder()
@@ -72,7 +75,7 @@ class PreferencesServiceTest {
     PreferencesResponse preferences;
     Given:
     {
-      when(customerIdIbIdMappingService.getCustomerIdFromIbId(IBID.toString()))
+      when(customerIdResolver.getCustomerIdFromIbId(IBID.toString()))
           .thenReturn(Optional.empty());
     }
     When:
@@ -94,7 +97,7 @@ class PreferencesServiceTest {
     PreferencesResponse preferences;
     Given:
     {
-      when(mobilePushPreferencesRepository.findAllByCustomerIdAndCommsType(any(), any()))
+      when(mobilePushQueryRepository.findPreferences(any(), any(), any()))
           .thenReturn(
               List.of(
                   MobilePushPreference.builder()
@@ -120,4 +123,29 @@ class PreferencesServiceTest {
       assertEquals("true", preferences.getPreferences().get(0).getCommsPreference().get("enabled"));
     }
   }
+
+  @DisplayName("Get preference from the preference view once it has caught up")
+  @Test
+  void getPreferencesForCustomerFromView() {
+    PreferencesResponse preferences;
+    Given:
+    {
+      when(preferenceView.find(CUSTOMER_ID, COMMS_TYPE_QUERY_PARAM, DEVICE_ID))
+          .thenReturn(
+              Optional.of(Map.of(MessageType.PAYMENT_SEPA.name(), Map.of("enabled", "true"))));
+    }
+    When:
+    {
+      preferences =
+          preferencesService.getPreferencesForCustomer(
+              null, CUSTOMER_ID, DEVICE_ID, COMMS_TYPE_QUERY_PARAM);
+    }
+    Then:
+    {
+      assertEquals(
+          MessageType.PAYMENT_SEPA.name(), preferences.getPreferences().get(0).getMessageType());
+      assertEquals("true", preferences.getPreferences().get(0).getCommsPreference().get("enabled"));
+      verifyNoInteractions(mobilePushQueryRepository);
+    }
+  }
 }
@@ -0,0 +1,165 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import com.metrobank.communicationhub.admission.AdmissionController;
+import com.metrobank.communicationhub.exception.RestProxyUnprocessableEntityException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.reactivestreams.Publisher;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.kafka.core.KafkaProducerException;
+import org.springframework.kafka.core.KafkaTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.kafka.sender.KafkaSender;
+import reactor.kafka.sender.SenderRecord;
+import reactor.kafka.sender.SenderResult;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeoutException;
+
+import static com.metrobank.communicationhub.util.Constant.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ReactiveRestProxyServiceTest {
+
+  @Mock private KafkaTemplate<String, SpecificRecordBase> kafkaTemplate;
+  @Mock private KafkaSender<String, SpecificRecordBase> kafkaSender;
+  @Mock private CustomerIdResolver customerIdResolver;
+  private AdmissionController admissionController;
+  private ReactiveRestProxyService reactiveRestProxyService;
+
+  @BeforeEach
+  void setUp() {
+    admissionController = new AdmissionController(kafkaTemplate, new SimpleMeterRegistry());
+    RestProxyService restProxyService =
+        new RestProxyService(kafkaTemplate, customerIdResolver, admissionController);
+    restProxyService.registerTopic = "registerTopic";
+    restProxyService.sendTopic = "sendTopic";
+    restProxyService.preferenceTopic = "preferenceTopic";
+    reactiveRestProxyService =
+        new ReactiveRestProxyService(
+            restProxyService,
+            new ReactiveCustomerIdResolver(customerIdResolver),
+            kafkaSender,
+            admissionController);
+    reactiveRestProxyService.confirmedDeliveryTimeoutMs = 200;
+  }
+
+  @DisplayName("Reactive Send :: confirmed delivery answers once the broker acknowledges")
+  @Test
+  void sendConfirmed_acknowledged() {
+    Given:
+    {
+      when(customerIdResolver.getIfCached(IBID)).thenReturn(Optional.of(CUSTOMER_ID));
+      doReturn(Flux.just(acknowledged())).when(kafkaSender).send(any());
+    }
+    Then:
+    {
+      StepVerifier.create(
+              reactiveRestProxyService.sendCommunicateRequest(
+                  IBID, null, SEND_REQUEST, "1234567", true))
+          .assertNext(response -> assertEquals(HttpStatus.OK, response.getStatusCode()))
+          .verifyComplete();
+      ArgumentCaptor<Publisher<SenderRecord<String, SpecificRecordBase, String>>> records =
+          ArgumentCaptor.forClass(Publisher.class);
+      verify(kafkaSender).send(records.capture());
+      StepVerifier.create(records.getValue())
+          .assertNext(
+              record -> {
+                assertEquals("sendTopic", record.topic());
+                assertEquals("1234567", record.correlationMetadata());
+              })
+          .verifyComplete();
+      assertEquals(0, inFlight("sendTopic"));
+    }
+  }
+
+  @DisplayName("Reactive Registration :: answers without waiting for the broker")
+  @Test
+  void register_notConfirmed() {
+    doReturn(Flux.never()).when(kafkaSender).send(any());
+
+    StepVerifier.create(
+            reactiveRestProxyService.sendRegisterRequest(
+                null, CUSTOMER_ID, REGISTRATION_REQUEST, "1234567", HttpMethod.POST, false))
+        .assertNext(response -> assertEquals(HttpStatus.CREATED, response.getStatusCode()))
+        .verifyComplete();
+  }
+
+  @DisplayName("Reactive Send :: broker failures surface as producer exceptions")
+  @Test
+  void sendConfirmed_failed() {
+    doReturn(Flux.error(new org.apache.kafka.common.KafkaException("broker unavailable")))
+        .when(kafkaSender)
+        .send(any());
+
+    StepVerifier.create(
+            reactiveRestProxyService.sendCommunicateRequest(
+                null, CUSTOMER_ID, SEND_REQUEST, "1234567", true))
+        .expectError(KafkaProducerException.class)
+        .verify();
+  }
+
+  @DisplayName("Reactive Preference :: unacknowledged confirmed sends time out")
+  @Test
+  void sendConfirmed_timeout() {
+    doReturn(Flux.never()).when(kafkaSender).send(any());
+
+    StepVerifier.create(
+            reactiveRestProxyService.sendPreferenceRequest(
+                null, CUSTOMER_ID, PREFERENCE_REQUEST, "1234567", true))
+        .expectError(TimeoutException.class)
+        .verify(Duration.ofSeconds(5));
+    assertEquals(0, inFlight("preferenceTopic"));
+  }
+
+  @DisplayName("Reactive Send :: unknown IbIds are rejected before anything is sent")
+  @Test
+  void send_invalidIbId() {
+    when(customerIdResolver.getIfCached(IBID)).thenReturn(null);
+    when(customerIdResolver.getCustomerIdFromIbId(IBID)).thenReturn(Optional.empty());
+
+    StepVerifier.create(
+            reactiveRestProxyService.sendCommunicateRequest(
+                IBID, null, SEND_REQUEST, "1234567", false))
+        .expectError(RestProxyUnprocessableEntityException.class)
+        .verify(Duration.ofSeconds(5));
+    verify(kafkaSender, never()).send(any());
+  }
+
+  @SuppressWarnings("unchecked")
+  private int inFlight(String topic) {
+    Map<String, Map<String, Object>> topics =
+        (Map<String, Map<String, Object>>) admissionController.snapshot().get("topics");
+    return (Integer) topics.get(topic).get("inFlight");
+  }
+
+  @SuppressWarnings("unchecked")
+  private static SenderResult<String> acknowledged() {
+    SenderResult<String> result = mock(SenderResult.class);
+    when(result.recordMetadata())
+        .thenReturn(new RecordMetadata(new TopicPartition("sendTopic", 0), 0L, 1, 0L, 0, 0));
+    return result;
+  }
+}
@@ -2,9 +2,8 @@
 package com.metrobank.communicationhub.service;
 
 import com.metrobank.communicationhub.common.model.MobilePushRegistration;
-import com.metrobank.communicationhub.common.repository.MobilePushRegistrationRepository;
-import com.metrobank.communicationhub.common.service.CustomerIdIbIdMappingService;
 import com.metrobank.communicationhub.model.registration.RegistrationResponse;
+import com.metrobank.communicationhub.repository.MobilePushQueryRepository;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -17,6 +16,7 @@ import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -31,8 +31,8 @@ class RegisterServiceTest {
   private static final String IBID = "123456789012";
   MobilePushRegistration registration;
   RegistrationResponse registrationResponse;
-  @Mock private MobilePushRegistrationRepository mobilePushRegistrationRepository;
-  @Mock private CustomerIdIbIdMappingService customerIdIbIdMappingService;
+  @Mock private MobilePushQueryRepository mobilePushQueryRepository;
+  @Mock private CustomerIdResolver customerIdResolver;
   @InjectMocks private RegisterService registerService;
 
   @DisplayName("Successfully retrieved the registration details with Customer Id")
@@ -52,8 +52,7 @@ class RegisterServiceTest {
 
       List<MobilePushRegistration> registrationDetailList = List.of(registration);
 
-      when(mobilePushRegistrationRepository.findAllByCustomerIdAndCommsTypeAndStatus(
-              any(), any(), any()))
+      when(mobilePushQueryRepository.findRegistrations(any(), any(), any(), any(), any()))
           .thenReturn(registrationDetailList);
     }
     When:
@@ -88,7 +87,7 @@ class RegisterServiceTest {
     Given:
     {
       Optional<Integer> ibIdCustomerIdMappingOpt = Optional.of(CUSTOMER_ID);
-      when(customerIdIbIdMappingService.getCustomerIdFromIbId(IBID.toString()))
+      when(customerIdResolver.getCustomerIdFromIbId(IBID.toString()))
           .thenReturn(ibIdCustomerIdMappingOpt);
 
       registration =
@@ -100,8 +99,7 @@ class RegisterServiceTest {
               .status(REGISTRATION_STATUS)
               .build();
       List<MobilePushRegistration> registrationDetailList = List.of(registration);
-      when(mobilePushRegistrationRepository.findAllByCustomerIdAndCommsTypeAndStatus(
-              any(), any(), any()))
+      when(mobilePushQueryRepository.findRegistrations(any(), any(), any(), any(), any()))
           .thenReturn(registrationDetailList);
     }
     When:
@@ -134,8 +132,7 @@ class RegisterServiceTest {
               .build();
 
       List<MobilePushRegistration> registrationDetailList = List.of(registration);
-      when(mobilePushRegistrationRepository.findAllByCustomerIdAndCommsTypeAndStatus(
-              any(), any(), any()))
+      when(mobilePushQueryRepository.findRegistrations(any(), any(), any(), any(), any()))
           .thenReturn(registrationDetailList);
     }
     When:
@@ -191,10 +188,6 @@ class RegisterServiceTest {
               .status(REGISTRATION_STATUS)
               .build();
 
-      List<MobilePushRegistration> registrationDetailList = List.of(registration);
-      when(mobilePushRegistrationRepository.findAllByCustomerIdAndCommsTypeAndStatus(
-              any(), any(), any()))
-          .thenReturn(registrationDetailList);
     }
     When:
     {
@@ -204,6 +197,9 @@ class RegisterServiceTest {
     Then:
     {
       assertEquals(0, registrationResponse.getRegistrationDetails().size());
+      // MongoDB does the device filtering, so it must be asked for this device only
+      verify(mobilePushQueryRepository)
+          .findRegistrations(CUSTOMER_ID, COMMS_TYPE, "ACTIVE", "1234", DEVICE_TYPE);
     }
   }
 
@@ -221,10 +217,6 @@ class RegisterServiceTest {
               .status(REGISTRATION_STATUS)
               .build();
 
-      List<MobilePushRegistration> registrationDetailList = List.of(registration);
-      when(mobilePushRegistrationRepository.findAllByCustomerIdAndCommsTypeAndStatus(
-              any(), any(), any()))
-          .thenReturn(registrationDetailList);
     }
     When:
     {
@@ -234,6 +226,9 @@ class RegisterServiceTest {
     Then:
     {
       assertEquals(0, registrationResponse.getRegistrationDetails().size());
+      // MongoDB does the device filtering, so it must be asked for this device only
+      verify(mobilePushQueryRepository)
+          .findRegistrations(CUSTOMER_ID, COMMS_TYPE, "ACTIVE", DEVICE_TOKEN, "IOS");
     }
   }
 
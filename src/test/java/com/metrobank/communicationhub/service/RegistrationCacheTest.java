@@ -0,0 +1,197 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.service;
+
+import com.metrobank.communicationhub.common.model.MobilePushRegistration;
+import com.mongodb.client.model.changestream.OperationType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RegistrationCacheTest {
+  private static final ObjectId ID = new ObjectId("5f1c2a4e0000000000000001");
+  private static final Integer CUSTOMER_ID = 12345;
+
+  @Mock private MongoTemplate mongoTemplate;
+  @TempDir Path snapshots;
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final AtomicInteger loads = new AtomicInteger();
+  private RegistrationCache registrationCache;
+
+  @BeforeEach
+  void setUp() {
+    when(mongoTemplate.getCollectionName(MobilePushRegistration.class))
+        .thenReturn("mobilePushRegistration");
+    registrationCache = cache();
+  }
+
+  @DisplayName("Registration Cache :: reads MongoDB until the change stream has caught up")
+  @Test
+  void get_caughtUp() {
+    // Given:
+    get("abd234fe", () -> active("abd234fe"));
+
+    // When:
+    registrationCache.caughtUp();
+    get("abd234fe", () -> active("abd234fe"));
+    final List<MobilePushRegistration> registrations = get("abd234fe", () -> List.of());
+
+    // Then:
+    assertEquals(2, loads.get());
+    assertEquals("ACTIVE", registrations.get(0).getStatus());
+  }
+
+  @DisplayName("Registration Cache :: evicts the device a registration left and the one it joined")
+  @Test
+  void onChange_evictsBothDevices() {
+    // Given:
+    registrationCache.caughtUp();
+    get("abd234fe", () -> active("abd234fe"));
+    get("ffee0011", List::of);
+
+    // When:
+    registrationCache.onChange(
+        OperationType.UPDATE,
+        new BsonDocument("_id", new BsonObjectId(ID)),
+        new Document("_id", ID)
+            .append("customerId", (long) CUSTOMER_ID)
+            .append("commsType", "MOBILE_PUSH")
+            .append("deviceId", "ffee0011")
+            .append("deviceType", "ANDROID")
+            .append("status", "ACTIVE"));
+
+    // Then:
+    assertEquals(List.of(), get("abd234fe", List::of));
+    assertEquals("ffee0011", get("ffee0011", () -> active("ffee0011")).get(0).getDeviceId());
+    assertEquals(4, loads.get());
+    assertEquals(
+        2.0, meterRegistry.get("restproxy.registration.cache.evictions").counter().count());
+  }
+
+  @DisplayName("Registration Cache :: does not keep a lookup the device was evicted during")
+  @Test
+  void get_evictedWhileLoading() {
+    // Given:
+    registrationCache.caughtUp();
+
+    // When:
+    get(
+        "abd234fe",
+        () -> {
+          final List<MobilePushRegistration> registrations = active("abd234fe");
+          registrationCache.onChange(
+              OperationType.UPDATE,
+              new BsonDocument("_id", new BsonObjectId(ID)),
+              new Document("_id", ID)
+                  .append("customerId", CUSTOMER_ID)
+                  .append("commsType", "MOBILE_PUSH")
+                  .append("deviceId", "abd234fe")
+                  .append("deviceType", "ANDROID")
+                  .append("status", "INACTIVE"));
+          return registrations;
+        });
+
+    // Then:
+    assertEquals(List.of(), get("abd234fe", List::of));
+    assertEquals(2, loads.get());
+  }
+
+  @DisplayName("Registration Cache :: a restart reloads the snapshot but waits for the stream")
+  @Test
+  void snapshot_reloaded() {
+    // Given:
+    registrationCache.caughtUp();
+    get("abd234fe", () -> active("abd234fe"));
+    registrationCache.resumeToken = new BsonDocument("_data", new BsonString("8263"));
+    registrationCache.saveSnapshot();
+
+    // When:
+    final RegistrationCache restarted = cache();
+
+    // Then:
+    assertFalse(restarted.isReady());
+    assertEquals(registrationCache.resumeToken, restarted.resumeToken);
+    restarted.caughtUp();
+    final List<MobilePushRegistration> registrations =
+        restarted.get(CUSTOMER_ID, "MOBILE_PUSH", "abd234fe", "ANDROID", List::of);
+    assertEquals(1, registrations.size());
+    assertEquals(ID.toHexString(), registrations.get(0).getId());
+    assertEquals("ACTIVE", registrations.get(0).getStatus());
+    assertEquals(1, loads.get());
+  }
+
+  @DisplayName("Registration Cache :: any stream failure stops answering and reopens the stream")
+  @Test
+  void watch_survivesFailures() throws InterruptedException {
+    // Given:
+    registrationCache.caughtUp();
+    registrationCache.retryBackoff = Duration.ofMillis(10);
+    when(mongoTemplate.getCollection("mobilePushRegistration"))
+        .thenThrow(new IllegalStateException("Can't find a codec"));
+
+    // When:
+    registrationCache.follow();
+
+    // Then:
+    try {
+      verify(mongoTemplate, timeout(1000).atLeast(2)).getCollection("mobilePushRegistration");
+      assertFalse(registrationCache.isReady());
+    } finally {
+      registrationCache.destroy();
+    }
+  }
+
+  private RegistrationCache cache() {
+    final RegistrationCache cache = new RegistrationCache(mongoTemplate, meterRegistry);
+    cache.snapshotFile = snapshots.resolve("registrations").toString();
+    cache.prepare();
+    return cache;
+  }
+
+  private List<MobilePushRegistration> get(
+      final String deviceId, final Supplier<List<MobilePushRegistration>> loader) {
+    return registrationCache.get(
+        CUSTOMER_ID,
+        "MOBILE_PUSH",
+        deviceId,
+        "ANDROID",
+        () -> {
+          loads.incrementAndGet();
+          return loader.get();
+        });
+  }
+
+  private static List<MobilePushRegistration> active(final String deviceId) {
+    return List.of(
+        MobilePushRegistration.builder()
+            .id(ID.toHexString())
+            .commsType("MOBILE_PUSH")
+            .deviceId(deviceId)
+            .deviceType("ANDROID")
+            .status("ACTIVE")
+            .build());
+  }
+}
@@ -1,9 +1,20 @@
 /** Copyright 2021 Metro Bank. All rights reserved. */
 package com.metrobank.communicationhub.service;
 
-import com.metrobank.communicationhub.common.service.CustomerIdIbIdMappingService;
+import com.metrobank.communicationhub.admission.AdmissionController;
+import com.metrobank.communicationhub.exception.RestProxyDeadlineExceededException;
+import com.metrobank.communicationhub.exception.RestProxyTooManyRequestsException;
 import com.metrobank.communicationhub.exception.RestProxyUnprocessableEntityException;
+import com.metrobank.communicationhub.kafka.QosLanes;
+import com.metrobank.communicationhub.kafka.RecordKeyStrategy;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import com.metrobank.communicationhub.schema.CommsPreference;
+import com.metrobank.communicationhub.schema.RegistrationAvroRequest;
+import com.metrobank.communicationhub.schema.SendAvroRequest;
+import com.metrobank.communicationhub.spool.SpooledSendResult;
+import com.metrobank.communicationhub.suppression.StormSuppressor;
+import com.metrobank.communicationhub.util.RequestDeadline;
+import org.apache.avro.specific.SpecificRecordBase;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
@@ -13,6 +24,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -23,14 +35,23 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.requestreply.RequestReplyFuture;
 import org.springframework.kafka.support.SendResult;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.util.concurrent.SettableListenableFuture;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
+import static com.metrobank.communicationhub.util.CommsHubConstants.*;
 import static com.metrobank.communicationhub.util.Constant.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.*;
@@ -38,16 +59,20 @@ import static org.mockito.Mockito.*;
 @ExtendWith(MockitoExtension.class)
 class RestProxyServiceTest {
   @Mock private KafkaTemplate kafkaTemplate;
-  @Mock private CustomerIdIbIdMappingService customerIdIbIdMappingService;
+  @Mock private CustomerIdResolver customerIdResolver;
   @InjectMocks private RestProxyService restProxyService;
+  private AdmissionController admissionController;
   private String correlationId;
 
   @BeforeEach
   void setUp() {
-    this.restProxyService = new RestProxyService(kafkaTemplate, customerIdIbIdMappingService);
+    this.admissionController = new AdmissionController(kafkaTemplate, new SimpleMeterRegistry());
+    this.restProxyService =
+        new RestProxyService(kafkaTemplate, customerIdResolver, admissionController);
     this.restProxyService.preferenceTopic = "preferenceTopic";
     this.restProxyService.registerTopic = "registrationTopic";
     this.restProxyService.sendTopic = "sendTopic";
+    this.restProxyService.confirmedDeliveryTimeoutMs = 1000L;
   }
 
   @DisplayName("Register Success")
@@ -88,11 +113,11 @@ class RestProxyServiceTest {
       Mockito.when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(future);
       SendResult<String, Object> sendResult = mock(SendResult.class);
       RecordMetadata recordMetadata =
-          new RecordMetadata(new TopicPartition("REGISTER", 0), 0, 0L, 0L, 0L, 0, 0);
+          new RecordMetadata(new TopicPartition("REGISTER", 0), 0L, 0, 0L, 0, 0);
       given(sendResult.getRecordMetadata()).willReturn(recordMetadata);
 
       Optional<Integer> ibIdCustomerIdMappingOpt = Optional.of(CUSTOMER_ID);
-      when(customerIdIbIdMappingService.getCustomerIdFromIbId(IBID.toString()))
+      when(customerIdResolver.getCustomerIdFromIbId(IBID.toString()))
           .thenReturn(ibIdCustomerIdMappingOpt);
       doAnswer(
               invocationOnMock -> {
@@ -208,7 +233,7 @@ class RestProxyServiceTest {
       Mockito.when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(future);
       SendResult<String, Object> sendResult = mock(SendResult.class);
       RecordMetadata recordMetadata =
-          new RecordMetadata(new TopicPartition("REGISTER", 0), 0, 0L, 0L, 0L, 0, 0);
+          new RecordMetadata(new TopicPartition("REGISTER", 0), 0L, 0, 0L, 0, 0);
       given(sendResult.getRecordMetadata()).willReturn(recordMetadata);
       doAnswer(
               invocationOnMock -> {
@@ -312,7 +337,7 @@ class RestProxyServiceTest {
       Mockito.when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(future);
       SendResult<String, Object> sendResult = mock(SendResult.class);
       RecordMetadata recordMetadata =
-          new RecordMetadata(new TopicPartition("SEND", 0), 0, 0L, 0L, 0L, 0, 0);
+          new RecordMetadata(new TopicPartition("SEND", 0), 0L, 0, 0L, 0, 0);
       given(sendResult.getRecordMetadata()).willReturn(recordMetadata);
       doAnswer(
               invocationOnMock -> {
@@ -349,11 +374,11 @@ class RestProxyServiceTest {
       Mockito.when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(future);
       SendResult<String, Object> sendResult = mock(SendResult.class);
       RecordMetadata recordMetadata =
-          new RecordMetadata(new TopicPartition("SEND", 0), 0, 0L, 0L, 0L, 0, 0);
+          new RecordMetadata(new TopicPartition("SEND", 0), 0L, 0, 0L, 0, 0);
       given(sendResult.getRecordMetadata()).willReturn(recordMetadata);
 
       Optional<Integer> ibIdCustomerIdMappingOpt = Optional.of(CUSTOMER_ID);
-      when(customerIdIbIdMappingService.getCustomerIdFromIbId(IBID.toString()))
+      when(customerIdResolver.getCustomerIdFromIbId(IBID.toString()))
           .thenReturn(ibIdCustomerIdMappingOpt);
       doAnswer(
               invocationOnMock -> {
@@ -420,7 +445,7 @@ class RestProxyServiceTest {
       Mockito.when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(future);
       SendResult<String, Object> sendResult = mock(SendResult.class);
       RecordMetadata recordMetadata =
-          new RecordMetadata(new TopicPartition("topic", 0), 0, 0L, 0L, 0L, 0, 0);
+          new RecordMetadata(new TopicPartition("topic", 0), 0L, 0, 0L, 0, 0);
       given(sendResult.getRecordMetadata()).willReturn(recordMetadata);
       doAnswer(
               invocationOnMock -> {
@@ -460,7 +485,7 @@ class RestProxyServiceTest {
       Mockito.when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(future);
       Optional<Integer> ibIdCustomerIdMappingOpt = Optional.of(CUSTOMER_ID);
 
-      when(customerIdIbIdMappingService.getCustomerIdFromIbId(IBID.toString()))
+      when(customerIdResolver.getCustomerIdFromIbId(IBID.toString()))
           .thenReturn(ibIdCustomerIdMappingOpt);
     }
     When:
@@ -504,4 +529,312 @@ class RestProxyServiceTest {
       assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
     }
   }
+
+  @DisplayName("Send Confirmed :: completes once the broker acknowledges the record")
+  @Test
+  void sendCommunicateRequestConfirmed_Success() throws Exception {
+    CompletableFuture<ResponseEntity<Void>> response;
+    SettableListenableFuture<SendResult<String, Object>> future;
+    Given:
+    {
+      future = new SettableListenableFuture<>();
+      Mockito.when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(future);
+    }
+    When:
+    {
+      response =
+          restProxyService.sendCommunicateRequestConfirmed(IBID, CUSTOMER_ID, SEND_REQUEST, "1234567");
+    }
+    Then:
+    {
+      Assertions.assertFalse(response.isDone());
+      SendResult<String, Object> sendResult = mock(SendResult.class);
+      given(sendResult.getRecordMetadata())
+          .willReturn(new RecordMetadata(new TopicPartition("SEND", 0), 0L, 0, 0L, 0, 0));
+      future.set(sendResult);
+      assertEquals(HttpStatus.OK, response.get().getStatusCode());
+    }
+  }
+
+  @DisplayName("De-Registration Confirmed :: completes with No Content once acknowledged")
+  @Test
+  void deRegisterRequestConfirmed_Success() throws Exception {
+    SettableListenableFuture<SendResult<String, Object>> future = new SettableListenableFuture<>();
+    Mockito.when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(future);
+    SendResult<String, Object> sendResult = mock(SendResult.class);
+    given(sendResult.getRecordMetadata())
+        .willReturn(new RecordMetadata(new TopicPartition("REGISTER", 0), 0L, 0, 0L, 0, 0));
+    future.set(sendResult);
+
+    CompletableFuture<ResponseEntity<Void>> response =
+        restProxyService.sendRegisterRequestConfirmed(
+            IBID, CUSTOMER_ID, REGISTRATION_REQUEST, "1234567", HttpMethod.DELETE);
+
+    assertEquals(HttpStatus.NO_CONTENT, response.get().getStatusCode());
+  }
+
+  @DisplayName("Send Confirmed :: answers Accepted when the record was only spooled")
+  @Test
+  void sendCommunicateRequestConfirmed_Spooled() throws Exception {
+    SettableListenableFuture<SendResult<String, Object>> future = new SettableListenableFuture<>();
+    Mockito.when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(future);
+    future.set((SendResult) new SpooledSendResult(null));
+
+    CompletableFuture<ResponseEntity<Void>> response =
+        restProxyService.sendCommunicateRequestConfirmed(IBID, CUSTOMER_ID, SEND_REQUEST, "1234567");
+
+    assertEquals(HttpStatus.ACCEPTED, response.get().getStatusCode());
+  }
+
+  @DisplayName("Preference Confirmed :: fails when the broker rejects the record")
+  @Test
+  void sendPreferenceRequestConfirmed_Failed() {
+    SettableListenableFuture<SendResult<String, Object>> future = new SettableListenableFuture<>();
+    Mockito.when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(future);
+    future.setException(new IllegalStateException("broker unavailable"));
+
+    CompletableFuture<ResponseEntity<Void>> response =
+        restProxyService.sendPreferenceRequestConfirmed(
+            IBID, CUSTOMER_ID, PREFERENCE_REQUEST, "1234567");
+
+    ExecutionException exception = Assertions.assertThrows(ExecutionException.class, response::get);
+    assertEquals(IllegalStateException.class, exception.getCause().getClass());
+  }
+
+  @DisplayName("Send Confirmed :: times out when the broker never acknowledges")
+  @Test
+  void sendCommunicateRequestConfirmed_Timeout() {
+    this.restProxyService.confirmedDeliveryTimeoutMs = 10L;
+    Mockito.when(kafkaTemplate.send((ProducerRecord) any()))
+        .thenReturn(new SettableListenableFuture<>());
+
+    CompletableFuture<ResponseEntity<Void>> response =
+        restProxyService.sendCommunicateRequestConfirmed(IBID, CUSTOMER_ID, SEND_REQUEST, "1234567");
+
+    ExecutionException exception = Assertions.assertThrows(ExecutionException.class, response::get);
+    assertEquals(TimeoutException.class, exception.getCause().getClass());
+  }
+
+  @DisplayName("Send Communication :: Rejected by admission control before any lookup")
+  @Test
+  void sendCommunicateRequest_tooManyRequests() {
+    ReflectionTestUtils.setField(admissionController, "enabled", true);
+    ReflectionTestUtils.setField(admissionController, "defaultMaxInFlight", 0);
+
+    Assertions.assertThrows(
+        RestProxyTooManyRequestsException.class,
+        () -> restProxyService.sendCommunicateRequest(IBID, null, SEND_REQUEST, "1234567"));
+
+    verifyNoInteractions(customerIdResolver);
+    verify(kafkaTemplate, never()).send((ProducerRecord) any());
+  }
+
+  @DisplayName("Send Communication :: Stamped with the request deadline, and dropped once it passed")
+  @Test
+  void sendCommunicateRequest_deadline() {
+    when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(mock(ListenableFuture.class));
+    try {
+      final long deadline = System.currentTimeMillis() + 60_000;
+      RequestDeadline.set(RequestDeadline.fromHeaders(Long.toString(deadline), null));
+      restProxyService.sendCommunicateRequest(IBID, CUSTOMER_ID, SEND_REQUEST, "1234567");
+
+      final ArgumentCaptor<ProducerRecord> record = ArgumentCaptor.forClass(ProducerRecord.class);
+      verify(kafkaTemplate).send(record.capture());
+      final long stamped =
+          Long.parseLong(
+              new String(record.getValue().headers().lastHeader(REQUEST_DEADLINE_HEADER).value()));
+      assertEquals(deadline, stamped, 50);
+
+      RequestDeadline.set(RequestDeadline.fromHeaders(null, "0"));
+      Assertions.assertThrows(
+          RestProxyDeadlineExceededException.class,
+          () -> restProxyService.sendCommunicateRequest(IBID, null, SEND_REQUEST, "7654321"));
+      verifyNoInteractions(customerIdResolver);
+      verify(kafkaTemplate, times(1)).send((ProducerRecord) any());
+    } finally {
+      RequestDeadline.clear();
+    }
+  }
+
+  @DisplayName("Send Communication :: Repeats dropped by storm suppression are never produced")
+  @Test
+  void sendCommunicateRequest_stormSuppressed() {
+    restProxyService.stormSuppressor = dropRepeats();
+    final SettableListenableFuture<SendResult<String, Object>> acknowledged =
+        new SettableListenableFuture<>();
+    acknowledged.set(mock(SendResult.class));
+    when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(acknowledged);
+
+    restProxyService.sendCommunicateRequest(IBID, CUSTOMER_ID, SEND_REQUEST, "1");
+    final ResponseEntity repeat =
+        restProxyService.sendCommunicateRequest(IBID, CUSTOMER_ID, SEND_REQUEST, "2");
+    final ResponseEntity<Void> confirmedRepeat =
+        restProxyService.sendCommunicateRequestConfirmed(IBID, CUSTOMER_ID, SEND_REQUEST, "3").join();
+
+    assertEquals(HttpStatus.OK, repeat.getStatusCode());
+    assertEquals(HttpStatus.OK, confirmedRepeat.getStatusCode());
+    verify(kafkaTemplate, times(1)).send((ProducerRecord) any());
+  }
+
+  @DisplayName("Send Communication :: A failed send is not taken for a storm when retried")
+  @Test
+  void sendCommunicateRequest_stormRetryAfterFailure() {
+    restProxyService.stormSuppressor = dropRepeats();
+    final SettableListenableFuture<SendResult<String, Object>> failed =
+        new SettableListenableFuture<>();
+    failed.setException(new RuntimeException("broker down"));
+    final SettableListenableFuture<SendResult<String, Object>> pending =
+        new SettableListenableFuture<>();
+    when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(failed, pending);
+
+    restProxyService.sendCommunicateRequest(IBID, CUSTOMER_ID, SEND_REQUEST, "1");
+    restProxyService.sendCommunicateRequest(IBID, CUSTOMER_ID, SEND_REQUEST, "2");
+
+    verify(kafkaTemplate, times(2)).send((ProducerRecord) any());
+  }
+
+  @DisplayName("Send Communication :: Repeats arriving before the first is acknowledged are dropped")
+  @Test
+  void sendCommunicateRequest_stormBurstInFlight() {
+    restProxyService.stormSuppressor = dropRepeats();
+    when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(new SettableListenableFuture<>());
+
+    restProxyService.sendCommunicateRequest(IBID, CUSTOMER_ID, SEND_REQUEST, "1");
+    restProxyService.sendCommunicateRequest(IBID, CUSTOMER_ID, SEND_REQUEST, "2");
+    restProxyService.sendCommunicateRequestConfirmed(IBID, CUSTOMER_ID, SEND_REQUEST, "3");
+
+    verify(kafkaTemplate, times(1)).send((ProducerRecord) any());
+  }
+
+  @DisplayName("Send Communication :: Repeats addressing the customer by IbId are dropped")
+  @Test
+  void sendCommunicateRequest_stormKeyedOnCustomer() {
+    restProxyService.stormSuppressor = dropRepeats();
+    when(kafkaTemplate.send((ProducerRecord) any())).thenReturn(new SettableListenableFuture<>());
+    when(customerIdResolver.getCustomerIdFromIbId(IBID)).thenReturn(Optional.of(CUSTOMER_ID));
+
+    restProxyService.sendCommunicateRequest(null, CUSTOMER_ID, SEND_REQUEST, "1");
+    restProxyService.sendCommunicateRequest(IBID, null, SEND_REQUEST, "2");
+
+    verify(kafkaTemplate, times(1)).send((ProducerRecord) any());
+  }
+
+  @DisplayName("Send Communication :: Sent through the producer and topic of its QoS lane")
+  @Test
+  void sendCommunicateRequest_qosLane() {
+    final KafkaTemplate laneTemplate = mock(KafkaTemplate.class);
+    final QosLanes.Lane lane =
+        new QosLanes.Lane(
+            "critical",
+            Set.of("MOBILE_PUSH"),
+            Set.of(),
+            "criticalTopic",
+            null,
+            laneTemplate,
+            admissionController.forLane("critical", laneTemplate, 10),
+            new SimpleMeterRegistry());
+    restProxyService.qosLanes = new QosLanes(List.of(lane));
+    when(laneTemplate.send((ProducerRecord) any())).thenReturn(mock(ListenableFuture.class));
+
+    restProxyService.sendCommunicateRequest(IBID, CUSTOMER_ID, SEND_REQUEST, "1234567");
+
+    final ArgumentCaptor<ProducerRecord> record = ArgumentCaptor.forClass(ProducerRecord.class);
+    verify(laneTemplate).send(record.capture());
+    assertEquals("criticalTopic", record.getValue().topic());
+    verify(kafkaTemplate, never()).send((ProducerRecord) any());
+  }
+
+  private static StormSuppressor dropRepeats() {
+    final StormSuppressor stormSuppressor = new StormSuppressor(new SimpleMeterRegistry());
+    ReflectionTestUtils.setField(stormSuppressor, "action", StormSuppressor.Action.DROP);
+    stormSuppressor.init();
+    return stormSuppressor;
+  }
+
+  @DisplayName("Preference record :: keyed by customer and device with the request id in a header")
+  @Test
+  void createPreferenceRecord_customerDeviceKey() {
+    ProducerRecord<String, SpecificRecordBase> record;
+    Given:
+    {
+      restProxyService.preferenceKeyStrategy = RecordKeyStrategy.CUSTOMER_DEVICE;
+    }
+    When:
+    {
+      record =
+          restProxyService.createPreferenceRecord(IBID, CUSTOMER_ID, PREFERENCE_REQUEST, "1234567");
+    }
+    Then:
+    {
+      assertEquals(CUSTOMER_ID + ":" + PREFERENCE_REQUEST.getDeviceId(), record.key());
+      assertEquals("1234567", new String(record.headers().lastHeader("x-request-id").value()));
+    }
+  }
+
+  @DisplayName("Registration record :: process headers come from the template for the method")
+  @Test
+  void createRegistrationRecord_headerTemplates() {
+    ProducerRecord<String, SpecificRecordBase> registration;
+    ProducerRecord<String, SpecificRecordBase> deregistration;
+    When:
+    {
+      registration =
+          restProxyService.createRegistrationRecord(
+              IBID, CUSTOMER_ID, REGISTRATION_REQUEST, "1234567", HttpMethod.POST);
+      deregistration =
+          restProxyService.createRegistrationRecord(
+              IBID, CUSTOMER_ID, REGISTRATION_REQUEST, "1234567", HttpMethod.DELETE);
+    }
+    Then:
+    {
+      assertEquals(
+          REGISTRATION_PROCESS_NAME,
+          new String(registration.headers().lastHeader(PROCESS_NAME).value()));
+      assertEquals(
+          REGISTRATION_ACTIVITY_NAME,
+          new String(registration.headers().lastHeader(ACTIVTY_NAME).value()));
+      assertEquals(
+          DEREGISTRATION_PROCESS_NAME,
+          new String(deregistration.headers().lastHeader(PROCESS_NAME).value()));
+      assertEquals(
+          DEREGISTRATION_ACTIVITY_NAME,
+          new String(deregistration.headers().lastHeader(ACTIVTY_NAME).value()));
+      assertNull(registration.headers().lastHeader("x-request-id"));
+      assertEquals("POST", ((RegistrationAvroRequest) registration.value()).getMethod());
+      assertEquals(IBID, ((RegistrationAvroRequest) registration.value()).getIbId());
+    }
+  }
+
+  @DisplayName("Send record :: a decoded request yields the same record as the DTO")
+  @Test
+  void createSendRecord_decodedRequest() {
+    ProducerRecord<String, SpecificRecordBase> fromDto;
+    ProducerRecord<String, SpecificRecordBase> fromDecoded;
+    Given:
+    {
+      when(customerIdResolver.getCustomerIdFromIbId(IBID)).thenReturn(Optional.of(CUSTOMER_ID));
+    }
+    When:
+    {
+      fromDto = restProxyService.createSendRecord(IBID, null, SEND_REQUEST, "1234567");
+      fromDecoded =
+          restProxyService.createSendRecord(
+              IBID,
+              null,
+              SendAvroRequest.newBuilder()
+                  .setCommsType(SEND_REQUEST.getCommsType().name())
+                  .setMessageType(SEND_REQUEST.getMessageType().name())
+                  .setEmail(SEND_REQUEST.getEmail())
+                  .setMobileNo(SEND_REQUEST.getMobileNo())
+                  .setTemplateId(SEND_REQUEST.getTemplateId())
+                  .setTemplateParams(SEND_REQUEST.getTemplateParams())
+                  .build(),
+              "1234567");
+    }
+    Then:
+    {
+      assertEquals(fromDto, fromDecoded);
+      assertEquals(CUSTOMER_ID, ((SendAvroRequest) fromDecoded.value()).getCustomerId());
+    }
+  }
 }
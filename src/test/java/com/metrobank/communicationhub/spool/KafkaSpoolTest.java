@@ -0,0 +1,128 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.spool;
+
+import com.metrobank.communicationhub.service.RestProxyService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.metrobank.communicationhub.util.Constant.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class KafkaSpoolTest {
+
+  @Mock private KafkaTemplate<String, SpecificRecordBase> kafkaTemplate;
+  @TempDir Path directory;
+  private KafkaSpool kafkaSpool;
+  private RestProxyService restProxyService;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    restProxyService = new RestProxyService(null, null, null);
+    ReflectionTestUtils.setField(restProxyService, "sendTopic", "sendTopic");
+    kafkaSpool = spool();
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    kafkaSpool.stop();
+  }
+
+  @DisplayName("Kafka Spool :: replays spooled records to the broker in order")
+  @Test
+  void append_drainsInOrder() throws Exception {
+    Given:
+    {
+      when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(acked());
+    }
+    When:
+    {
+      for (int i = 0; i < 3; i++) {
+        kafkaSpool.append(record("uuid-" + i));
+      }
+    }
+    Then:
+    {
+      ArgumentCaptor<ProducerRecord<String, SpecificRecordBase>> sent =
+          ArgumentCaptor.forClass(ProducerRecord.class);
+      verify(kafkaTemplate, timeout(5000).times(3)).send(sent.capture());
+      List<ProducerRecord<String, SpecificRecordBase>> records = sent.getAllValues();
+      for (int i = 0; i < 3; i++) {
+        ProducerRecord<String, SpecificRecordBase> expected = record("uuid-" + i);
+        assertEquals(expected.key(), records.get(i).key());
+        assertEquals(expected.topic(), records.get(i).topic());
+        assertEquals(expected.value(), records.get(i).value());
+        assertEquals(expected.headers(), records.get(i).headers());
+      }
+    }
+  }
+
+  @DisplayName("Kafka Spool :: retries records the broker did not acknowledge")
+  @Test
+  void append_retriesUntilAcknowledged() throws Exception {
+    SettableListenableFuture<SendResult<String, SpecificRecordBase>> failed =
+        new SettableListenableFuture<>();
+    failed.setException(new IllegalStateException("broker unavailable"));
+    when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(failed).thenReturn(acked());
+
+    kafkaSpool.append(record("uuid-0"));
+
+    verify(kafkaTemplate, timeout(5000).times(2)).send(any(ProducerRecord.class));
+  }
+
+  @DisplayName("Kafka Spool :: replays records left over from a previous run on start")
+  @Test
+  void start_recoversPendingRecords() throws Exception {
+    kafkaSpool.stop();
+    kafkaSpool.append(record("uuid-0"));
+    when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(acked());
+
+    kafkaSpool = spool();
+
+    verify(kafkaTemplate, timeout(5000).times(1)).send(any(ProducerRecord.class));
+  }
+
+  private KafkaSpool spool() throws Exception {
+    KafkaSpool spool = new KafkaSpool(kafkaTemplate, new SimpleMeterRegistry());
+    spool.directory = directory.toString();
+    spool.segmentBytes = 4096;
+    spool.maxSegments = 4;
+    spool.drainBatchSize = 10;
+    spool.ackTimeoutMs = 1000L;
+    spool.retryBackoffMs = 10L;
+    spool.maxRetryBackoffMs = 100L;
+    spool.flushIntervalMs = 50L;
+    spool.start();
+    return spool;
+  }
+
+  private ProducerRecord<String, SpecificRecordBase> record(String uuid) {
+    return restProxyService.createSendRecord(IBID, CUSTOMER_ID, SEND_REQUEST, uuid);
+  }
+
+  private static SettableListenableFuture<SendResult<String, SpecificRecordBase>> acked() {
+    SettableListenableFuture<SendResult<String, SpecificRecordBase>> acked =
+        new SettableListenableFuture<>();
+    acked.set(mock(SendResult.class));
+    return acked;
+  }
+}
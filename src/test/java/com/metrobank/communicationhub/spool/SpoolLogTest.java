@@ -0,0 +1,110 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.spool;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpoolLogTest {
+  private static final int SEGMENT_BYTES = 64;
+
+  @TempDir Path directory;
+
+  @DisplayName("Spool Log :: reads records in order across segment rollover")
+  @Test
+  void appendAndRead_rollsSegments() throws Exception {
+    SpoolLog spoolLog;
+    Given:
+    {
+      spoolLog = new SpoolLog(directory, SEGMENT_BYTES, 4);
+    }
+    When:
+    {
+      for (int i = 0; i < 6; i++) {
+        spoolLog.append(payload(i));
+      }
+    }
+    Then:
+    {
+      List<SpoolLog.Entry> entries = spoolLog.read(10);
+      assertEquals(6, entries.size());
+      for (int i = 0; i < 6; i++) {
+        assertEquals("record-" + i, text(entries.get(i)));
+      }
+      assertTrue(spoolLog.hasPending());
+    }
+  }
+
+  @DisplayName("Spool Log :: resumes from the checkpoint and deletes drained segments")
+  @Test
+  void commit_resumesAfterRestart() throws Exception {
+    SpoolLog spoolLog = new SpoolLog(directory, SEGMENT_BYTES, 4);
+    for (int i = 0; i < 6; i++) {
+      spoolLog.append(payload(i));
+    }
+    List<SpoolLog.Entry> entries = spoolLog.read(4);
+    spoolLog.commit(entries.get(3).next());
+
+    SpoolLog reopened = new SpoolLog(directory, SEGMENT_BYTES, 4);
+
+    List<SpoolLog.Entry> remaining = reopened.read(10);
+    assertEquals(2, remaining.size());
+    assertEquals("record-4", text(remaining.get(0)));
+    reopened.commit(remaining.get(1).next());
+    assertFalse(reopened.hasPending());
+    assertEquals(0, reopened.pendingBytes());
+  }
+
+  @DisplayName("Spool Log :: drops a torn record at the tail on recovery")
+  @Test
+  void recover_truncatesCorruptTail() throws Exception {
+    SpoolLog spoolLog = new SpoolLog(directory, SEGMENT_BYTES, 4);
+    spoolLog.append(payload(0));
+    spoolLog.append(payload(1));
+    spoolLog.flush();
+    try (RandomAccessFile file =
+        new RandomAccessFile(directory.resolve(String.format("%020d.seg", 0)).toFile(), "rw")) {
+      // corrupt the last byte of the second record's payload
+      int secondEnd = 2 * (SpoolSegment.ENTRY_HEADER_BYTES + payload(0).length);
+      file.seek(secondEnd - 1);
+      file.write('x');
+    }
+
+    SpoolLog reopened = new SpoolLog(directory, SEGMENT_BYTES, 4);
+    reopened.append(payload(2));
+
+    List<SpoolLog.Entry> entries = reopened.read(10);
+    assertEquals(2, entries.size());
+    assertEquals("record-0", text(entries.get(0)));
+    assertEquals("record-2", text(entries.get(1)));
+  }
+
+  @DisplayName("Spool Log :: refuses appends once the segment limit is reached")
+  @Test
+  void append_full() throws Exception {
+    SpoolLog spoolLog = new SpoolLog(directory, SEGMENT_BYTES, 1);
+    for (int i = 0; i < 4; i++) {
+      spoolLog.append(payload(i));
+    }
+
+    assertThrows(SpoolFullException.class, () -> spoolLog.append(payload(4)));
+  }
+
+  private static byte[] payload(int index) {
+    return ("record-" + index).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String text(SpoolLog.Entry entry) {
+    return new String(entry.payload(), StandardCharsets.UTF_8);
+  }
+}
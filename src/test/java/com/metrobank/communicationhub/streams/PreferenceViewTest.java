@@ -0,0 +1,188 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.streams;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.metrobank.communicationhub.schema.CommsPreference;
+import com.metrobank.communicationhub.schema.Preference;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TestInputTopic;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static com.metrobank.communicationhub.util.Constant.CUSTOMER_ID;
+import static com.metrobank.communicationhub.util.Constant.DEVICE_ID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PreferenceViewTest {
+  private static final String TOPIC = "preferenceTopic";
+
+  @TempDir Path stateDir;
+
+  private TopologyTestDriver driver;
+  private TestInputTopic<String, CommsPreference> input;
+  private KeyValueStore<String, Map<String, Map<String, String>>> store;
+
+  @BeforeEach
+  void setUp() {
+    PreferenceView preferenceView = new PreferenceView(new KafkaProperties(), new ObjectMapper());
+    preferenceView.preferenceTopic = TOPIC;
+
+    Properties properties = new Properties();
+    properties.put(StreamsConfig.APPLICATION_ID_CONFIG, "preference-view-test");
+    properties.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+    properties.put(StreamsConfig.STATE_DIR_CONFIG, stateDir.toString());
+    driver = new TopologyTestDriver(preferenceView.topology(avroSerde()), properties);
+    input =
+        driver.createInputTopic(TOPIC, new StringSerializer(), avroSerde().serializer());
+    store = driver.getKeyValueStore(PreferenceView.STORE);
+  }
+
+  @AfterEach
+  void tearDown() {
+    driver.close();
+  }
+
+  @DisplayName("Preference View :: keeps the latest preferences of every message type")
+  @Test
+  void materializesLatestPreferences() {
+    Given:
+    {
+      input.pipeInput("1", preference("PAYMENT_SEPA", "enabled", "true"));
+      input.pipeInput("2", preference("PAYMENT_FPS", "enabled", "true"));
+    }
+    When:
+    {
+      input.pipeInput("3", preference("PAYMENT_SEPA", "enabled", "false"));
+    }
+    Then:
+    {
+      Map<String, Map<String, String>> view =
+          store.get(PreferenceView.key(CUSTOMER_ID, "MOBILE_PUSH", DEVICE_ID));
+      assertEquals(2, view.size());
+      assertEquals("false", view.get("PAYMENT_SEPA").get("enabled"));
+      assertEquals("true", view.get("PAYMENT_FPS").get("enabled"));
+    }
+  }
+
+  @DisplayName("Preference View :: skips records without a customer")
+  @Test
+  void skipsIncompleteRecords() {
+    input.pipeInput(
+        "1", CommsPreference.newBuilder().setCommsType("MOBILE_PUSH").setDeviceId(DEVICE_ID).build());
+
+    assertNull(store.get(PreferenceView.key(null, "MOBILE_PUSH", DEVICE_ID)));
+  }
+
+  @DisplayName("Preference View :: is not ready while disabled")
+  @Test
+  void notReadyWhenDisabled() {
+    PreferenceView preferenceView = new PreferenceView(new KafkaProperties(), new ObjectMapper());
+    preferenceView.start();
+
+    assertFalse(preferenceView.isReady());
+    assertFalse(preferenceView.find(CUSTOMER_ID, "MOBILE_PUSH", DEVICE_ID).isPresent());
+  }
+
+  @DisplayName("Preference View :: counts an idle partition that had caught up as lag 0")
+  @Test
+  void idlePartitionAfterCatchingUp() {
+    PreferenceView preferenceView = new PreferenceView(new KafkaProperties(), new ObjectMapper());
+    preferenceView.maxLag = 100;
+    Given:
+    {
+      assertEquals(Long.MAX_VALUE, preferenceView.lag(Map.of(recordsLag(0), lag(Double.NaN))));
+      assertEquals(40, preferenceView.lag(Map.of(recordsLag(0), lag(40))));
+    }
+    Then:
+    {
+      assertEquals(0, preferenceView.lag(Map.of(recordsLag(0), lag(Double.NaN))));
+      assertEquals(
+          Long.MAX_VALUE,
+          preferenceView.lag(
+              Map.of(recordsLag(0), lag(Double.NaN), recordsLag(1), lag(Double.NaN))));
+      assertEquals(Long.MAX_VALUE, preferenceView.lag(Map.of()));
+    }
+  }
+
+  private static MetricName recordsLag(int partition) {
+    return new MetricName(
+        "records-lag",
+        "consumer-fetch-manager-metrics",
+        "",
+        Map.of("topic", TOPIC, "partition", String.valueOf(partition)));
+  }
+
+  private static Metric lag(double value) {
+    return new Metric() {
+      @Override
+      public MetricName metricName() {
+        return null;
+      }
+
+      @Override
+      public Object metricValue() {
+        return value;
+      }
+    };
+  }
+
+  private static CommsPreference preference(String messageType, String key, String value) {
+    return CommsPreference.newBuilder()
+        .setCustomerId(CUSTOMER_ID)
+        .setCommsType("MOBILE_PUSH")
+        .setDeviceId(DEVICE_ID)
+        .setMessageType(messageType)
+        .setPreferences(List.of(Preference.newBuilder().setKey(key).setValue(value).build()))
+        .build();
+  }
+
+  /** Plain Avro binary serde standing in for the registry-backed one used at runtime. */
+  private static Serde<CommsPreference> avroSerde() {
+    return Serdes.serdeFrom(
+        (topic, data) -> {
+          try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+            new SpecificDatumWriter<>(CommsPreference.class).write(data, encoder);
+            encoder.flush();
+            return out.toByteArray();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        },
+        (topic, data) -> {
+          try {
+            return new SpecificDatumReader<>(CommsPreference.class)
+                .read(null, DecoderFactory.get().binaryDecoder(data, null));
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+}
@@ -0,0 +1,140 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.suppression;
+
+import com.metrobank.communicationhub.model.request.CommsType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.metrobank.communicationhub.util.Constant.CUSTOMER_ID;
+import static com.metrobank.communicationhub.util.Constant.IBID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StormSuppressorTest {
+  private static final List<String> PARAMS = List.of("John", "125.50");
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final AtomicLong nanos = new AtomicLong();
+  private StormSuppressor stormSuppressor;
+
+  @BeforeEach
+  void setUp() {
+    stormSuppressor = new StormSuppressor(meterRegistry, nanos::get);
+    stormSuppressor.action = StormSuppressor.Action.DROP;
+    stormSuppressor.window = Duration.ofSeconds(10);
+    stormSuppressor.expectedSends = 1000;
+    stormSuppressor.falsePositiveRate = 0.0001;
+    stormSuppressor.init();
+  }
+
+  @DisplayName("Storm Suppression :: repeats within the window are dropped and counted")
+  @Test
+  void suppress_repeats() {
+    // Given: Avro decoded requests carry strings where the DTOs carry enums
+    assertFalse(send(CUSTOMER_ID, CommsType.MOBILE_PUSH, "payment", PARAMS));
+
+    // When: Then:
+    assertTrue(send(CUSTOMER_ID, CommsType.MOBILE_PUSH, "payment", PARAMS));
+    assertTrue(send(CUSTOMER_ID, "MOBILE_PUSH", "payment", PARAMS));
+    assertFalse(send(CUSTOMER_ID, "SMS", "payment", PARAMS));
+    assertFalse(send(IBID, "MOBILE_PUSH", "payment", PARAMS));
+    assertFalse(send(CUSTOMER_ID, "MOBILE_PUSH", "payment", List.of("John", "99.00")));
+    assertFalse(send(CUSTOMER_ID, "MOBILE_PUSH", "payment", null));
+    // Field boundaries are part of the hash
+    assertFalse(send(CUSTOMER_ID, "MOBILE_PUSH", "paymentJohn", List.of("125.50")));
+    assertEquals(
+        2.0, meterRegistry.get("comms.storm.duplicates").tag("action", "dropped").counter().count());
+  }
+
+  @DisplayName("Storm Suppression :: sends are forgotten after two windows")
+  @Test
+  void suppress_windowRotates() {
+    send(CUSTOMER_ID, "SMS", "otp", PARAMS);
+
+    nanos.addAndGet(Duration.ofSeconds(15).toNanos());
+    assertTrue(send(CUSTOMER_ID, "SMS", "otp", PARAMS));
+
+    nanos.addAndGet(Duration.ofSeconds(25).toNanos());
+    assertFalse(send(CUSTOMER_ID, "SMS", "otp", PARAMS));
+  }
+
+  @DisplayName("Storm Suppression :: COUNT mode only counts repeats")
+  @Test
+  void suppress_countOnly() {
+    stormSuppressor.action = StormSuppressor.Action.COUNT;
+
+    assertFalse(send(CUSTOMER_ID, "SMS", "otp", PARAMS));
+    assertFalse(send(CUSTOMER_ID, "SMS", "otp", PARAMS));
+    assertEquals(
+        1.0, meterRegistry.get("comms.storm.duplicates").tag("action", "counted").counter().count());
+  }
+
+  @DisplayName("Storm Suppression :: copies of a send awaiting its acknowledgement are repeats")
+  @Test
+  void check_inFlight() {
+    final long fingerprint = stormSuppressor.fingerprint(CUSTOMER_ID, "SMS", "otp", PARAMS);
+
+    // When: the first copy is claimed but not yet delivered Then:
+    assertEquals(StormSuppressor.Verdict.CLAIMED, stormSuppressor.check(fingerprint));
+    assertEquals(StormSuppressor.Verdict.DROPPED, stormSuppressor.check(fingerprint));
+
+    stormSuppressor.record(fingerprint);
+    assertEquals(StormSuppressor.Verdict.DROPPED, stormSuppressor.check(fingerprint));
+  }
+
+  @DisplayName("Storm Suppression :: a released claim lets the send be retried")
+  @Test
+  void check_released() {
+    final long fingerprint = stormSuppressor.fingerprint(CUSTOMER_ID, "SMS", "otp", PARAMS);
+
+    // When: the first send failed and its claim was released Then:
+    assertEquals(StormSuppressor.Verdict.CLAIMED, stormSuppressor.check(fingerprint));
+    stormSuppressor.release(fingerprint);
+    assertEquals(StormSuppressor.Verdict.CLAIMED, stormSuppressor.check(fingerprint));
+  }
+
+  @DisplayName("Storm Suppression :: a counted repeat leaves the first send's claim alone")
+  @Test
+  void check_countedKeepsClaim() {
+    stormSuppressor.action = StormSuppressor.Action.COUNT;
+    final long fingerprint = stormSuppressor.fingerprint(CUSTOMER_ID, "SMS", "otp", PARAMS);
+
+    assertEquals(StormSuppressor.Verdict.CLAIMED, stormSuppressor.check(fingerprint));
+    assertEquals(StormSuppressor.Verdict.COUNTED, stormSuppressor.check(fingerprint));
+    assertEquals(StormSuppressor.Verdict.COUNTED, stormSuppressor.check(fingerprint));
+    assertEquals(
+        2.0, meterRegistry.get("comms.storm.duplicates").tag("action", "counted").counter().count());
+  }
+
+  @DisplayName("Storm Suppression :: distinct sends stay under the false positive rate")
+  @Test
+  void suppress_falsePositives() {
+    int falsePositives = 0;
+    for (int customerId = 0; customerId < 1000; customerId++) {
+      if (send(customerId, "SMS", "otp", PARAMS)) {
+        falsePositives++;
+      }
+    }
+
+    assertTrue(falsePositives <= 1, "false positives: " + falsePositives);
+  }
+
+  /** Checks the send and records it when claimed, as a delivered send would be. */
+  private boolean send(
+      Object customer, Object commsType, String templateId, List<String> templateParams) {
+    final long fingerprint =
+        stormSuppressor.fingerprint(customer, commsType, templateId, templateParams);
+    final StormSuppressor.Verdict verdict = stormSuppressor.check(fingerprint);
+    if (verdict == StormSuppressor.Verdict.CLAIMED) {
+      stormSuppressor.record(fingerprint);
+    }
+    return verdict == StormSuppressor.Verdict.DROPPED;
+  }
+}
@@ -0,0 +1,70 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.util;
+
+import com.metrobank.communicationhub.exception.RestProxyDeadlineExceededException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestDeadlineTest {
+
+  @AfterEach
+  void tearDown() {
+    RequestDeadline.clear();
+  }
+
+  @DisplayName("Request Deadline :: the earlier of the deadline and timeout headers bounds the work")
+  @Test
+  void fromHeaders_earliest() {
+    // Given:
+    final String deadline = Long.toString(System.currentTimeMillis() + 60_000);
+
+    // When:
+    RequestDeadline.set(RequestDeadline.fromHeaders(deadline, "2000"));
+
+    // Then:
+    final long remaining = RequestDeadline.remainingMillis().getAsLong();
+    assertTrue(remaining > 1000 && remaining <= 2000, "remaining " + remaining);
+    assertEquals(remaining, RequestDeadline.bound(10_000), 50);
+    assertEquals(500, RequestDeadline.bound(500));
+    assertFalse(RequestDeadline.expired());
+    RequestDeadline.check("MongoDB query");
+  }
+
+  @DisplayName("Request Deadline :: requests without valid headers have no deadline")
+  @Test
+  void fromHeaders_none() {
+    assertNull(RequestDeadline.fromHeaders(null, " "));
+    assertNull(RequestDeadline.fromHeaders("tomorrow", "soon"));
+
+    RequestDeadline.set(null);
+
+    assertTrue(RequestDeadline.remainingMillis().isEmpty());
+    assertEquals(10_000, RequestDeadline.bound(10_000));
+    assertFalse(RequestDeadline.expired());
+  }
+
+  @DisplayName("Request Deadline :: work past the deadline is dropped")
+  @Test
+  void check_expired() {
+    // Given:
+    RequestDeadline.set(
+        RequestDeadline.fromHeaders(Long.toString(System.currentTimeMillis() - 1), null));
+
+    // When:
+    final RestProxyDeadlineExceededException exception =
+        assertThrows(
+            RestProxyDeadlineExceededException.class, () -> RequestDeadline.check("Kafka send"));
+
+    // Then:
+    assertEquals("Request deadline passed before Kafka send", exception.getMessage());
+    assertEquals(0, RequestDeadline.remainingMillis().getAsLong());
+    assertTrue(RequestDeadline.expired());
+  }
+}
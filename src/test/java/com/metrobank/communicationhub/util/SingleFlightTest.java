@@ -0,0 +1,245 @@
+/** Copyright 2021 Metro Bank. All rights reserved. */
+package com.metrobank.communicationhub.util;
+
+import com.metrobank.communicationhub.exception.RestProxyDeadlineExceededException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+  private static final int CALLERS = 32;
+
+  private final SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+
+  @DisplayName("Single Flight :: N concurrent callers share one query")
+  @Test
+  void execute_collapsesConcurrentCallers() throws Exception {
+    AtomicInteger queries = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    List<Future<Integer>> results = new ArrayList<>();
+    List<Thread> threads = new CopyOnWriteArrayList<>();
+    ExecutorService callers =
+        Executors.newFixedThreadPool(
+            CALLERS,
+            runnable -> {
+              Thread thread = new Thread(runnable);
+              threads.add(thread);
+              return thread;
+            });
+    try {
+      Given:
+      {
+        for (int i = 0; i < CALLERS; i++) {
+          results.add(
+              callers.submit(
+                  () ->
+                      singleFlight.execute(
+                          "customer",
+                          5000,
+                          () -> {
+                            queries.incrementAndGet();
+                            await(release);
+                            return 42;
+                          })));
+        }
+      }
+      When:
+      {
+        // every caller is parked, either inside the one query or waiting on it
+        waitUntil(
+            () ->
+                threads.size() == CALLERS
+                    && threads.stream()
+                        .allMatch(
+                            t ->
+                                t.getState() == Thread.State.WAITING
+                                    || t.getState() == Thread.State.TIMED_WAITING));
+        release.countDown();
+      }
+      Then:
+      {
+        for (Future<Integer> result : results) {
+          assertEquals(42, result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, queries.get());
+      }
+    } finally {
+      callers.shutdownNow();
+    }
+  }
+
+  @DisplayName("Single Flight :: waiting callers receive the query's exception")
+  @Test
+  void execute_propagatesErrors() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService callers = Executors.newFixedThreadPool(2);
+    try {
+      Future<Integer> leader =
+          callers.submit(
+              () ->
+                  singleFlight.execute(
+                      "customer",
+                      5000,
+                      () -> {
+                        started.countDown();
+                        await(release);
+                        throw new IllegalStateException("mongo down");
+                      }));
+      started.await();
+      Future<Integer> follower =
+          callers.submit(() -> singleFlight.execute("customer", 5000, () -> 0));
+      Thread.sleep(100);
+      release.countDown();
+
+      ExecutionException leaderError = assertThrows(ExecutionException.class, leader::get);
+      ExecutionException followerError = assertThrows(ExecutionException.class, follower::get);
+      assertTrue(leaderError.getCause() instanceof IllegalStateException);
+      assertEquals(leaderError.getCause(), followerError.getCause());
+    } finally {
+      callers.shutdownNow();
+    }
+  }
+
+  @DisplayName("Single Flight :: waiting is bounded by the timeout")
+  @Test
+  void execute_boundedWait() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService leader = Executors.newSingleThreadExecutor();
+    try {
+      leader.submit(
+          () ->
+              singleFlight.execute(
+                  "customer",
+                  5000,
+                  () -> {
+                    started.countDown();
+                    await(release);
+                    return 42;
+                  }));
+      started.await();
+
+      assertThrows(
+          QueryTimeoutException.class, () -> singleFlight.execute("customer", 50, () -> 0));
+      release.countDown();
+    } finally {
+      leader.shutdownNow();
+    }
+  }
+
+  @DisplayName("Single Flight :: the shared query runs without the first caller's deadline")
+  @Test
+  void execute_leaderDeadlineNotShared() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicBoolean bounded = new AtomicBoolean(true);
+    ExecutorService callers = Executors.newFixedThreadPool(2);
+    try {
+      Future<Integer> leader =
+          callers.submit(
+              () -> {
+                RequestDeadline.set(RequestDeadline.fromHeaders(null, "50"));
+                try {
+                  return singleFlight.execute(
+                      "customer",
+                      5000,
+                      () -> {
+                        bounded.set(RequestDeadline.remainingMillis().isPresent());
+                        started.countDown();
+                        await(release);
+                        return 42;
+                      });
+                } finally {
+                  RequestDeadline.clear();
+                }
+              });
+      started.await();
+      Future<Integer> follower =
+          callers.submit(() -> singleFlight.execute("customer", 5000, () -> 0));
+      Thread.sleep(100);
+      release.countDown();
+
+      assertEquals(42, follower.get(5, TimeUnit.SECONDS));
+      assertEquals(42, leader.get(5, TimeUnit.SECONDS));
+      assertFalse(bounded.get());
+    } finally {
+      callers.shutdownNow();
+    }
+  }
+
+  @DisplayName("Single Flight :: a waiting caller gives up at its own deadline")
+  @Test
+  void execute_followerDeadline() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService leader = Executors.newSingleThreadExecutor();
+    try {
+      leader.submit(
+          () ->
+              singleFlight.execute(
+                  "customer",
+                  5000,
+                  () -> {
+                    started.countDown();
+                    await(release);
+                    return 42;
+                  }));
+      started.await();
+
+      RequestDeadline.set(RequestDeadline.fromHeaders(null, "50"));
+      assertThrows(
+          RestProxyDeadlineExceededException.class,
+          () -> singleFlight.execute("customer", 5000, () -> 0));
+      release.countDown();
+    } finally {
+      RequestDeadline.clear();
+      leader.shutdownNow();
+    }
+  }
+
+  @DisplayName("Single Flight :: runs the query again once the previous one completed")
+  @Test
+  void execute_doesNotCache() {
+    AtomicInteger queries = new AtomicInteger();
+
+    singleFlight.execute("customer", 5000, queries::incrementAndGet);
+    singleFlight.execute("customer", 5000, queries::incrementAndGet);
+
+    assertEquals(2, queries.get());
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void waitUntil(BooleanSupplier condition)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+  }
+}